@@ -0,0 +1,487 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.DataInput;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.neo4j.com.Protocol;
+
+/**
+ * A full backup as a single file, written as the store files are streamed from
+ * the server, for shipping backups off to somewhere else without first
+ * staging them as a store directory.
+ *
+ * The files are split into chunks of {@link #CHUNK_SIZE}, each compressed on
+ * its own, so that they can be expanded in parallel and in any order. The
+ * transactions committed while the files were copied follow, compressed one
+ * by one. Each entry starts with a header saying what it is, so that the
+ * archive can be restored as it is read, from a stream, without seeking. An
+ * index of the entries follows the end of them, with the offset of each entry
+ * in the archive, for readers that can seek to get at single entries without
+ * reading the ones before them:
+ *
+ * <pre>
+ * "NEO4JBAK" version:int
+ * (kind:byte name:UTF id:long compressedLength:int length:int compressed:byte[compressedLength])*
+ * END:byte
+ * count:int (name:UTF id:long offset:long)[count]
+ * indexOffset:long
+ * </pre>
+ *
+ * The id of a {@link #FILE} chunk is its offset in the file, the id of a
+ * {@link #TRANSACTION} is its tx id. A {@link #LOG_TRANSACTION} is only
+ * written to the logical log when restored, like the last committed
+ * transaction that a full backup gets for a data source that had no
+ * transactions during the copy. All file chunks come before the
+ * transactions. The {@link Reader} stops at the end of the entries and never
+ * reads the index, the {@link Index} finds it from the offset at the very end
+ * of the archive.
+ */
+class BackupArchive
+{
+    static final byte[] MAGIC = { 'N', 'E', 'O', '4', 'J', 'B', 'A', 'K' };
+    static final int VERSION = 3;
+    static final int CHUNK_SIZE = Protocol.MEGA;
+
+    static final byte FILE = 0;
+    static final byte TRANSACTION = 1;
+    static final byte LOG_TRANSACTION = 2;
+    static final byte END = -1;
+
+    static class Entry
+    {
+        final byte kind;
+        final String name;
+        final long id;
+        final int length;
+        private final byte[] compressed;
+
+        Entry( byte kind, String name, long id, byte[] compressed, int length )
+        {
+            this.kind = kind;
+            this.name = name;
+            this.id = id;
+            this.compressed = compressed;
+            this.length = length;
+        }
+
+        /**
+         * @return the uncompressed data of this entry.
+         */
+        byte[] read() throws IOException
+        {
+            Inflater inflater = new Inflater();
+            try
+            {
+                inflater.setInput( compressed );
+                byte[] data = new byte[length];
+                for ( int inflated = 0; inflated < length; )
+                {
+                    int read = inflater.inflate( data, inflated, length - inflated );
+                    if ( read == 0 && ( inflater.finished() || inflater.needsInput() ) )
+                    {
+                        throw new IOException( "Corrupt compressed data in " + this );
+                    }
+                    inflated += read;
+                }
+                return data;
+            }
+            catch ( DataFormatException e )
+            {
+                throw new IOException( "Corrupt compressed data in " + this, e );
+            }
+            finally
+            {
+                inflater.end();
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Entry[" + kind + ", " + name + ", " + id + "]";
+        }
+    }
+
+    /**
+     * Where an entry starts in the archive, as listed in its index.
+     */
+    static class IndexEntry
+    {
+        final String name;
+        final long id;
+        final long offset;
+
+        IndexEntry( String name, long id, long offset )
+        {
+            this.name = name;
+            this.id = id;
+            this.offset = offset;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "IndexEntry[" + name + ", " + id + ", @" + offset + "]";
+        }
+    }
+
+    /**
+     * Writes an archive to a stream, which it doesn't need to seek in.
+     * Entries can be added from several threads, they're compressed by the
+     * adding thread and then appended one at a time. Where each entry went is
+     * kept until {@link #finish()} writes the index.
+     */
+    static class Writer
+    {
+        private final CountingOutputStream position;
+        private final DataOutputStream out;
+        private final List<IndexEntry> index = new ArrayList<IndexEntry>();
+
+        Writer( OutputStream out ) throws IOException
+        {
+            this.position = new CountingOutputStream( new BufferedOutputStream( out, 64 * 1024 ) );
+            this.out = new DataOutputStream( position );
+            this.out.write( MAGIC );
+            this.out.writeInt( VERSION );
+        }
+
+        /**
+         * Adds the contents of {@code data}, or an empty file if it's
+         * {@code null}, as the chunks of {@code path} from {@code offset}.
+         */
+        void addFile( String path, long offset, ReadableByteChannel data ) throws IOException
+        {
+            if ( data == null )
+            {
+                append( FILE, path, offset, new byte[0], 0 );
+                return;
+            }
+            ByteBuffer chunk = ByteBuffer.allocate( CHUNK_SIZE );
+            // Some channels, like BlockLogReader, only read into buffers from position 0
+            ByteBuffer read = ByteBuffer.allocate( 64 * 1024 );
+            Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+            try
+            {
+                boolean empty = true;
+                for ( boolean more = true; more; )
+                {
+                    chunk.clear();
+                    while ( more && chunk.hasRemaining() )
+                    {
+                        read.clear();
+                        read.limit( Math.min( read.capacity(), chunk.remaining() ) );
+                        more = data.read( read ) >= 0;
+                        read.flip();
+                        chunk.put( read );
+                    }
+                    if ( chunk.position() > 0 || ( empty && !more ) )
+                    {
+                        append( FILE, path, offset, compress( deflater, chunk.array(), chunk.position() ),
+                                chunk.position() );
+                        offset += chunk.position();
+                        empty = false;
+                    }
+                }
+            }
+            finally
+            {
+                deflater.end();
+            }
+        }
+
+        void addTransaction( byte kind, String dataSource, long txId, ReadableByteChannel data ) throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ByteBuffer buffer = ByteBuffer.allocate( 64 * 1024 );
+            while ( data.read( buffer ) >= 0 )
+            {
+                bytes.write( buffer.array(), 0, buffer.position() );
+                buffer.clear();
+            }
+            Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+            try
+            {
+                append( kind, dataSource, txId, compress( deflater, bytes.toByteArray(), bytes.size() ), bytes.size() );
+            }
+            finally
+            {
+                deflater.end();
+            }
+        }
+
+        private static byte[] compress( Deflater deflater, byte[] data, int length )
+        {
+            deflater.reset();
+            deflater.setInput( data, 0, length );
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream( length / 2 + 64 );
+            byte[] buffer = new byte[64 * 1024];
+            while ( !deflater.finished() )
+            {
+                compressed.write( buffer, 0, deflater.deflate( buffer ) );
+            }
+            return compressed.toByteArray();
+        }
+
+        private synchronized void append( byte kind, String name, long id, byte[] compressed, int length )
+                throws IOException
+        {
+            index.add( new IndexEntry( name, id, position.count ) );
+            out.writeByte( kind );
+            out.writeUTF( name );
+            out.writeLong( id );
+            out.writeInt( compressed.length );
+            out.writeInt( length );
+            out.write( compressed );
+        }
+
+        /**
+         * Ends the archive, writes its index and flushes, but leaves the
+         * stream open.
+         */
+        synchronized void finish() throws IOException
+        {
+            out.writeByte( END );
+            long indexOffset = position.count;
+            out.writeInt( index.size() );
+            for ( IndexEntry entry : index )
+            {
+                out.writeUTF( entry.name );
+                out.writeLong( entry.id );
+                out.writeLong( entry.offset );
+            }
+            out.writeLong( indexOffset );
+            out.flush();
+        }
+    }
+
+    /**
+     * Counts the bytes written through it, for the offsets in the index.
+     * {@link DataOutputStream#size()} stops counting at 2GB.
+     */
+    private static class CountingOutputStream extends FilterOutputStream
+    {
+        private long count;
+
+        CountingOutputStream( OutputStream out )
+        {
+            super( out );
+        }
+
+        @Override
+        public void write( int b ) throws IOException
+        {
+            out.write( b );
+            count++;
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException
+        {
+            out.write( b, off, len );
+            count += len;
+        }
+    }
+
+    /**
+     * Reads the entries of an archive one after another, in the order they
+     * were added.
+     */
+    static class Reader
+    {
+        private final DataInputStream in;
+
+        Reader( InputStream in ) throws IOException
+        {
+            this.in = new DataInputStream( new BufferedInputStream( in, 64 * 1024 ) );
+            readHeader( this.in );
+        }
+
+        /**
+         * @return the next entry, or {@code null} if there are no more.
+         */
+        Entry next() throws IOException
+        {
+            return readEntry( in );
+        }
+    }
+
+    /**
+     * Reads single entries of an archive file, found through its index.
+     */
+    static class Index
+    {
+        private final RandomAccessFile file;
+        private final List<IndexEntry> entries;
+
+        Index( File archive ) throws IOException
+        {
+            this.file = new RandomAccessFile( archive, "r" );
+            try
+            {
+                readHeader( file );
+                if ( file.length() < MAGIC.length + 4 + 1 + 4 + 8 )
+                {
+                    throw new IOException( "Backup archive ends prematurely, it's incomplete" );
+                }
+                file.seek( file.length() - 8 );
+                file.seek( file.readLong() );
+                int count = file.readInt();
+                List<IndexEntry> entries = new ArrayList<IndexEntry>( count );
+                for ( int i = 0; i < count; i++ )
+                {
+                    entries.add( new IndexEntry( file.readUTF(), file.readLong(), file.readLong() ) );
+                }
+                this.entries = Collections.unmodifiableList( entries );
+            }
+            catch ( IOException e )
+            {
+                file.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the entries of the archive, in the order they were added.
+         */
+        List<IndexEntry> entries()
+        {
+            return entries;
+        }
+
+        synchronized Entry read( IndexEntry entry ) throws IOException
+        {
+            file.seek( entry.offset );
+            Entry result = readEntry( file );
+            if ( result == null || !result.name.equals( entry.name ) || result.id != entry.id )
+            {
+                throw new IOException( "Backup archive index doesn't match its entries at " + entry );
+            }
+            return result;
+        }
+
+        void close() throws IOException
+        {
+            file.close();
+        }
+    }
+
+    private static void readHeader( DataInput in ) throws IOException
+    {
+        byte[] magic = new byte[MAGIC.length];
+        try
+        {
+            in.readFully( magic );
+            if ( !Arrays.equals( magic, MAGIC ) ) throw new IOException( "Not a backup archive" );
+            if ( in.readInt() != VERSION ) throw new IOException( "Unsupported backup archive version" );
+        }
+        catch ( EOFException e )
+        {
+            throw new IOException( "Not a backup archive" );
+        }
+    }
+
+    /**
+     * @return the entry {@code in} is at, or {@code null} at the end of the
+     *         entries.
+     */
+    private static Entry readEntry( DataInput in ) throws IOException
+    {
+        try
+        {
+            byte kind = in.readByte();
+            if ( kind == END ) return null;
+            String name = in.readUTF();
+            long id = in.readLong();
+            byte[] compressed = new byte[in.readInt()];
+            int length = in.readInt();
+            in.readFully( compressed );
+            return new Entry( kind, name, id, compressed, length );
+        }
+        catch ( EOFException e )
+        {
+            throw new IOException( "Backup archive ends prematurely, it's incomplete" );
+        }
+    }
+
+    /**
+     * Writes {@code entry}, a {@link #FILE} chunk, into its file in
+     * {@code targetDirectory}. Names that would put the file anywhere else,
+     * like ones with {@code ..} or absolute ones, are refused.
+     */
+    static void expand( Entry entry, File targetDirectory ) throws IOException
+    {
+        File file = fileIn( targetDirectory, entry.name );
+        byte[] data = entry.read();
+        file.getParentFile().mkdirs();
+        RandomAccessFile target = new RandomAccessFile( file, "rw" );
+        try
+        {
+            FileChannel channel = target.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap( data );
+            while ( buffer.hasRemaining() )
+            {
+                channel.write( buffer, entry.id + buffer.position() );
+            }
+        }
+        finally
+        {
+            target.close();
+        }
+    }
+
+    static File fileIn( File directory, String name ) throws IOException
+    {
+        if ( new File( name ).isAbsolute() )
+        {
+            throw new IOException( name + " is an absolute path, refusing to expand it" );
+        }
+        File root = directory.getCanonicalFile();
+        File file = new File( root, name ).getCanonicalFile();
+        for ( File parent = file.getParentFile(); parent != null; parent = parent.getParentFile() )
+        {
+            if ( parent.equals( root ) ) return file;
+        }
+        throw new IOException( name + " is not in " + directory + ", refusing to expand it" );
+    }
+}
@@ -19,13 +19,21 @@
  */
 package org.neo4j.backup;
 
+import static org.neo4j.com.Protocol.readString;
+import static org.neo4j.com.Protocol.writeString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.neo4j.com.BlockChecksums;
 import org.neo4j.com.Client;
 import org.neo4j.com.MasterCaller;
 import org.neo4j.com.ObjectSerializer;
 import org.neo4j.com.Protocol;
 import org.neo4j.com.RequestType;
 import org.neo4j.com.Response;
+import org.neo4j.com.Serializer;
 import org.neo4j.com.SlaveContext;
 import org.neo4j.com.StoreIdGetter;
 import org.neo4j.com.StoreWriter;
@@ -48,16 +56,61 @@ class BackupClient extends Client<TheBackupInterface> implements TheBackupInterf
                 Protocol.EMPTY_SERIALIZER, new Protocol.FileStreamsDeserializer( storeWriter ) );
     }
 
+    public Response<Void> fullBackupDelta( final BlockChecksums checksums, StoreWriter storeWriter )
+    {
+        return sendRequest( BackupRequestType.FULL_BACKUP_DELTA, SlaveContext.EMPTY, new Serializer()
+        {
+            public void write( ChannelBuffer buffer, ByteBuffer readBuffer ) throws IOException
+            {
+                checksums.write( buffer );
+            }
+        }, new Protocol.FileStreamsDeserializer( storeWriter, checksums.directory() ) );
+    }
+
     public Response<Void> incrementalBackup( SlaveContext context )
     {
         return sendRequest( BackupRequestType.INCREMENTAL_BACKUP, context,
                 Protocol.EMPTY_SERIALIZER, Protocol.VOID_DESERIALIZER );
     }
 
+    public Response<StoreFileListing> prepareParallelBackup()
+    {
+        return sendRequest( BackupRequestType.PREPARE_PARALLEL_BACKUP, SlaveContext.EMPTY,
+                Protocol.EMPTY_SERIALIZER, StoreFileListing.DESERIALIZER );
+    }
+
+    public Response<Void> copyStoreFileRange( final long snapshotId, final String path, final long offset,
+            final long length, final long checksum, StoreWriter writer )
+    {
+        return sendRequest( BackupRequestType.COPY_STORE_FILE_RANGE, SlaveContext.EMPTY, new Serializer()
+        {
+            public void write( ChannelBuffer buffer, ByteBuffer readBuffer ) throws IOException
+            {
+                buffer.writeLong( snapshotId );
+                writeString( buffer, path );
+                buffer.writeLong( offset );
+                buffer.writeLong( length );
+                buffer.writeLong( checksum );
+            }
+        }, new Protocol.FileStreamsDeserializer( writer ) );
+    }
+
+    public Response<Void> finishParallelBackup( SlaveContext context, final long snapshotId )
+    {
+        return sendRequest( BackupRequestType.FINISH_PARALLEL_BACKUP, context, new Serializer()
+        {
+            public void write( ChannelBuffer buffer, ByteBuffer readBuffer ) throws IOException
+            {
+                buffer.writeLong( snapshotId );
+            }
+        }, Protocol.VOID_DESERIALIZER );
+    }
+
     @Override
     protected boolean shouldCheckStoreId( RequestType<TheBackupInterface> type )
     {
-        return type != BackupRequestType.FULL_BACKUP;
+        // The target of a full backup doesn't have a store until it's done
+        return type == BackupRequestType.INCREMENTAL_BACKUP;
     }
 
     public static enum BackupRequestType implements RequestType<TheBackupInterface>
@@ -77,6 +130,45 @@ class BackupClient extends Client<TheBackupInterface> implements TheBackupInterf
             {
                 return master.incrementalBackup( context );
             }
+        }, Protocol.VOID_SERIALIZER ),
+        PREPARE_PARALLEL_BACKUP( new MasterCaller<TheBackupInterface, StoreFileListing>()
+        {
+            public Response<StoreFileListing> callMaster( TheBackupInterface master, SlaveContext context,
+                    ChannelBuffer input, ChannelBuffer target )
+            {
+                return master.prepareParallelBackup();
+            }
+        }, StoreFileListing.SERIALIZER ),
+        COPY_STORE_FILE_RANGE( new MasterCaller<TheBackupInterface, Void>()
+        {
+            public Response<Void> callMaster( TheBackupInterface master, SlaveContext context,
+                    ChannelBuffer input, ChannelBuffer target )
+            {
+                long snapshotId = input.readLong();
+                String path = readString( input );
+                long offset = input.readLong();
+                long length = input.readLong();
+                long checksum = input.readLong();
+                return master.copyStoreFileRange( snapshotId, path, offset, length, checksum,
+                        new ToNetworkStoreWriter( target ) );
+            }
+        }, Protocol.VOID_SERIALIZER ),
+        FINISH_PARALLEL_BACKUP( new MasterCaller<TheBackupInterface, Void>()
+        {
+            public Response<Void> callMaster( TheBackupInterface master, SlaveContext context,
+                    ChannelBuffer input, ChannelBuffer target )
+            {
+                return master.finishParallelBackup( context, input.readLong() );
+            }
+        }, Protocol.VOID_SERIALIZER ),
+        FULL_BACKUP_DELTA( new MasterCaller<TheBackupInterface, Void>()
+        {
+            public Response<Void> callMaster( TheBackupInterface master, SlaveContext context,
+                    ChannelBuffer input, ChannelBuffer target )
+            {
+                BlockChecksums checksums = BlockChecksums.read( input );
+                return master.fullBackupDelta( checksums, new ToNetworkStoreWriter( target ) );
+            }
         }, Protocol.VOID_SERIALIZER )
 
         ;
@@ -20,6 +20,8 @@
 package org.neo4j.backup;
 
 import java.net.URI;
+import java.util.Collections;
+import java.util.List;
 
 import org.neo4j.helpers.Args;
 import org.neo4j.helpers.Service;
@@ -66,4 +68,19 @@ public abstract class BackupExtensionService extends Service
      *         and port parts that point to a backup source.
      */
     public abstract URI resolve( URI from, Args arguments );
+
+    /**
+     * Resolves all the hosts that a backup could be taken from, best first.
+     * The backup tool tries them in order, moving on to the next one if a
+     * backup fails because it loses its source. By default only the host
+     * returned by {@link #resolve(URI, Args)} is a candidate.
+     *
+     * @param from The URI as passed in the command line
+     * @param arguments all arguments to the backup command
+     * @return URIs of the same form as {@link #resolve(URI, Args)} returns.
+     */
+    public List<URI> resolveCandidates( URI from, Args arguments )
+    {
+        return Collections.singletonList( resolve( from, arguments ) );
+    }
 }
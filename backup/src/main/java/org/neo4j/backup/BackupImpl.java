@@ -20,16 +20,39 @@
 
 package org.neo4j.backup;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.neo4j.com.BlockChecksums;
+import org.neo4j.com.MasterFailureException;
 import org.neo4j.com.MasterUtil;
 import org.neo4j.com.Response;
 import org.neo4j.com.SlaveContext;
+import org.neo4j.com.StoreCopyThrottle;
+import org.neo4j.com.StoreFileSnapshot;
 import org.neo4j.com.StoreWriter;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting;
 import org.neo4j.kernel.GraphDatabaseAPI;
 
 class BackupImpl implements TheBackupInterface
 {
+    /**
+     * Snapshots of parallel backups that haven't been finished within this
+     * time are assumed to be abandoned and are released.
+     */
+    static final long ABANDONED_SNAPSHOT_MILLIS = 6 * 60 * 60 * 1000;
+
     private final GraphDatabaseAPI graphDb;
+    private final Map<Long, StoreFileSnapshot> snapshots = new ConcurrentHashMap<Long, StoreFileSnapshot>();
+    private final AtomicLong nextSnapshotId = new AtomicLong();
 
     public BackupImpl( GraphDatabaseAPI graphDb )
     {
@@ -43,11 +66,101 @@ class BackupImpl implements TheBackupInterface
         return packResponse( context );
     }
     
+    public Response<Void> fullBackupDelta( BlockChecksums checksums, StoreWriter writer )
+    {
+        return fullBackup( checksums.deltaWriter( writer ) );
+    }
+
     public Response<Void> incrementalBackup( SlaveContext context )
     {
         return packResponse( context );
     }
     
+    public Response<StoreFileListing> prepareParallelBackup()
+    {
+        releaseAbandonedSnapshots();
+        StoreFileSnapshot snapshot = MasterUtil.rotateLogsAndSnapshotStoreFiles( graphDb, false );
+        long snapshotId = nextSnapshotId.incrementAndGet();
+        snapshots.put( snapshotId, snapshot );
+        return MasterUtil.packResponseWithoutTransactionStream( graphDb, snapshot.context(),
+                new StoreFileListing( snapshotId, snapshot.context(), snapshot.fileSizes() ) );
+    }
+
+    public Response<Void> copyStoreFileRange( long snapshotId, String path, long offset, long length,
+            long checksum, StoreWriter writer )
+    {
+        StoreFileSnapshot snapshot = snapshots.get( snapshotId );
+        if ( snapshot == null )
+        {
+            throw new MasterFailureException( "No backup snapshot with id " + snapshotId + ", it may have been abandoned" );
+        }
+        try
+        {
+            FileChannel channel = new RandomAccessFile( snapshot.file( path ), "r" ).getChannel();
+            try
+            {
+                ByteBuffer buffer = ByteBuffer.allocate( 64 * 1024 );
+                long remaining = length < 0 ? Long.MAX_VALUE : length;
+                channel.position( offset );
+                if ( checksum < 0 || checksum( new RangeChannel( channel, remaining ), buffer ) != checksum )
+                {
+                    channel.position( offset );
+                    ReadableByteChannel data = StoreCopyThrottle.of( graphDb ).throttle(
+                            new RangeChannel( channel, remaining ) );
+                    try
+                    {
+                        writer.write( path, data, buffer, length != 0 && channel.size() > offset );
+                    }
+                    finally
+                    {
+                        data.close();
+                    }
+                }
+            }
+            finally
+            {
+                channel.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MasterFailureException( e );
+        }
+        writer.done();
+        return MasterUtil.packResponseWithoutTransactionStream( graphDb, SlaveContext.EMPTY, null );
+    }
+
+    private static long checksum( ReadableByteChannel channel, ByteBuffer buffer ) throws IOException
+    {
+        CRC32 checksum = new CRC32();
+        for ( buffer.clear(); channel.read( buffer ) >= 0; buffer.clear() )
+        {
+            checksum.update( buffer.array(), 0, buffer.position() );
+        }
+        return checksum.getValue();
+    }
+
+    public Response<Void> finishParallelBackup( SlaveContext context, long snapshotId )
+    {
+        StoreFileSnapshot snapshot = snapshots.remove( snapshotId );
+        if ( snapshot != null ) snapshot.close();
+        return packResponse( context );
+    }
+
+    private void releaseAbandonedSnapshots()
+    {
+        long threshold = System.currentTimeMillis() - ABANDONED_SNAPSHOT_MILLIS;
+        for ( Iterator<StoreFileSnapshot> iterator = snapshots.values().iterator(); iterator.hasNext(); )
+        {
+            StoreFileSnapshot snapshot = iterator.next();
+            if ( snapshot.created() < threshold )
+            {
+                iterator.remove();
+                snapshot.close();
+            }
+        }
+    }
+
     private Response<Void> packResponse( SlaveContext context )
     {
         // On Windows there's a problem extracting logs from the current log version
@@ -62,4 +175,46 @@ class BackupImpl implements TheBackupInterface
         }
         return MasterUtil.packResponse( graphDb, context, null, MasterUtil.ALL );
     }
+
+    /**
+     * Reads at most {@code remaining} bytes from a channel.
+     */
+    private static class RangeChannel implements ReadableByteChannel
+    {
+        private final ReadableByteChannel channel;
+        private long remaining;
+
+        RangeChannel( ReadableByteChannel channel, long remaining )
+        {
+            this.channel = channel;
+            this.remaining = remaining;
+        }
+
+        public int read( ByteBuffer dst ) throws IOException
+        {
+            if ( remaining <= 0 ) return -1;
+            int limit = dst.limit();
+            if ( dst.remaining() > remaining ) dst.limit( dst.position() + (int) remaining );
+            try
+            {
+                int read = channel.read( dst );
+                if ( read > 0 ) remaining -= read;
+                return read;
+            }
+            finally
+            {
+                dst.limit( limit );
+            }
+        }
+
+        public boolean isOpen()
+        {
+            return channel.isOpen();
+        }
+
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
 }
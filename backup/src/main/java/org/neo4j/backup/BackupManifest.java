@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records which blocks of the store files a full backup has copied so far,
+ * with their checksums, so that a failed backup can be resumed. Each completed
+ * block is appended to the manifest file, and forced to disk, as a line of
+ * tab separated path, offset, length and checksum. A length of -1 means that
+ * the block went to the end of the file.
+ *
+ * The manifest only exists while the store files are being copied, it's
+ * deleted before the copy is started as a database to catch up on
+ * transactions.
+ */
+class BackupManifest
+{
+    static final String NAME = "backup.manifest";
+    static final long NO_CHECKSUM = -1;
+
+    private final File file;
+    private final Map<String, Long> checksums = new HashMap<String, Long>();
+    private FileOutputStream out;
+
+    BackupManifest( String targetDirectory ) throws IOException
+    {
+        this.file = new File( targetDirectory, NAME );
+        if ( file.exists() ) read();
+        file.getParentFile().mkdirs();
+        this.out = new FileOutputStream( file, true );
+    }
+
+    static boolean exists( String targetDirectory )
+    {
+        return new File( targetDirectory, NAME ).exists();
+    }
+
+    private void read() throws IOException
+    {
+        BufferedReader reader = new BufferedReader( new FileReader( file ) );
+        try
+        {
+            for ( String line; ( line = reader.readLine() ) != null; )
+            {
+                String[] fields = line.split( "\t" );
+                if ( fields.length != 4 ) continue; // torn write of the last line
+                try
+                {
+                    checksums.put( key( fields[0], Long.parseLong( fields[1] ), Long.parseLong( fields[2] ) ),
+                            Long.parseLong( fields[3] ) );
+                }
+                catch ( NumberFormatException e )
+                {
+                    // torn write of the last line, that block will be copied again
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the checksum of the block, as it was copied, or
+     *         {@link #NO_CHECKSUM} if it hasn't been copied.
+     */
+    synchronized long checksum( String path, long offset, long length )
+    {
+        Long checksum = checksums.get( key( path, offset, length ) );
+        return checksum == null ? NO_CHECKSUM : checksum;
+    }
+
+    /**
+     * Records that the block has been copied and written to disk.
+     */
+    synchronized void completed( String path, long offset, long length, long checksum ) throws IOException
+    {
+        checksums.put( key( path, offset, length ), checksum );
+        out.write( ( path + "\t" + offset + "\t" + length + "\t" + checksum + "\n" ).getBytes( "UTF-8" ) );
+        out.getFD().sync();
+    }
+
+    synchronized void close() throws IOException
+    {
+        if ( out != null )
+        {
+            out.close();
+            out = null;
+        }
+    }
+
+    synchronized void delete() throws IOException
+    {
+        close();
+        if ( !file.delete() && file.exists() ) throw new IOException( "Unable to delete " + file );
+    }
+
+    private static String key( String path, long offset, long length )
+    {
+        return path + "@" + offset + ":" + length;
+    }
+}
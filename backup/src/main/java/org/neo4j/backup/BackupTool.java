@@ -20,9 +20,14 @@
 package org.neo4j.backup;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.neo4j.com.ComException;
@@ -40,6 +45,8 @@ public class BackupTool
     private static final String INCREMENTAL = "incremental";
     private static final String FULL = "full";
     private static final String VERIFY = "verify";
+    private static final String STREAMS = "streams";
+    private static final String ARCHIVE = "archive";
     public static final String DEFAULT_SCHEME = "single";
 
     public static void main( String[] args )
@@ -52,6 +59,8 @@ public class BackupTool
         String from = arguments.get( FROM, null );
         String to = arguments.get( TO, null );
         boolean verify = arguments.getBoolean( VERIFY, true, true );
+        int streams = Integer.parseInt( arguments.get( STREAMS, "0" ) );
+        boolean archive = arguments.getBoolean( ARCHIVE, false, true );
         URI backupURI = null;
         try
         {
@@ -81,12 +90,40 @@ public class BackupTool
                         module ) );
             }
         }
+        List<URI> sources = Collections.singletonList( backupURI );
         if ( service != null )
         { // If in here, it means a module was loaded. Use it and substitute the
-          // passed URI
-            backupURI = service.resolve( backupURI, arguments );
+          // passed URI, with all the sources it knows of
+            sources = service.resolveCandidates( backupURI, arguments );
+        }
+        if ( archive && !full ) exitAbnormally( dash( ARCHIVE ) + " can only be used with " + dash( FULL ) );
+        if ( full && !archive && sources.size() > 1 && streams == 0 )
+        {
+            // Copy block wise, so that the backup can be resumed from the next source if it fails
+            streams = 1;
+        }
+        for ( Iterator<URI> source = sources.iterator(); ; )
+        {
+            URI from = source.next();
+            try
+            {
+                if ( archive ) doBackupArchive( from, to, streams );
+                else doBackup( full, from, to, verify, streams );
+                return;
+            }
+            catch ( ComException e )
+            {
+                if ( !source.hasNext() ) exitAbnormally( "Couldn't connect to '" + from + "'", e );
+                System.out.println( "Lost backup source '" + from + "' (" + e.getMessage()
+                                    + "), continuing from the next one" );
+            }
+            catch ( RuntimeException e )
+            {
+                if ( !source.hasNext() || !( e.getCause() instanceof ComException ) ) throw e;
+                System.out.println( "Lost backup source '" + from + "' (" + e.getCause().getMessage()
+                                    + "), continuing from the next one" );
+            }
         }
-        doBackup( full, backupURI, to, verify );
     }
 
     private static void checkArguments( Args arguments )
@@ -117,34 +154,52 @@ public class BackupTool
     }
 
     private static void doBackup( boolean trueForFullFalseForIncremental,
-            URI from, String to, boolean verify )
+            URI from, String to, boolean verify, int streams )
     {
         if ( trueForFullFalseForIncremental )
         {
-            doBackupFull( from, to, verify );
+            doBackupFull( from, to, verify, streams );
         }
         else
         {
-            doBackupIncremental( from, to, verify );
+            doBackupIncremental( from, to, verify, streams );
         }
         System.out.println( "Done" );
     }
 
-    private static void doBackupFull( URI from, String to, boolean verify )
+    private static void doBackupFull( URI from, String to, boolean verify, int streams )
     {
-        System.out.println( "Performing full backup from '" + from + "'" );
+        System.out.println( "Performing full backup from '" + from + "'"
+                            + ( streams > 1 ? " over " + streams + " streams" : "" ) );
+        OnlineBackup backup = newOnlineBackup( from );
+        if ( streams > 0 ) backup.full( to, verify, streams );
+        else backup.full( to, verify );
+    }
+
+    private static void doBackupArchive( URI from, String to, int streams )
+    {
+        System.out.println( "Performing full backup from '" + from + "' into archive '" + to + "'" );
         OnlineBackup backup = newOnlineBackup( from );
         try
         {
-            backup.full( to, verify );
+            OutputStream out = new FileOutputStream( to );
+            try
+            {
+                backup.archive( out, streams );
+            }
+            finally
+            {
+                out.close();
+            }
         }
-        catch ( ComException e )
+        catch ( IOException e )
         {
-            exitAbnormally( "Couldn't connect to '" + from + "'", e );
+            exitAbnormally( "Couldn't write the archive '" + to + "'", e );
         }
+        System.out.println( "Done" );
     }
 
-    private static void doBackupIncremental( URI from, String to, boolean verify )
+    private static void doBackupIncremental( URI from, String to, boolean verify, int streams )
     {
         System.out.println( "Performing incremental backup from '" + from + "'" );
         OnlineBackup backup = newOnlineBackup( from );
@@ -164,10 +219,6 @@ public class BackupTool
                 exitAbnormally( "TransactionFailureException from existing backup at '" + from + "'.", e);
             }
         }
-        catch ( ComException e )
-        {
-            exitAbnormally( "Couldn't connect to '" + from + "' ", e );
-        }
         if ( failedBecauseOfStoreVersionMismatch )
         {
             System.out.println( "The database present in the target directory is of an older version. Backing that up in "
@@ -181,7 +232,7 @@ public class BackupTool
             {
                 exitAbnormally( "There was a problem moving the old database out of the way - cannot continue, aborting.", e );
             }
-            doBackupFull( from, to, verify );
+            doBackupFull( from, to, verify, streams );
         }
     }
 
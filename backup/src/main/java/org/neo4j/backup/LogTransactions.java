@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import javax.transaction.xa.Xid;
+
+import org.neo4j.kernel.impl.nioneo.xa.Command;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommandFactory;
+
+/**
+ * Helpers for the tools that read transactions of the graph store out of
+ * logical logs and archives and decode or apply them outside of a running
+ * database.
+ */
+class LogTransactions
+{
+    private LogTransactions()
+    {
+    }
+
+    /**
+     * @return everything that can be read from {@code channel}, read through
+     *         {@code scratch}, a heap buffer.
+     */
+    static byte[] bytes( ReadableByteChannel channel, ByteBuffer scratch ) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for ( scratch.clear(); channel.read( scratch ) > 0; scratch.clear() )
+        {
+            bytes.write( scratch.array(), 0, scratch.position() );
+        }
+        return bytes.toByteArray();
+    }
+
+    static ReadableByteChannel channel( byte[] data )
+    {
+        return Channels.newChannel( new ByteArrayInputStream( data ) );
+    }
+
+    /**
+     * @return a buffer large enough for reading any log entry with
+     *         {@link org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils}.
+     */
+    static ByteBuffer newEntryBuffer()
+    {
+        return ByteBuffer.allocateDirect( 9 + Xid.MAXGTRIDSIZE + Xid.MAXBQUALSIZE * 10 );
+    }
+
+    /**
+     * Reads the commands of the graph store, without a store to read them
+     * against.
+     */
+    static class CommandFactory extends XaCommandFactory
+    {
+        @Override
+        public XaCommand readCommand( ReadableByteChannel byteChannel, ByteBuffer buffer ) throws IOException
+        {
+            return Command.readCommand( null, byteChannel, buffer );
+        }
+    }
+}
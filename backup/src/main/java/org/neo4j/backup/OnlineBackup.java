@@ -23,6 +23,7 @@ package org.neo4j.backup;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
@@ -35,10 +36,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 import org.neo4j.backup.check.ConsistencyCheck;
+import org.neo4j.com.BlockChecksums;
 import org.neo4j.com.Client;
 import org.neo4j.com.MasterUtil;
 import org.neo4j.com.MasterUtil.TxHandler;
+import org.neo4j.com.Protocol;
 import org.neo4j.com.Response;
 import org.neo4j.com.SlaveContext;
 import org.neo4j.com.SlaveContext.Tx;
@@ -48,8 +58,10 @@ import org.neo4j.com.TransactionStream;
 import org.neo4j.com.TxExtractor;
 import org.neo4j.graphdb.factory.GraphDatabaseSetting;
 import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.helpers.Exceptions;
 import org.neo4j.helpers.ProgressIndicator;
 import org.neo4j.helpers.Triplet;
+import org.neo4j.helpers.collection.IteratorUtil;
 import org.neo4j.kernel.DefaultFileSystemAbstraction;
 import org.neo4j.kernel.DefaultIdGeneratorFactory;
 import org.neo4j.kernel.DefaultLastCommittedTxIdSetter;
@@ -66,6 +78,7 @@ import org.neo4j.kernel.impl.transaction.XaDataSourceManager;
 import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
 import org.neo4j.kernel.impl.transaction.xaframework.NoSuchLogVersionException;
 import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+import org.neo4j.kernel.impl.util.FileUtils;
 import org.neo4j.kernel.impl.util.StringLogger;
 
 import static org.neo4j.helpers.collection.MapUtil.*;
@@ -73,6 +86,16 @@ import static org.neo4j.kernel.impl.util.StringLogger.*;
 
 public class OnlineBackup
 {
+    /**
+     * Size of the file ranges copied separately in a parallel full backup.
+     */
+    public static final long PARALLEL_RANGE_SIZE = 64 * Protocol.MEGA;
+
+    /**
+     * Where {@link #resync(String, boolean)} keeps the old backup.
+     */
+    public static final String RESYNC_BASIS = "resync-basis";
+
     private final String hostNameOrIp;
     private final int port;
     private final Map<String, Long> lastCommittedTxs = new TreeMap<String, Long>();
@@ -98,9 +121,72 @@ public class OnlineBackup
         return full( targetDirectory, true );
     }
 
+    /**
+     * Performs a full backup, streaming all store files in one response,
+     * unless {@code targetDirectory} holds a failed block wise backup, which is
+     * then resumed over a single channel.
+     */
     public OnlineBackup full( String targetDirectory, boolean verification )
     {
-        if ( directoryContainsDb( targetDirectory ) )
+        return full( targetDirectory, verification, BackupManifest.exists( targetDirectory ) ? 1 : 0 );
+    }
+
+    /**
+     * Performs a full backup, copying the store files block wise over
+     * {@code streams} concurrent channels. Files larger than
+     * {@link #PARALLEL_RANGE_SIZE} are copied in blocks of that size, so that
+     * the big stores are spread over the channels too.
+     *
+     * Completed blocks are recorded, with their checksums, in a
+     * {@link BackupManifest manifest} in {@code targetDirectory}. If the
+     * backup fails while copying, running it again into the same directory
+     * only copies the blocks that are missing or have changed since.
+     */
+    public OnlineBackup full( String targetDirectory, boolean verification, int streams )
+    {
+        return full( targetDirectory, verification, streams, null );
+    }
+
+    /**
+     * Brings the backup in {@code targetDirectory} up to date with a full
+     * backup, which only transfers the blocks of the store files that differ
+     * from the ones already there. For backups that are too far behind for an
+     * {@link #incremental(String) incremental} one, because the server no
+     * longer has the logical logs they need.
+     *
+     * The old backup is moved to a {@link #RESYNC_BASIS} directory in
+     * {@code targetDirectory} while the new one is copied, and deleted when
+     * that has succeeded. Running it again after a failure picks up the same
+     * old backup.
+     */
+    public OnlineBackup resync( String targetDirectory, boolean verification )
+    {
+        File target = new File( targetDirectory );
+        File basis = new File( target, RESYNC_BASIS );
+        try
+        {
+            boolean failedBefore = basis.exists();
+            basis.mkdirs();
+            for ( File file : target.listFiles() )
+            {
+                if ( file.equals( basis ) || file.getName().equals( StringLogger.DEFAULT_NAME ) ) continue;
+                // After a failure the rest is a partial copy, the old backup is still in the basis
+                if ( failedBefore ) FileUtils.deleteRecursively( file );
+                else FileUtils.moveFileToDirectory( file, basis );
+            }
+            full( targetDirectory, verification, 0, BlockChecksums.of( basis ) );
+            FileUtils.deleteRecursively( basis );
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to resync backup in " + targetDirectory, e );
+        }
+        return this;
+    }
+
+    private OnlineBackup full( String targetDirectory, boolean verification, int streams, BlockChecksums basis )
+    {
+        if ( directoryContainsDb( targetDirectory ) && !BackupManifest.exists( targetDirectory ) )
         {
             throw new RuntimeException( targetDirectory + " already contains a database" );
         }
@@ -109,8 +195,18 @@ public class OnlineBackup
         long timestamp = System.currentTimeMillis();
         try
         {
-            Response<Void> response = client.fullBackup( decorateWithProgressIndicator(
-                    new ToFileStoreWriter( targetDirectory ) ) );
+            Response<Void> response;
+            if ( basis != null )
+            {
+                response = client.fullBackupDelta( basis,
+                        decorateWithProgressIndicator( new ToFileStoreWriter( targetDirectory ) ) );
+            }
+            else
+            {
+                response = streams > 0
+                        ? parallelFullBackup( client, targetDirectory, streams )
+                        : client.fullBackup( decorateWithProgressIndicator( new ToFileStoreWriter( targetDirectory ) ) );
+            }
             GraphDatabaseAPI targetDb = startTemporaryDb( targetDirectory,
                     VerificationLevel.NONE /* run full check instead */ );
             try
@@ -168,27 +264,10 @@ public class OnlineBackup
                              *
                              */
                             Triplet<String, Long, TxExtractor> tx = txs.next();
-                            scratch.clear();
                             XaDataSource ds = targetDb.getXaDataSourceManager().getXaDataSource(
                                     tx.first() );
-                            long logVersion = ds.getCurrentLogVersion() - 1;
-                            FileChannel newLog = new RandomAccessFile(
-                                    ds.getFileName( logVersion ),
-                                    "rw" ).getChannel();
-                            newLog.truncate( 0 );
-                            LogIoUtils.writeLogHeader( scratch, logVersion, -1 );
-                            // scratch buffer is flipped by writeLogHeader
-                            newLog.write( scratch );
                             ReadableByteChannel received = tx.third().extract();
-                            scratch.flip();
-                            while ( received.read( scratch ) > 0 )
-                            {
-                                scratch.flip();
-                                newLog.write( scratch );
-                                scratch.flip();
-                            }
-                            newLog.force( false );
-                            newLog.close();
+                            writeAsPreviousLog( ds, received, scratch );
                             received.close();
                         }
                     }
@@ -214,19 +293,295 @@ public class OnlineBackup
             bumpLogFile( targetDirectory, timestamp );
             if ( verification )
             {
-                StoreFactory factory = new StoreFactory( new Config( new ConfigurationDefaults(GraphDatabaseSettings.class ).apply( stringMap() )), new DefaultIdGeneratorFactory(),
-                        new DefaultFileSystemAbstraction(), new DefaultLastCommittedTxIdSetter(), SYSTEM, new DefaultTxHook() );
-                NeoStore neoStore = factory.newNeoStore( new File( targetDirectory, NeoStore.DEFAULT_NAME ).getAbsolutePath() );
-                try
+                checkConsistency( targetDirectory );
+            }
+        }
+        finally
+        {
+            client.shutdown();
+        }
+        return this;
+    }
+
+    /**
+     * Writes {@code transaction}, the last one committed in {@code ds}, as the
+     * only transaction in the logical log version before the current one, so
+     * that it can be found although it isn't applied.
+     */
+    static void writeAsPreviousLog( XaDataSource ds, ReadableByteChannel transaction, ByteBuffer scratch )
+            throws IOException
+    {
+        scratch.clear();
+        long logVersion = ds.getCurrentLogVersion() - 1;
+        FileChannel newLog = new RandomAccessFile(
+                ds.getFileName( logVersion ),
+                "rw" ).getChannel();
+        newLog.truncate( 0 );
+        LogIoUtils.writeLogHeader( scratch, logVersion, -1 );
+        // scratch buffer is flipped by writeLogHeader
+        newLog.write( scratch );
+        scratch.flip();
+        while ( transaction.read( scratch ) > 0 )
+        {
+            scratch.flip();
+            newLog.write( scratch );
+            scratch.flip();
+        }
+        newLog.force( false );
+        newLog.close();
+    }
+
+    static void checkConsistency( String targetDirectory )
+    {
+        StoreFactory factory = new StoreFactory( new Config( new ConfigurationDefaults(GraphDatabaseSettings.class ).apply( stringMap() )), new DefaultIdGeneratorFactory(),
+                new DefaultFileSystemAbstraction(), new DefaultLastCommittedTxIdSetter(), SYSTEM, new DefaultTxHook() );
+        NeoStore neoStore = factory.newNeoStore( new File( targetDirectory, NeoStore.DEFAULT_NAME ).getAbsolutePath() );
+        try
+        {
+            StoreAccess store = new StoreAccess( neoStore );
+            ConsistencyCheck.run( store, false );
+        }
+        finally
+        {
+            neoStore.close();
+        }
+    }
+
+    /**
+     * Copies the store files of a snapshot taken by the server in blocks,
+     * over {@code streams} concurrent channels, and returns the response with
+     * the transactions committed since the snapshot was taken. Blocks already
+     * in the manifest are only copied if the server has a different checksum
+     * for them.
+     */
+    private Response<Void> parallelFullBackup( final BackupClient client, String targetDirectory, int streams )
+    {
+        final StoreFileListing listing = prepareParallelBackup( client );
+        final BackupManifest manifest;
+        try
+        {
+            manifest = new BackupManifest( targetDirectory );
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to open backup manifest in " + targetDirectory, e );
+        }
+        final ToFileStoreWriter files = new ToFileStoreWriter( targetDirectory );
+        try
+        {
+            copyBlocks( listing, streams, new BlockCopy()
+            {
+                @Override
+                public void copy( String path, final long position, long length ) throws IOException
+                {
+                    final CRC32 checksum = new CRC32();
+                    final boolean[] written = new boolean[1];
+                    client.copyStoreFileRange( listing.snapshotId(), path, position, length,
+                            manifest.checksum( path, position, length ), new StoreWriter()
+                    {
+                        @Override
+                        public void write( String path, ReadableByteChannel data, ByteBuffer temporaryBuffer,
+                                boolean hasData ) throws IOException
+                        {
+                            files.write( path, position, hasData ? new ChecksummingChannel( data, checksum )
+                                    : null, temporaryBuffer );
+                            written[0] = true;
+                        }
+
+                        @Override
+                        public void done()
+                        {
+                        }
+                    } ).close();
+                    if ( written[0] )
+                    {
+                        manifest.completed( path, position, length, checksum.getValue() );
+                    }
+                }
+            } );
+        }
+        finally
+        {
+            try
+            {
+                manifest.close();
+            }
+            catch ( IOException e )
+            {
+                // Completed blocks have already been forced to disk
+            }
+        }
+        Response<Void> response = client.finishParallelBackup( listing.context(), listing.snapshotId() );
+        try
+        {
+            // From here on the files are changed by catching up on transactions
+            manifest.delete();
+        }
+        catch ( IOException e )
+        {
+            response.close();
+            throw new RuntimeException( "Unable to delete backup manifest in " + targetDirectory, e );
+        }
+        return response;
+    }
+
+    private static StoreFileListing prepareParallelBackup( BackupClient client )
+    {
+        Response<StoreFileListing> prepared = client.prepareParallelBackup();
+        try
+        {
+            return prepared.response();
+        }
+        finally
+        {
+            prepared.close();
+        }
+    }
+
+    private interface BlockCopy
+    {
+        void copy( String path, long position, long length ) throws IOException;
+    }
+
+    /**
+     * Copies the files in {@code listing} block by block, over {@code streams}
+     * concurrent channels. Files larger than {@link #PARALLEL_RANGE_SIZE} are
+     * split in blocks of that size, the last block of each file goes to the
+     * end of it, whatever its size is by then. A negative length means that.
+     */
+    private static void copyBlocks( StoreFileListing listing, int streams, final BlockCopy copy )
+    {
+        streams = Math.min( streams, Client.DEFAULT_MAX_NUMBER_OF_CONCURRENT_CHANNELS_PER_CLIENT );
+        final ProgressIndicator progress = new ProgressIndicator.UnknownEndProgress( 1, "File ranges copied" );
+        ExecutorService executor = Executors.newFixedThreadPool( streams );
+        try
+        {
+            List<Future<?>> copies = new ArrayList<Future<?>>();
+            for ( Map.Entry<String, Long> file : listing.fileSizes().entrySet() )
+            {
+                final String path = file.getKey();
+                for ( long offset = 0; offset == 0 || offset < file.getValue(); offset += PARALLEL_RANGE_SIZE )
                 {
-                    StoreAccess store = new StoreAccess( neoStore );
-                    ConsistencyCheck.run( store, false );
+                    final long position = offset;
+                    final long length = offset + PARALLEL_RANGE_SIZE < file.getValue() ? PARALLEL_RANGE_SIZE : -1;
+                    copies.add( executor.submit( new Callable<Void>()
+                    {
+                        @Override
+                        public Void call() throws IOException
+                        {
+                            copy.copy( path, position, length );
+                            synchronized ( progress )
+                            {
+                                progress.update( true, 1 );
+                            }
+                            return null;
+                        }
+                    } ) );
                 }
-                finally
+            }
+            for ( Future<?> future : copies )
+            {
+                future.get();
+            }
+            progress.done( copies.size() );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( "Interrupted while copying store files", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw new RuntimeException( "Unable to copy store files", e.getCause() );
+            }
+            throw Exceptions.launderedException( e.getCause() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Performs a full backup into a single {@link BackupArchive archive},
+     * written to {@code out} as the store files are copied, over
+     * {@code streams} concurrent channels. Nothing is verified, there's no
+     * store to check until the archive has been restored with
+     * {@link RestoreBackupArchive}.
+     */
+    public OnlineBackup archive( OutputStream out, int streams )
+    {
+        final BackupClient client = new BackupClient( hostNameOrIp, port, StringLogger.DEV_NULL, Client.NO_STORE_ID_GETTER );
+        try
+        {
+            final BackupArchive.Writer archive = new BackupArchive.Writer( out );
+            final StoreFileListing listing = prepareParallelBackup( client );
+            copyBlocks( listing, Math.max( streams, 1 ), new BlockCopy()
+            {
+                @Override
+                public void copy( String path, final long position, long length ) throws IOException
                 {
-                    neoStore.close();
+                    client.copyStoreFileRange( listing.snapshotId(), path, position, length,
+                            BackupManifest.NO_CHECKSUM, new StoreWriter()
+                    {
+                        @Override
+                        public void write( String path, ReadableByteChannel data, ByteBuffer temporaryBuffer,
+                                boolean hasData ) throws IOException
+                        {
+                            archive.addFile( path, position, hasData ? data : null );
+                        }
+
+                        @Override
+                        public void done()
+                        {
+                        }
+                    } ).close();
                 }
+            } );
+
+            /*
+             * Also ask for the last transaction before the snapshot of each data source,
+             * it's written to the logical log when restored, like the last committed
+             * transaction a full backup gets for a data source that has no transactions
+             * in the response.
+             */
+            Map<String, Long> snapshotTxs = new HashMap<String, Long>();
+            List<Tx> txs = new ArrayList<Tx>();
+            for ( Tx tx : listing.context().lastAppliedTransactions() )
+            {
+                snapshotTxs.put( tx.getDataSourceName(), tx.getTxId() );
+                txs.add( SlaveContext.lastAppliedTx( tx.getDataSourceName(), Math.max( tx.getTxId() - 1, 1 ) ) );
             }
+            Response<Void> response = client.finishParallelBackup(
+                    SlaveContext.anonymous( txs.toArray( new Tx[txs.size()] ) ), listing.snapshotId() );
+            try
+            {
+                for ( Triplet<String, Long, TxExtractor> tx : IteratorUtil.asIterable( response.transactions() ) )
+                {
+                    ReadableByteChannel data = tx.third().extract();
+                    try
+                    {
+                        archive.addTransaction( tx.second().equals( snapshotTxs.get( tx.first() ) )
+                                ? BackupArchive.LOG_TRANSACTION : BackupArchive.TRANSACTION,
+                                tx.first(), tx.second(), data );
+                    }
+                    finally
+                    {
+                        data.close();
+                    }
+                }
+            }
+            finally
+            {
+                response.close();
+            }
+            archive.finish();
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to write backup archive", e );
         }
         finally
         {
@@ -235,6 +590,53 @@ public class OnlineBackup
         return this;
     }
 
+    /**
+     * Updates a checksum with everything read through it.
+     */
+    private static class ChecksummingChannel implements ReadableByteChannel
+    {
+        private final ReadableByteChannel channel;
+        private final Checksum checksum;
+        private final byte[] bytes = new byte[8 * 1024];
+
+        ChecksummingChannel( ReadableByteChannel channel, Checksum checksum )
+        {
+            this.channel = channel;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public int read( ByteBuffer dst ) throws IOException
+        {
+            int start = dst.position();
+            int read = channel.read( dst );
+            if ( read > 0 )
+            {
+                ByteBuffer view = dst.duplicate();
+                view.position( start ).limit( start + read );
+                while ( view.hasRemaining() )
+                {
+                    int length = Math.min( bytes.length, view.remaining() );
+                    view.get( bytes, 0, length );
+                    checksum.update( bytes, 0, length );
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+
     private StoreWriter decorateWithProgressIndicator( final StoreWriter actual )
     {
         return new StoreWriter()
@@ -478,7 +880,7 @@ public class OnlineBackup
         return SlaveContext.anonymous( txs.toArray( new Tx[0] ) );
     }
 
-    private static boolean bumpLogFile( String targetDirectory, long toTimestamp )
+    static boolean bumpLogFile( String targetDirectory, long toTimestamp )
     {
         File dbDirectory = new File( targetDirectory );
         File[] candidates = dbDirectory.listFiles( new FilenameFilter()
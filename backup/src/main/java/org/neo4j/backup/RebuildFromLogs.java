@@ -26,7 +26,6 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.util.Map;
-import javax.transaction.xa.Xid;
 import org.neo4j.backup.check.ConsistencyCheck;
 import org.neo4j.helpers.Args;
 import org.neo4j.helpers.ProgressIndicator;
@@ -34,12 +33,11 @@ import org.neo4j.kernel.AbstractGraphDatabase;
 import org.neo4j.kernel.configuration.Config;
 import org.neo4j.kernel.configuration.ConfigParam;
 import org.neo4j.kernel.impl.nioneo.store.StoreAccess;
-import org.neo4j.kernel.impl.nioneo.xa.Command;
+import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
 import org.neo4j.kernel.impl.transaction.xaframework.InMemoryLogBuffer;
 import org.neo4j.kernel.impl.transaction.xaframework.LogEntry;
 import org.neo4j.kernel.impl.transaction.xaframework.LogExtractor;
 import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
-import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
 import org.neo4j.kernel.impl.transaction.xaframework.XaCommandFactory;
 import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 
@@ -52,11 +50,14 @@ class RebuildFromLogs
     /*
      * TODO: This process can be sped up if the target db doesn't have to write tx logs.
      */
+    private final AbstractGraphDatabase graphdb;
     private final XaDataSource nioneo;
     private final StoreAccess stores;
+    private boolean consistent = true;
 
     RebuildFromLogs( AbstractGraphDatabase graphdb )
     {
+        this.graphdb = graphdb;
         this.nioneo = getDataSource( graphdb, Config.DEFAULT_DATA_SOURCE_NAME );
         this.stores = new StoreAccess( graphdb );
     }
@@ -82,6 +83,22 @@ class RebuildFromLogs
         return this;
     }
 
+    /**
+     * Applies the transactions through a {@link RebuildPipeline}, which reads
+     * ahead and decodes with {@code threads} threads, and checks the records
+     * touched by the transactions while applying if {@code verify} is set.
+     * The transactions are forced once per batch if the database is a
+     * {@link RebuildGraphDatabase}.
+     */
+    RebuildFromLogs applyTransactionsPipelined( ProgressIndicator progress, File sourceDir, int threads,
+            boolean verify ) throws IOException
+    {
+        consistent = new RebuildPipeline( nioneo, ( (NeoStoreXaDataSource) nioneo ).getNeoStore(), stores, threads,
+                verify, graphdb instanceof RebuildGraphDatabase ? (RebuildGraphDatabase) graphdb : null )
+                .applyTransactionsFrom( sourceDir, progress );
+        return this;
+    }
+
     public void applyTransaction( long txId, ReadableByteChannel txData ) throws IOException
     {
         nioneo.applyCommittedTransaction( txId, txData );
@@ -104,6 +121,7 @@ class RebuildFromLogs
         Args params = new Args( args );
         @SuppressWarnings( "boxing" )
         boolean full = params.getBoolean( "full", false, true );
+        int threads = Integer.parseInt( params.get( "threads", "1" ) );
         args = params.orphans().toArray( new String[0] );
         if ( args.length != 2 )
         {
@@ -150,10 +168,12 @@ class RebuildFromLogs
         }
         long txCount = findLastTransactionId( source, LOGICAL_LOG_DEFAULT_NAME + ".v" + maxFileId );
         String txdifflog = params.get( "txdifflog", null, new File( target, "txdiff.log" ).getAbsolutePath() );
-        AbstractGraphDatabase graphdb = OnlineBackup.startTemporaryDb( target.getAbsolutePath(),
-                                                                       new TxDiffLogConfig( full
-                                                                               ? VerificationLevel.FULL_WITH_LOGGING
-                                                                               : VerificationLevel.LOGGING, txdifflog ) );
+        // the pipeline verifies the transactions itself, off the applying thread, and forces them per batch
+        AbstractGraphDatabase graphdb = threads > 1
+                ? new RebuildGraphDatabase( target.getAbsolutePath(), VerificationLevel.NONE )
+                : OnlineBackup.startTemporaryDb( target.getAbsolutePath(), new TxDiffLogConfig( full
+                        ? VerificationLevel.FULL_WITH_LOGGING
+                        : VerificationLevel.LOGGING, txdifflog ) );
 
         ProgressIndicator progress;
         if ( txCount < 0 )
@@ -170,10 +190,21 @@ class RebuildFromLogs
         {
             try
             {
-                RebuildFromLogs rebuilder = new RebuildFromLogs( graphdb ).applyTransactionsFrom( progress, source );
-                if ( progress != null ) progress.done( txCount );
-                // if we didn't run the full checker for each transaction, run it afterwards
-                if ( !full ) rebuilder.checkConsistency();
+                if ( threads > 1 )
+                {
+                    RebuildFromLogs rebuilder = new RebuildFromLogs( graphdb ).applyTransactionsPipelined( progress,
+                            source, threads, true );
+                    if ( progress != null ) progress.done( txCount );
+                    if ( !rebuilder.consistent ) System.err.println( "Inconsistencies found while rebuilding" );
+                    if ( full ) rebuilder.checkConsistency();
+                }
+                else
+                {
+                    RebuildFromLogs rebuilder = new RebuildFromLogs( graphdb ).applyTransactionsFrom( progress, source );
+                    if ( progress != null ) progress.done( txCount );
+                    // if we didn't run the full checker for each transaction, run it afterwards
+                    if ( !full ) rebuilder.checkConsistency();
+                }
             }
             finally
             {
@@ -197,9 +228,9 @@ class RebuildFromLogs
             FileChannel channel = new RandomAccessFile( new File( storeDir, logFileName ), "r" ).getChannel();
             try
             {
-                ByteBuffer buffer = ByteBuffer.allocateDirect( 9 + Xid.MAXGTRIDSIZE + Xid.MAXBQUALSIZE * 10 );
+                ByteBuffer buffer = LogTransactions.newEntryBuffer();
                 txId = LogIoUtils.readLogHeader( buffer, channel, true )[1];
-                XaCommandFactory cf = new CommandFactory();
+                XaCommandFactory cf = new LogTransactions.CommandFactory();
                 for ( LogEntry entry; ( entry = LogIoUtils.readEntry( buffer, channel, cf ) ) != null; )
                 {
                     if ( entry instanceof LogEntry.Commit )
@@ -235,10 +266,13 @@ class RebuildFromLogs
     private static void printUsage( String... msgLines )
     {
         for ( String line : msgLines ) System.err.println( line );
-        System.err.println( Args.jarUsage( RebuildFromLogs.class, "[-full] <source dir with logs> <target dir for graphdb>" ) );
+        System.err.println( Args.jarUsage( RebuildFromLogs.class,
+                "[-full] [-threads=<n>] <source dir with logs> <target dir for graphdb>" ) );
         System.err.println( "WHERE:   <source dir>  is the path for where transactions to rebuild from are stored" );
         System.err.println( "         <target dir>  is the path for where to create the new graph database" );
         System.err.println( "         -full     --  to run a full check over the entire store for each transaction" );
+        System.err.println( "                       (with -threads, a full check of the store after rebuilding)" );
+        System.err.println( "         -threads=<n> -- to read, decode and verify transactions with <n> threads while applying" );
     }
 
     private static long findMaxLogFileId( File source )
@@ -270,13 +304,4 @@ class RebuildFromLogs
             }
         }
     }
-
-    private static class CommandFactory extends XaCommandFactory
-    {
-        @Override
-        public XaCommand readCommand( ReadableByteChannel byteChannel, ByteBuffer buffer ) throws IOException
-        {
-            return Command.readCommand( null, byteChannel, buffer );
-        }
-    }
 }
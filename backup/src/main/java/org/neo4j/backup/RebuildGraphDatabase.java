@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.neo4j.com.DelegatingFileChannel;
+import org.neo4j.graphdb.index.IndexProvider;
+import org.neo4j.helpers.Service;
+import org.neo4j.kernel.AbstractGraphDatabase;
+import org.neo4j.kernel.DefaultFileSystemAbstraction;
+import org.neo4j.kernel.KernelExtension;
+import org.neo4j.kernel.configuration.ConfigParam;
+import org.neo4j.kernel.impl.cache.CacheProvider;
+import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
+
+/**
+ * The database a store is rebuilt into by a {@link RebuildPipeline}. The
+ * files it opens through its file system aren't forced when the database asks
+ * for it, only when {@link #forceDeferred()} is called, once for each batch of transactions
+ * instead of once for each transaction. Rebuilding is done offline, so if the
+ * machine goes down in the middle of it the rebuild is just run again.
+ */
+class RebuildGraphDatabase extends AbstractGraphDatabase
+{
+    // Guarded by itself: the channels forces were put off for, and whether
+    // with meta data
+    private final Map<ForceDeferringChannel, Boolean> unforced = new IdentityHashMap<ForceDeferringChannel, Boolean>();
+
+    private final FileSystemAbstraction fileSystem = new DefaultFileSystemAbstraction()
+    {
+        @Override
+        public FileChannel open( String fileName, String mode ) throws IOException
+        {
+            return new ForceDeferringChannel( super.open( fileName, mode ) );
+        }
+
+        @Override
+        public FileChannel create( String fileName ) throws IOException
+        {
+            return new ForceDeferringChannel( super.create( fileName ) );
+        }
+    };
+
+    RebuildGraphDatabase( String storeDir, ConfigParam... params )
+    {
+        super( storeDir, config( params ), Service.load( IndexProvider.class ), Service.load( KernelExtension.class ),
+                Service.load( CacheProvider.class ) );
+        run();
+    }
+
+    private static Map<String, String> config( ConfigParam... params )
+    {
+        Map<String, String> config = new HashMap<String, String>();
+        for ( ConfigParam param : params )
+        {
+            if ( param != null ) param.configure( config );
+        }
+        return config;
+    }
+
+    @Override
+    protected FileSystemAbstraction createFileSystemAbstraction()
+    {
+        return fileSystem;
+    }
+
+    /**
+     * Forces the files that have been written without being forced, which
+     * makes all transactions applied so far durable.
+     */
+    void forceDeferred() throws IOException
+    {
+        synchronized ( unforced )
+        {
+            for ( Map.Entry<ForceDeferringChannel, Boolean> channel : unforced.entrySet() )
+            {
+                channel.getKey().forceNow( channel.getValue() );
+            }
+            unforced.clear();
+        }
+    }
+
+    private class ForceDeferringChannel extends DelegatingFileChannel
+    {
+        ForceDeferringChannel( FileChannel channel )
+        {
+            super( channel );
+        }
+
+        @Override
+        public void force( boolean metaData ) throws IOException
+        {
+            synchronized ( unforced )
+            {
+                Boolean withMetaData = unforced.get( this );
+                unforced.put( this, metaData || Boolean.TRUE.equals( withMetaData ) );
+            }
+        }
+
+        void forceNow( boolean metaData ) throws IOException
+        {
+            if ( channel.isOpen() ) channel.force( metaData );
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException
+        {
+            // Logs are rotated, and the files closed at shutdown, between forces
+            synchronized ( unforced )
+            {
+                Boolean metaData = unforced.remove( this );
+                if ( metaData != null ) channel.force( metaData );
+            }
+            channel.close();
+        }
+    }
+}
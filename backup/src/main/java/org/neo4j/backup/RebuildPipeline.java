@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.neo4j.backup.check.DiffStore;
+import org.neo4j.backup.check.IncrementalConsistencyCheck;
+import org.neo4j.helpers.Exceptions;
+import org.neo4j.helpers.ProgressIndicator;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.StoreAccess;
+import org.neo4j.kernel.impl.nioneo.xa.Command;
+import org.neo4j.kernel.impl.transaction.xaframework.InMemoryLogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.LogEntry;
+import org.neo4j.kernel.impl.transaction.xaframework.LogExtractor;
+import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommandFactory;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+
+/**
+ * Applies the transactions of a set of logical logs in stages that run
+ * concurrently, for {@link RebuildFromLogs}:
+ *
+ * <ol>
+ * <li>a reader thread extracts the transactions from the logs ahead of the
+ * applier, in batches of {@link #BATCH_SIZE},</li>
+ * <li>a pool of decoders deserializes the commands of each batch,</li>
+ * <li>the calling thread applies the batches, in order,</li>
+ * <li>a verifier checks the records touched by the commands of each applied
+ * batch, through a {@link DiffStore}, while the following batches are
+ * applied.</li>
+ * </ol>
+ *
+ * When rebuilding into a {@link RebuildGraphDatabase} the applied transactions
+ * are forced once for each batch, not once for each transaction.
+ *
+ * Since the verifier reads the store while it's being written to, it can see
+ * a state between two transactions that looks inconsistent. The batches that
+ * fail their check are therefore checked again, and reported, once all
+ * transactions have been applied.
+ */
+class RebuildPipeline
+{
+    static final int BATCH_SIZE = 1000;
+
+    private static final Future<List<Transaction>> END = completed( null, null );
+
+    private final XaDataSource nioneo;
+    private final NeoStore neoStore;
+    private final StoreAccess stores;
+    private final int threads;
+    private final boolean verify;
+    private final RebuildGraphDatabase target;
+
+    /**
+     * @param target the database to force after each batch, or {@code null}
+     *            if the database forces each transaction itself.
+     */
+    RebuildPipeline( XaDataSource nioneo, NeoStore neoStore, StoreAccess stores, int threads, boolean verify,
+            RebuildGraphDatabase target )
+    {
+        this.nioneo = nioneo;
+        this.neoStore = neoStore;
+        this.stores = stores;
+        this.threads = threads;
+        this.verify = verify;
+        this.target = target;
+    }
+
+    private static class Transaction
+    {
+        final long txId;
+        final byte[] data;
+        List<Command> commands;
+
+        Transaction( long txId, byte[] data )
+        {
+            this.txId = txId;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Applies all transactions in the logs in {@code sourceDir}.
+     *
+     * @return {@code true} if no inconsistencies were found, or verification
+     *         wasn't asked for.
+     */
+    boolean applyTransactionsFrom( final File sourceDir, ProgressIndicator progress ) throws IOException
+    {
+        final BlockingQueue<Future<List<Transaction>>> batches = new ArrayBlockingQueue<Future<List<Transaction>>>(
+                threads * 2 );
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        final ExecutorService decoders = Executors.newFixedThreadPool( threads );
+        ExecutorService verifier = Executors.newSingleThreadExecutor();
+        try
+        {
+            reader.submit( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Future<List<Transaction>> last = END;
+                    try
+                    {
+                        read( sourceDir, batches, decoders );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        return;
+                    }
+                    catch ( Throwable e )
+                    {
+                        last = completed( null, e );
+                    }
+                    try
+                    {
+                        batches.put( last );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } );
+
+            LinkedList<Future<DiffStore>> checks = new LinkedList<Future<DiffStore>>();
+            List<DiffStore> suspects = new ArrayList<DiffStore>();
+            for ( Future<List<Transaction>> next; ( next = batches.take() ) != END; )
+            {
+                final List<Transaction> batch = next.get();
+                for ( Transaction tx : batch )
+                {
+                    nioneo.applyCommittedTransaction( tx.txId, LogTransactions.channel( tx.data ) );
+                    if ( progress != null ) progress.update( false, tx.txId );
+                }
+                if ( target != null ) target.forceDeferred();
+                if ( !verify ) continue;
+                // Don't let the verifier fall too far behind, it holds on to the decoded commands
+                while ( checks.size() >= threads * 2 )
+                {
+                    collect( checks.removeFirst(), suspects );
+                }
+                checks.add( verifier.submit( new Callable<DiffStore>()
+                {
+                    @Override
+                    public DiffStore call()
+                    {
+                        return check( batch );
+                    }
+                } ) );
+            }
+            while ( !checks.isEmpty() )
+            {
+                collect( checks.removeFirst(), suspects );
+            }
+            return recheck( suspects );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while rebuilding", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException ) throw (IOException) e.getCause();
+            throw Exceptions.launderedException( e.getCause() );
+        }
+        finally
+        {
+            reader.shutdownNow();
+            decoders.shutdownNow();
+            verifier.shutdownNow();
+        }
+    }
+
+    private static void read( File sourceDir, BlockingQueue<Future<List<Transaction>>> batches,
+            ExecutorService decoders ) throws IOException, InterruptedException
+    {
+        LogExtractor extractor = LogExtractor.from( sourceDir.getAbsolutePath() );
+        try
+        {
+            ByteBuffer scratch = ByteBuffer.allocate( 64 * 1024 );
+            List<Transaction> batch = new ArrayList<Transaction>( BATCH_SIZE );
+            for ( InMemoryLogBuffer buffer = new InMemoryLogBuffer();; buffer.reset() )
+            {
+                long txId = extractor.extractNext( buffer );
+                if ( txId == -1 ) break;
+                batch.add( new Transaction( txId, LogTransactions.bytes( buffer, scratch ) ) );
+                if ( batch.size() == BATCH_SIZE )
+                {
+                    batches.put( decoders.submit( decode( batch ) ) );
+                    batch = new ArrayList<Transaction>( BATCH_SIZE );
+                }
+            }
+            if ( !batch.isEmpty() ) batches.put( decoders.submit( decode( batch ) ) );
+        }
+        finally
+        {
+            extractor.close();
+        }
+    }
+
+    private static Callable<List<Transaction>> decode( final List<Transaction> batch )
+    {
+        return new Callable<List<Transaction>>()
+        {
+            @Override
+            public List<Transaction> call() throws IOException
+            {
+                ByteBuffer scratch = LogTransactions.newEntryBuffer();
+                XaCommandFactory commandFactory = new LogTransactions.CommandFactory();
+                for ( Transaction tx : batch )
+                {
+                    List<Command> commands = new ArrayList<Command>();
+                    ReadableByteChannel data = LogTransactions.channel( tx.data );
+                    for ( LogEntry entry; ( entry = LogIoUtils.readEntry( scratch, data, commandFactory ) ) != null; )
+                    {
+                        if ( entry instanceof LogEntry.Command )
+                        {
+                            commands.add( (Command) ( (LogEntry.Command) entry ).getXaCommand() );
+                        }
+                    }
+                    tx.commands = commands;
+                }
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * @return the records touched by {@code batch}, if they didn't look
+     *         consistent, otherwise {@code null}.
+     */
+    private DiffStore check( List<Transaction> batch )
+    {
+        DiffStore touched = new DiffStore( neoStore );
+        for ( Transaction tx : batch )
+        {
+            for ( Command command : tx.commands )
+            {
+                command.accept( touched );
+            }
+        }
+        return IncrementalConsistencyCheck.isConsistent( stores, touched ) ? null : touched;
+    }
+
+    private static void collect( Future<DiffStore> check, List<DiffStore> suspects ) throws InterruptedException,
+            ExecutionException
+    {
+        DiffStore touched = check.get();
+        if ( touched != null ) suspects.add( touched );
+    }
+
+    private boolean recheck( List<DiffStore> suspects )
+    {
+        boolean consistent = true;
+        for ( DiffStore touched : suspects )
+        {
+            try
+            {
+                IncrementalConsistencyCheck.check( stores, touched, false );
+            }
+            catch ( AssertionError summary )
+            {
+                System.err.println( summary.getMessage() );
+                consistent = false;
+            }
+        }
+        return consistent;
+    }
+
+    private static <T> Future<T> completed( final T result, final Throwable failure )
+    {
+        FutureTask<T> task = new FutureTask<T>( new Callable<T>()
+        {
+            @Override
+            public T call() throws Exception
+            {
+                if ( failure instanceof Exception ) throw (Exception) failure;
+                if ( failure != null ) throw (Error) failure;
+                return result;
+            }
+        } );
+        task.run();
+        return task;
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.neo4j.com.MasterUtil;
+import org.neo4j.com.ResourceReleaser;
+import org.neo4j.com.Response;
+import org.neo4j.com.TransactionStream;
+import org.neo4j.com.TxExtractor;
+import org.neo4j.helpers.Args;
+import org.neo4j.helpers.Exceptions;
+import org.neo4j.helpers.ProgressIndicator;
+import org.neo4j.helpers.Triplet;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+
+/**
+ * Expands a {@link BackupArchive backup archive}, as written by
+ * {@link OnlineBackup#archive(java.io.OutputStream, int)}, into a store
+ * directory. The archive is restored as it is read, so it can come from a
+ * stream, like standard input, as well as from a file. The chunks of the store
+ * files are decompressed and written by several threads, then the
+ * transactions that follow them in the archive are applied one at a time as
+ * they are read.
+ */
+public class RestoreBackupArchive
+{
+    /**
+     * The archive argument that reads the archive from standard input.
+     */
+    public static final String STANDARD_INPUT = "-";
+
+    public static void main( String... args )
+    {
+        if ( args == null )
+        {
+            printUsage();
+            return;
+        }
+        Args params = new Args( args );
+        boolean verify = params.getBoolean( "verify", true, true );
+        int threads = Integer.parseInt( params.get( "threads",
+                Integer.toString( Runtime.getRuntime().availableProcessors() ) ) );
+        args = params.orphans().toArray( new String[0] );
+        if ( args.length != 2 )
+        {
+            printUsage( "Exactly two positional arguments expected: <archive> <target dir for graphdb>, got "
+                        + args.length );
+            System.exit( -1 );
+            return;
+        }
+        if ( OnlineBackup.directoryContainsDb( args[1] ) )
+        {
+            printUsage( "target graph database already exists" );
+            System.exit( -1 );
+            return;
+        }
+        try
+        {
+            if ( STANDARD_INPUT.equals( args[0] ) ) restore( System.in, args[1], threads, verify );
+            else restore( new File( args[0] ), args[1], threads, verify );
+        }
+        catch ( IOException e )
+        {
+            System.err.println();
+            e.printStackTrace( System.err );
+            System.exit( -1 );
+        }
+    }
+
+    private static void printUsage( String... msgLines )
+    {
+        for ( String line : msgLines ) System.err.println( line );
+        System.err.println( Args.jarUsage( RestoreBackupArchive.class,
+                "[-threads=<count>] [-verify=false] <archive> <target dir for graphdb>" ) );
+        System.err.println( "WHERE:   <archive>     is the backup archive to restore, " + STANDARD_INPUT
+                            + " to read it from standard input" );
+        System.err.println( "         <target dir>  is the path for where to restore the graph database" );
+        System.err.println( "         -threads      --  the number of threads to expand the store files with" );
+        System.err.println( "         -verify=false --  to skip the consistency check of the restored store" );
+    }
+
+    public static void restore( File archive, String targetDirectory, int threads, boolean verification )
+            throws IOException
+    {
+        InputStream in = new FileInputStream( archive );
+        try
+        {
+            restore( in, targetDirectory, threads, verification );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Restores the archive read from {@code archive}, which is left open.
+     */
+    public static void restore( InputStream archive, String targetDirectory, int threads, boolean verification )
+            throws IOException
+    {
+        BackupArchive.Reader reader = new BackupArchive.Reader( archive );
+        BackupArchive.Entry firstTransaction = expandFiles( reader, new File( targetDirectory ), threads );
+        applyTransactions( reader, firstTransaction, targetDirectory );
+        OnlineBackup.bumpLogFile( targetDirectory, System.currentTimeMillis() );
+        if ( verification )
+        {
+            OnlineBackup.checkConsistency( targetDirectory );
+        }
+    }
+
+    /**
+     * Expands the file chunks at the start of the archive, at most two per
+     * thread read ahead of the threads writing them.
+     *
+     * @return the first entry after the file chunks, or {@code null} if the
+     *         archive ended.
+     */
+    private static BackupArchive.Entry expandFiles( BackupArchive.Reader archive, final File targetDirectory,
+            int threads ) throws IOException
+    {
+        final ProgressIndicator progress = new ProgressIndicator.UnknownEndProgress( 10, "File chunks expanded" );
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        final Semaphore readAhead = new Semaphore( threads * 2 );
+        try
+        {
+            List<Future<Void>> expansions = new ArrayList<Future<Void>>();
+            BackupArchive.Entry next;
+            while ( ( next = archive.next() ) != null && next.kind == BackupArchive.FILE )
+            {
+                final BackupArchive.Entry entry = next;
+                readAhead.acquire();
+                expansions.add( executor.submit( new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws IOException
+                    {
+                        try
+                        {
+                            BackupArchive.expand( entry, targetDirectory );
+                        }
+                        finally
+                        {
+                            readAhead.release();
+                        }
+                        synchronized ( progress )
+                        {
+                            progress.update( true, 1 );
+                        }
+                        return null;
+                    }
+                } ) );
+            }
+            for ( Future<Void> expansion : expansions )
+            {
+                expansion.get();
+            }
+            progress.done( expansions.size() );
+            return next;
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while expanding store files", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException ) throw (IOException) e.getCause();
+            throw Exceptions.launderedException( e.getCause() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Applies the transactions in the archive, from {@code first} on, as they
+     * are read. Like a full backup applies the ones it gets, the last
+     * transaction before the copy is only written to the log for data sources
+     * that don't get any other transactions.
+     */
+    private static void applyTransactions( final BackupArchive.Reader archive, final BackupArchive.Entry first,
+            String targetDirectory ) throws IOException
+    {
+        final Set<String> dataSources = new HashSet<String>();
+        final Map<String, BackupArchive.Entry> lastBeforeCopy = new HashMap<String, BackupArchive.Entry>();
+        TransactionStream transactions = new TransactionStream()
+        {
+            private BackupArchive.Entry next = first;
+
+            @Override
+            protected Triplet<String, Long, TxExtractor> fetchNextOrNull()
+            {
+                try
+                {
+                    for ( BackupArchive.Entry entry = next; entry != null; entry = archive.next() )
+                    {
+                        switch ( entry.kind )
+                        {
+                        case BackupArchive.TRANSACTION:
+                            next = archive.next();
+                            dataSources.add( entry.name );
+                            return Triplet.of( entry.name, entry.id,
+                                    TxExtractor.create( LogTransactions.channel( entry.read() ) ) );
+                        case BackupArchive.LOG_TRANSACTION:
+                            lastBeforeCopy.put( entry.name, entry );
+                            break;
+                        default:
+                            throw new IOException( "Unexpected " + entry + " among the transactions" );
+                        }
+                    }
+                    next = null;
+                    return null;
+                }
+                catch ( IOException e )
+                {
+                    throw new RuntimeException( "Unable to read transactions from the archive", e );
+                }
+            }
+        };
+
+        GraphDatabaseAPI targetDb = OnlineBackup.startTemporaryDb( targetDirectory,
+                VerificationLevel.NONE /* run full check instead */ );
+        try
+        {
+            MasterUtil.applyReceivedTransactions( new Response<Void>( null, null, transactions,
+                    ResourceReleaser.NO_OP ), targetDb, MasterUtil.txHandlerForFullCopy() );
+            ByteBuffer scratch = ByteBuffer.allocate( 64 );
+            for ( BackupArchive.Entry entry : lastBeforeCopy.values() )
+            {
+                if ( dataSources.contains( entry.name ) ) continue;
+                XaDataSource ds = targetDb.getXaDataSourceManager().getXaDataSource( entry.name );
+                ReadableByteChannel transaction = LogTransactions.channel( entry.read() );
+                OnlineBackup.writeAsPreviousLog( ds, transaction, scratch );
+                transaction.close();
+            }
+        }
+        finally
+        {
+            targetDb.shutdown();
+        }
+    }
+}
@@ -0,0 +1,504 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.helpers.Args;
+import org.neo4j.helpers.Format;
+import org.neo4j.helpers.ProgressIndicator;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.configuration.ConfigParam;
+import org.neo4j.kernel.impl.transaction.xaframework.InMemoryLogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.LogEntry;
+import org.neo4j.kernel.impl.transaction.xaframework.LogExtractor;
+import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommandFactory;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+
+/**
+ * Restores a full backup into a new store directory and brings it forward,
+ * with the logical logs retained by the database the backup was taken from,
+ * to an exact transaction id or to the last transaction committed at or
+ * before a point in time, to recover from bad writes made after that.
+ *
+ * The store files are copied sequentially, then the transactions of each
+ * data source are read from its logs and applied one at a time, the way a
+ * slave applies the transactions it pulls. The graph store is brought forward
+ * first, and the transaction that would go past the target isn't applied, so
+ * it ends at a transaction boundary. The legacy indexes and other data
+ * sources are cut at the same place: a transaction that also updated the
+ * graph store is applied if its part in the graph store was, and one that
+ * only updated them is applied if it started at or before the time of the
+ * cut. The restored store can then be started as a new master.
+ *
+ * The store the logs are in is started to read them, so it must not be in
+ * use. The global ids of the transactions in the graph store logs that also
+ * updated other data sources are kept in memory, to cut those at the same
+ * transaction, the rest doesn't depend on how many transactions there are.
+ */
+public class RestoreToPointInTime
+{
+    static final String TX = "tx";
+    static final String TIME = "time";
+    static final String VERIFY = "verify";
+
+    private static final String[] TIME_FORMATS = { "yyyy-MM-dd HH:mm:ss.SSSZ", "yyyy-MM-dd HH:mm:ss.SSS",
+            "yyyy-MM-dd HH:mm:ss" };
+
+    public static void main( String... args )
+    {
+        if ( args == null )
+        {
+            printUsage();
+            return;
+        }
+        Args params = new Args( args );
+        boolean verify = params.getBoolean( VERIFY, true, true );
+        String tx = params.get( TX, null ), time = params.get( TIME, null );
+        args = params.orphans().toArray( new String[0] );
+        if ( args.length != 3 )
+        {
+            printUsage( "Exactly three positional arguments expected: "
+                        + "<backup dir> <dir with logs> <target dir for graphdb>, got " + args.length );
+            System.exit( -1 );
+            return;
+        }
+        if ( ( tx == null ) == ( time == null ) )
+        {
+            printUsage( "Specify either -" + TX + " or -" + TIME );
+            System.exit( -1 );
+            return;
+        }
+        long toTx = Long.MAX_VALUE, toTime = Long.MAX_VALUE;
+        try
+        {
+            if ( tx != null ) toTx = Long.parseLong( tx );
+            else toTime = parseTime( time );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            printUsage( e.getMessage() );
+            System.exit( -1 );
+            return;
+        }
+        File backup = new File( args[0] ), logs = new File( args[1] );
+        if ( !OnlineBackup.directoryContainsDb( backup.getAbsolutePath() ) )
+        {
+            printUsage( backup + " doesn't contain a database" );
+            System.exit( -1 );
+            return;
+        }
+        if ( !OnlineBackup.directoryContainsDb( logs.getAbsolutePath() ) )
+        {
+            printUsage( logs + " doesn't contain a database" );
+            System.exit( -1 );
+            return;
+        }
+        if ( OnlineBackup.directoryContainsDb( args[2] ) )
+        {
+            printUsage( "target graph database already exists" );
+            System.exit( -1 );
+            return;
+        }
+        try
+        {
+            restore( backup, logs, args[2], toTx, toTime, verify );
+        }
+        catch ( IOException e )
+        {
+            System.err.println();
+            e.printStackTrace( System.err );
+            System.exit( -1 );
+        }
+    }
+
+    private static void printUsage( String... msgLines )
+    {
+        for ( String line : msgLines ) System.err.println( line );
+        System.err.println( Args.jarUsage( RestoreToPointInTime.class,
+                "-tx=<id>|-time=<timestamp> [-verify=false] <backup dir> <dir with logs> <target dir for graphdb>" ) );
+        System.err.println( "WHERE:   <backup dir>     is the path of a full backup to start from" );
+        System.err.println( "         <dir with logs>  is the path of a store with the logical logs kept since the backup" );
+        System.err.println( "         <target dir>     is the path for where to restore the graph database" );
+        System.err.println( "         -tx=<id>         --  to restore up to and including transaction <id>" );
+        System.err.println( "         -time=<timestamp> -- to restore up to the last transaction committed at or before" );
+        System.err.println( "                             <timestamp>, in milliseconds or as " + TIME_FORMATS[0] );
+        System.err.println( "                             (UTC unless a zone is given)" );
+        System.err.println( "         -verify=false    --  to skip the consistency check of the restored store" );
+        System.err.println( "NOTE:    the store in <dir with logs> is started to read its logs, so it must not be in use" );
+    }
+
+    static long parseTime( String time )
+    {
+        try
+        {
+            return Long.parseLong( time );
+        }
+        catch ( NumberFormatException e )
+        {
+            for ( String pattern : TIME_FORMATS )
+            {
+                SimpleDateFormat format = new SimpleDateFormat( pattern );
+                format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+                format.setLenient( false );
+                try
+                {
+                    return format.parse( time ).getTime();
+                }
+                catch ( ParseException notThisOne )
+                {
+                    // try the next
+                }
+            }
+            throw new IllegalArgumentException( "Invalid timestamp '" + time + "'" );
+        }
+    }
+
+    /**
+     * Restores {@code backup} into {@code targetDirectory} and applies the
+     * transactions in the logs in {@code logs} that follow it, up to and
+     * including {@code toTx}, as long as they were committed at or before
+     * {@code toTime}.
+     *
+     * @return the id of the last transaction of the graph store in the
+     *         restored store.
+     */
+    public static long restore( File backup, File logs, String targetDirectory, long toTx, long toTime,
+            boolean verification ) throws IOException
+    {
+        copyStore( backup, new File( targetDirectory ) );
+        long lastTx;
+        GraphDatabaseAPI targetDb = OnlineBackup.startTemporaryDb( targetDirectory,
+                VerificationLevel.NONE /* run full check instead */ );
+        try
+        {
+            XaDataSource nioneo = targetDb.getXaDataSourceManager().getNeoStoreDataSource();
+            lastTx = nioneo.getLastCommittedTxId();
+            if ( lastTx > toTx )
+            {
+                throw new IOException( "The backup is at transaction " + lastTx + ", past " + toTx );
+            }
+            if ( toTime != Long.MAX_VALUE ) assertBackupCommittedBefore( lastTx, toTime, backup, logs );
+            GraphDatabaseAPI sourceDb = OnlineBackup.startTemporaryDb( logs.getAbsolutePath(), KEEP_LOGS );
+            try
+            {
+                Cut cut = new Cut( toTx == Long.MAX_VALUE ? toTime : cutTimeOfBackup( lastTx, backup, logs ) );
+                XaDataSource sourceNioneo = sourceDb.getXaDataSourceManager().getNeoStoreDataSource();
+                lastTx = applyGraphTransactions( sourceNioneo, nioneo, logs, toTx, toTime, cut );
+                for ( XaDataSource source : sourceDb.getXaDataSourceManager().getAllRegisteredDataSources() )
+                {
+                    if ( source.getName().equals( sourceNioneo.getName() ) ) continue;
+                    XaDataSource target = targetDb.getXaDataSourceManager().getXaDataSource( source.getName() );
+                    if ( target == null )
+                    {
+                        throw new IOException( "The restored store has no data source '" + source.getName()
+                                               + "' to apply the transactions of" );
+                    }
+                    applyOtherTransactions( source, target, cut );
+                }
+            }
+            finally
+            {
+                sourceDb.shutdown();
+            }
+        }
+        finally
+        {
+            targetDb.shutdown();
+        }
+        OnlineBackup.bumpLogFile( targetDirectory, System.currentTimeMillis() );
+        if ( verification )
+        {
+            OnlineBackup.checkConsistency( targetDirectory );
+        }
+        return lastTx;
+    }
+
+    private static final ConfigParam KEEP_LOGS = new ConfigParam()
+    {
+        @Override
+        public void configure( Map<String, String> config )
+        {
+            config.put( GraphDatabaseSettings.keep_logical_logs.name(), GraphDatabaseSetting.TRUE );
+        }
+    };
+
+    /**
+     * Where the data sources are cut: the global ids of the transactions
+     * that also updated the graph store, split by whether their part in it
+     * was applied, and the time that the transactions that didn't are cut
+     * at.
+     */
+    private static class Cut
+    {
+        final Set<ByteBuffer> applied = new HashSet<ByteBuffer>();
+        final Set<ByteBuffer> notApplied = new HashSet<ByteBuffer>();
+        long time;
+
+        Cut( long time )
+        {
+            this.time = time;
+        }
+
+        boolean includes( ByteBuffer globalId, long startTime )
+        {
+            if ( applied.contains( globalId ) ) return true;
+            if ( notApplied.contains( globalId ) ) return false;
+            return startTime <= time;
+        }
+    }
+
+    /**
+     * @return the time to cut the other data sources at when the graph store
+     *         stays as of the backup, the time its last transaction was
+     *         committed.
+     */
+    private static long cutTimeOfBackup( long lastTx, File backup, File logs )
+    {
+        if ( lastTx <= 1 ) return Long.MIN_VALUE;
+        long committed = commitTime( backup, lastTx );
+        return committed != -1 ? committed : commitTime( logs, lastTx );
+    }
+
+    private static long applyGraphTransactions( XaDataSource source, XaDataSource target, File logs, long toTx,
+            long toTime, Cut cut ) throws IOException
+    {
+        ProgressIndicator progress = new ProgressIndicator.UnknownEndProgress( 1000, "Transactions applied" );
+        long lastTx = target.getLastCommittedTxId(), count = 0, lastTime = -1;
+        LogExtractor extractor = source.getLogExtractor( lastTx + 1, source.getLastCommittedTxId() );
+        try
+        {
+            ByteBuffer scratch = LogTransactions.newEntryBuffer();
+            ByteBuffer copy = ByteBuffer.allocate( 64 * 1024 );
+            XaCommandFactory commandFactory = new LogTransactions.CommandFactory();
+            boolean applying = true;
+            for ( InMemoryLogBuffer buffer = new InMemoryLogBuffer(); ; buffer.reset() )
+            {
+                long txId = extractor.extractNext( buffer );
+                if ( txId == -1 ) break;
+                if ( applying && txId != lastTx + 1 )
+                {
+                    throw new IOException( "The logs in " + logs + " don't continue from transaction " + lastTx
+                                           + ", found " + txId );
+                }
+                byte[] data = LogTransactions.bytes( buffer, copy );
+                LogEntry.Start start = null;
+                LogEntry.Commit commit = null;
+                ReadableByteChannel entries = LogTransactions.channel( data );
+                for ( LogEntry entry; ( entry = LogIoUtils.readEntry( scratch, entries, commandFactory ) ) != null; )
+                {
+                    if ( entry instanceof LogEntry.Start ) start = (LogEntry.Start) entry;
+                    else if ( entry instanceof LogEntry.Commit ) commit = (LogEntry.Commit) entry;
+                }
+                if ( start == null || commit == null ) throw new IOException( "Transaction " + txId + " is incomplete" );
+                if ( applying && ( txId > toTx || commit.getTimeWritten() > toTime ) ) applying = false;
+                if ( commit instanceof LogEntry.TwoPhaseCommit )
+                {
+                    ByteBuffer globalId = ByteBuffer.wrap( start.getXid().getGlobalTransactionId() );
+                    ( applying ? cut.applied : cut.notApplied ).add( globalId );
+                }
+                if ( !applying ) continue;
+                target.applyCommittedTransaction( txId, LogTransactions.channel( data ) );
+                lastTx = txId;
+                lastTime = commit.getTimeWritten();
+                progress.update( true, 1 );
+                count++;
+            }
+        }
+        finally
+        {
+            extractor.close();
+        }
+        progress.done( count );
+        if ( toTx != Long.MAX_VALUE )
+        {
+            if ( lastTx < toTx )
+            {
+                throw new IOException( "The logs in " + logs + " end at transaction " + lastTx + ", before " + toTx
+                                       + ". The graph store in the target directory is consistent up to " + lastTx
+                                       + ", the other data sources haven't been brought forward" );
+            }
+            if ( lastTime != -1 ) cut.time = lastTime;
+        }
+        System.out.println( "Restored to transaction " + lastTx
+                            + ( lastTime == -1 ? "" : ", committed " + Format.date( lastTime ) ) );
+        return lastTx;
+    }
+
+    /**
+     * Applies the transactions of a data source other than the graph store,
+     * up to the first one that {@code cut} doesn't include. They are applied
+     * in the order of its log, which has no gaps.
+     */
+    private static void applyOtherTransactions( XaDataSource source, XaDataSource target, Cut cut )
+            throws IOException
+    {
+        long lastTx = target.getLastCommittedTxId(), count = 0;
+        LogExtractor extractor = source.getLogExtractor( lastTx + 1, source.getLastCommittedTxId() );
+        try
+        {
+            ByteBuffer copy = ByteBuffer.allocate( 64 * 1024 );
+            for ( InMemoryLogBuffer buffer = new InMemoryLogBuffer(); ; buffer.reset() )
+            {
+                long txId = extractor.extractNext( buffer );
+                if ( txId == -1 ) break;
+                if ( txId != lastTx + 1 )
+                {
+                    throw new IOException( "The logs of " + source.getName() + " don't continue from transaction "
+                                           + lastTx + ", found " + txId );
+                }
+                LogEntry.Start start = extractor.getLastStartEntry();
+                if ( !cut.includes( ByteBuffer.wrap( start.getXid().getGlobalTransactionId() ),
+                        start.getTimeWritten() ) ) break;
+                target.applyCommittedTransaction( txId, LogTransactions.channel( LogTransactions.bytes( buffer, copy ) ) );
+                lastTx = txId;
+                count++;
+            }
+        }
+        finally
+        {
+            extractor.close();
+        }
+        System.out.println( "Restored " + source.getName() + " to transaction " + lastTx + ", " + count + " applied" );
+    }
+
+    /**
+     * Makes sure the last transaction of the backup was committed at or
+     * before {@code toTime}, looking for it in the logs of the backup and
+     * then in {@code logs}, since a backup can't be rolled back.
+     */
+    private static void assertBackupCommittedBefore( long lastTx, long toTime, File backup, File logs )
+            throws IOException
+    {
+        if ( lastTx <= 1 ) return; // nothing has been committed to an empty store
+        long committed = commitTime( backup, lastTx );
+        if ( committed == -1 ) committed = commitTime( logs, lastTx );
+        if ( committed == -1 )
+        {
+            throw new IOException( "Transaction " + lastTx + ", the last one in the backup, is in neither " + backup
+                                   + " nor " + logs + ", so it can't be told whether it was committed before "
+                                   + Format.date( toTime ) );
+        }
+        if ( committed > toTime )
+        {
+            throw new IOException( "The backup is at transaction " + lastTx + ", committed " + Format.date( committed )
+                                   + ", after " + Format.date( toTime ) );
+        }
+    }
+
+    /**
+     * @return the time transaction {@code txId} was committed, according to
+     *         the logs in {@code dir}, or {@code -1} if they don't have it.
+     */
+    private static long commitTime( File dir, long txId )
+    {
+        try
+        {
+            LogExtractor extractor = LogExtractor.from( dir.getAbsolutePath(), txId );
+            try
+            {
+                InMemoryLogBuffer buffer = new InMemoryLogBuffer();
+                if ( extractor.extractNext( buffer ) != txId ) return -1;
+                byte[] data = LogTransactions.bytes( buffer, ByteBuffer.allocate( 64 * 1024 ) );
+                return commitEntry( data, LogTransactions.newEntryBuffer(), new LogTransactions.CommandFactory() )
+                        .getTimeWritten();
+            }
+            finally
+            {
+                extractor.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            return -1;
+        }
+        catch ( RuntimeException e )
+        {
+            return -1;
+        }
+    }
+
+    private static LogEntry.Commit commitEntry( byte[] transaction, ByteBuffer scratch,
+            XaCommandFactory commandFactory ) throws IOException
+    {
+        ReadableByteChannel data = LogTransactions.channel( transaction );
+        for ( LogEntry entry; ( entry = LogIoUtils.readEntry( scratch, data, commandFactory ) ) != null; )
+        {
+            if ( entry instanceof LogEntry.Commit ) return (LogEntry.Commit) entry;
+        }
+        throw new IOException( "Transaction without commit entry" );
+    }
+
+    /**
+     * Copies the files in {@code from} to {@code to}, sequentially and with
+     * as little copying through the heap as the platform allows.
+     */
+    private static void copyStore( File from, File to ) throws IOException
+    {
+        to.mkdirs();
+        File[] files = from.listFiles();
+        if ( files == null ) throw new IOException( "Unable to list " + from );
+        for ( File file : files )
+        {
+            File target = new File( to, file.getName() );
+            if ( file.isDirectory() )
+            {
+                copyStore( file, target );
+                continue;
+            }
+            FileChannel source = new FileInputStream( file ).getChannel();
+            try
+            {
+                FileChannel destination = new FileOutputStream( target ).getChannel();
+                try
+                {
+                    for ( long position = 0, size = source.size(); position < size; )
+                    {
+                        position += source.transferTo( position, size - position, destination );
+                    }
+                    destination.force( false );
+                }
+                finally
+                {
+                    destination.close();
+                }
+            }
+            finally
+            {
+                source.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup;
+
+import static org.neo4j.com.Protocol.readString;
+import static org.neo4j.com.Protocol.writeString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.neo4j.com.Deserializer;
+import org.neo4j.com.ObjectSerializer;
+import org.neo4j.com.SlaveContext;
+import org.neo4j.com.SlaveContext.Tx;
+
+/**
+ * What the backup server tells a client preparing a parallel full backup: the
+ * id of the snapshot to copy files from, the store files with their sizes and
+ * the transactions to catch up from once they are copied.
+ */
+class StoreFileListing
+{
+    private final long snapshotId;
+    private final SlaveContext context;
+    private final Map<String, Long> fileSizes;
+
+    StoreFileListing( long snapshotId, SlaveContext context, Map<String, Long> fileSizes )
+    {
+        this.snapshotId = snapshotId;
+        this.context = context;
+        this.fileSizes = Collections.unmodifiableMap( new LinkedHashMap<String, Long>( fileSizes ) );
+    }
+
+    long snapshotId()
+    {
+        return snapshotId;
+    }
+
+    SlaveContext context()
+    {
+        return context;
+    }
+
+    Map<String, Long> fileSizes()
+    {
+        return fileSizes;
+    }
+
+    static final ObjectSerializer<StoreFileListing> SERIALIZER = new ObjectSerializer<StoreFileListing>()
+    {
+        @Override
+        public void write( StoreFileListing listing, ChannelBuffer result ) throws IOException
+        {
+            result.writeLong( listing.snapshotId );
+            Tx[] txs = listing.context.lastAppliedTransactions();
+            result.writeByte( txs.length );
+            for ( Tx tx : txs )
+            {
+                writeString( result, tx.getDataSourceName() );
+                result.writeLong( tx.getTxId() );
+            }
+            result.writeInt( listing.fileSizes.size() );
+            for ( Map.Entry<String, Long> file : listing.fileSizes.entrySet() )
+            {
+                writeString( result, file.getKey() );
+                result.writeLong( file.getValue() );
+            }
+        }
+    };
+
+    static final Deserializer<StoreFileListing> DESERIALIZER = new Deserializer<StoreFileListing>()
+    {
+        @Override
+        public StoreFileListing read( ChannelBuffer buffer, ByteBuffer temporaryBuffer ) throws IOException
+        {
+            long snapshotId = buffer.readLong();
+            Tx[] txs = new Tx[buffer.readUnsignedByte()];
+            for ( int i = 0; i < txs.length; i++ )
+            {
+                txs[i] = SlaveContext.lastAppliedTx( readString( buffer ), buffer.readLong() );
+            }
+            int fileCount = buffer.readInt();
+            Map<String, Long> fileSizes = new LinkedHashMap<String, Long>();
+            for ( int i = 0; i < fileCount; i++ )
+            {
+                fileSizes.put( readString( buffer ), buffer.readLong() );
+            }
+            return new StoreFileListing( snapshotId, SlaveContext.anonymous( txs ), fileSizes );
+        }
+    };
+}
@@ -19,6 +19,7 @@
  */
 package org.neo4j.backup;
 
+import org.neo4j.com.BlockChecksums;
 import org.neo4j.com.Response;
 import org.neo4j.com.SlaveContext;
 import org.neo4j.com.StoreWriter;
@@ -26,6 +27,34 @@ import org.neo4j.com.StoreWriter;
 public interface TheBackupInterface
 {
     Response<Void> fullBackup( StoreWriter writer );
-    
+
+    /**
+     * Like {@link #fullBackup(StoreWriter)}, but only writes the blocks of the
+     * store files that differ from {@code checksums}, the checksums of the
+     * files the client already has.
+     */
+    Response<Void> fullBackupDelta( BlockChecksums checksums, StoreWriter writer );
+
     Response<Void> incrementalBackup( SlaveContext context );
+
+    /**
+     * Rotates the logs and snapshots the list of store files, for copying
+     * them with {@link #copyStoreFileRange(long, String, long, long, long, StoreWriter)}.
+     */
+    Response<StoreFileListing> prepareParallelBackup();
+
+    /**
+     * Writes {@code length} bytes, or everything if negative, from
+     * {@code offset} in the file at {@code path} in snapshot {@code snapshotId}.
+     * Nothing is written if the CRC32 checksum of those bytes is
+     * {@code checksum}, i.e. if the client already has them.
+     */
+    Response<Void> copyStoreFileRange( long snapshotId, String path, long offset, long length, long checksum,
+            StoreWriter writer );
+
+    /**
+     * Releases snapshot {@code snapshotId} and returns the transactions
+     * committed after {@code context}.
+     */
+    Response<Void> finishParallelBackup( SlaveContext context, long snapshotId );
 }
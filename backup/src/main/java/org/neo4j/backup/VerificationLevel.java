@@ -38,6 +38,7 @@ enum VerificationLevel implements ConfigParam
     },
     VERIFYING( VerifyingTransactionInterceptorProvider.NAME, "true" ),
     LOGGING( InconsistencyLoggingTransactionInterceptorProvider.NAME, "diff" ),
+    ASYNC_LOGGING( InconsistencyLoggingTransactionInterceptorProvider.NAME, "diff;async" ),
     FULL_WITH_LOGGING( InconsistencyLoggingTransactionInterceptorProvider.NAME, "full" );
 
     private final String interceptorName;
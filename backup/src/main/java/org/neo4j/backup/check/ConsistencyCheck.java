@@ -67,15 +67,22 @@ import static org.neo4j.backup.check.InconsistencyType.ReferenceInconsistency.TY
 import static org.neo4j.backup.check.InconsistencyType.ReferenceInconsistency.UNUSED_KEY_NAME;
 import static org.neo4j.backup.check.InconsistencyType.ReferenceInconsistency.UNUSED_TYPE_NAME;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.neo4j.backup.check.InconsistencyType.ReferenceInconsistency;
 import org.neo4j.helpers.Args;
 import org.neo4j.helpers.ProgressIndicator;
+import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.impl.nioneo.store.AbstractBaseRecord;
 import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
@@ -101,6 +108,20 @@ import org.neo4j.kernel.impl.nioneo.store.StoreAccess;
  * dynamic record chain for incremental checks (if the {@link RecordStore stores}
  * are {@link DiffRecordStore diff stores}). Also, this checking is very
  * incomplete.
+ *
+ * A full check can be run by multiple threads, in which case each store is
+ * split into id ranges that are handed out to the worker threads. The stores
+ * are still checked one after another. Inconsistencies found by different
+ * threads are reported one at a time through the same {@code report(...)}
+ * methods. Incremental checks (on {@link DiffRecordStore diff stores}) are
+ * always single threaded.
+ *
+ * A full check can also defer the checks of references from node,
+ * relationship and property records into other records. Those references are
+ * collected in {@link DeferredReferences sorted batches} during the scan and
+ * checked afterwards by reading each referenced store in order of id, which
+ * replaces random reads with sequential ones. In that mode a record with more
+ * than one broken reference may be counted more than once.
  */
 public abstract class ConsistencyCheck extends RecordStore.Processor implements Runnable, Iterable<RecordStore<?>>
 {
@@ -120,6 +141,11 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
         Args params = new Args( args );
         boolean propowner = params.getBoolean( "propowner", false, true );
         boolean recovery = params.getBoolean( "recovery", false, true );
+        int threads = Integer.parseInt( params.get( "threads", "1" ) );
+        long ownerMemory = Long.parseLong( params.get( "ownermemory",
+                Long.toString( DEFAULT_OWNER_MEMORY / ( 1024 * 1024 ) ) ) ) * 1024 * 1024;
+        boolean sequential = params.getBoolean( "sequential", false, true );
+        long mappedMemory = Long.parseLong( params.get( "mappedmemory", "1024" ) ) * 1024 * 1024;
         args = params.orphans().toArray( new String[0] );
         if ( args.length != 1 )
         {
@@ -127,7 +153,9 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
             System.exit( -1 );
             return;
         }
-        EmbeddedGraphDatabase graphdb = new EmbeddedGraphDatabase( args[ 0 ] );
+        EmbeddedGraphDatabase graphdb = sequential
+                ? new EmbeddedGraphDatabase( args[ 0 ], sequentialScanConfig( new File( args[ 0 ] ), mappedMemory ) )
+                : new EmbeddedGraphDatabase( args[ 0 ] );
         StoreAccess stores = new StoreAccess( graphdb );
         
         // TODO: check for the existence of active logical logs and report:
@@ -138,7 +166,7 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
 //        StoreAccess stores = new StoreAccess( args[0] );
         try
         {
-            run( stores, propowner );
+            run( stores, propowner, threads, ownerMemory, sequential );
         }
         finally
         {
@@ -149,21 +177,75 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
     private static void printUsage( String... msgLines )
     {
         for ( String line : msgLines ) System.err.println( line );
-        System.err.println( Args.jarUsage( ConsistencyCheck.class, "[-propowner] <storedir>" ) );
+        System.err.println( Args.jarUsage( ConsistencyCheck.class,
+                "[-propowner] [-ownermemory=<mb>] [-threads=<n>] [-sequential [-mappedmemory=<mb>]] <storedir>" ) );
         System.err.println( "WHERE:   <storedir>  is the path to the store to check" );
         System.err.println( "         -propowner  --  to verify that properties are owned only once" );
         System.err.println( "         -recovery   --  to perform recovery on the store before checking" );
+        System.err.println( "         -ownermemory=<mb> -- memory to track property owners in before spilling to disk" );
+        System.err.println( "         -threads=<n> -- number of threads to check the store with (default 1)" );
+        System.err.println( "         -sequential --  to check references between stores in sequential passes" );
+        System.err.println( "         -mappedmemory=<mb> -- memory to map store files with when checking sequentially (default 1024)" );
+    }
+
+    private static final String[] SCANNED_STORE_FILES = { "neostore.nodestore.db", "neostore.relationshipstore.db",
+            "neostore.propertystore.db", "neostore.propertystore.db.strings", "neostore.propertystore.db.arrays" };
+
+    /**
+     * Configuration that memory maps the scanned store files in as large
+     * windows as {@code mappedMemory} allows, dividing it between the files in
+     * proportion to their size, so that they can be read sequentially.
+     */
+    static Map<String, String> sequentialScanConfig( File storeDir, long mappedMemory )
+    {
+        long total = 0;
+        for ( String file : SCANNED_STORE_FILES ) total += new File( storeDir, file ).length();
+        Map<String, String> config = MapUtil.stringMap( "use_memory_mapped_buffers", "true" );
+        for ( String file : SCANNED_STORE_FILES )
+        {
+            long size = new File( storeDir, file ).length();
+            if ( total > mappedMemory ) size = (long) ( (double) size / total * mappedMemory );
+            config.put( file + ".mapped_memory", Math.max( 1, size / ( 1024 * 1024 ) + 1 ) + "M" );
+        }
+        return config;
     }
 
     public static void run( StoreAccess stores, boolean propowner )
     {
-        new ConsistencyCheck( stores, propowner )
+        run( stores, propowner, 1 );
+    }
+
+    public static void run( StoreAccess stores, boolean propowner, int threads )
+    {
+        run( stores, propowner, threads, DEFAULT_OWNER_MEMORY );
+    }
+
+    public static void run( StoreAccess stores, boolean propowner, int threads, long ownerMemory )
+    {
+        run( stores, propowner, threads, ownerMemory, false );
+    }
+
+    public static void run( StoreAccess stores, boolean propowner, int threads, long ownerMemory, boolean sequential )
+    {
+        reporting( stores, propowner, threads, ownerMemory, sequential ).run();
+    }
+
+    /**
+     * @return a checker that prints inconsistencies to {@link System#out} and
+     *         progress to {@link System#err}.
+     */
+    static ConsistencyCheck reporting( StoreAccess stores, boolean propowner, int threads, long ownerMemory,
+            boolean sequential )
+    {
+        return new ConsistencyCheck( stores, propowner, threads, ownerMemory, sequential )
         {
             @Override
             ProgressIndicator.MultiProgress progressInit()
             {
                 System.err.println( "Checking consistency"
-                                    + ( propowners() ? " (with property owner verification)" : "" ) + " on:" );
+                                    + ( propowners() ? " (with property owner verification)" : "" )
+                                    + ( threads() > 1 ? " using " + threads() + " threads" : "" )
+                                    + ( defersReferences() ? " with sequential reference checking" : "" ) + " on:" );
                 long total = 0;
                 for ( RecordStore<?> store : this )
                 {
@@ -191,7 +273,7 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
             {
                 System.out.println( record + " //" + inconsistency.message() );
             }
-        }.run();
+        };
     }
 
     private final RecordStore<NodeRecord> nodes;
@@ -208,8 +290,25 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
         return Arrays.<RecordStore<?>>asList( nodes, rels, props, strings, arrays, propIndexes, relTypes, propKeys,
                 typeNames ).iterator();
     }
-    private final HashMap<Long/*property record id*/, PropertyOwner> propertyOwners;
-    private long brokenNodes, brokenRels, brokenProps, brokenStrings, brokenArrays, brokenTypes, brokenKeys;
+    private final OffHeapLongMap/*property record id -> encoded PropertyOwner*/ propertyOwners;
+    private final AtomicLong brokenNodes = new AtomicLong(), brokenRels = new AtomicLong(),
+            brokenProps = new AtomicLong(), brokenStrings = new AtomicLong(), brokenArrays = new AtomicLong(),
+            brokenTypes = new AtomicLong(), brokenKeys = new AtomicLong();
+    private final int threads;
+    private final boolean deferReferences;
+    private DeferredReferences[] deferred;
+    private final Object reportLock = new Object();
+
+    /**
+     * Number of record ids a worker thread checks before asking for a new range.
+     */
+    static final int PARALLEL_BATCH_SIZE = 10000;
+
+    /**
+     * Direct memory used for tracking property owners before spilling to a
+     * temporary file, unless specified.
+     */
+    public static final long DEFAULT_OWNER_MEMORY = Runtime.getRuntime().maxMemory() / 4;
 
     /**
      * Creates a standard checker.
@@ -225,7 +324,8 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
      * Creates a standard checker or a checker that validates property owners.
      *
      * Property ownership validation validates that each property record is only
-     * referenced once. This check has a bit of memory overhead.
+     * referenced once. This check uses eight bytes of memory per property
+     * record, outside of the java heap.
      *
      * @param stores the stores to check.
      * @param checkPropertyOwners if <code>true</code> ownership validation will
@@ -233,6 +333,60 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
      */
     public ConsistencyCheck( StoreAccess stores, boolean checkPropertyOwners )
     {
+        this( stores, checkPropertyOwners, 1 );
+    }
+
+    /**
+     * Creates a checker that uses {@code threads} threads for checking the
+     * records of each store.
+     *
+     * @param stores the stores to check.
+     * @param checkPropertyOwners if <code>true</code> ownership validation will
+     *            be performed.
+     * @param threads the number of threads to use for a full check.
+     */
+    public ConsistencyCheck( StoreAccess stores, boolean checkPropertyOwners, int threads )
+    {
+        this( stores, checkPropertyOwners, threads, DEFAULT_OWNER_MEMORY );
+    }
+
+    /**
+     * Creates a checker that uses {@code threads} threads for checking the
+     * records of each store and at most {@code ownerMemory} bytes of direct
+     * memory for property ownership validation. Property owners that don't fit
+     * are kept in a memory mapped temporary file.
+     *
+     * @param stores the stores to check.
+     * @param checkPropertyOwners if <code>true</code> ownership validation will
+     *            be performed.
+     * @param threads the number of threads to use for a full check.
+     * @param ownerMemory bytes of direct memory to use for ownership validation.
+     */
+    public ConsistencyCheck( StoreAccess stores, boolean checkPropertyOwners, int threads, long ownerMemory )
+    {
+        this( stores, checkPropertyOwners, threads, ownerMemory, false );
+    }
+
+    /**
+     * Creates a checker that, if {@code deferReferences} is <code>true</code>,
+     * collects references between records during a full check and checks them
+     * afterwards in order of the referenced record, reading each referenced
+     * store sequentially rather than at random.
+     *
+     * @param stores the stores to check.
+     * @param checkPropertyOwners if <code>true</code> ownership validation will
+     *            be performed.
+     * @param threads the number of threads to use for a full check.
+     * @param ownerMemory bytes of direct memory to use for ownership validation.
+     * @param deferReferences if <code>true</code> references will be checked
+     *            in sequential passes after the scan of a full check.
+     */
+    public ConsistencyCheck( StoreAccess stores, boolean checkPropertyOwners, int threads, long ownerMemory,
+            boolean deferReferences )
+    {
+        if ( threads < 1 ) throw new IllegalArgumentException( "Number of threads must be positive, not " + threads );
+        this.threads = threads;
+        this.deferReferences = deferReferences;
         this.nodes = stores.getNodeStore();
         this.rels = stores.getRelationshipStore();
         this.props = stores.getPropertyStore();
@@ -242,7 +396,8 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
         this.propIndexes = stores.getPropertyIndexStore();
         this.propKeys = stores.getPropertyKeyStore();
         this.typeNames = stores.getTypeNameStore();
-        this.propertyOwners = checkPropertyOwners ? new HashMap<Long, PropertyOwner>() : null;
+        this.propertyOwners = checkPropertyOwners ? new OffHeapLongMap( ownerMemory,
+                OffHeapLongMap.pageShiftFor( props == null ? 0 : props.getHighId() ) ) : null;
     }
 
     boolean propowners()
@@ -250,6 +405,26 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
         return propertyOwners != null;
     }
 
+    /**
+     * Lets go of the memory used for verifying property owners. Call this when
+     * done with a checker that has been used for something else than
+     * {@link #run()}, which does it by itself.
+     */
+    public void release()
+    {
+        if ( propertyOwners != null ) propertyOwners.release();
+    }
+
+    int threads()
+    {
+        return threads;
+    }
+
+    boolean defersReferences()
+    {
+        return deferReferences;
+    }
+
     private static abstract class PropertyOwner
     {
         final long id;
@@ -259,6 +434,17 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
             this.id = id;
         }
 
+        /**
+         * @return this owner as a single non-negative long, the id shifted
+         *         left with the lowest bit telling nodes from relationships.
+         */
+        abstract long encode();
+
+        static PropertyOwner decode( long encoded )
+        {
+            return ( encoded & 1 ) == 0 ? new OwningNode( encoded >>> 1 ) : new OwningRelationship( encoded >>> 1 );
+        }
+
         abstract RecordStore<? extends PrimitiveRecord> storeFrom( ConsistencyCheck tool );
 
         abstract long otherOwnerOf( PropertyRecord prop );
@@ -275,6 +461,12 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
             super( id );
         }
 
+        @Override
+        long encode()
+        {
+            return id << 1;
+        }
+
         @Override
         RecordStore<? extends PrimitiveRecord> storeFrom( ConsistencyCheck tool )
         {
@@ -307,6 +499,12 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
             super( id );
         }
 
+        @Override
+        long encode()
+        {
+            return ( id << 1 ) | 1;
+        }
+
         @Override
         RecordStore<? extends PrimitiveRecord> storeFrom( ConsistencyCheck tool )
         {
@@ -337,25 +535,164 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
     public void run()
     {
         ProgressIndicator.MultiProgress progress = progressInit();
-
-        applyFiltered( nodes, progress, RecordStore.IN_USE );
-        applyFiltered( rels, progress, RecordStore.IN_USE );
-        // free up some heap space that isn't needed anymore
-        if ( propertyOwners != null ) propertyOwners.clear();
-        applyFiltered( props, progress, RecordStore.IN_USE );
-        // free up some heap space that isn't needed anymore
-        if ( propertyOwners != null ) propertyOwners.clear();
-        applyFiltered( strings, progress, RecordStore.IN_USE );
-        applyFiltered( arrays, progress, RecordStore.IN_USE );
-        applyFiltered( relTypes, progress, RecordStore.IN_USE );
-        applyFiltered( propIndexes, progress, RecordStore.IN_USE );
-        applyFiltered( propKeys, progress, RecordStore.IN_USE );
-        applyFiltered( typeNames, progress, RecordStore.IN_USE );
+        boolean full = !checksDiffs();
+        ExecutorService executor = full && threads > 1 ? Executors.newFixedThreadPool( threads ) : null;
+        if ( full && deferReferences )
+        {
+            deferred = new DeferredReferences[Deferred.values().length];
+            int batchSize = DeferredReferences.batchSizeFor( DeferredReferences.DEFAULT_BATCH_SIZE,
+                    executor == null ? 1 : threads );
+            for ( int i = 0; i < deferred.length; i++ )
+                deferred[i] = new DeferredReferences( batchSize );
+        }
+        try
+        {
+            apply( executor, nodes, progress );
+            apply( executor, rels, progress );
+            // free up some heap space that isn't needed anymore
+            if ( propertyOwners != null ) propertyOwners.clear();
+            apply( executor, props, progress );
+            // free up some heap space that isn't needed anymore
+            if ( propertyOwners != null ) propertyOwners.clear();
+            apply( executor, strings, progress );
+            apply( executor, arrays, progress );
+            apply( executor, relTypes, progress );
+            apply( executor, propIndexes, progress );
+            apply( executor, propKeys, progress );
+            apply( executor, typeNames, progress );
+            if ( deferred != null ) resolveDeferred();
+        }
+        finally
+        {
+            if ( executor != null ) executor.shutdown();
+            release();
+            if ( deferred != null )
+            {
+                for ( DeferredReferences references : deferred ) references.clear();
+                deferred = null;
+            }
+        }
 
         if (progress != null) progress.done();
         checkResult();
     }
 
+    private boolean checksDiffs()
+    {
+        for ( RecordStore<?> store : this )
+        {
+            if ( store instanceof DiffRecordStore<?> ) return true;
+        }
+        return false;
+    }
+
+    private void defer( Deferred kind, long target, long source, long data )
+    {
+        deferred[kind.ordinal()].add( target, source, data );
+    }
+
+    /**
+     * Checks all deferred references, one kind at a time, reading the
+     * referenced records in order of id.
+     */
+    private void resolveDeferred()
+    {
+        for ( final Deferred kind : Deferred.values() )
+        {
+            final RecordStore<?> store = kind.target( this );
+            deferred[kind.ordinal()].resolve( new DeferredReferences.Resolver()
+            {
+                private long currentId = -1;
+                private AbstractBaseRecord current;
+
+                @Override
+                public void resolve( long target, long source, long data )
+                {
+                    if ( target != currentId )
+                    {
+                        current = store.forceGetRecord( target );
+                        currentId = target;
+                    }
+                    if ( kind.check( ConsistencyCheck.this, source, data, current ) )
+                        kind.brokenCount( ConsistencyCheck.this, data ).incrementAndGet();
+                }
+            } );
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private <R extends AbstractBaseRecord> void apply( ExecutorService executor, RecordStore<R> store,
+            ProgressIndicator.MultiProgress progress )
+    {
+        if ( executor == null )
+        {
+            applyFiltered( store, progress, RecordStore.IN_USE );
+        }
+        else
+        {
+            applyParallel( executor, store, progress );
+        }
+    }
+
+    /**
+     * Checks all records in use in {@code store}, with each worker repeatedly
+     * claiming the next {@link #PARALLEL_BATCH_SIZE} ids until the high id of
+     * the store is reached. Returns when all records have been checked.
+     */
+    private <R extends AbstractBaseRecord> void applyParallel( ExecutorService executor, final RecordStore<R> store,
+            final ProgressIndicator.MultiProgress progress )
+    {
+        if ( store == null ) return;
+        final long highId = store.getHighId();
+        final AtomicLong nextId = new AtomicLong();
+        List<Future<?>> workers = new ArrayList<Future<?>>( threads );
+        for ( int i = 0; i < threads; i++ )
+        {
+            workers.add( executor.submit( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for ( long start; ( start = nextId.getAndAdd( PARALLEL_BATCH_SIZE ) ) < highId; )
+                    {
+                        long end = Math.min( start + PARALLEL_BATCH_SIZE, highId );
+                        for ( long id = start; id < end; id++ )
+                        {
+                            R record = store.forceGetRecord( id );
+                            if ( record.inUse() ) store.accept( ConsistencyCheck.this, record );
+                        }
+                        if ( progress != null )
+                        {
+                            synchronized ( progress )
+                            {
+                                progress.update( true, end - start );
+                            }
+                        }
+                    }
+                }
+            } ) );
+        }
+        for ( Future<?> worker : workers )
+        {
+            try
+            {
+                worker.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException( "Interrupted while checking " + store, e );
+            }
+            catch ( ExecutionException e )
+            {
+                Throwable cause = e.getCause();
+                if ( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+                if ( cause instanceof Error ) throw (Error) cause;
+                throw new RuntimeException( "Failed to check " + store, cause );
+            }
+        }
+    }
+
     ProgressIndicator.MultiProgress progressInit()
     {
         return null;
@@ -371,6 +708,10 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
      */
     public void checkResult() throws AssertionError
     {
+        long brokenNodes = this.brokenNodes.get(), brokenRels = this.brokenRels.get(),
+                brokenProps = this.brokenProps.get(), brokenStrings = this.brokenStrings.get(),
+                brokenArrays = this.brokenArrays.get(), brokenTypes = this.brokenTypes.get(),
+                brokenKeys = this.brokenKeys.get();
         if ( brokenNodes != 0 || brokenRels != 0 || brokenProps != 0 || brokenStrings != 0 || brokenArrays != 0 || brokenTypes != 0 || brokenKeys != 0 )
         {
             throw new AssertionError(
@@ -383,19 +724,19 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
     @Override
     public void processNode( RecordStore<NodeRecord> store, NodeRecord node )
     {
-        if ( checkNode( node ) ) brokenNodes++;
+        if ( checkNode( node ) ) brokenNodes.incrementAndGet();
     }
 
     @Override
     public void processRelationship( RecordStore<RelationshipRecord> store, RelationshipRecord rel )
     {
-        if ( checkRelationship( rel ) ) brokenRels++;
+        if ( checkRelationship( rel ) ) brokenRels.incrementAndGet();
     }
 
     @Override
     public void processProperty( RecordStore<PropertyRecord> store, PropertyRecord property )
     {
-        if ( checkProperty( property ) ) brokenProps++;
+        if ( checkProperty( property ) ) brokenProps.incrementAndGet();
     }
 
     @Override
@@ -403,26 +744,26 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
     {
         if ( checkDynamic( store, string ) )
         {
-            brokenStrings++;
+            brokenStrings.incrementAndGet();
         }
     }
 
     @Override
     public void processArray( RecordStore<DynamicRecord> store, DynamicRecord array )
     {
-        if ( checkDynamic( store, array ) ) brokenArrays++;
+        if ( checkDynamic( store, array ) ) brokenArrays.incrementAndGet();
     }
 
     @Override
     public void processRelationshipType( RecordStore<RelationshipTypeRecord> store, RelationshipTypeRecord type )
     {
-        if ( checkType( type ) ) brokenTypes++;
+        if ( checkType( type ) ) brokenTypes.incrementAndGet();
     }
 
     @Override
     public void processPropertyIndex( RecordStore<PropertyIndexRecord> store, PropertyIndexRecord index )
     {
-        if ( checkKey( index ) ) brokenKeys++;
+        if ( checkKey( index ) ) brokenKeys.incrementAndGet();
     }
 
     private boolean checkNode( NodeRecord node )
@@ -445,16 +786,22 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
         long relId = node.getNextRel();
         if ( !Record.NO_NEXT_RELATIONSHIP.value( relId ) )
         {
-            RelationshipRecord rel = rels.forceGetRecord( relId );
-            if ( !rel.inUse() )
-                fail |= inconsistent( nodes, node, rels, rel, RELATIONSHIP_NOT_IN_USE );
-            else if ( !( rel.getFirstNode() == node.getId() || rel.getSecondNode() == node.getId() ) )
-                fail |= inconsistent( nodes, node, rels, rel, RELATIONSHIP_FOR_OTHER_NODE );
+            if ( deferred != null ) defer( Deferred.NODE_RELATIONSHIP, relId, node.getId(), 0 );
+            else fail |= checkNodeRelationship( node.getId(), rels.forceGetRecord( relId ) );
         }
         fail |= checkPropertyReference( node, nodes, new OwningNode( node.getId() ) );
         return fail;
     }
 
+    private boolean checkNodeRelationship( long nodeId, RelationshipRecord rel )
+    {
+        if ( !rel.inUse() )
+            return inconsistent( nodes, nodes.forceGetRecord( nodeId ), rels, rel, RELATIONSHIP_NOT_IN_USE );
+        else if ( !( rel.getFirstNode() == nodeId || rel.getSecondNode() == nodeId ) )
+            return inconsistent( nodes, nodes.forceGetRecord( nodeId ), rels, rel, RELATIONSHIP_FOR_OTHER_NODE );
+        return false;
+    }
+
     private <R extends PrimitiveRecord> boolean checkPropertyReference( R primitive, RecordStore<R> store, PropertyOwner owner )
     {
         boolean fail = false;
@@ -465,13 +812,11 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
             {
                 if ( !Record.NO_NEXT_PROPERTY.value( primitive.getNextProp() ) )
                 {
-                    PropertyRecord prop = props.forceGetRecord( primitive.getNextProp() );
-                    fail |= checkPropertyOwner( prop, owner );
-                    if ( !prop.inUse() )
-                        fail |= inconsistent( store, primitive, props, prop, PROPERTY_NOT_IN_USE );
-                    else if ( owner.otherOwnerOf( prop ) != -1
-                              || ( owner.ownerOf( prop ) != -1 && owner.ownerOf( prop ) != primitive.getId() ) )
-                        fail |= inconsistent( store, primitive, props, prop, PROPERTY_FOR_OTHER );
+                    fail |= checkPropertyOwner( primitive.getNextProp(), owner );
+                    if ( deferred != null )
+                        defer( Deferred.PRIMITIVE_PROPERTY, primitive.getNextProp(), primitive.getId(), owner.encode() );
+                    else
+                        fail |= checkOwnedProperty( owner, props.forceGetRecord( primitive.getNextProp() ) );
                 }
                 if ( old.inUse() && old.getNextProp() != primitive.getNextProp() )
                 { // first property changed for this primitive record ...
@@ -497,6 +842,23 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
         return fail;
     }
 
+    @SuppressWarnings( "unchecked" )
+    private boolean checkOwnedProperty( PropertyOwner owner, PropertyRecord prop )
+    {
+        if ( !prop.inUse() )
+        {
+            RecordStore<PrimitiveRecord> store = (RecordStore<PrimitiveRecord>) owner.storeFrom( this );
+            return inconsistent( store, store.forceGetRecord( owner.id ), props, prop, PROPERTY_NOT_IN_USE );
+        }
+        else if ( owner.otherOwnerOf( prop ) != -1
+                  || ( owner.ownerOf( prop ) != -1 && owner.ownerOf( prop ) != owner.id ) )
+        {
+            RecordStore<PrimitiveRecord> store = (RecordStore<PrimitiveRecord>) owner.storeFrom( this );
+            return inconsistent( store, store.forceGetRecord( owner.id ), props, prop, PROPERTY_FOR_OTHER );
+        }
+        return false;
+    }
+
     private boolean checkRelationship( RelationshipRecord rel )
     {
         boolean fail = false;
@@ -543,18 +905,19 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
                 Long nodeId = field.nodeOf( rel );
                 if ( nodeId != null )
                 {
-                    NodeRecord node = nodes.forceGetRecord( nodeId );
-                    if ( !node.inUse() || node.getNextRel() != rel.getId() )
-                        fail |= inconsistent( rels, rel, nodes, node, field.noBackReference );
+                    if ( deferred != null )
+                        defer( Deferred.RELATIONSHIP_NODE_BACK_REFERENCE, nodeId, rel.getId(), field.ordinal() );
+                    else
+                        fail |= checkRelationshipBackReference( rel.getId(), field, nodes.forceGetRecord( nodeId ) );
                 }
             }
             else
             {
-                RelationshipRecord other = rels.forceGetRecord( otherId );
-                if ( !other.inUse() )
-                    fail |= inconsistent( rels, rel, other, field.notInUse );
-                else if ( !field.invConsistent( rel, other ) )
-                    fail |= inconsistent( rels, rel, other, field.differentChain );
+                long node = field.getNode( rel );
+                if ( deferred != null )
+                    defer( Deferred.RELATIONSHIP_NEIGHBOUR, otherId, rel.getId(), ( node << 2 ) | field.ordinal() );
+                else
+                    fail |= checkRelationshipNeighbour( rel.getId(), node, field, rels.forceGetRecord( otherId ) );
             }
         }
         for ( NodeField field : nodeFields )
@@ -562,24 +925,47 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
             long nodeId = field.get( rel );
             if ( nodeId < 0 )
                 fail |= inconsistent( rels, rel, field.invalidReference);
+            else if ( deferred != null )
+                defer( Deferred.RELATIONSHIP_NODE, nodeId, rel.getId(), field.ordinal() );
             else
-            {
-                NodeRecord node = nodes.forceGetRecord( nodeId );
-                if ( !node.inUse() )
-                    fail |= inconsistent( rels, rel, nodes, node, field.notInUse );
-            }
+                fail |= checkRelationshipNode( rel.getId(), field, nodes.forceGetRecord( nodeId ) );
         }
         fail |= checkPropertyReference( rel, rels, new OwningRelationship( rel.getId() ) );
         return fail;
     }
 
-    private boolean checkPropertyOwner( PropertyRecord prop, PropertyOwner newOwner )
+    private boolean checkRelationshipBackReference( long relId, RelationshipField field, NodeRecord node )
+    {
+        if ( !node.inUse() || node.getNextRel() != relId )
+            return inconsistent( rels, rels.forceGetRecord( relId ), nodes, node, field.noBackReference );
+        return false;
+    }
+
+    private boolean checkRelationshipNeighbour( long relId, long node, RelationshipField field,
+            RelationshipRecord other )
+    {
+        if ( !other.inUse() )
+            return inconsistent( rels, rels.forceGetRecord( relId ), other, field.notInUse );
+        else if ( !field.invConsistent( relId, node, other ) )
+            return inconsistent( rels, rels.forceGetRecord( relId ), other, field.differentChain );
+        return false;
+    }
+
+    private boolean checkRelationshipNode( long relId, NodeField field, NodeRecord node )
+    {
+        if ( !node.inUse() )
+            return inconsistent( rels, rels.forceGetRecord( relId ), nodes, node, field.notInUse );
+        return false;
+    }
+
+    private boolean checkPropertyOwner( long propId, PropertyOwner newOwner )
     {
         if (propertyOwners == null) return false;
-        Long propId = Long.valueOf( prop.getId() );
-        PropertyOwner oldOwner = propertyOwners.put( propId, newOwner );
-        if ( oldOwner != null )
+        long previous = propertyOwners.put( propId, newOwner.encode() );
+        if ( previous != OffHeapLongMap.ABSENT )
         {
+            PropertyOwner oldOwner = PropertyOwner.decode( previous );
+            PropertyRecord prop = props.forceGetRecord( propId );
             @SuppressWarnings( "unchecked" )
             RecordStore<PrimitiveRecord> oldStore = (RecordStore<PrimitiveRecord>) oldOwner.storeFrom( this ),
                                          newStore = (RecordStore<PrimitiveRecord>) newOwner.storeFrom( this );
@@ -681,14 +1067,37 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
             }
             if ( dynStore != null )
             {
-                DynamicRecord dynrec = dynStore.forceGetRecord( block.getSingleValueLong() );
-                if ( !dynrec.inUse() )
-                    fail |= inconsistent( props, property, dynStore, dynrec, DYNAMIC_NOT_IN_USE.forBlock( block ) );
+                if ( deferred != null )
+                    defer( dynStore == strings ? Deferred.PROPERTY_STRING : Deferred.PROPERTY_ARRAY,
+                            block.getSingleValueLong(), property.getId(), 0 );
+                else
+                    fail |= checkPropertyDynamic( property, block, dynStore,
+                            dynStore.forceGetRecord( block.getSingleValueLong() ) );
             }
         }
         return fail;
     }
 
+    private boolean checkPropertyDynamic( PropertyRecord property, PropertyBlock block,
+            RecordStore<DynamicRecord> dynStore, DynamicRecord dynrec )
+    {
+        if ( !dynrec.inUse() )
+            return inconsistent( props, property, dynStore, dynrec, DYNAMIC_NOT_IN_USE.forBlock( block ) );
+        return false;
+    }
+
+    private boolean checkPropertyDynamic( long propId, RecordStore<DynamicRecord> dynStore, DynamicRecord dynrec )
+    {
+        if ( dynrec.inUse() ) return false;
+        PropertyRecord property = props.forceGetRecord( propId );
+        for ( PropertyBlock block : property.getPropertyBlocks() )
+        {
+            if ( block.getSingleValueLong() == dynrec.getId() )
+                return checkPropertyDynamic( property, block, dynStore, dynrec );
+        }
+        return false;
+    }
+
     private boolean checkOwnerChain( PropertyRecord property )
     {
         boolean fail = false;
@@ -833,21 +1242,30 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
     private <R1 extends AbstractBaseRecord, R2 extends AbstractBaseRecord> boolean inconsistent(
             RecordStore<R1> recordStore, R1 record, RecordStore<? extends R2> referredStore, R2 referred, InconsistencyType type )
     {
-        report( recordStore, record, referredStore, referred, type );
+        synchronized ( reportLock )
+        {
+            report( recordStore, record, referredStore, referred, type );
+        }
         return !type.isWarning();
     }
 
     private <R extends AbstractBaseRecord> boolean inconsistent(
             RecordStore<R> store, R record, R referred, InconsistencyType type )
     {
-        report( store, record, store, referred, type );
+        synchronized ( reportLock )
+        {
+            report( store, record, store, referred, type );
+        }
         return !type.isWarning();
     }
 
     // Internal inconsistency in a single record
     private <R extends AbstractBaseRecord> boolean inconsistent( RecordStore<R> store, R record, InconsistencyType type )
     {
-        report( store, record, type );
+        synchronized ( reportLock )
+        {
+            report( store, record, type );
+        }
         return !type.isWarning();
     }
 
@@ -872,6 +1290,148 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
      */
     protected abstract <R extends AbstractBaseRecord> void report( RecordStore<R> recordStore, R record, InconsistencyType inconsistency );
 
+    /**
+     * The kinds of references that can be deferred, see {@link DeferredReferences}.
+     * Each kind knows which store the referenced records are in, how to check a
+     * reference given the id of the referring record, the extra data stored
+     * with it and the referenced record, and which count a failure adds to.
+     */
+    private enum Deferred
+    {
+        NODE_RELATIONSHIP
+        {
+            @Override
+            RecordStore<?> target( ConsistencyCheck checker )
+            {
+                return checker.rels;
+            }
+
+            @Override
+            boolean check( ConsistencyCheck checker, long source, long data, AbstractBaseRecord target )
+            {
+                return checker.checkNodeRelationship( source, (RelationshipRecord) target );
+            }
+
+            @Override
+            AtomicLong brokenCount( ConsistencyCheck checker, long data )
+            {
+                return checker.brokenNodes;
+            }
+        },
+        RELATIONSHIP_NODE
+        {
+            @Override
+            RecordStore<?> target( ConsistencyCheck checker )
+            {
+                return checker.nodes;
+            }
+
+            @Override
+            boolean check( ConsistencyCheck checker, long source, long data, AbstractBaseRecord target )
+            {
+                return checker.checkRelationshipNode( source, nodeFields[(int) data], (NodeRecord) target );
+            }
+        },
+        RELATIONSHIP_NODE_BACK_REFERENCE
+        {
+            @Override
+            RecordStore<?> target( ConsistencyCheck checker )
+            {
+                return checker.nodes;
+            }
+
+            @Override
+            boolean check( ConsistencyCheck checker, long source, long data, AbstractBaseRecord target )
+            {
+                return checker.checkRelationshipBackReference( source, relFields[(int) data], (NodeRecord) target );
+            }
+        },
+        RELATIONSHIP_NEIGHBOUR
+        {
+            @Override
+            RecordStore<?> target( ConsistencyCheck checker )
+            {
+                return checker.rels;
+            }
+
+            @Override
+            boolean check( ConsistencyCheck checker, long source, long data, AbstractBaseRecord target )
+            {
+                return checker.checkRelationshipNeighbour( source, data >> 2, relFields[(int) ( data & 3 )],
+                        (RelationshipRecord) target );
+            }
+        },
+        PRIMITIVE_PROPERTY
+        {
+            @Override
+            RecordStore<?> target( ConsistencyCheck checker )
+            {
+                return checker.props;
+            }
+
+            @Override
+            boolean check( ConsistencyCheck checker, long source, long data, AbstractBaseRecord target )
+            {
+                return checker.checkOwnedProperty( PropertyOwner.decode( data ), (PropertyRecord) target );
+            }
+
+            @Override
+            AtomicLong brokenCount( ConsistencyCheck checker, long data )
+            {
+                return PropertyOwner.decode( data ) instanceof OwningNode ? checker.brokenNodes : checker.brokenRels;
+            }
+        },
+        PROPERTY_STRING
+        {
+            @Override
+            RecordStore<?> target( ConsistencyCheck checker )
+            {
+                return checker.strings;
+            }
+
+            @Override
+            boolean check( ConsistencyCheck checker, long source, long data, AbstractBaseRecord target )
+            {
+                return checker.checkPropertyDynamic( source, checker.strings, (DynamicRecord) target );
+            }
+
+            @Override
+            AtomicLong brokenCount( ConsistencyCheck checker, long data )
+            {
+                return checker.brokenProps;
+            }
+        },
+        PROPERTY_ARRAY
+        {
+            @Override
+            RecordStore<?> target( ConsistencyCheck checker )
+            {
+                return checker.arrays;
+            }
+
+            @Override
+            boolean check( ConsistencyCheck checker, long source, long data, AbstractBaseRecord target )
+            {
+                return checker.checkPropertyDynamic( source, checker.arrays, (DynamicRecord) target );
+            }
+
+            @Override
+            AtomicLong brokenCount( ConsistencyCheck checker, long data )
+            {
+                return checker.brokenProps;
+            }
+        };
+
+        abstract RecordStore<?> target( ConsistencyCheck checker );
+
+        abstract boolean check( ConsistencyCheck checker, long source, long data, AbstractBaseRecord target );
+
+        AtomicLong brokenCount( ConsistencyCheck checker, long data )
+        {
+            return checker.brokenRels;
+        }
+    }
+
     private static NodeField[] nodeFields = NodeField.values();
     private static RelationshipField[] relFields = RelationshipField.values();
 
@@ -916,11 +1476,10 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
             }
 
             @Override
-            boolean invConsistent( RelationshipRecord rel, RelationshipRecord other )
+            boolean invConsistent( long relId, long node, RelationshipRecord other )
             {
-                long node = getNode( rel );
-                if ( other.getFirstNode() == node ) return other.getFirstPrevRel() == rel.getId();
-                if ( other.getSecondNode() == node ) return other.getSecondPrevRel() == rel.getId();
+                if ( other.getFirstNode() == node ) return other.getFirstPrevRel() == relId;
+                if ( other.getSecondNode() == node ) return other.getSecondPrevRel() == relId;
                 return false;
             }
         },
@@ -940,11 +1499,10 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
             }
 
             @Override
-            boolean invConsistent( RelationshipRecord rel, RelationshipRecord other )
+            boolean invConsistent( long relId, long node, RelationshipRecord other )
             {
-                long node = getNode( rel );
-                if ( other.getFirstNode() == node ) return other.getFirstNextRel() == rel.getId();
-                if ( other.getSecondNode() == node ) return other.getSecondNextRel() == rel.getId();
+                if ( other.getFirstNode() == node ) return other.getFirstNextRel() == relId;
+                if ( other.getSecondNode() == node ) return other.getSecondNextRel() == relId;
                 return false;
             }
         },
@@ -957,11 +1515,10 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
             }
 
             @Override
-            boolean invConsistent( RelationshipRecord rel, RelationshipRecord other )
+            boolean invConsistent( long relId, long node, RelationshipRecord other )
             {
-                long node = getNode( rel );
-                if ( other.getFirstNode() == node ) return other.getFirstPrevRel() == rel.getId();
-                if ( other.getSecondNode() == node ) return other.getSecondPrevRel() == rel.getId();
+                if ( other.getFirstNode() == node ) return other.getFirstPrevRel() == relId;
+                if ( other.getSecondNode() == node ) return other.getSecondPrevRel() == relId;
                 return false;
             }
         },
@@ -981,11 +1538,10 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
             }
 
             @Override
-            boolean invConsistent( RelationshipRecord rel, RelationshipRecord other )
+            boolean invConsistent( long relId, long node, RelationshipRecord other )
             {
-                long node = getNode( rel );
-                if ( other.getFirstNode() == node ) return other.getFirstNextRel() == rel.getId();
-                if ( other.getSecondNode() == node ) return other.getSecondNextRel() == rel.getId();
+                if ( other.getFirstNode() == node ) return other.getFirstNextRel() == relId;
+                if ( other.getSecondNode() == node ) return other.getSecondNextRel() == relId;
                 return false;
             }
         };
@@ -1003,7 +1559,12 @@ public abstract class ConsistencyCheck extends RecordStore.Processor implements
             this.differentChain = differentChain;
         }
 
-        abstract boolean invConsistent( RelationshipRecord rel, RelationshipRecord other );
+        boolean invConsistent( RelationshipRecord rel, RelationshipRecord other )
+        {
+            return invConsistent( rel.getId(), getNode( rel ), other );
+        }
+
+        abstract boolean invConsistent( long relId, long node, RelationshipRecord other );
 
         long getNode( RelationshipRecord rel )
         {
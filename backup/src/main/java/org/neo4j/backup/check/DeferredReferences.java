@@ -0,0 +1,369 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup.check;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects references between records as (target id, source id, data) triples
+ * so that they can be verified in order of target id, i.e. by reading the
+ * target store sequentially instead of looking up each target as the source
+ * record is checked.
+ *
+ * References are buffered in memory in batches of a fixed size, one batch
+ * per adding thread so that threads checking different parts of a store do
+ * not contend on adding. A full batch is sorted and written to a temporary
+ * file, shared by all threads, as a sorted run. When resolving, all runs and
+ * the last, partial, batch of each thread are merged.
+ *
+ * Adding is thread safe, resolving is not.
+ */
+class DeferredReferences
+{
+    interface Resolver
+    {
+        void resolve( long target, long source, long data );
+    }
+
+    static final int DEFAULT_BATCH_SIZE = 1 << 20;
+    private static final int MIN_BATCH_SIZE = 1 << 10;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private final int batchSize;
+    private final List<Batch> batches = new ArrayList<Batch>();
+    private volatile ThreadLocal<Batch> batch = newBatches();
+    private File runFile;
+    private DataOutputStream runOutput;
+    private long runFileSize;
+    private final List<long[]/*offset, count*/> runs = new ArrayList<long[]>();
+
+    /**
+     * @param batchSize the number of references each adding thread buffers
+     *            before writing them out as a sorted run.
+     */
+    DeferredReferences( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the batch size to use for each of {@code threads} adding
+     * threads so that together they buffer about as many references as one
+     * thread would with {@code batchSize}.
+     */
+    static int batchSizeFor( int batchSize, int threads )
+    {
+        return Math.max( MIN_BATCH_SIZE, batchSize / threads );
+    }
+
+    void add( long target, long source, long data )
+    {
+        batch.get().add( target, source, data );
+    }
+
+    synchronized boolean isEmpty()
+    {
+        if ( !runs.isEmpty() ) return false;
+        for ( Batch batch : batches )
+        {
+            if ( batch.size > 0 ) return false;
+        }
+        return true;
+    }
+
+    private ThreadLocal<Batch> newBatches()
+    {
+        return new ThreadLocal<Batch>()
+        {
+            @Override
+            protected Batch initialValue()
+            {
+                Batch batch = new Batch( batchSize );
+                synchronized ( DeferredReferences.this )
+                {
+                    batches.add( batch );
+                }
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * The references added by one thread that haven't been written out yet.
+     * Only touched by its own thread while adding.
+     */
+    private class Batch
+    {
+        private long[] targets, sources, data;
+        private int size;
+
+        Batch( int batchSize )
+        {
+            targets = new long[batchSize];
+            sources = new long[batchSize];
+            data = new long[batchSize];
+        }
+
+        void add( long target, long source, long data )
+        {
+            targets[size] = target;
+            sources[size] = source;
+            this.data[size] = data;
+            if ( ++size == targets.length )
+            {
+                sort( targets, sources, this.data, size );
+                writeRun( targets, sources, this.data, size );
+                size = 0;
+            }
+        }
+    }
+
+    private synchronized void writeRun( long[] targets, long[] sources, long[] data, int size )
+    {
+        try
+        {
+            if ( runFile == null )
+            {
+                runFile = File.createTempFile( "neo4j-consistency-check", ".refs" );
+                runFile.deleteOnExit();
+                runOutput = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( runFile ),
+                        READ_BUFFER_SIZE ) );
+            }
+            for ( int i = 0; i < size; i++ )
+            {
+                runOutput.writeLong( targets[i] );
+                runOutput.writeLong( sources[i] );
+                runOutput.writeLong( data[i] );
+            }
+            runs.add( new long[] { runFileSize, size } );
+            runFileSize += size * 24l;
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to write deferred references to " + runFile, e );
+        }
+    }
+
+    /**
+     * Feeds all references to {@code resolver} in order of target id and then
+     * forgets about them. Must not be called while references are being added.
+     */
+    synchronized void resolve( Resolver resolver )
+    {
+        PriorityQueue<Run> queue = new PriorityQueue<Run>();
+        try
+        {
+            for ( Batch batch : batches )
+            {
+                if ( batch.size == 0 ) continue;
+                sort( batch.targets, batch.sources, batch.data, batch.size );
+                add( queue, new MemoryRun( batch.targets, batch.sources, batch.data, batch.size ) );
+            }
+            if ( runOutput != null )
+            {
+                runOutput.flush();
+                for ( long[] run : runs ) add( queue, new FileRun( runFile, run[0], run[1] ) );
+            }
+            while ( !queue.isEmpty() )
+            {
+                Run run = queue.poll();
+                resolver.resolve( run.target, run.source, run.data );
+                add( queue, run );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to read deferred references from " + runFile, e );
+        }
+        finally
+        {
+            for ( Run run : queue ) run.close();
+            clear();
+        }
+    }
+
+    private static void add( PriorityQueue<Run> queue, Run run ) throws IOException
+    {
+        if ( run.next() ) queue.add( run );
+        else run.close();
+    }
+
+    synchronized void clear()
+    {
+        // threads that added keep their old batch in their thread local until
+        // they die, so make sure that it holds on to nothing big
+        for ( Batch batch : batches )
+        {
+            batch.targets = batch.sources = batch.data = null;
+            batch.size = 0;
+        }
+        batches.clear();
+        batch = newBatches();
+        runs.clear();
+        runFileSize = 0;
+        if ( runOutput != null )
+        {
+            try
+            {
+                runOutput.close();
+            }
+            catch ( IOException e )
+            {
+                // Nothing we can do about it, the file is deleted on exit anyway
+            }
+            runOutput = null;
+        }
+        if ( runFile != null )
+        {
+            runFile.delete();
+            runFile = null;
+        }
+    }
+
+    /**
+     * Heap sorts the first {@code size} entries of the three arrays by the
+     * values in {@code keys}.
+     */
+    static void sort( long[] keys, long[] a, long[] b, int size )
+    {
+        for ( int i = size / 2 - 1; i >= 0; i-- ) siftDown( keys, a, b, i, size );
+        for ( int end = size - 1; end > 0; end-- )
+        {
+            swap( keys, a, b, 0, end );
+            siftDown( keys, a, b, 0, end );
+        }
+    }
+
+    private static void siftDown( long[] keys, long[] a, long[] b, int root, int size )
+    {
+        for ( int child; ( child = 2 * root + 1 ) < size; root = child )
+        {
+            if ( child + 1 < size && keys[child + 1] > keys[child] ) child++;
+            if ( keys[root] >= keys[child] ) return;
+            swap( keys, a, b, root, child );
+        }
+    }
+
+    private static void swap( long[] keys, long[] a, long[] b, int i, int j )
+    {
+        long tmp = keys[i]; keys[i] = keys[j]; keys[j] = tmp;
+        tmp = a[i]; a[i] = a[j]; a[j] = tmp;
+        tmp = b[i]; b[i] = b[j]; b[j] = tmp;
+    }
+
+    private static abstract class Run implements Comparable<Run>
+    {
+        long target, source, data;
+
+        abstract boolean next() throws IOException;
+
+        void close()
+        {
+        }
+
+        @Override
+        public int compareTo( Run other )
+        {
+            return target < other.target ? -1 : ( target == other.target ? 0 : 1 );
+        }
+    }
+
+    private static class MemoryRun extends Run
+    {
+        private final long[] targets, sources, datas;
+        private final int size;
+        private int position;
+
+        MemoryRun( long[] targets, long[] sources, long[] datas, int size )
+        {
+            this.targets = targets;
+            this.sources = sources;
+            this.datas = datas;
+            this.size = size;
+        }
+
+        @Override
+        boolean next()
+        {
+            if ( position == size ) return false;
+            target = targets[position];
+            source = sources[position];
+            data = datas[position];
+            position++;
+            return true;
+        }
+    }
+
+    private static class FileRun extends Run
+    {
+        private final DataInputStream input;
+        private long remaining;
+
+        FileRun( File file, long offset, long count ) throws IOException
+        {
+            FileInputStream stream = new FileInputStream( file );
+            stream.getChannel().position( offset );
+            this.input = new DataInputStream( new BufferedInputStream( stream, READ_BUFFER_SIZE ) );
+            this.remaining = count;
+        }
+
+        @Override
+        boolean next() throws IOException
+        {
+            if ( remaining == 0 ) return false;
+            try
+            {
+                target = input.readLong();
+                source = input.readLong();
+                data = input.readLong();
+            }
+            catch ( EOFException e )
+            {
+                throw new IOException( "Deferred references file ended prematurely" );
+            }
+            remaining--;
+            return true;
+        }
+
+        @Override
+        void close()
+        {
+            try
+            {
+                input.close();
+            }
+            catch ( IOException e )
+            {
+                // Only read from, nothing lost
+            }
+        }
+    }
+}
@@ -19,9 +19,7 @@
  */
 package org.neo4j.backup.check;
 
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
 
 import org.neo4j.kernel.impl.nioneo.store.AbstractBaseRecord;
 import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
@@ -39,13 +37,13 @@ import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
 public class DiffRecordStore<R extends AbstractBaseRecord> implements RecordStore<R>, Iterable<Long>
 {
     private final RecordStore<R> actual;
-    private final Map<Long, R> diff;
+    private final LongRecordMap<R> diff;
     private long highId = -1;
 
     public DiffRecordStore( RecordStore<R> actual )
     {
         this.actual = actual;
-        this.diff = new HashMap<Long, R>();
+        this.diff = new LongRecordMap<R>();
     }
 
     @Override
@@ -54,6 +52,14 @@ public class DiffRecordStore<R extends AbstractBaseRecord> implements RecordStor
         return "Diff/" + actual;
     }
 
+    /**
+     * @return the store that this collects the differences to.
+     */
+    public RecordStore<R> getActualStore()
+    {
+        return actual;
+    }
+
     public void markDirty( long id )
     {
         if ( !diff.containsKey( id ) ) diff.put( id, null );
@@ -64,6 +70,14 @@ public class DiffRecordStore<R extends AbstractBaseRecord> implements RecordStor
         return diff.get( id ) != null;
     }
 
+    /**
+     * @return the number of records that have been modified or marked dirty.
+     */
+    public int size()
+    {
+        return diff.size();
+    }
+
     public R forceGetRaw( long id )
     {
         return actual.forceGetRecord( id );
@@ -134,13 +148,23 @@ public class DiffRecordStore<R extends AbstractBaseRecord> implements RecordStor
     @Override
     public Iterator<Long> iterator()
     {
-        return diff.keySet().iterator();
+        return diff.iterator();
+    }
+
+    /**
+     * Forgets all modified and dirty records, so that this store can be
+     * reused for another set of changes to the same store.
+     */
+    public void clear()
+    {
+        diff.clear();
+        highId = -1;
     }
 
     @Override
     public void close()
     {
-        diff.clear();
+        clear();
         actual.close();
     }
 
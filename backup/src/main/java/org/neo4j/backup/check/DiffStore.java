@@ -75,6 +75,18 @@ public class DiffStore extends StoreAccess implements CommandRecordVisitor
         return super.allStores();
     }
 
+    /**
+     * Forgets all changes, so that this can be reused for the next
+     * transaction instead of creating a new one.
+     */
+    public void clear()
+    {
+        for ( RecordStore<?> store : allStores() )
+        {
+            if ( store != null ) ( (DiffRecordStore<?>) store ).clear();
+        }
+    }
+
     @Override
     protected void apply( RecordStore.Processor processor, RecordStore<?> store )
     {
@@ -0,0 +1,281 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup.check;
+
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+import static org.neo4j.kernel.impl.util.StringLogger.SYSTEM;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.transaction.xa.Xid;
+
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.helpers.Args;
+import org.neo4j.kernel.DefaultFileSystemAbstraction;
+import org.neo4j.kernel.DefaultIdGeneratorFactory;
+import org.neo4j.kernel.DefaultLastCommittedTxIdSetter;
+import org.neo4j.kernel.DefaultTxHook;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.configuration.ConfigurationDefaults;
+import org.neo4j.kernel.impl.nioneo.store.AbstractBaseRecord;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.RecordStore;
+import org.neo4j.kernel.impl.nioneo.store.StoreAccess;
+import org.neo4j.kernel.impl.nioneo.store.StoreFactory;
+import org.neo4j.kernel.impl.nioneo.xa.Command;
+import org.neo4j.kernel.impl.transaction.xaframework.InMemoryLogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.LogEntry;
+import org.neo4j.kernel.impl.transaction.xaframework.LogExtractor;
+import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommandFactory;
+
+/**
+ * Checks only the records touched by a range of transactions, instead of the
+ * entire store.
+ *
+ * The transactions are read from the logical logs of the store and their
+ * commands are replayed through a {@link DiffStore}, which collects the ids of
+ * the node, relationship, property and dynamic records they wrote, along with
+ * the records those refer to. Those records are then checked, as they are in
+ * the store, with a {@link ConsistencyCheck}. This is meant to be run after an
+ * incremental backup, on the transactions it pulled, so the logical logs must
+ * have been kept and the store must have been shut down cleanly.
+ *
+ * Warning: inconsistencies in records that none of the transactions touched or
+ * referred to will not be found.
+ */
+public class IncrementalConsistencyCheck
+{
+    public static void main( String... args )
+    {
+        if ( args == null )
+        {
+            printUsage();
+            return;
+        }
+        Args params = new Args( args );
+        boolean propowner = params.getBoolean( "propowner", false, true );
+        String from = params.get( "from", null );
+        long toTx = Long.parseLong( params.get( "to", Long.toString( Long.MAX_VALUE ) ) );
+        args = params.orphans().toArray( new String[0] );
+        if ( args.length != 1 || from == null )
+        {
+            printUsage();
+            System.exit( -1 );
+            return;
+        }
+        try
+        {
+            run( args[0], Long.parseLong( from ), toTx, propowner );
+        }
+        catch ( IOException e )
+        {
+            e.printStackTrace( System.err );
+            System.exit( -1 );
+        }
+    }
+
+    private static void printUsage( String... msgLines )
+    {
+        for ( String line : msgLines ) System.err.println( line );
+        System.err.println( Args.jarUsage( IncrementalConsistencyCheck.class,
+                "-from=<txid> [-to=<txid>] [-propowner] <storedir>" ) );
+        System.err.println( "WHERE:   <storedir>  is the path to the store to check" );
+        System.err.println( "         -from=<txid> -- the first transaction whose records to check" );
+        System.err.println( "         -to=<txid>  --  the last transaction whose records to check (default the last in the logs)" );
+        System.err.println( "         -propowner  --  to verify that properties are owned only once" );
+    }
+
+    /**
+     * Checks the records touched by transactions {@code fromTx} to
+     * {@code toTx}, inclusive, in the store in {@code storeDir}.
+     *
+     * @throws AssertionError if any inconsistencies were found.
+     */
+    public static void run( String storeDir, long fromTx, long toTx, boolean propowner ) throws IOException
+    {
+        StoreFactory factory = new StoreFactory( new Config( new ConfigurationDefaults( GraphDatabaseSettings.class ).apply( stringMap() ) ),
+                new DefaultIdGeneratorFactory(), new DefaultFileSystemAbstraction(),
+                new DefaultLastCommittedTxIdSetter(), SYSTEM, new DefaultTxHook() );
+        NeoStore neoStore = factory.newNeoStore( new File( storeDir, NeoStore.DEFAULT_NAME ).getAbsolutePath() );
+        try
+        {
+            DiffStore touched = new DiffStore( neoStore );
+            long lastTx = collect( touched, storeDir, fromTx, toTx );
+            System.err.println( "Checking consistency of records touched by transactions " + fromTx + " to " + lastTx
+                                + ( propowner ? " (with property owner verification)" : "" ) + ":" );
+            for ( RecordStore<?> store : touched.allStores() )
+            {
+                System.err.println( "    " + ( (DiffRecordStore<?>) store ).size() + " records from " + store );
+            }
+            check( new StoreAccess( neoStore ), touched, propowner );
+        }
+        finally
+        {
+            neoStore.close();
+        }
+    }
+
+    /**
+     * Checks the records that have been touched in {@code touched}, as they
+     * are in {@code stores}, printing any inconsistencies.
+     *
+     * @throws AssertionError if any inconsistencies were found.
+     */
+    public static void check( StoreAccess stores, DiffStore touched, boolean propowner )
+    {
+        ConsistencyCheck checker = ConsistencyCheck.reporting( stores, propowner, 1,
+                ConsistencyCheck.DEFAULT_OWNER_MEMORY, false );
+        try
+        {
+            check( checker, touched );
+        }
+        finally
+        {
+            checker.release();
+        }
+        checker.checkResult();
+    }
+
+    /**
+     * Checks the records that have been touched in {@code touched}, as they
+     * are in {@code stores}, without reporting the inconsistencies.
+     *
+     * @return {@code true} if no inconsistencies were found.
+     */
+    public static boolean isConsistent( StoreAccess stores, DiffStore touched )
+    {
+        ConsistencyCheck checker = new ConsistencyCheck( stores )
+        {
+            @Override
+            protected <R1 extends AbstractBaseRecord, R2 extends AbstractBaseRecord> void report(
+                    RecordStore<R1> recordStore, R1 record, RecordStore<? extends R2> referredStore, R2 referred,
+                    InconsistencyType inconsistency )
+            {
+            }
+
+            @Override
+            protected <R extends AbstractBaseRecord> void report( RecordStore<R> recordStore, R record,
+                    InconsistencyType inconsistency )
+            {
+            }
+        };
+        try
+        {
+            check( checker, touched );
+        }
+        finally
+        {
+            checker.release();
+        }
+        try
+        {
+            checker.checkResult();
+            return true;
+        }
+        catch ( AssertionError e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Replays the commands of transactions {@code fromTx} to {@code toTx},
+     * inclusive, from the logical logs in {@code storeDir} into
+     * {@code touched}.
+     *
+     * @return the id of the last transaction replayed, or {@code fromTx - 1}
+     *         if there were none.
+     */
+    static long collect( DiffStore touched, String storeDir, long fromTx, long toTx ) throws IOException
+    {
+        long lastTx = fromTx - 1;
+        LogExtractor extractor = LogExtractor.from( storeDir, fromTx );
+        try
+        {
+            ByteBuffer scratch = ByteBuffer.allocateDirect( 9 + Xid.MAXGTRIDSIZE + Xid.MAXBQUALSIZE * 10 );
+            XaCommandFactory commandFactory = new CommandFactory();
+            for ( InMemoryLogBuffer buffer = new InMemoryLogBuffer();; buffer.reset() )
+            {
+                long txId = extractor.extractNext( buffer );
+                if ( txId == -1 || txId > toTx ) break;
+                for ( LogEntry entry; ( entry = LogIoUtils.readEntry( scratch, buffer, commandFactory ) ) != null; )
+                {
+                    if ( entry instanceof LogEntry.Command )
+                    {
+                        ( (Command) ( (LogEntry.Command) entry ).getXaCommand() ).accept( touched );
+                    }
+                }
+                lastTx = txId;
+            }
+        }
+        finally
+        {
+            extractor.close();
+        }
+        return lastTx;
+    }
+
+    /**
+     * Checks the records of the stores of {@code checker} that have been
+     * touched in {@code touched}, pairing each store of the checker with the
+     * diff of the same store in {@code touched}.
+     *
+     * @throws IllegalArgumentException if {@code touched} has no diff for one
+     *             of the stores of {@code checker}.
+     */
+    static void check( ConsistencyCheck checker, DiffStore touched )
+    {
+        Map<RecordStore<?>, DiffRecordStore<?>> diffs = new IdentityHashMap<RecordStore<?>, DiffRecordStore<?>>();
+        for ( RecordStore<?> diff : touched.allStores() )
+        {
+            if ( diff != null ) diffs.put( ( (DiffRecordStore<?>) diff ).getActualStore(), (DiffRecordStore<?>) diff );
+        }
+        for ( RecordStore<?> store : checker )
+        {
+            if ( store == null ) continue;
+            DiffRecordStore<?> diff = diffs.get( store );
+            if ( diff == null ) throw new IllegalArgumentException( "No changes collected for " + store );
+            check( checker, store, diff );
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static <R extends AbstractBaseRecord> void check( ConsistencyCheck checker, RecordStore<R> store,
+            DiffRecordStore<?> diff )
+    {
+        checker.applyById( store, (DiffRecordStore<R>) diff );
+    }
+
+    private static class CommandFactory extends XaCommandFactory
+    {
+        @Override
+        public XaCommand readCommand( ReadableByteChannel byteChannel, ByteBuffer buffer ) throws IOException
+        {
+            return Command.readCommand( null, byteChannel, buffer );
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup.check;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Maps record ids to records, or to nothing, without boxing the ids. The
+ * entries are kept in an open addressed table with linear probing, and the
+ * keys are also kept in the order they were added, so that the map can be
+ * iterated and {@link #clear() cleared} in time proportional to its size
+ * rather than its capacity. The table is kept when cleared, which is what
+ * makes it cheap to reuse for one transaction after another, unless it has
+ * grown beyond {@link #RETAINED_CAPACITY}.
+ *
+ * Not thread safe.
+ */
+class LongRecordMap<R> implements Iterable<Long>
+{
+    static final int INITIAL_CAPACITY = 64;
+    static final int RETAINED_CAPACITY = 1 << 16;
+
+    /**
+     * The value of keys that map to nothing, distinguishes them from free
+     * slots.
+     */
+    private static final Object NO_VALUE = new Object();
+
+    private long[] keys;
+    private Object[] values;
+    private long[] order;
+    private int size;
+
+    LongRecordMap()
+    {
+        allocate( INITIAL_CAPACITY );
+    }
+
+    private void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        order = new long[capacity / 2];
+    }
+
+    private int slot( long key )
+    {
+        return slot( keys, values, key );
+    }
+
+    private static int slot( long[] keys, Object[] values, long key )
+    {
+        int mask = keys.length - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) ( hash ^ ( hash >>> 32 ) ) & mask;
+        while ( values[slot] != null && keys[slot] != key )
+        {
+            slot = ( slot + 1 ) & mask;
+        }
+        return slot;
+    }
+
+    boolean containsKey( long key )
+    {
+        return values[slot( key )] != null;
+    }
+
+    /**
+     * @return the record for {@code key}, or {@code null} if there is none or
+     *         the key maps to nothing.
+     */
+    @SuppressWarnings( "unchecked" )
+    R get( long key )
+    {
+        Object value = values[slot( key )];
+        return value == NO_VALUE ? null : (R) value;
+    }
+
+    /**
+     * Maps {@code key} to {@code record}, which may be {@code null}.
+     */
+    void put( long key, R record )
+    {
+        int slot = slot( key );
+        if ( values[slot] == null )
+        {
+            if ( size == order.length )
+            {
+                grow();
+                slot = slot( key );
+            }
+            keys[slot] = key;
+            order[size++] = key;
+        }
+        values[slot] = record == null ? NO_VALUE : record;
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        long[] oldOrder = order;
+        allocate( keys.length * 2 );
+        System.arraycopy( oldOrder, 0, order, 0, size );
+        // In the order they were added, so that clear() can remove them in reverse
+        for ( int i = 0; i < size; i++ )
+        {
+            long key = oldOrder[i];
+            int slot = slot( key );
+            keys[slot] = key;
+            values[slot] = oldValues[slot( oldKeys, oldValues, key )];
+        }
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    void clear()
+    {
+        if ( keys.length > RETAINED_CAPACITY )
+        {
+            allocate( INITIAL_CAPACITY );
+        }
+        else
+        {
+            /*
+             * Removing the keys in the reverse order of adding them keeps the
+             * probe sequences of the remaining keys intact.
+             */
+            while ( size > 0 )
+            {
+                values[slot( order[--size] )] = null;
+            }
+        }
+        size = 0;
+    }
+
+    @Override
+    public Iterator<Long> iterator()
+    {
+        return new Iterator<Long>()
+        {
+            private int next;
+
+            @Override
+            public boolean hasNext()
+            {
+                return next < size;
+            }
+
+            @Override
+            public Long next()
+            {
+                if ( !hasNext() ) throw new NoSuchElementException();
+                return order[next++];
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup.check;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps record ids to non-negative long values without boxing and outside of
+ * the java heap. Since record ids are allocated densely from zero the keys are
+ * used directly as indexes into fixed size pages of longs, allocated as they
+ * are first written to. Pages are allocated as direct buffers until the
+ * memory budget is used up, after that they are memory mapped from a temporary
+ * file, leaving it to the operating system to page them in and out. Direct
+ * buffers are only freed when garbage collected, so the ones allocated are
+ * kept and reused after the map is {@link #clear() cleared}, which keeps the
+ * direct memory in use within the budget.
+ *
+ * Thread safe.
+ */
+class OffHeapLongMap
+{
+    static final long ABSENT = -1;
+    static final int DEFAULT_PAGE_SHIFT = 23;
+    private static final int STRIPES = 64;
+
+    private final long memoryBudget;
+    private final int pageShift;
+    private final int pageMask;
+    private final Object[] locks = new Object[STRIPES];
+    private volatile LongBuffer[] pages = new LongBuffer[0];
+    private long allocated;
+    private final List<ByteBuffer> directPages = new ArrayList<ByteBuffer>();
+    private final List<ByteBuffer> freePages = new ArrayList<ByteBuffer>();
+    private File spillFile;
+    private RandomAccessFile spillFileAccess;
+
+    /**
+     * @param memoryBudget the number of bytes of direct memory to use before
+     *            spilling over to a memory mapped temporary file.
+     * @param pageShift the two-logarithm of the number of entries in each page.
+     */
+    OffHeapLongMap( long memoryBudget, int pageShift )
+    {
+        if ( pageShift < 1 || pageShift > 27 )
+            throw new IllegalArgumentException( "Page shift must be between 1 and 27, not " + pageShift );
+        this.memoryBudget = memoryBudget;
+        this.pageShift = pageShift;
+        this.pageMask = ( 1 << pageShift ) - 1;
+        for ( int i = 0; i < locks.length; i++ ) locks[i] = new Object();
+    }
+
+    /**
+     * @return a page shift that is just large enough to fit {@code highId}
+     *         entries in a single page, or {@link #DEFAULT_PAGE_SHIFT} for
+     *         larger id ranges.
+     */
+    static int pageShiftFor( long highId )
+    {
+        int shift = 10;
+        while ( shift < DEFAULT_PAGE_SHIFT && ( 1l << shift ) < highId ) shift++;
+        return shift;
+    }
+
+    /**
+     * @return the previous value for {@code key}, or {@link #ABSENT}.
+     */
+    long put( long key, long value )
+    {
+        if ( key < 0 ) throw new IllegalArgumentException( "Negative key " + key );
+        if ( value < 0 ) throw new IllegalArgumentException( "Negative value " + value );
+        LongBuffer page = page( key >>> pageShift );
+        int offset = (int) ( key & pageMask );
+        synchronized ( locks[(int) ( key & ( STRIPES - 1 ) )] )
+        {
+            long previous = page.get( offset );
+            page.put( offset, value + 1 );
+            return previous - 1; // unwritten entries are zero, i.e. ABSENT
+        }
+    }
+
+    /**
+     * @return the value for {@code key}, or {@link #ABSENT}.
+     */
+    long get( long key )
+    {
+        if ( key < 0 ) return ABSENT;
+        LongBuffer[] pages = this.pages;
+        long pageIndex = key >>> pageShift;
+        if ( pageIndex >= pages.length || pages[(int) pageIndex] == null ) return ABSENT;
+        return pages[(int) pageIndex].get( (int) ( key & pageMask ) ) - 1;
+    }
+
+    private LongBuffer page( long pageIndex )
+    {
+        LongBuffer[] pages = this.pages;
+        if ( pageIndex < pages.length && pages[(int) pageIndex] != null ) return pages[(int) pageIndex];
+        return allocatePage( (int) pageIndex );
+    }
+
+    private synchronized LongBuffer allocatePage( int pageIndex )
+    {
+        LongBuffer[] pages = this.pages;
+        if ( pageIndex < pages.length && pages[pageIndex] != null ) return pages[pageIndex];
+        long pageBytes = 8l << pageShift;
+        ByteBuffer buffer;
+        if ( !freePages.isEmpty() )
+        {
+            buffer = freePages.remove( freePages.size() - 1 );
+        }
+        else if ( allocated + pageBytes <= memoryBudget )
+        {
+            buffer = ByteBuffer.allocateDirect( (int) pageBytes );
+            directPages.add( buffer );
+            allocated += pageBytes;
+        }
+        else
+        {
+            buffer = mapFromSpillFile( pageIndex * pageBytes, pageBytes );
+        }
+        LongBuffer page = buffer.order( ByteOrder.nativeOrder() ).asLongBuffer();
+        LongBuffer[] newPages = new LongBuffer[Math.max( pages.length, pageIndex + 1 )];
+        System.arraycopy( pages, 0, newPages, 0, pages.length );
+        newPages[pageIndex] = page;
+        this.pages = newPages;
+        return page;
+    }
+
+    private ByteBuffer mapFromSpillFile( long position, long size )
+    {
+        try
+        {
+            if ( spillFile == null )
+            {
+                spillFile = File.createTempFile( "neo4j-consistency-check", ".map" );
+                spillFile.deleteOnExit();
+                spillFileAccess = new RandomAccessFile( spillFile, "rw" );
+            }
+            // The file is sparse, regions that haven't been written to read as zeros
+            return spillFileAccess.getChannel().map( FileChannel.MapMode.READ_WRITE, position, size );
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to spill to temporary file " + spillFile, e );
+        }
+    }
+
+    /**
+     * @return the number of bytes of direct memory allocated, in use or kept
+     *         for reuse.
+     */
+    synchronized long allocatedMemory()
+    {
+        return allocated;
+    }
+
+    synchronized boolean hasSpilled()
+    {
+        return spillFile != null;
+    }
+
+    /**
+     * Removes all entries and releases the temporary file used. The direct
+     * memory is kept, zeroed, for the entries added after this.
+     */
+    synchronized void clear()
+    {
+        pages = new LongBuffer[0];
+        freePages.clear();
+        byte[] zeros = new byte[64 * 1024];
+        for ( ByteBuffer page : directPages )
+        {
+            page.clear();
+            while ( page.hasRemaining() )
+            {
+                page.put( zeros, 0, Math.min( zeros.length, page.remaining() ) );
+            }
+            page.clear();
+            freePages.add( page );
+        }
+        if ( spillFileAccess != null )
+        {
+            try
+            {
+                spillFileAccess.close();
+            }
+            catch ( IOException e )
+            {
+                // Nothing we can do about it, the file is deleted on exit anyway
+            }
+            spillFileAccess = null;
+        }
+        if ( spillFile != null )
+        {
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+
+    /**
+     * Removes all entries and lets go of all memory, direct and mapped, so
+     * that it can be reclaimed. The map can still be used afterwards, it then
+     * allocates memory anew.
+     */
+    synchronized void release()
+    {
+        clear();
+        freePages.clear();
+        directPages.clear();
+        allocated = 0;
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup.log;
+
+/**
+ * How the background verification of the transactions of a data source is
+ * keeping up, see
+ * {@link InconsistencyLoggingTransactionInterceptorProvider#asyncVerification(org.neo4j.kernel.impl.transaction.xaframework.XaDataSource)}.
+ */
+public interface AsyncVerification
+{
+    /**
+     * @return the number of milliseconds between the last verified
+     *         transaction being committed and it being verified.
+     */
+    long lag();
+
+    /**
+     * @return the number of transactions that weren't verified because the
+     *         queue was full or the data source was shutting down.
+     */
+    long dropped();
+
+    /**
+     * @return the number of transactions that have been verified.
+     */
+    long verified();
+
+    /**
+     * @return the number of transactions that weren't verified because they
+     *         weren't sampled.
+     */
+    long skipped();
+
+    /**
+     * @return the number of transactions waiting to be verified.
+     */
+    int queued();
+
+    boolean isShutdown();
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup.log;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Verifies transactions on a bounded pool of background threads, off the
+ * commit path. When the queue of transactions waiting to be verified is full,
+ * new transactions are dropped rather than holding up the commits, and only
+ * one in {@code sample} transactions is verified at all if asked to. How
+ * far behind the verification is, and how many transactions it has dropped,
+ * is written to the messages log at most once every
+ * {@link #REPORT_INTERVAL} milliseconds, when there is something to worry
+ * about.
+ *
+ * Idle threads go away after {@link #KEEP_ALIVE} milliseconds. The verifier
+ * must be {@link #shutdown(long) shut down} before the store it verifies is
+ * closed, which lets the queued verifications finish first.
+ */
+class AsyncVerifier implements AsyncVerification
+{
+    static final long REPORT_INTERVAL = 60 * 1000;
+    static final long LAG_WARNING = 5 * 1000;
+    static final long KEEP_ALIVE = 60 * 1000;
+
+    private final ThreadPoolExecutor executor;
+    private final int sample;
+    private final StringLogger msgLog;
+    private final DiffStorePool diffStores;
+    private final AtomicLong submitted = new AtomicLong(), verified = new AtomicLong(),
+            dropped = new AtomicLong(), skipped = new AtomicLong();
+    private volatile long lag;
+    private volatile long lastReport = System.currentTimeMillis();
+    private long droppedAtLastReport;
+
+    AsyncVerifier( int threads, int queueSize, int sample, StringLogger msgLog )
+    {
+        this.sample = Math.max( sample, 1 );
+        this.msgLog = msgLog;
+        this.diffStores = new DiffStorePool( threads );
+        this.executor = new ThreadPoolExecutor( threads, threads, KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( queueSize ), new ThreadFactory()
+                {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread( Runnable task )
+                    {
+                        Thread thread = new Thread( task, "Transaction verifier-" + count.incrementAndGet() );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                } );
+        this.executor.allowCoreThreadTimeOut( true );
+    }
+
+    /**
+     * @return the pool for the {@code DiffStore}s of the transactions verified
+     *         here, keeping as many for reuse as there are verifier threads.
+     */
+    DiffStorePool diffStores()
+    {
+        return diffStores;
+    }
+
+    /**
+     * Queues {@code verification} to be run in the background.
+     *
+     * @return {@code false} if it was skipped, because of sampling or
+     *         because the queue was full, and will not be run.
+     */
+    boolean submit( final Runnable verification )
+    {
+        if ( submitted.incrementAndGet() % sample != 0 )
+        {
+            skipped.incrementAndGet();
+            return false;
+        }
+        final long queued = System.currentTimeMillis();
+        try
+        {
+            executor.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        verification.run();
+                    }
+                    catch ( Throwable e )
+                    {
+                        msgLog.logMessage( "Asynchronous verification of a transaction failed", e );
+                    }
+                    finally
+                    {
+                        verified.incrementAndGet();
+                        lag = System.currentTimeMillis() - queued;
+                        report();
+                    }
+                }
+            } );
+            return true;
+        }
+        catch ( RejectedExecutionException e )
+        {
+            dropped.incrementAndGet();
+            report();
+            return false;
+        }
+    }
+
+    @Override
+    public long lag()
+    {
+        return lag;
+    }
+
+    @Override
+    public long dropped()
+    {
+        return dropped.get();
+    }
+
+    @Override
+    public long verified()
+    {
+        return verified.get();
+    }
+
+    @Override
+    public long skipped()
+    {
+        return skipped.get();
+    }
+
+    @Override
+    public int queued()
+    {
+        return executor.getQueue().size();
+    }
+
+    @Override
+    public boolean isShutdown()
+    {
+        return executor.isShutdown();
+    }
+
+    /**
+     * Stops taking new verifications and waits up to {@code timeoutMillis}
+     * for the queued ones to finish. The ones still queued after that are
+     * counted as dropped and never run.
+     */
+    void shutdown( long timeoutMillis )
+    {
+        executor.shutdown();
+        try
+        {
+            if ( executor.awaitTermination( timeoutMillis, TimeUnit.MILLISECONDS ) ) return;
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        List<Runnable> abandoned = executor.shutdownNow();
+        dropped.addAndGet( abandoned.size() );
+        msgLog.logMessage( "Asynchronous transaction verification didn't catch up before shutdown, "
+                           + abandoned.size() + " queued transactions were not verified" );
+    }
+
+    private void report()
+    {
+        long now = System.currentTimeMillis();
+        if ( now - lastReport < REPORT_INTERVAL ) return;
+        synchronized ( this )
+        {
+            if ( now - lastReport < REPORT_INTERVAL ) return;
+            lastReport = now;
+            long dropped = this.dropped.get();
+            if ( dropped == droppedAtLastReport && lag < LAG_WARNING ) return;
+            droppedAtLastReport = dropped;
+            msgLog.logMessage( "Asynchronous transaction verification is behind: " + verified.get() + " verified, "
+                               + dropped + " dropped, " + skipped.get() + " not sampled, " + executor.getQueue().size()
+                               + " queued, lag " + lag + " ms" );
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup.log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.neo4j.backup.check.DiffStore;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+
+/**
+ * Keeps the {@link DiffStore}s of verified transactions for reuse, since an
+ * interceptor is created for every transaction. Each transaction waiting to
+ * be verified holds one, which with background verification includes all
+ * the queued ones, so only up to {@code maxFree} are kept once released and
+ * the rest of a burst is left to the garbage collector.
+ */
+class DiffStorePool
+{
+    private final List<DiffStore> free = new ArrayList<DiffStore>();
+    private final int maxFree;
+    private NeoStore neoStore;
+
+    DiffStorePool( int maxFree )
+    {
+        this.maxFree = maxFree;
+    }
+
+    synchronized DiffStore acquire( NeoStore neoStore )
+    {
+        if ( this.neoStore != neoStore )
+        { // the data source has been restarted, the old ones wrap closed stores
+            free.clear();
+            this.neoStore = neoStore;
+        }
+        return free.isEmpty() ? new DiffStore( neoStore ) : free.remove( free.size() - 1 );
+    }
+
+    void release( NeoStore neoStore, DiffStore diffs )
+    {
+        diffs.clear();
+        synchronized ( this )
+        {
+            if ( this.neoStore == neoStore && free.size() < maxFree ) free.add( diffs );
+        }
+    }
+}
@@ -21,8 +21,13 @@ package org.neo4j.backup.log;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.ErrorState;
+import org.neo4j.graphdb.event.KernelEventHandler;
 import org.neo4j.helpers.Service;
 import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
 import org.neo4j.kernel.impl.transaction.xaframework.TransactionInterceptor;
@@ -35,6 +40,12 @@ public class InconsistencyLoggingTransactionInterceptorProvider extends
         TransactionInterceptorProvider
 {
     public static final String NAME = "inconsistencylog";
+    static final long SHUTDOWN_DRAIN_TIMEOUT = 10 * 1000;
+
+    private static final ConcurrentMap<XaDataSource, AsyncVerifier> verifiers =
+            new ConcurrentHashMap<XaDataSource, AsyncVerifier>();
+
+    private final DiffStorePool pool = new DiffStorePool( Runtime.getRuntime().availableProcessors() );
 
     public InconsistencyLoggingTransactionInterceptorProvider()
     {
@@ -72,7 +83,70 @@ public class InconsistencyLoggingTransactionInterceptorProvider extends
             String[] parts = config[i].split( "=", 2 );
             extra.put( parts[0].toLowerCase(), parts.length == 1 ? "true" : parts[1] );
         }
-        return new VerifyingTransactionInterceptor( (NeoStoreXaDataSource) ds, dependencyResolver.resolveDependency( StringLogger.class ), mode, false, extra );
+        StringLogger msgLog = dependencyResolver.resolveDependency( StringLogger.class );
+        AsyncVerifier async = asyncVerifier( ds, extra, msgLog, dependencyResolver );
+        return new VerifyingTransactionInterceptor( async == null ? pool : async.diffStores(), async,
+                (NeoStoreXaDataSource) ds, msgLog, mode, false, extra );
+    }
+
+    /**
+     * @return how the background verification of the transactions of
+     *         {@code ds} is keeping up, or {@code null} if they aren't
+     *         verified in the background.
+     */
+    public static AsyncVerification asyncVerification( XaDataSource ds )
+    {
+        return verifiers.get( ds );
+    }
+
+    /**
+     * The transactions are verified in the background if configured with
+     * {@code async[=<threads>]}, optionally with {@code queue=<size>} and
+     * {@code sample=<n>} to verify only one in n transactions. There is one
+     * verifier per data source, which is shut down, after verifying what it
+     * has queued, when the database shuts down.
+     */
+    private static synchronized AsyncVerifier asyncVerifier( final XaDataSource ds, Map<String, String> extra,
+            StringLogger msgLog, DependencyResolver dependencyResolver )
+    {
+        String threads = extra.get( "async" );
+        if ( threads == null || "false".equalsIgnoreCase( threads ) ) return null;
+        AsyncVerifier async = verifiers.get( ds );
+        if ( async == null )
+        {
+            async = new AsyncVerifier( "true".equalsIgnoreCase( threads ) ? 1 : Integer.parseInt( threads ),
+                    Integer.parseInt( extra.containsKey( "queue" ) ? extra.get( "queue" ) : "1000" ),
+                    Integer.parseInt( extra.containsKey( "sample" ) ? extra.get( "sample" ) : "1" ), msgLog );
+            verifiers.put( ds, async );
+            dependencyResolver.resolveDependency( GraphDatabaseService.class ).registerKernelEventHandler(
+                    new KernelEventHandler()
+                    {
+                        @Override
+                        public void beforeShutdown()
+                        {
+                            AsyncVerifier async = verifiers.remove( ds );
+                            if ( async != null ) async.shutdown( SHUTDOWN_DRAIN_TIMEOUT );
+                        }
+
+                        @Override
+                        public void kernelPanic( ErrorState error )
+                        {
+                        }
+
+                        @Override
+                        public Object getResource()
+                        {
+                            return null;
+                        }
+
+                        @Override
+                        public ExecutionOrder orderComparedTo( KernelEventHandler other )
+                        {
+                            return ExecutionOrder.DOESNT_MATTER;
+                        }
+                    } );
+        }
+        return async;
     }
 
     @Override
@@ -29,6 +29,7 @@ import org.neo4j.backup.check.InconsistencyType;
 import org.neo4j.helpers.collection.Visitor;
 import org.neo4j.kernel.impl.nioneo.store.AbstractBaseRecord;
 import org.neo4j.kernel.impl.nioneo.store.DataInconsistencyError;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NeoStoreRecord;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
@@ -82,6 +83,9 @@ class VerifyingTransactionInterceptor implements TransactionInterceptor
 
     private final boolean rejectInconsistentTransactions;
 
+    private final DiffStorePool pool;
+    private final AsyncVerifier async;
+    private final NeoStore neoStore;
     private final DiffStore diffs;
     private final StringLogger msgLog;
 
@@ -94,11 +98,30 @@ class VerifyingTransactionInterceptor implements TransactionInterceptor
 
     private final StringLogger difflog;
 
-    VerifyingTransactionInterceptor( NeoStoreXaDataSource ds, StringLogger stringLogger, CheckerMode mode,
-            boolean rejectInconsistentTransactions, Map<String, String> extraConfig )
+    VerifyingTransactionInterceptor( DiffStorePool pool, NeoStoreXaDataSource ds, StringLogger stringLogger,
+            CheckerMode mode, boolean rejectInconsistentTransactions, Map<String, String> extraConfig )
     {
+        this( pool, null, ds, stringLogger, mode, rejectInconsistentTransactions, extraConfig );
+    }
+
+    /**
+     * @param async the verifier to verify the transaction in the background
+     *            with, instead of in {@link #complete()}, or {@code null}.
+     *            Inconsistent transactions can't be rejected then.
+     */
+    VerifyingTransactionInterceptor( DiffStorePool pool, AsyncVerifier async, NeoStoreXaDataSource ds,
+            StringLogger stringLogger, CheckerMode mode, boolean rejectInconsistentTransactions,
+            Map<String, String> extraConfig )
+    {
+        if ( async != null && rejectInconsistentTransactions )
+        {
+            throw new IllegalArgumentException( "Can't reject inconsistent transactions when verifying asynchronously" );
+        }
         this.rejectInconsistentTransactions = rejectInconsistentTransactions;
-        this.diffs = new DiffStore( ds.getNeoStore() );
+        this.pool = pool;
+        this.async = async;
+        this.neoStore = ds.getNeoStore();
+        this.diffs = pool.acquire( neoStore );
         this.msgLog = stringLogger;
         this.mode = mode;
         String log = extraConfig.get( "log" );
@@ -131,6 +154,81 @@ class VerifyingTransactionInterceptor implements TransactionInterceptor
     }
 
     public void complete() throws DataInconsistencyError
+    {
+        if ( async == null )
+        {
+            try
+            {
+                verify();
+            }
+            finally
+            {
+                pool.release( neoStore, diffs );
+            }
+        }
+        else if ( !async.submit( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    /*
+                     * By now the store has moved on, later transactions may be
+                     * half way through changing records this one refers to. Only
+                     * report inconsistencies that are still there on a second look.
+                     */
+                    if ( looksConsistent() ) closeDiffLog();
+                    else verify();
+                }
+                finally
+                {
+                    pool.release( neoStore, diffs );
+                }
+            }
+        } ) )
+        {
+            closeDiffLog();
+            pool.release( neoStore, diffs );
+        }
+        // Chain of Responsibility continues
+        if ( next != null ) next.complete();
+    }
+
+    private void closeDiffLog()
+    {
+        if ( difflog != null && difflog != msgLog ) difflog.close();
+    }
+
+    private boolean looksConsistent()
+    {
+        ConsistencyCheck consistency = mode.apply( diffs, new ConsistencyCheck( diffs, mode.checkProp )
+        {
+            @Override
+            protected <R extends AbstractBaseRecord> void report( RecordStore<R> recordStore, R record,
+                    InconsistencyType inconsistency )
+            {
+            }
+
+            @Override
+            protected <R1 extends AbstractBaseRecord, R2 extends AbstractBaseRecord> void report(
+                    RecordStore<R1> recordStore, R1 record, RecordStore<? extends R2> referredStore, R2 referred,
+                    InconsistencyType inconsistency )
+            {
+            }
+        } );
+        try
+        {
+            consistency.checkResult();
+            return true;
+        }
+        catch ( AssertionError e )
+        {
+            return false;
+        }
+    }
+
+    private void verify() throws DataInconsistencyError
     {
         /*
          *  Here goes the actual verification code. If it passes,
@@ -257,8 +355,6 @@ class VerifyingTransactionInterceptor implements TransactionInterceptor
         if ( difflog != null ) difflog.close();
         // re-throw error if we are rejecting inconsistencies
         if ( error != null && rejectInconsistentTransactions ) throw error;
-        // Chain of Responsibility continues
-        if ( next != null ) next.complete();
     }
 
     private void logDiffLines( final LineLogger logger )
@@ -36,6 +36,8 @@ public class VerifyingTransactionInterceptorProvider extends
 {
     public static final String NAME = "verifying";
 
+    private final DiffStorePool pool = new DiffStorePool( Runtime.getRuntime().availableProcessors() );
+
     public VerifyingTransactionInterceptorProvider()
     {
         super( NAME );
@@ -66,7 +68,7 @@ public class VerifyingTransactionInterceptorProvider extends
             String[] parts = config[i].split( "=", 2 );
             extra.put( parts[0].toLowerCase(), parts.length == 1 ? "true" : parts[1] );
         }
-        return new VerifyingTransactionInterceptor( (NeoStoreXaDataSource) ds, dependencyResolver.resolveDependency( StringLogger.class ),
+        return new VerifyingTransactionInterceptor( pool, (NeoStoreXaDataSource) ds, dependencyResolver.resolveDependency( StringLogger.class ),
                 VerifyingTransactionInterceptor.CheckerMode.DIFF, true, extra );
     }
 
@@ -20,8 +20,13 @@
 
 package org.neo4j.backup;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
 import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
@@ -237,6 +242,197 @@ public class TestBackup
         shutdownServer( server );
     }
 
+    @Test
+    public void parallelFullThenIncremental() throws Exception
+    {
+        DbRepresentation initialDataSetRepresentation = createInitialDataSet( serverPath );
+        ServerInterface server = startServer( serverPath );
+
+        OnlineBackup backup = OnlineBackup.from( "localhost" );
+        backup.full( backupPath, true, 4 );
+        assertEquals( initialDataSetRepresentation, DbRepresentation.of( backupPath ) );
+        shutdownServer( server );
+
+        DbRepresentation furtherRepresentation = addMoreData( serverPath );
+        server = startServer( serverPath );
+        backup.incremental( backupPath );
+        assertEquals( furtherRepresentation, DbRepresentation.of( backupPath ) );
+        shutdownServer( server );
+    }
+
+    @Test
+    public void resumeFailedParallelFullBackup() throws Exception
+    {
+        DbRepresentation initialDataSetRepresentation = createInitialDataSet( serverPath );
+        ServerInterface server = startServer( serverPath );
+
+        // A backup that failed after recording a block that has been overwritten since
+        new File( backupPath ).mkdirs();
+        FileUtils.writeStringToFile( new File( backupPath, "neostore.nodestore.db" ), "garbage" );
+        BackupManifest manifest = new BackupManifest( backupPath );
+        manifest.completed( "neostore.nodestore.db", 0, -1, 1234 );
+        manifest.close();
+
+        OnlineBackup.from( "localhost" ).full( backupPath );
+        assertFalse( BackupManifest.exists( backupPath ) );
+        assertEquals( initialDataSetRepresentation, DbRepresentation.of( backupPath ) );
+        shutdownServer( server );
+    }
+
+    @Test
+    public void resyncStaleBackup() throws Exception
+    {
+        createInitialDataSet( serverPath );
+        ServerInterface server = startServer( serverPath );
+        OnlineBackup backup = OnlineBackup.from( "localhost" );
+        backup.full( backupPath );
+        shutdownServer( server );
+
+        DbRepresentation furtherRepresentation = addMoreData( serverPath );
+        server = startServer( serverPath );
+        backup.resync( backupPath, true );
+        assertEquals( furtherRepresentation, DbRepresentation.of( backupPath ) );
+        assertFalse( new File( backupPath, OnlineBackup.RESYNC_BASIS ).exists() );
+        shutdownServer( server );
+    }
+
+    @Test
+    public void archiveAndRestore() throws Exception
+    {
+        DbRepresentation initialDataSetRepresentation = createInitialDataSet( serverPath );
+        ServerInterface server = startServer( serverPath );
+        File archive = new File( backupPath + ".archive" );
+        OutputStream out = new FileOutputStream( archive );
+        try
+        {
+            OnlineBackup.from( "localhost" ).archive( out, 2 );
+        }
+        finally
+        {
+            out.close();
+        }
+        shutdownServer( server );
+
+        RestoreBackupArchive.restore( archive, backupPath, 2, true );
+        assertEquals( initialDataSetRepresentation, DbRepresentation.of( backupPath ) );
+        archive.delete();
+    }
+
+    @Test
+    public void restoreArchiveAsItIsStreamed() throws Exception
+    {
+        DbRepresentation initialDataSetRepresentation = createInitialDataSet( serverPath );
+        ServerInterface server = startServer( serverPath );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OnlineBackup.from( "localhost" ).archive( out, 2 );
+        shutdownServer( server );
+
+        RestoreBackupArchive.restore( new ByteArrayInputStream( out.toByteArray() ), backupPath, 2, true );
+        assertEquals( initialDataSetRepresentation, DbRepresentation.of( backupPath ) );
+    }
+
+    @Test
+    public void restoreToPointInTime() throws Exception
+    {
+        createInitialDataSet( serverPath );
+        ServerInterface server = startServer( serverPath );
+        OnlineBackup.from( "localhost" ).full( backupPath );
+        shutdownServer( server );
+        DbRepresentation asOfTarget = addMoreData( serverPath );
+        GraphDatabaseAPI db = (GraphDatabaseAPI) startGraphDatabase( serverPath );
+        long targetTx = db.getXaDataSourceManager().getNeoStoreDataSource().getLastCommittedTxId();
+        db.shutdown();
+        DbRepresentation latest = addMoreData( serverPath );
+
+        String restorePath = backupPath + "-restored";
+        FileUtils.deleteDirectory( new File( restorePath ) );
+        assertEquals( targetTx, RestoreToPointInTime.restore( new File( backupPath ), new File( serverPath ),
+                restorePath, targetTx, Long.MAX_VALUE, true ) );
+        assertEquals( asOfTarget, DbRepresentation.of( restorePath ) );
+        assertFalse( latest.equals( DbRepresentation.of( restorePath ) ) );
+        FileUtils.deleteDirectory( new File( restorePath ) );
+    }
+
+    @Test
+    public void restoreToTime() throws Exception
+    {
+        createInitialDataSet( serverPath );
+        ServerInterface server = startServer( serverPath );
+        OnlineBackup.from( "localhost" ).full( backupPath );
+        shutdownServer( server );
+        DbRepresentation asOfTarget = addMoreData( serverPath );
+        long targetTime = System.currentTimeMillis();
+        Thread.sleep( 50 );
+        DbRepresentation latest = addMoreData( serverPath );
+
+        String restorePath = backupPath + "-restored";
+        FileUtils.deleteDirectory( new File( restorePath ) );
+        RestoreToPointInTime.restore( new File( backupPath ), new File( serverPath ), restorePath, Long.MAX_VALUE,
+                targetTime, true );
+        assertEquals( asOfTarget, DbRepresentation.of( restorePath ) );
+        assertFalse( latest.equals( DbRepresentation.of( restorePath ) ) );
+        FileUtils.deleteDirectory( new File( restorePath ) );
+    }
+
+    @Test
+    public void makeSureRestoreToTimeBeforeTheBackupFails() throws Exception
+    {
+        long beforeBackup = System.currentTimeMillis();
+        Thread.sleep( 50 );
+        createInitialDataSet( serverPath );
+        ServerInterface server = startServer( serverPath );
+        OnlineBackup.from( "localhost" ).full( backupPath );
+        shutdownServer( server );
+        addMoreData( serverPath );
+
+        String restorePath = backupPath + "-restored";
+        FileUtils.deleteDirectory( new File( restorePath ) );
+        try
+        {
+            RestoreToPointInTime.restore( new File( backupPath ), new File( serverPath ), restorePath,
+                    Long.MAX_VALUE, beforeBackup, false );
+            fail( "Shouldn't be able to restore to before the backup" );
+        }
+        catch ( IOException e )
+        { // Good
+        }
+        FileUtils.deleteDirectory( new File( restorePath ) );
+    }
+
+    @Test
+    public void restoreBringsLegacyIndexesForwardToTheSamePoint() throws Exception
+    {
+        createInitialDataSet( serverPath );
+        ServerInterface server = startServer( serverPath );
+        OnlineBackup.from( "localhost" ).full( backupPath );
+        shutdownServer( server );
+        DbRepresentation asOfTarget = createInitialDataSet( serverPath );
+        indexReferenceNode( serverPath, "before" );
+        long targetTime = System.currentTimeMillis();
+        Thread.sleep( 50 );
+        indexReferenceNode( serverPath, "after" );
+        createInitialDataSet( serverPath );
+
+        String restorePath = backupPath + "-restored";
+        FileUtils.deleteDirectory( new File( restorePath ) );
+        RestoreToPointInTime.restore( new File( backupPath ), new File( serverPath ), restorePath, Long.MAX_VALUE,
+                targetTime, true );
+        assertEquals( asOfTarget, DbRepresentation.of( restorePath ) );
+        GraphDatabaseService db = startGraphDatabase( restorePath );
+        try
+        {
+            Index<Node> index = db.index().forNodes( "db-index" );
+            assertEquals( 2, index.get( "myKey", "myValue" ).size() );
+            assertEquals( db.getReferenceNode(), index.get( "before", "indexed" ).getSingle() );
+            assertNull( index.get( "after", "indexed" ).getSingle() );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+        FileUtils.deleteDirectory( new File( restorePath ) );
+    }
+
     @Test
     public void makeSureNoLogFileRemains() throws Exception
     {
@@ -337,6 +533,19 @@ public class TestBackup
         return result;
     }
 
+    /**
+     * Commits a transaction that only updates a legacy index.
+     */
+    private void indexReferenceNode( String path, String key )
+    {
+        GraphDatabaseService db = startGraphDatabase( path );
+        Transaction tx = db.beginTx();
+        db.index().forNodes( "db-index" ).add( db.getReferenceNode(), key, "indexed" );
+        tx.success();
+        tx.finish();
+        db.shutdown();
+    }
+
     private GraphDatabaseService startGraphDatabase( String path )
     {
         return new GraphDatabaseFactory().
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.test.TargetDirectory;
+
+public class TestBackupArchive
+{
+    @Rule
+    public final TargetDirectory.TestDirectory test = TargetDirectory.testDirForTest( TestBackupArchive.class );
+
+    @Test
+    public void indexFindsTheEntriesTheStreamReaderReads() throws Exception
+    {
+        File archive = new File( test.directory(), "archive" );
+        writeArchive( archive );
+
+        List<BackupArchive.Entry> streamed = new ArrayList<BackupArchive.Entry>();
+        InputStream in = new FileInputStream( archive );
+        try
+        {
+            BackupArchive.Reader reader = new BackupArchive.Reader( in );
+            for ( BackupArchive.Entry entry; ( entry = reader.next() ) != null; )
+            {
+                streamed.add( entry );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        BackupArchive.Index index = new BackupArchive.Index( archive );
+        try
+        {
+            assertEquals( streamed.size(), index.entries().size() );
+            // Read them backwards, each one straight from its offset
+            for ( int i = streamed.size() - 1; i >= 0; i-- )
+            {
+                BackupArchive.Entry expected = streamed.get( i );
+                BackupArchive.Entry read = index.read( index.entries().get( i ) );
+                assertEquals( expected.kind, read.kind );
+                assertEquals( expected.name, read.name );
+                assertEquals( expected.id, read.id );
+                assertArrayEquals( expected.read(), read.read() );
+            }
+        }
+        finally
+        {
+            index.close();
+        }
+    }
+
+    @Test
+    public void expandRefusesEntriesOutsideTheTargetDirectory() throws Exception
+    {
+        File target = new File( test.directory(), "target" );
+        target.mkdirs();
+        for ( String name : new String[] { "../outside", "store/../../outside",
+                new File( test.directory(), "outside" ).getAbsolutePath() } )
+        {
+            try
+            {
+                BackupArchive.expand( new BackupArchive.Entry( BackupArchive.FILE, name, 0, new byte[0], 0 ),
+                        target );
+                fail( "Should have refused to expand " + name );
+            }
+            catch ( IOException e )
+            {   // Good
+            }
+        }
+        assertFalse( new File( test.directory(), "outside" ).exists() );
+
+        BackupArchive.expand( fileEntry( "store/../neostore", new byte[] { 1, 2, 3 } ), target );
+        assertEquals( 3, new File( target, "neostore" ).length() );
+    }
+
+    private static void writeArchive( File archive ) throws IOException
+    {
+        OutputStream out = new FileOutputStream( archive );
+        try
+        {
+            BackupArchive.Writer writer = new BackupArchive.Writer( out );
+            byte[] file = new byte[BackupArchive.CHUNK_SIZE * 2 + 100];
+            for ( int i = 0; i < file.length; i++ ) file[i] = (byte) ( i % 7 );
+            writer.addFile( "neostore.nodestore.db", 0, Channels.newChannel( new ByteArrayInputStream( file ) ) );
+            writer.addFile( "index/lucene-store.db", 0, null );
+            for ( int tx = 2; tx < 5; tx++ )
+            {
+                writer.addTransaction( BackupArchive.TRANSACTION, "nioneodb", tx,
+                        Channels.newChannel( new ByteArrayInputStream( new byte[] { (byte) tx, 1, 2 } ) ) );
+            }
+            writer.finish();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static BackupArchive.Entry fileEntry( String name, byte[] data ) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BackupArchive.Writer writer = new BackupArchive.Writer( out );
+        writer.addFile( name, 0, Channels.newChannel( new ByteArrayInputStream( data ) ) );
+        writer.finish();
+        BackupArchive.Reader reader = new BackupArchive.Reader( new ByteArrayInputStream( out.toByteArray() ) );
+        BackupArchive.Entry entry = reader.next();
+        assertNull( reader.next() );
+        return entry;
+    }
+}
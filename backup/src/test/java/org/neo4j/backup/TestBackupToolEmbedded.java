@@ -152,6 +152,19 @@ public class TestBackupToolEmbedded
         assertEquals( DbRepresentation.of( db ), DbRepresentation.of( BACKUP_PATH ) );
     }
 
+    @Test
+    public void makeSureBackupMovesOnToTheNextSourceWhenOneIsUnavailable() throws Exception
+    {
+        if ( osIsWindows() ) return;
+        int port = 4445;
+        startDb( "" + port );
+        assertEquals(
+                0,
+                runBackupToolFromOtherJvmToGetExitCode( "-full", "-from",
+                        "failover://localhost:" + port, "-to", BACKUP_PATH ) );
+        assertEquals( DbRepresentation.of( db ), DbRepresentation.of( BACKUP_PATH ) );
+    }
+
     private void startDb( String backupPort )
     {
         db = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( PATH ).
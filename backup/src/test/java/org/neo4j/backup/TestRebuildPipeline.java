@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.AbstractGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.store.StoreAccess;
+import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
+import org.neo4j.test.DbRepresentation;
+import org.neo4j.test.TargetDirectory;
+
+public class TestRebuildPipeline
+{
+    @Rule
+    public final TargetDirectory.TestDirectory test = TargetDirectory.testDirForTest( TestRebuildPipeline.class );
+
+    @Test
+    public void pipelinedRebuildEndsUpLikeSequentialRebuild() throws Exception
+    {
+        File source = new File( test.directory(), "source" );
+        // Enough transactions for several batches, the last one partial
+        createTransactions( source.getAbsolutePath(), RebuildPipeline.BATCH_SIZE * 2 + 17 );
+
+        File sequential = new File( test.directory(), "sequential" );
+        AbstractGraphDatabase graphdb = OnlineBackup.startTemporaryDb( sequential.getAbsolutePath(),
+                VerificationLevel.NONE );
+        try
+        {
+            new RebuildFromLogs( graphdb ).applyTransactionsFrom( null, source );
+        }
+        finally
+        {
+            graphdb.shutdown();
+        }
+
+        File pipelined = new File( test.directory(), "pipelined" );
+        // Forced once per batch, and at shutdown
+        RebuildGraphDatabase target = new RebuildGraphDatabase( pipelined.getAbsolutePath(), VerificationLevel.NONE );
+        boolean consistent;
+        try
+        {
+            NeoStoreXaDataSource nioneo = target.getXaDataSourceManager().getNeoStoreDataSource();
+            consistent = new RebuildPipeline( nioneo, nioneo.getNeoStore(), new StoreAccess( target ), 4, true,
+                    target ).applyTransactionsFrom( source, null );
+        }
+        finally
+        {
+            target.shutdown();
+        }
+
+        assertTrue( "the pipeline found inconsistencies", consistent );
+        assertEquals( DbRepresentation.of( sequential.getAbsolutePath() ),
+                DbRepresentation.of( pipelined.getAbsolutePath() ) );
+    }
+
+    private static void createTransactions( String path, int count )
+    {
+        GraphDatabaseService graphdb = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( path ).
+                setConfig( GraphDatabaseSettings.keep_logical_logs, GraphDatabaseSetting.TRUE ).newGraphDatabase();
+        try
+        {
+            Node previous = graphdb.getReferenceNode();
+            for ( int i = 0; i < count; i++ )
+            {
+                Transaction tx = graphdb.beginTx();
+                try
+                {
+                    Node node = graphdb.createNode();
+                    node.setProperty( "name", "node " + i );
+                    previous.createRelationshipTo( node, DynamicRelationshipType.withName( "NEXT" ) )
+                            .setProperty( "since", i );
+                    if ( i % 10 == 0 ) previous.removeProperty( "name" );
+                    previous = node;
+                    tx.success();
+                }
+                finally
+                {
+                    tx.finish();
+                }
+            }
+        }
+        finally
+        {
+            graphdb.shutdown();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.helpers.Args;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+/**
+ * Measures what verifying transactions, as a backup or a slave does with
+ * {@link VerificationLevel#VERIFYING}, adds to the cost of applying them. A
+ * set of small transactions is committed to a store that keeps its logs, and
+ * then applied from those logs to one store without and one with verification,
+ * a few rounds each so that the later rounds run on a warm JVM.
+ *
+ * Not a unit test, run it with:
+ * <pre>
+ * VerificationOverheadBenchmark [-transactions=&lt;count&gt;] [-rounds=&lt;count&gt;]
+ * </pre>
+ */
+public class VerificationOverheadBenchmark
+{
+    private static final String PATH = "target/var/verification-benchmark";
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+
+    public static void main( String... args ) throws IOException
+    {
+        Args params = new Args( args );
+        int transactions = Integer.parseInt( params.get( "transactions", "20000" ) );
+        int rounds = Integer.parseInt( params.get( "rounds", "5" ) );
+
+        File source = new File( PATH, "source" );
+        FileUtils.deleteDirectory( new File( PATH ) );
+        createTransactions( source, transactions );
+
+        for ( int round = 1; round <= rounds; round++ )
+        {
+            long plain = apply( source, new File( PATH, "plain" ), VerificationLevel.NONE );
+            long verified = apply( source, new File( PATH, "verified" ), VerificationLevel.VERIFYING );
+            System.out.printf( "round %d: %d transactions in %d ms, %d ms verified, overhead %.1f%%%n",
+                    round, transactions, plain, verified, 100.0 * ( verified - plain ) / plain );
+        }
+    }
+
+    private static void createTransactions( File storeDir, int count )
+    {
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( storeDir.getPath() ).
+            setConfig( GraphDatabaseSettings.keep_logical_logs, GraphDatabaseSetting.TRUE ).
+            newGraphDatabase();
+        try
+        {
+            Node previous = null;
+            for ( int i = 0; i < count; i++ )
+            {
+                Transaction tx = db.beginTx();
+                try
+                {
+                    Node node = db.createNode();
+                    node.setProperty( "name", "node " + i );
+                    node.setProperty( "values", new long[] { i, i * 2, i * 3 } );
+                    if ( previous != null ) previous.createRelationshipTo( node, KNOWS ).setProperty( "since", i );
+                    previous = node;
+                    tx.success();
+                }
+                finally
+                {
+                    tx.finish();
+                }
+            }
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of milliseconds it took to apply the transactions.
+     */
+    private static long apply( File source, File target, VerificationLevel verification ) throws IOException
+    {
+        FileUtils.deleteDirectory( target );
+        EmbeddedGraphDatabase db = OnlineBackup.startTemporaryDb( target.getAbsolutePath(), verification );
+        try
+        {
+            long start = System.currentTimeMillis();
+            new RebuildFromLogs( db ).applyTransactionsFrom( null, source );
+            return System.currentTimeMillis() - start;
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+}
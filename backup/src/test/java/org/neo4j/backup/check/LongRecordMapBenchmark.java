@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup.check;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the part of verifying a transaction that {@link LongRecordMap}
+ * replaced: collecting the records a transaction changes in the nine stores
+ * of a {@link DiffStore}, looking them up while checking, iterating them and
+ * dropping them. It is done once with a new {@code HashMap<Long, R>} per store
+ * and transaction, as before, and once with one {@link LongRecordMap} per
+ * store that is cleared between transactions, as now. Prints the time and the
+ * bytes allocated per transaction for each, from the last of a few rounds so
+ * that the JVM is warm. {@code VerificationOverheadBenchmark} measures the
+ * whole of verification against the cost of applying the transactions.
+ *
+ * Not a unit test, run it with:
+ * <pre>
+ * LongRecordMapBenchmark [transactions] [records per store]
+ * </pre>
+ */
+public class LongRecordMapBenchmark
+{
+    private static final int STORES = 9;
+    private static final int ROUNDS = 5;
+
+    public static void main( String... args )
+    {
+        int transactions = args.length > 0 ? Integer.parseInt( args[0] ) : 200000;
+        int records = args.length > 1 ? Integer.parseInt( args[1] ) : 4;
+        Object[] values = new Object[records];
+        for ( int i = 0; i < records; i++ ) values[i] = new Object();
+
+        for ( int round = 1; round <= ROUNDS; round++ )
+        {
+            long[] before = measure( new HashMaps(), transactions, values );
+            long[] after = measure( new ReusedMaps(), transactions, values );
+            System.out.printf( "round %d: HashMap per transaction %d ns, %d bytes; reused LongRecordMap %d ns, "
+                               + "%d bytes (per transaction)%n", round, before[0] / transactions,
+                    before[1] / transactions, after[0] / transactions, after[1] / transactions );
+        }
+    }
+
+    private interface Maps
+    {
+        void transaction( long firstId, Object[] values );
+    }
+
+    private static class HashMaps implements Maps
+    {
+        long sink;
+
+        @Override
+        public void transaction( long firstId, Object[] values )
+        {
+            for ( int store = 0; store < STORES; store++ )
+            {
+                Map<Long, Object> diff = new HashMap<Long, Object>();
+                for ( int i = 0; i < values.length; i++ ) diff.put( firstId + i, values[i] );
+                for ( int i = 0; i < values.length; i++ ) if ( diff.get( firstId + i ) != null ) sink++;
+                for ( Long id : diff.keySet() ) sink += id;
+            }
+        }
+    }
+
+    private static class ReusedMaps implements Maps
+    {
+        @SuppressWarnings( "unchecked" )
+        final LongRecordMap<Object>[] diffs = new LongRecordMap[STORES];
+        long sink;
+
+        ReusedMaps()
+        {
+            for ( int store = 0; store < STORES; store++ ) diffs[store] = new LongRecordMap<Object>();
+        }
+
+        @Override
+        public void transaction( long firstId, Object[] values )
+        {
+            for ( LongRecordMap<Object> diff : diffs )
+            {
+                for ( int i = 0; i < values.length; i++ ) diff.put( firstId + i, values[i] );
+                for ( int i = 0; i < values.length; i++ ) if ( diff.get( firstId + i ) != null ) sink++;
+                for ( Long id : diff ) sink += id;
+                diff.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the nanoseconds taken and the bytes allocated.
+     */
+    private static long[] measure( Maps maps, int transactions, Object[] values )
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes( thread );
+        long start = System.nanoTime();
+        for ( int tx = 0; tx < transactions; tx++ ) maps.transaction( tx * 16L, values );
+        return new long[] { System.nanoTime() - start, threads.getThreadAllocatedBytes( thread ) - allocated };
+    }
+}
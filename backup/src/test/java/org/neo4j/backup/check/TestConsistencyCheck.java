@@ -19,6 +19,8 @@
  */
 package org.neo4j.backup.check;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -30,10 +32,16 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.kernel.AbstractGraphDatabase;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.impl.nioneo.store.AbstractBaseRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.RecordStore;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.StoreAccess;
 import org.neo4j.test.TargetDirectory;
 
@@ -63,6 +71,81 @@ public class TestConsistencyCheck
         assertTrue( check( ExpectedInconsistencies.NONE ).isEmpty() );
     }
 
+    @Test
+    public void cleanStoreDoesNotContainAnyInconsistenciesWhenCheckedInParallel()
+    {
+        assertTrue( check( ExpectedInconsistencies.NONE, 4 ).isEmpty() );
+    }
+
+    @Test
+    public void cleanStoreDoesNotContainAnyInconsistenciesWhenReferencesAreDeferred()
+    {
+        assertTrue( check( ExpectedInconsistencies.NONE, 1, true ).isEmpty() );
+    }
+
+    @Test
+    public void unusedRelationshipIsReported()
+    {
+        assertReportsUnusedRelationship( 1, false );
+    }
+
+    @Test
+    public void unusedRelationshipIsReportedWhenCheckedInParallel()
+    {
+        assertReportsUnusedRelationship( 4, false );
+    }
+
+    @Test
+    public void unusedRelationshipIsReportedWhenReferencesAreDeferred()
+    {
+        assertReportsUnusedRelationship( 1, true );
+    }
+
+    @Test
+    public void unusedRelationshipIsReportedWhenReferencesAreDeferredAndCheckedInParallel()
+    {
+        assertReportsUnusedRelationship( 4, true );
+    }
+
+    private void assertReportsUnusedRelationship( int threads, boolean deferReferences )
+    {
+        long relId = markRelationshipAsUnused();
+        List<Inconsistency> report = check( ExpectedInconsistencies.SOME, threads, deferReferences );
+        assertFalse( report.isEmpty() );
+        for ( Inconsistency inconsistency : report )
+        {
+            assertTrue( inconsistency.toString(), inconsistency.record instanceof NodeRecord );
+            assertEquals( relId, inconsistency.referred.getLongId() );
+        }
+    }
+
+    /**
+     * Creates a relationship and then marks its record as not in use without
+     * touching the nodes, which leaves both of them referring to it.
+     */
+    private long markRelationshipAsUnused()
+    {
+        long relId;
+        Transaction tx = graphdb.beginTx();
+        try
+        {
+            Node node = graphdb.createNode();
+            Relationship rel = node.createRelationshipTo( graphdb.createNode(),
+                    DynamicRelationshipType.withName( "KNOWS" ) );
+            relId = rel.getId();
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        RecordStore<RelationshipRecord> rels = store.getRelationshipStore();
+        RelationshipRecord record = rels.forceGetRecord( relId );
+        record.setInUse( false );
+        rels.forceUpdateRecord( record );
+        return relId;
+    }
+
     enum ExpectedInconsistencies
     {
         NONE( false ),
@@ -81,9 +164,19 @@ public class TestConsistencyCheck
     }
     
     private List<Inconsistency> check( ExpectedInconsistencies expect )
+    {
+        return check( expect, 1 );
+    }
+
+    private List<Inconsistency> check( ExpectedInconsistencies expect, int threads )
+    {
+        return check( expect, threads, false );
+    }
+
+    private List<Inconsistency> check( ExpectedInconsistencies expect, int threads, boolean deferReferences )
     {
         List<Inconsistency> report = new ArrayList<TestConsistencyCheck.Inconsistency>();
-        ConsistencyCheck checker = checker( store, report );
+        ConsistencyCheck checker = checker( store, report, threads, deferReferences );
         boolean foundInconsistencies = false;
         try
         {
@@ -101,9 +194,10 @@ public class TestConsistencyCheck
         return report;
     }
 
-    private static ConsistencyCheck checker( StoreAccess stores, final Collection<Inconsistency> report )
+    private static ConsistencyCheck checker( StoreAccess stores, final Collection<Inconsistency> report, int threads,
+            boolean deferReferences )
     {
-        return new ConsistencyCheck( stores )
+        return new ConsistencyCheck( stores, false, threads, ConsistencyCheck.DEFAULT_OWNER_MEMORY, deferReferences )
         {
             @Override
             protected <R extends AbstractBaseRecord> void report( RecordStore<R> recordStore, R record, InconsistencyType inconsistency )
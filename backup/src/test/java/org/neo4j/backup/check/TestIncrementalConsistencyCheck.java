@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup.check;
+
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.AbstractGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.store.RecordStore;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.StoreAccess;
+import org.neo4j.test.TargetDirectory;
+
+public class TestIncrementalConsistencyCheck
+{
+    @Rule
+    public final TargetDirectory.TestDirectory test = TargetDirectory.testDirForTest( TestIncrementalConsistencyCheck.class );
+
+    @Test
+    public void cleanTransactionsDoNotContainAnyInconsistencies() throws Exception
+    {
+        String path = test.directory().getAbsolutePath();
+        GraphDatabaseService graphdb = newGraphDatabase( path );
+        try
+        {
+            createNodes( graphdb );
+        }
+        finally
+        {
+            graphdb.shutdown();
+        }
+
+        IncrementalConsistencyCheck.run( path, 5, Long.MAX_VALUE, true );
+    }
+
+    @Test
+    public void inconsistencyInRecordsTouchedByTransactionsIsFound() throws Exception
+    {
+        String path = test.directory().getAbsolutePath();
+        GraphDatabaseService graphdb = newGraphDatabase( path );
+        try
+        {
+            long relId = createNodes( graphdb );
+            // the nodes of the last relationship still refer to it
+            RecordStore<RelationshipRecord> rels =
+                    new StoreAccess( (AbstractGraphDatabase) graphdb ).getRelationshipStore();
+            RelationshipRecord record = rels.forceGetRecord( relId );
+            record.setInUse( false );
+            rels.forceUpdateRecord( record );
+        }
+        finally
+        {
+            graphdb.shutdown();
+        }
+
+        try
+        {
+            IncrementalConsistencyCheck.run( path, 5, Long.MAX_VALUE, true );
+            fail( "should have found the nodes referring to an unused relationship" );
+        }
+        catch ( AssertionError e )
+        {
+            // expected
+        }
+    }
+
+    private static GraphDatabaseService newGraphDatabase( String path )
+    {
+        return new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( path ).
+                setConfig( GraphDatabaseSettings.keep_logical_logs, GraphDatabaseSetting.TRUE ).newGraphDatabase();
+    }
+
+    /**
+     * @return the id of the last relationship created.
+     */
+    private static long createNodes( GraphDatabaseService graphdb )
+    {
+        long relId = -1;
+        for ( int i = 0; i < 10; i++ )
+        {
+            Transaction tx = graphdb.beginTx();
+            try
+            {
+                Node node = graphdb.createNode();
+                node.setProperty( "name", "node " + i );
+                node.setProperty( "values", new long[] { i, i + 1, i + 2 } );
+                Relationship rel = graphdb.getReferenceNode().createRelationshipTo( node,
+                        DynamicRelationshipType.withName( "KNOWS" ) );
+                rel.setProperty( "since", i );
+                relId = rel.getId();
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+        }
+        return relId;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup.check;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestLongRecordMap
+{
+    @Test
+    public void shouldTellDirtyKeysFromAbsentOnes()
+    {
+        LongRecordMap<String> map = new LongRecordMap<String>();
+        map.put( 5, null );
+        map.put( 7, "seven" );
+
+        assertTrue( map.containsKey( 5 ) );
+        assertNull( map.get( 5 ) );
+        assertEquals( "seven", map.get( 7 ) );
+        assertFalse( map.containsKey( 6 ) );
+        assertEquals( 2, map.size() );
+    }
+
+    @Test
+    public void shouldIterateKeysInTheOrderTheyWereAddedWhenGrowing()
+    {
+        LongRecordMap<Long> map = new LongRecordMap<Long>();
+        List<Long> expected = new ArrayList<Long>();
+        for ( long key = 10000; key > 0; key -= 7 )
+        {
+            map.put( key, key * 2 );
+            map.put( key, key * 3 );
+            expected.add( key );
+        }
+
+        List<Long> keys = new ArrayList<Long>();
+        for ( Long key : map ) keys.add( key );
+        assertEquals( expected, keys );
+        for ( long key : expected ) assertEquals( Long.valueOf( key * 3 ), map.get( key ) );
+    }
+
+    @Test
+    public void shouldForgetEverythingOnClearAndBeReusable()
+    {
+        LongRecordMap<String> map = new LongRecordMap<String>();
+        for ( int round = 0; round < 3; round++ )
+        {
+            for ( long key = round; key < 1000; key += 3 )
+            {
+                map.put( key << 20, "value" );
+            }
+            map.clear();
+
+            assertEquals( 0, map.size() );
+            assertFalse( map.iterator().hasNext() );
+            for ( long key = 0; key < 1000; key++ )
+            {
+                assertFalse( map.containsKey( key << 20 ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup.check;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestOffHeapLongMap
+{
+    @Test
+    public void shouldReturnPreviousValueOnPut()
+    {
+        OffHeapLongMap map = new OffHeapLongMap( 1024 * 1024, 10 );
+
+        assertEquals( OffHeapLongMap.ABSENT, map.put( 5, 0 ) );
+        assertEquals( 0, map.put( 5, 42 ) );
+        assertEquals( 42, map.get( 5 ) );
+        assertEquals( OffHeapLongMap.ABSENT, map.get( 6 ) );
+        assertEquals( OffHeapLongMap.ABSENT, map.get( 1 << 20 ) );
+    }
+
+    @Test
+    public void shouldSpillToFileWhenMemoryBudgetIsExceeded()
+    {
+        OffHeapLongMap map = new OffHeapLongMap( 8 << 10, 10 );
+        for ( long key = 0; key < 10000; key++ )
+        {
+            map.put( key, key * 2 );
+        }
+
+        assertTrue( map.hasSpilled() );
+        assertEquals( 8 << 10, map.allocatedMemory() );
+        for ( long key = 0; key < 10000; key++ )
+        {
+            assertEquals( key * 2, map.get( key ) );
+        }
+        map.clear();
+    }
+
+    @Test
+    public void shouldForgetEverythingOnClear()
+    {
+        OffHeapLongMap map = new OffHeapLongMap( 0, 10 );
+        map.put( 3000, 1 );
+        map.clear();
+
+        assertFalse( map.hasSpilled() );
+        assertEquals( OffHeapLongMap.ABSENT, map.get( 3000 ) );
+        assertEquals( OffHeapLongMap.ABSENT, map.put( 3000, 2 ) );
+        map.clear();
+    }
+
+    @Test
+    public void shouldReuseDirectMemoryAfterClear()
+    {
+        OffHeapLongMap map = new OffHeapLongMap( 8 << 10, 10 );
+        map.put( 5, 1 );
+        map.clear();
+        map.put( 2000, 1 );
+
+        assertEquals( 8 << 10, map.allocatedMemory() );
+        assertFalse( map.hasSpilled() );
+        assertEquals( OffHeapLongMap.ABSENT, map.get( 5 ) );
+        assertEquals( 1, map.get( 2000 ) );
+        map.clear();
+    }
+}
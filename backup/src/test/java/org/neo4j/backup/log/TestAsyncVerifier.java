@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.AbstractGraphDatabase;
+import org.neo4j.kernel.impl.transaction.xaframework.InMemoryLogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.LogExtractor;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.test.TargetDirectory;
+
+public class TestAsyncVerifier
+{
+    @Rule
+    public final TargetDirectory.TestDirectory test = TargetDirectory.testDirForTest( TestAsyncVerifier.class );
+
+    @Test
+    public void shouldDropTransactionsWhenItCantKeepUp() throws Exception
+    {
+        AsyncVerifier verifier = new AsyncVerifier( 1, 1, 1, StringLogger.DEV_NULL );
+        final CountDownLatch started = new CountDownLatch( 1 ), release = new CountDownLatch( 1 );
+        assertTrue( verifier.submit( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                started.countDown();
+                awaitUninterruptibly( release );
+            }
+        } ) );
+        started.await();
+        final CountDownLatch queuedRan = new CountDownLatch( 1 );
+        assertTrue( verifier.submit( countDown( queuedRan ) ) );
+        assertFalse( verifier.submit( countDown( new CountDownLatch( 1 ) ) ) );
+        assertEquals( 1, verifier.dropped() );
+
+        release.countDown();
+        queuedRan.await();
+    }
+
+    @Test
+    public void shouldOnlyVerifySampledTransactions() throws Exception
+    {
+        AsyncVerifier verifier = new AsyncVerifier( 1, 100, 3, StringLogger.DEV_NULL );
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch( 3 );
+        for ( int i = 0; i < 9; i++ )
+        {
+            verifier.submit( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runs.incrementAndGet();
+                    done.countDown();
+                }
+            } );
+        }
+        done.await();
+        assertEquals( 3, runs.get() );
+    }
+
+    @Test
+    public void shutdownVerifiesWhatIsQueuedFirst() throws Exception
+    {
+        AsyncVerifier verifier = new AsyncVerifier( 1, 10, 1, StringLogger.DEV_NULL );
+        final AtomicInteger runs = new AtomicInteger();
+        for ( int i = 0; i < 5; i++ )
+        {
+            verifier.submit( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    runs.incrementAndGet();
+                }
+            } );
+        }
+        verifier.shutdown( 10 * 1000 );
+
+        assertTrue( verifier.isShutdown() );
+        assertEquals( 5, runs.get() );
+        assertEquals( 0, verifier.dropped() );
+        assertFalse( verifier.submit( countDown( new CountDownLatch( 1 ) ) ) );
+        assertEquals( 1, verifier.dropped() );
+    }
+
+    @Test
+    public void shutdownDropsWhatIsStillQueuedAfterTheTimeout() throws Exception
+    {
+        AsyncVerifier verifier = new AsyncVerifier( 1, 10, 1, StringLogger.DEV_NULL );
+        final CountDownLatch started = new CountDownLatch( 1 );
+        verifier.submit( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                started.countDown();
+                awaitUninterruptibly( new CountDownLatch( 1 ) );
+            }
+        } );
+        started.await();
+        verifier.submit( countDown( new CountDownLatch( 1 ) ) );
+        verifier.submit( countDown( new CountDownLatch( 1 ) ) );
+        verifier.shutdown( 100 );
+
+        assertTrue( verifier.isShutdown() );
+        assertEquals( 2, verifier.dropped() );
+    }
+
+    @Test
+    public void appliedTransactionsAreVerifiedInTheBackgroundUntilShutdown() throws Exception
+    {
+        File source = new File( test.directory(), "source" );
+        createTransactions( source.getAbsolutePath(), 20 );
+
+        AbstractGraphDatabase graphdb = (AbstractGraphDatabase) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(
+                new File( test.directory(), "target" ).getAbsolutePath() )
+                .setConfig( GraphDatabaseSettings.intercept_deserialized_transactions, GraphDatabaseSetting.TRUE )
+                .setConfig( "TransactionInterceptorProvider." + InconsistencyLoggingTransactionInterceptorProvider.NAME,
+                        "diff;async" ).newGraphDatabase();
+        XaDataSource nioneo = graphdb.getXaDataSourceManager().getNeoStoreDataSource();
+        AsyncVerification verification;
+        int applied = 0;
+        try
+        {
+            LogExtractor extractor = LogExtractor.from( source.getAbsolutePath() );
+            try
+            {
+                for ( InMemoryLogBuffer buffer = new InMemoryLogBuffer();; buffer.reset() )
+                {
+                    long txId = extractor.extractNext( buffer );
+                    if ( txId == -1 ) break;
+                    nioneo.applyCommittedTransaction( txId, buffer );
+                    applied++;
+                }
+            }
+            finally
+            {
+                extractor.close();
+            }
+            verification = InconsistencyLoggingTransactionInterceptorProvider.asyncVerification( nioneo );
+            assertNotNull( "transactions weren't verified in the background", verification );
+        }
+        finally
+        {
+            graphdb.shutdown();
+        }
+
+        // shutdown waits for the queued verifications and then stops the verifier
+        assertTrue( verification.isShutdown() );
+        assertNull( InconsistencyLoggingTransactionInterceptorProvider.asyncVerification( nioneo ) );
+        assertEquals( 0, verification.dropped() );
+        assertTrue( applied > 0 );
+        assertEquals( applied, verification.verified() );
+    }
+
+    private static void createTransactions( String path, int count )
+    {
+        GraphDatabaseService graphdb = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( path ).
+                setConfig( GraphDatabaseSettings.keep_logical_logs, GraphDatabaseSetting.TRUE ).newGraphDatabase();
+        try
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                Transaction tx = graphdb.beginTx();
+                try
+                {
+                    Node node = graphdb.createNode();
+                    node.setProperty( "name", "node " + i );
+                    graphdb.getReferenceNode().createRelationshipTo( node, DynamicRelationshipType.withName( "CHILD" ) );
+                    tx.success();
+                }
+                finally
+                {
+                    tx.finish();
+                }
+            }
+        }
+        finally
+        {
+            graphdb.shutdown();
+        }
+    }
+
+    private static Runnable countDown( final CountDownLatch latch )
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        };
+    }
+
+    private static void awaitUninterruptibly( CountDownLatch latch )
+    {
+        try
+        {
+            latch.await();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
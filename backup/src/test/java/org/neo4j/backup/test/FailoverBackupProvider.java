@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.backup.test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import org.neo4j.backup.BackupExtensionService;
+import org.neo4j.helpers.Args;
+import org.neo4j.helpers.Service;
+
+/**
+ * Another extension used for testing. Its first candidate source is the
+ * port after the one in the URI, where nothing is expected to listen, and
+ * its second is the URI itself, so that backups only succeed if the backup
+ * tool moves on to the next source.
+ */
+@Service.Implementation( BackupExtensionService.class )
+public class FailoverBackupProvider extends BackupExtensionService
+{
+    public FailoverBackupProvider()
+    {
+        super( "failover" );
+    }
+
+    @Override
+    public URI resolve( URI from, Args args )
+    {
+        return URI.create( "single://" + from.getHost() + ":" + from.getPort() );
+    }
+
+    @Override
+    public List<URI> resolveCandidates( URI from, Args args )
+    {
+        return Arrays.asList( URI.create( "single://" + from.getHost() + ":" + ( from.getPort() + 1 ) ),
+                resolve( from, args ) );
+    }
+}
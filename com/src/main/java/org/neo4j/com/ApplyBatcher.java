@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups the received transactions that
+ * {@link MasterUtil#applyReceivedTransactions(Response, org.neo4j.kernel.GraphDatabaseAPI, MasterUtil.TxHandler, boolean, ApplyBatcher)
+ * MasterUtil applies} into batches, so that what is costly per transaction,
+ * like forcing the logical log, can be done once per batch instead. A batch
+ * ends once its transactions add up to the maximum number of bytes, or it
+ * has been open for the maximum latency, or there are no more transactions
+ * to apply for the moment. A batch is begun and ended on the thread that
+ * applies its transactions.
+ */
+public abstract class ApplyBatcher
+{
+    /**
+     * Every transaction on its own.
+     */
+    public static final ApplyBatcher NONE = new ApplyBatcher( 0, 0 )
+    {
+        @Override
+        protected void begin()
+        {
+        }
+
+        @Override
+        protected void end()
+        {
+        }
+    };
+
+    private final long maxBytes;
+    private final long maxLatencyNanos;
+
+    protected ApplyBatcher( long maxBytes, long maxLatencyMillis )
+    {
+        this.maxBytes = maxBytes;
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos( maxLatencyMillis );
+    }
+
+    /**
+     * Called on the applying thread before the first transaction of a batch
+     * is applied.
+     */
+    protected abstract void begin();
+
+    /**
+     * Called on the applying thread after the last transaction of a batch has
+     * been applied, to do what was put off for its transactions.
+     */
+    protected abstract void end() throws IOException;
+
+    Batches batches()
+    {
+        return new Batches();
+    }
+
+    /**
+     * The batches of the transactions applied by one thread in one call.
+     */
+    class Batches
+    {
+        private boolean open;
+        private long bytes;
+        private long started;
+
+        void applying()
+        {
+            if ( open ) return;
+            begin();
+            open = true;
+            bytes = 0;
+            started = System.nanoTime();
+        }
+
+        void applied( long size ) throws IOException
+        {
+            bytes += size;
+            if ( bytes >= maxBytes || System.nanoTime() - started >= maxLatencyNanos ) end();
+        }
+
+        void end() throws IOException
+        {
+            if ( !open ) return;
+            open = false;
+            ApplyBatcher.this.end();
+        }
+
+        /**
+         * Ends the open batch, if any, after applying has failed.
+         */
+        void endQuietly()
+        {
+            try
+            {
+                end();
+            }
+            catch ( IOException e )
+            {   // The failure to apply is the one reported
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.neo4j.com.Protocol.readString;
+import static org.neo4j.com.Protocol.writeString;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * Checksums of the fixed size blocks of the files in a store directory, which
+ * a store copy can be compared against so that only the blocks that differ
+ * need to be transferred.
+ *
+ * The records of the store files never move, a changed record changes its
+ * block in place, so unlike rsync there's no need for rolling checksums to
+ * find moved data, blocks are simply compared at the same offsets. Each
+ * checksum is the first eight bytes of the MD5 digest of the block, strong
+ * enough to trust a match without comparing the data.
+ *
+ * The checksums of a directory are computed one file at a time as they are
+ * {@link #write(ChannelBuffer) written}, each file as a record of its own, so
+ * the sender never holds more than the checksums of one file. The receiver
+ * {@link #read(ChannelBuffer) reads} them all, to look them up by path as it
+ * goes through its files, see {@link #deltaWriter(StoreWriter)}.
+ */
+public class BlockChecksums
+{
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final byte MORE_FILES = 1;
+    private static final byte NO_MORE_FILES = 0;
+
+    private final File directory;
+    private final Map<String, long[]> files;
+
+    private BlockChecksums( File directory, Map<String, long[]> files )
+    {
+        this.directory = directory;
+        this.files = files;
+    }
+
+    /**
+     * The block checksums of all files in {@code directory} and its sub
+     * directories, by their paths relative to it. They are computed as they
+     * are written or looked up.
+     */
+    public static BlockChecksums of( File directory )
+    {
+        return new BlockChecksums( directory, null );
+    }
+
+    private interface FileVisitor
+    {
+        void visit( String path, long[] checksums ) throws IOException;
+    }
+
+    private static void collect( File directory, String prefix, FileVisitor visitor, MessageDigest digest,
+            byte[] block ) throws IOException
+    {
+        File[] files = directory.listFiles();
+        if ( files == null ) return;
+        for ( File file : files )
+        {
+            String path = prefix + file.getName();
+            if ( file.isDirectory() ) collect( file, path + File.separator, visitor, digest, block );
+            else visitor.visit( path, checksums( file, digest, block ) );
+        }
+    }
+
+    private static long[] checksums( File file, MessageDigest digest, byte[] block ) throws IOException
+    {
+        long[] checksums = new long[(int) ( ( file.length() + BLOCK_SIZE - 1 ) / BLOCK_SIZE )];
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            int length;
+            for ( int i = 0; i < checksums.length && ( length = fill( in, block ) ) > 0; i++ )
+            {
+                checksums[i] = checksum( digest, block, length );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return checksums;
+    }
+
+    /**
+     * Reads from {@code in} until {@code block} is full or the stream ends.
+     *
+     * @return the number of bytes read into {@code block}.
+     */
+    static int fill( InputStream in, byte[] block ) throws IOException
+    {
+        int length = 0;
+        for ( int read; length < block.length && ( read = in.read( block, length, block.length - length ) ) != -1; )
+        {
+            length += read;
+        }
+        return length;
+    }
+
+    static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance( "MD5" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    static long checksum( MessageDigest digest, byte[] block, int length )
+    {
+        digest.reset();
+        digest.update( block, 0, length );
+        byte[] hash = digest.digest();
+        long checksum = 0;
+        for ( int i = 0; i < 8; i++ )
+        {
+            checksum = ( checksum << 8 ) | ( hash[i] & 0xFF );
+        }
+        return checksum;
+    }
+
+    /**
+     * @return the checksums of the blocks of the file at {@code path}, or
+     *         {@code null} if there is no such file.
+     */
+    public long[] get( String path ) throws IOException
+    {
+        if ( files != null ) return files.get( path );
+        File file = new File( directory, path );
+        return file.isFile() ? checksums( file, newDigest(), new byte[BLOCK_SIZE] ) : null;
+    }
+
+    /**
+     * @return the directory the checksums are computed from, or
+     *         {@code null} if they were {@link #read(ChannelBuffer) read}.
+     */
+    public File directory()
+    {
+        return directory;
+    }
+
+    /**
+     * Wraps {@code writer} so that the files that there are checksums for are
+     * written as deltas against them, if {@code writer} is a
+     * {@link DeltaStoreWriter}. Otherwise they are written in full.
+     */
+    public StoreWriter deltaWriter( final StoreWriter writer )
+    {
+        if ( !( writer instanceof DeltaStoreWriter ) ) return writer;
+        return new StoreWriter()
+        {
+            public void write( String path, ReadableByteChannel data, ByteBuffer temporaryBuffer, boolean hasData )
+                    throws IOException
+            {
+                long[] checksums = hasData ? get( path ) : null;
+                if ( checksums != null ) ( (DeltaStoreWriter) writer ).writeDelta( path, data, checksums );
+                else writer.write( path, data, temporaryBuffer, hasData );
+            }
+
+            public void done()
+            {
+                writer.done();
+            }
+        };
+    }
+
+    /**
+     * Writes the checksums of one file after the other, computing them as it
+     * goes if they were not {@link #read(ChannelBuffer) read}.
+     */
+    public void write( final ChannelBuffer buffer ) throws IOException
+    {
+        FileVisitor writer = new FileVisitor()
+        {
+            public void visit( String path, long[] checksums )
+            {
+                buffer.writeByte( MORE_FILES );
+                writeString( buffer, path );
+                buffer.writeInt( checksums.length );
+                for ( long checksum : checksums )
+                {
+                    buffer.writeLong( checksum );
+                }
+            }
+        };
+        if ( files != null )
+        {
+            for ( Map.Entry<String, long[]> file : files.entrySet() ) writer.visit( file.getKey(), file.getValue() );
+        }
+        else
+        {
+            collect( directory, "", writer, newDigest(), new byte[BLOCK_SIZE] );
+        }
+        buffer.writeByte( NO_MORE_FILES );
+    }
+
+    public static BlockChecksums read( ChannelBuffer buffer )
+    {
+        Map<String, long[]> files = new HashMap<String, long[]>();
+        while ( buffer.readByte() == MORE_FILES )
+        {
+            String path = readString( buffer );
+            long[] checksums = new long[buffer.readInt()];
+            for ( int j = 0; j < checksums.length; j++ )
+            {
+                checksums[j] = buffer.readLong();
+            }
+            files.put( path, checksums );
+        }
+        return new BlockChecksums( null, files );
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + "[" + ( files != null ? files.size() + " files" : directory ) + "]";
+    }
+}
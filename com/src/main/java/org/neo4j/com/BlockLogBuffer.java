@@ -46,8 +46,8 @@ public class BlockLogBuffer implements LogBuffer
 
     private final ChannelBuffer target;
     // MAX_SIZE can be overcome by one primitive put(), the largest is 8 bytes
-    private final byte[] byteArray = new byte[MAX_SIZE + 8/*largest atom*/];
-    private final ByteBuffer byteBuffer = ByteBuffer.wrap( byteArray );
+    private final ByteBuffer byteBuffer = BufferPool.HEAP_BUFFERS.acquire( MAX_SIZE + 8/*largest atom*/ );
+    private final byte[] byteArray = byteBuffer.array();
 
     public BlockLogBuffer( ChannelBuffer target )
     {
@@ -57,7 +57,8 @@ public class BlockLogBuffer implements LogBuffer
 
     private void clearInternalBuffer()
     {
-        byteBuffer.clear();
+        // The pooled buffer can be larger than what a block needs
+        byteBuffer.clear().limit( MAX_SIZE + 8 );
         // reserve space for size - assume we are going to fill the buffer
         byteBuffer.put( FULL_BLOCK_AND_MORE );
     }
@@ -170,7 +171,9 @@ public class BlockLogBuffer implements LogBuffer
     /**
      * Signals the end of use for this buffer over this channel - first byte of
      * the chunk is set to the position of the buffer ( != 0, instead of
-     * FULL_BLOCK_AND_MORE) and it is written to the channel.
+     * FULL_BLOCK_AND_MORE) and it is written to the channel. The buffer
+     * mustn't be used after this, its internal buffer goes back to the
+     * {@link BufferPool}.
      */
     public void done()
     {
@@ -179,7 +182,7 @@ public class BlockLogBuffer implements LogBuffer
         byteBuffer.put( 0, (byte) ( byteBuffer.position() - 1 ) );
         byteBuffer.flip();
         target.writeBytes( byteBuffer );
-        clearInternalBuffer();
+        BufferPool.HEAP_BUFFERS.release( byteBuffer );
     }
 
     public int write( ReadableByteChannel data ) throws IOException
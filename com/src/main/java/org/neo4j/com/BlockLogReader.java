@@ -38,8 +38,9 @@ import org.jboss.netty.buffer.ChannelBuffer;
 public class BlockLogReader implements ReadableByteChannel
 {
     private final ChannelBuffer source;
-    private final byte[] byteArray = new byte[BlockLogBuffer.MAX_SIZE];
-    private final ByteBuffer byteBuffer = ByteBuffer.wrap( byteArray );
+    // Back to the BufferPool, and null, once the last block has been read through
+    private ByteBuffer byteBuffer = BufferPool.HEAP_BUFFERS.acquire( BlockLogBuffer.MAX_SIZE );
+    private final byte[] byteArray = byteBuffer.array();
     private boolean moreBlocks;
 
     public BlockLogReader( ChannelBuffer source )
@@ -74,6 +75,14 @@ public class BlockLogReader implements ReadableByteChannel
         // This is to make sure that reader index in the ChannelBuffer is left
         // in the right place even if this reader wasn't completely read through.
         readToTheEnd();
+        release();
+    }
+
+    private void release()
+    {
+        if ( byteBuffer == null ) return;
+        BufferPool.HEAP_BUFFERS.release( byteBuffer );
+        byteBuffer = null;
     }
 
     public int read( ByteBuffer dst ) throws IOException
@@ -84,6 +93,7 @@ public class BlockLogReader implements ReadableByteChannel
          * one chunk at a time until either it runs out of stuff coming
          * from the channel or the actual target buffer is filled.
          */
+        if ( byteBuffer == null ) return -1;
         int bytesWanted = dst.limit();
         int bytesRead = 0;
         while ( bytesWanted > 0 )
@@ -96,7 +106,12 @@ public class BlockLogReader implements ReadableByteChannel
             bytesRead += bytesReadThisTime;
             bytesWanted -= bytesReadThisTime;
         }
-        return bytesRead == 0 && !moreBlocks ? -1 : bytesRead;
+        if ( bytesRead == 0 && !moreBlocks )
+        {
+            release();
+            return -1;
+        }
+        return bytesRead;
     }
 
     /**
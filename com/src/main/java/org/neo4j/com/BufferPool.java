@@ -0,0 +1,314 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * Buffers for the request and response path, kept in size classes of powers
+ * of two so that handling requests doesn't allocate new ones once the pool
+ * has warmed up. A buffer is acquired with at least the capacity asked for,
+ * from the smallest class that has one, and should be {@link #release(Object)
+ * released} when done with. Buffers that aren't released are simply left to
+ * the garbage collector, but show up as {@link #getOutstanding() outstanding}.
+ * The pool retains no more than a given number of bytes, the buffers released
+ * beyond that are dropped.
+ *
+ * Leak diagnostics: with the system property
+ * {@code org.neo4j.com.BufferPool.trackLeaks=true} the pool remembers where
+ * each outstanding buffer was acquired, see {@link #getOutstandingAcquisitions()}.
+ */
+public abstract class BufferPool<B>
+{
+    static final int MIN_SIZE_CLASS = 8; // 256 bytes
+    static final int MAX_SIZE_CLASS = 24; // 16 MB, the default frame length
+    static final int MAX_BUFFERS_PER_CLASS = 1024;
+    private static final boolean TRACK_LEAKS = Boolean.getBoolean( BufferPool.class.getName() + ".trackLeaks" );
+
+    /**
+     * Dynamic channel buffers for requests, responses and their chunks.
+     */
+    public static final BufferPool<ChannelBuffer> CHANNEL_BUFFERS = new BufferPool<ChannelBuffer>(
+            "channel buffers", 128 * Protocol.MEGA )
+    {
+        @Override
+        protected ChannelBuffer create( int capacity )
+        {
+            return ChannelBuffers.dynamicBuffer( capacity );
+        }
+
+        @Override
+        protected int capacity( ChannelBuffer buffer )
+        {
+            return buffer.capacity();
+        }
+
+        @Override
+        protected void clear( ChannelBuffer buffer )
+        {
+            buffer.clear();
+        }
+    };
+
+    /**
+     * Heap byte buffers, for the blocks of transactions and the like.
+     */
+    public static final BufferPool<ByteBuffer> HEAP_BUFFERS = new ByteBufferPool( "heap buffers", 4 * Protocol.MEGA,
+            false );
+
+    /**
+     * Direct byte buffers, for reading files and other channels into.
+     */
+    public static final BufferPool<ByteBuffer> DIRECT_BUFFERS = new ByteBufferPool( "direct buffers",
+            32 * Protocol.MEGA, true );
+
+    /**
+     * @return all the pools above, for diagnostics.
+     */
+    public static List<BufferPool<?>> all()
+    {
+        return Arrays.<BufferPool<?>>asList( CHANNEL_BUFFERS, HEAP_BUFFERS, DIRECT_BUFFERS );
+    }
+
+    private final String name;
+    private final long maxRetainedBytes;
+    private final Queue<B>[] classes;
+    private final AtomicInteger[] classSizes;
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Map<B, Throwable> acquisitions = TRACK_LEAKS ? new IdentityHashMap<B, Throwable>() : null;
+
+    @SuppressWarnings( "unchecked" )
+    protected BufferPool( String name, long maxRetainedBytes )
+    {
+        this.name = name;
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.classes = new Queue[MAX_SIZE_CLASS + 1];
+        this.classSizes = new AtomicInteger[MAX_SIZE_CLASS + 1];
+        for ( int i = MIN_SIZE_CLASS; i <= MAX_SIZE_CLASS; i++ )
+        {
+            classes[i] = new ConcurrentLinkedQueue<B>();
+            classSizes[i] = new AtomicInteger();
+        }
+    }
+
+    protected abstract B create( int capacity );
+
+    protected abstract int capacity( B buffer );
+
+    protected abstract void clear( B buffer );
+
+    /**
+     * @return a cleared buffer with a capacity of at least {@code capacity}.
+     */
+    public B acquire( int capacity )
+    {
+        acquired.incrementAndGet();
+        B buffer = null;
+        int sizeClass = Math.max( MIN_SIZE_CLASS, ceilLog2( capacity ) );
+        for ( int i = sizeClass; buffer == null && i <= MAX_SIZE_CLASS; i++ )
+        {
+            buffer = classes[i].poll();
+            if ( buffer != null )
+            {
+                classSizes[i].decrementAndGet();
+                retainedBytes.addAndGet( -( 1L << i ) );
+            }
+        }
+        if ( buffer == null )
+        {
+            allocated.incrementAndGet();
+            buffer = create( sizeClass <= MAX_SIZE_CLASS ? 1 << sizeClass : capacity );
+        }
+        if ( acquisitions != null )
+        {
+            synchronized ( acquisitions )
+            {
+                acquisitions.put( buffer, new Throwable( "Acquired by " + Thread.currentThread() ) );
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Hands {@code buffer} back to the pool, it mustn't be used after this.
+     */
+    public void release( B buffer )
+    {
+        released.incrementAndGet();
+        if ( acquisitions != null )
+        {
+            synchronized ( acquisitions )
+            {
+                acquisitions.remove( buffer );
+            }
+        }
+        int sizeClass = floorLog2( capacity( buffer ) );
+        if ( sizeClass < MIN_SIZE_CLASS || sizeClass > MAX_SIZE_CLASS || !retain( sizeClass ) )
+        {
+            dropped.incrementAndGet();
+            return;
+        }
+        clear( buffer );
+        classes[sizeClass].offer( buffer );
+    }
+
+    private boolean retain( int sizeClass )
+    {
+        if ( classSizes[sizeClass].incrementAndGet() > MAX_BUFFERS_PER_CLASS )
+        {
+            classSizes[sizeClass].decrementAndGet();
+            return false;
+        }
+        if ( retainedBytes.addAndGet( 1L << sizeClass ) > maxRetainedBytes )
+        {
+            retainedBytes.addAndGet( -( 1L << sizeClass ) );
+            classSizes[sizeClass].decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    static int ceilLog2( int value )
+    {
+        return value <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros( value - 1 );
+    }
+
+    static int floorLog2( int value )
+    {
+        return 31 - Integer.numberOfLeadingZeros( value );
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the number of buffers acquired and not yet released, some of
+     *         which may have leaked.
+     */
+    public long getOutstanding()
+    {
+        return acquired.get() - released.get();
+    }
+
+    public long getAcquired()
+    {
+        return acquired.get();
+    }
+
+    /**
+     * @return the number of buffers that had to be allocated since there
+     *         wasn't one to reuse.
+     */
+    public long getAllocated()
+    {
+        return allocated.get();
+    }
+
+    /**
+     * @return the number of released buffers not retained, because of their
+     *         size or because the pool was full.
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    public long getRetainedBytes()
+    {
+        return retainedBytes.get();
+    }
+
+    /**
+     * @return where the outstanding buffers were acquired, if leaks are
+     *         tracked, otherwise nothing.
+     */
+    public List<String> getOutstandingAcquisitions()
+    {
+        List<String> result = new ArrayList<String>();
+        if ( acquisitions == null ) return result;
+        synchronized ( acquisitions )
+        {
+            for ( Throwable acquisition : acquisitions.values() )
+            {
+                StringWriter trace = new StringWriter();
+                acquisition.printStackTrace( new PrintWriter( trace ) );
+                result.add( trace.toString() );
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BufferPool[" + name + ", acquired:" + getAcquired() + ", allocated:" + getAllocated()
+               + ", outstanding:" + getOutstanding() + ", dropped:" + getDropped() + ", retained bytes:"
+               + getRetainedBytes() + "]";
+    }
+
+    private static class ByteBufferPool extends BufferPool<ByteBuffer>
+    {
+        private final boolean direct;
+
+        ByteBufferPool( String name, long maxRetainedBytes, boolean direct )
+        {
+            super( name, maxRetainedBytes );
+            this.direct = direct;
+        }
+
+        @Override
+        protected ByteBuffer create( int capacity )
+        {
+            return direct ? ByteBuffer.allocateDirect( capacity ) : ByteBuffer.allocate( capacity );
+        }
+
+        @Override
+        protected int capacity( ByteBuffer buffer )
+        {
+            return buffer.capacity();
+        }
+
+        @Override
+        protected void clear( ByteBuffer buffer )
+        {
+            buffer.clear();
+        }
+    }
+}
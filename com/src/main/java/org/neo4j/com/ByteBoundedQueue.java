@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A queue of transactions, or anything else with a size in bytes, bounded by
+ * the total size of what it holds rather than by how many. An item larger
+ * than the bound on its own is let onto an empty queue, so that it never
+ * waits forever.
+ */
+class ByteBoundedQueue<T>
+{
+    private final long maxBytes;
+    // All guarded by this
+    private final LinkedList<T> items = new LinkedList<T>();
+    private final LinkedList<Long> sizes = new LinkedList<Long>();
+    private long bytes;
+
+    ByteBoundedQueue( long maxBytes )
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds {@code item}, waiting at most {@code timeout} for the queue to
+     * have room for its {@code size}.
+     *
+     * @return {@code false} if there was no room before the timeout.
+     */
+    synchronized boolean offer( T item, long size, long timeout, TimeUnit unit ) throws InterruptedException
+    {
+        long end = System.nanoTime() + unit.toNanos( timeout );
+        while ( bytes > 0 && bytes + size > maxBytes )
+        {
+            long left = end - System.nanoTime();
+            if ( left <= 0 ) return false;
+            TimeUnit.NANOSECONDS.timedWait( this, left );
+        }
+        add( item, size );
+        return true;
+    }
+
+    /**
+     * Adds {@code item} whether there is room or not, for the marker that
+     * ends what is queued.
+     */
+    synchronized void force( T item )
+    {
+        add( item, 0 );
+    }
+
+    private void add( T item, long size )
+    {
+        items.addLast( item );
+        sizes.addLast( size );
+        bytes += size;
+        notifyAll();
+    }
+
+    /**
+     * @return the first item, or {@code null} if the queue is empty.
+     */
+    synchronized T poll()
+    {
+        if ( items.isEmpty() ) return null;
+        bytes -= sizes.removeFirst();
+        notifyAll();
+        return items.removeFirst();
+    }
+
+    synchronized T take() throws InterruptedException
+    {
+        while ( items.isEmpty() ) wait();
+        return poll();
+    }
+
+    synchronized void clear()
+    {
+        items.clear();
+        sizes.clear();
+        bytes = 0;
+        notifyAll();
+    }
+}
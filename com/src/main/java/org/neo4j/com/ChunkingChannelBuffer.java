@@ -27,12 +27,11 @@ import java.nio.ByteOrder;
 import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ScatteringByteChannel;
 import java.nio.charset.Charset;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.LinkedList;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferFactory;
 import org.jboss.netty.buffer.ChannelBufferIndexFinder;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
@@ -51,10 +50,18 @@ import org.jboss.netty.channel.ChannelFutureListener;
  * this stream. A final serialization round happens when <code>done()</code> is
  * called, if content has been added.
  * <p>
- * Each chunk written is marked as pending and no more than
- * MAX_WRITE_AHEAD_CHUNKS are left pending - in such a case the write process
- * sleeps until some acknowledgment comes back from the other side that chunks
- * have been read.
+ * Each chunk written is marked as pending until its write completes. The
+ * pending chunks are held to a window of bytes, and to the channel being
+ * writable, and the write process waits for completions to make room when
+ * they aren't. The window starts at INITIAL_WINDOW_CHUNKS chunks and then
+ * follows twice the bandwidth-delay product measured from the completed
+ * writes, between one chunk and a ceiling in bytes, so that the link is kept
+ * busy without buffering more than needed. The ceiling is
+ * {@link #DEFAULT_MAX_WINDOW} unless given, which can be set with the
+ * {@code org.neo4j.com.ChunkingChannelBuffer.maxWindow} system property.
+ * <p>
+ * The buffers for the chunks after the first come from
+ * {@link BufferPool#CHANNEL_BUFFERS} and go back there once written.
  */
 public class ChunkingChannelBuffer implements ChannelBuffer, ChannelFutureListener
 {
@@ -62,46 +69,114 @@ public class ChunkingChannelBuffer implements ChannelBuffer, ChannelFutureListen
     static final byte CONTINUATION_MORE = 1;
     static final byte OUTCOME_SUCCESS = 0;
     static final byte OUTCOME_FAILURE = 1;
-    private static final int MAX_WRITE_AHEAD_CHUNKS = 5;
+    private static final int INITIAL_WINDOW_CHUNKS = 5;
+    /**
+     * The most bytes of chunks that may be pending, unless given otherwise.
+     */
+    public static final long DEFAULT_MAX_WINDOW = Long.getLong( ChunkingChannelBuffer.class.getName() + ".maxWindow",
+            64L * Protocol.MEGA );
+    /**
+     * How often a waiting writer checks whether the channel is still
+     * connected, should its close not complete the pending writes.
+     */
+    private static final long CONNECTION_CHECK_MILLIS = 200;
 
     private ChannelBuffer buffer;
+    // Whether buffer came from the BufferPool, and goes back there once written
+    private boolean pooled;
+    // Whether buffer has been handed to the channel, and mustn't be written to again
+    private boolean written;
     private final Channel channel;
     private final int capacity;
+    private final long maxWindow;
     private int continuationPosition;
-    private final AtomicInteger writeAheadCounter = new AtomicInteger();
+    private final Object flowControl = new Object();
+    // Guarded by flowControl
+    private final LinkedList<PendingWrite> pendingWrites = new LinkedList<PendingWrite>();
+    private long pendingBytes;
+    private long window;
+    private long lastCompletion;
+    private long minWriteNanos = Long.MAX_VALUE;
+    private double bytesPerNano;
     private volatile boolean failure;
     private final byte applicationProtocolVersion;
     private final byte internalProtocolVersion;
 
     public ChunkingChannelBuffer( ChannelBuffer buffer, Channel channel, int capacity, byte internalProtocolVersion, byte applicationProtocolVersion )
+    {
+        this( buffer, false, channel, capacity, internalProtocolVersion, applicationProtocolVersion );
+    }
+
+    /**
+     * @param pooled whether {@code buffer} was acquired from
+     *            {@link BufferPool#CHANNEL_BUFFERS}, in which case it's
+     *            released there once it has been written. The buffers for the
+     *            following chunks are always taken from there.
+     */
+    public ChunkingChannelBuffer( ChannelBuffer buffer, boolean pooled, Channel channel, int capacity,
+            byte internalProtocolVersion, byte applicationProtocolVersion )
+    {
+        this( buffer, pooled, channel, capacity, internalProtocolVersion, applicationProtocolVersion,
+                DEFAULT_MAX_WINDOW );
+    }
+
+    /**
+     * @param maxWindow the most bytes of chunks that may be pending, however
+     *            large the bandwidth-delay product, but never less than one
+     *            chunk.
+     */
+    public ChunkingChannelBuffer( ChannelBuffer buffer, boolean pooled, Channel channel, int capacity,
+            byte internalProtocolVersion, byte applicationProtocolVersion, long maxWindow )
     {
         this.buffer = buffer;
+        this.pooled = pooled;
         this.channel = channel;
         this.capacity = capacity;
         this.internalProtocolVersion = internalProtocolVersion;
         this.applicationProtocolVersion = applicationProtocolVersion;
+        this.maxWindow = Math.max( capacity, maxWindow );
+        this.window = Math.min( this.maxWindow, (long) capacity * INITIAL_WINDOW_CHUNKS );
         addRoomForContinuationHeader();
     }
 
+    private static class PendingWrite
+    {
+        final int size;
+        final long started;
+        final ChannelBuffer pooledBuffer;
+
+        PendingWrite( int size, long started, ChannelBuffer pooledBuffer )
+        {
+            this.size = size;
+            this.started = started;
+            this.pooledBuffer = pooledBuffer;
+        }
+    }
+
     private void addRoomForContinuationHeader()
     {
         continuationPosition = writerIndex();
         // byte 0: [pppp,ppoc] p: internal protocol version, o: outcome, c: continuation
         // byte 1: [aaaa,aaaa] a: application protocol version
-        buffer.writeBytes( header( CONTINUATION_LAST ) );
+        buffer.writeByte( header( CONTINUATION_LAST ) );
+        buffer.writeByte( applicationProtocolVersion );
     }
 
-    private byte[] header( byte continuation )
+    private byte header( byte continuation )
     {
-        byte[] header = new byte[2];
-        header[0] = (byte)((internalProtocolVersion << 2) | ((failure?OUTCOME_FAILURE:OUTCOME_SUCCESS) << 1) | continuation );
-        header[1] = applicationProtocolVersion;
-        return header;
+        return (byte)((internalProtocolVersion << 2) | ((failure?OUTCOME_FAILURE:OUTCOME_SUCCESS) << 1) | continuation );
     }
 
     private void setContinuation( byte continuation )
     {
-        buffer.setBytes( continuationPosition, header( continuation ) );
+        buffer.setByte( continuationPosition, header( continuation ) );
+    }
+
+    private void nextBuffer()
+    {
+        buffer = BufferPool.CHANNEL_BUFFERS.acquire( capacity );
+        pooled = true;
+        written = false;
     }
 
     public ChannelBufferFactory factory()
@@ -171,6 +246,7 @@ public class ChunkingChannelBuffer implements ChannelBuffer, ChannelFutureListen
 
     public void clear( boolean failure )
     {
+        if ( written ) nextBuffer();
         buffer.clear();
         this.failure = failure;
         addRoomForContinuationHeader();
@@ -532,8 +608,7 @@ public class ChunkingChannelBuffer implements ChannelBuffer, ChannelFutureListen
         {
             setContinuation( CONTINUATION_MORE );
             writeCurrentChunk();
-            // TODO Reuse buffers?
-            buffer = ChannelBuffers.dynamicBuffer();
+            nextBuffer();
             addRoomForContinuationHeader();
         }
     }
@@ -543,28 +618,39 @@ public class ChunkingChannelBuffer implements ChannelBuffer, ChannelFutureListen
         if ( !channel.isOpen() || !channel.isConnected() || !channel.isBound() )
             throw new ComException( "Channel has been closed, so no need to try to write to it anymore. Client closed it?" );
         
-        waitForClientToCatchUpOnReadingChunks();
+        int size = buffer.readableBytes();
+        waitForClientToCatchUpOnReadingChunks( size );
+        synchronized ( flowControl )
+        {
+            pendingWrites.add( new PendingWrite( size, System.nanoTime(), pooled ? buffer : null ) );
+            pendingBytes += size;
+        }
+        written = true;
         ChannelFuture future = channel.write( buffer );
         future.addListener( this );
-        writeAheadCounter.incrementAndGet();
     }
 
-    private void waitForClientToCatchUpOnReadingChunks()
+    private void waitForClientToCatchUpOnReadingChunks( int size )
     {
         // Wait until channel gets disconnected or client catches up.
         // If channel has been disconnected we can exit and the next write
         // will produce a decent exception out.
         boolean waited = false;
-        while ( channel.isConnected() && writeAheadCounter.get() >= MAX_WRITE_AHEAD_CHUNKS )
+        synchronized ( flowControl )
         {
-            waited = true;
-            try
+            // There's always room for one write, completions are what wakes us up
+            while ( channel.isConnected() && pendingBytes > 0
+                    && ( pendingBytes + size > window || !channel.isWritable() ) )
             {
-                Thread.sleep( 200 );
-            }
-            catch ( InterruptedException e )
-            {   // OK
-                Thread.interrupted();
+                waited = true;
+                try
+                {
+                    flowControl.wait( CONNECTION_CHECK_MILLIS );
+                }
+                catch ( InterruptedException e )
+                {   // OK
+                    Thread.interrupted();
+                }
             }
         }
 
@@ -586,7 +672,34 @@ public class ChunkingChannelBuffer implements ChannelBuffer, ChannelFutureListen
         {
             future.getChannel().close();
         }
-        writeAheadCounter.decrementAndGet();
+        PendingWrite write;
+        synchronized ( flowControl )
+        {
+            // Writes on a channel complete in the order they were made
+            write = pendingWrites.removeFirst();
+            pendingBytes -= write.size;
+            if ( future.isSuccess() ) adjustWindow( write, System.nanoTime() );
+            flowControl.notifyAll();
+        }
+        if ( write.pooledBuffer != null ) BufferPool.CHANNEL_BUFFERS.release( write.pooledBuffer );
+    }
+
+    /**
+     * Measures the delay as the shortest time any write took, and the
+     * bandwidth from the time each write took from the point where the one
+     * before it was done, which excludes the time it was queued behind it.
+     * Guarded by flowControl.
+     */
+    private void adjustWindow( PendingWrite write, long now )
+    {
+        long writeNanos = Math.max( 1, now - write.started );
+        minWriteNanos = Math.min( minWriteNanos, writeNanos );
+        long serviceNanos = Math.max( 1, now - Math.max( write.started, lastCompletion ) );
+        lastCompletion = now;
+        double rate = (double) write.size / serviceNanos;
+        bytesPerNano = bytesPerNano == 0 ? rate : bytesPerNano + ( rate - bytesPerNano ) * 0.25;
+        long bandwidthDelayProduct = (long) ( bytesPerNano * minWriteNanos );
+        window = Math.max( capacity, Math.min( maxWindow, 2 * bandwidthDelayProduct ) );
     }
 
     public void done()
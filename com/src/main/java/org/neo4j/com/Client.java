@@ -34,7 +34,6 @@ import java.util.concurrent.TimeUnit;
 
 import org.jboss.netty.bootstrap.ClientBootstrap;
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelFuture;
@@ -75,7 +74,7 @@ public abstract class Client<M> implements ChannelPipelineFactory
     private final int readTimeout;
     private final byte applicationProtocolVersion;
     private final StoreIdGetter storeIdGetter;
-    private final ResourceReleaser resourcePoolReleaser;
+    private volatile boolean shuttingDown;
 
     public Client( String hostNameOrIp, int port, StringLogger logger,
             StoreIdGetter storeIdGetter, int frameLength,
@@ -110,8 +109,8 @@ public abstract class Client<M> implements ChannelPipelineFactory
                 if ( channelFuture.isSuccess() )
                 {
                     channel = Triplet.of( channelFuture.getChannel(),
-                            ChannelBuffers.dynamicBuffer(),
-                            ByteBuffer.allocateDirect( 1024 * 1024 ) );
+                            BufferPool.CHANNEL_BUFFERS.acquire( 0 ),
+                            BufferPool.DIRECT_BUFFERS.acquire( Protocol.MEGA ) );
                     msgLog.logMessage( "Opened a new channel to " + address, true );
                     return channel;
                 }
@@ -144,6 +143,12 @@ public abstract class Client<M> implements ChannelPipelineFactory
             {
                 Channel channel = resource.first();
                 if ( channel.isConnected() ) channel.close();
+                // Channels disposed of at shutdown may still be in the middle of a request
+                if ( !shuttingDown )
+                {
+                    BufferPool.CHANNEL_BUFFERS.release( resource.second() );
+                    BufferPool.DIRECT_BUFFERS.release( resource.third() );
+                }
             }
         };
 
@@ -151,20 +156,6 @@ public abstract class Client<M> implements ChannelPipelineFactory
         executor = Executors.newCachedThreadPool();
         bootstrap = new ClientBootstrap( new NioClientSocketChannelFactory( executor, executor ) );
         bootstrap.setPipelineFactory( this );
-        /*
-         * This is here to couple the channel releasing to Response.close() itself and not
-         * to TransactionStream.close() as it is implemented here. The reason is that a Response
-         * that is returned without a TransactionStream will still hold the channel and should
-         * release it eventually. Also, logically, closing the channel is not dependent on the
-         * TransactionStream.
-         */
-        resourcePoolReleaser = new ResourceReleaser()
-        {
-            public void release()
-            {
-                channelPool.release();
-            }
-        };
         msgLog.logMessage( getClass().getSimpleName() + " communication started and bound to " + hostNameOrIp + ":" + port, true );
     }
 
@@ -187,6 +178,7 @@ public abstract class Client<M> implements ChannelPipelineFactory
     {
         boolean success = true;
         Triplet<Channel, ChannelBuffer, ByteBuffer> channelContext = null;
+        DechunkingChannelBuffer dechunkingBuffer = null;
         try
         {
             // Send 'em over the wire
@@ -204,7 +196,7 @@ public abstract class Client<M> implements ChannelPipelineFactory
             @SuppressWarnings( "unchecked" )
             BlockingReadHandler<ChannelBuffer> reader = (BlockingReadHandler<ChannelBuffer>)
                     channel.getPipeline().get( "blockingHandler" );
-            DechunkingChannelBuffer dechunkingBuffer = new DechunkingChannelBuffer( reader, getReadTimeout( type, readTimeout ),
+            dechunkingBuffer = new DechunkingChannelBuffer( reader, getReadTimeout( type, readTimeout ),
                     getInternalProtocolVersion(), applicationProtocolVersion );
 
             R response = deserializer.read( dechunkingBuffer, channelContext.third() );
@@ -218,11 +210,12 @@ public abstract class Client<M> implements ChannelPipelineFactory
             TransactionStream txStreams = readTransactionStreams(
                     dechunkingBuffer, channelPool );
             return new Response<R>( response, storeId, txStreams,
-                    resourcePoolReleaser );
+                    responseReleaser( dechunkingBuffer ) );
         }
         catch ( Throwable e )
         {
             success = false;
+            if ( dechunkingBuffer != null ) dechunkingBuffer.release();
             if ( channelContext != null )
             {
                 closeChannel( channelContext );
@@ -241,6 +234,26 @@ public abstract class Client<M> implements ChannelPipelineFactory
         }
     }
 
+    /*
+     * This is here to couple the channel releasing to Response.close() itself and not
+     * to TransactionStream.close() as it is implemented here. The reason is that a Response
+     * that is returned without a TransactionStream will still hold the channel and should
+     * release it eventually. Also, logically, closing the channel is not dependent on the
+     * TransactionStream. The transactions are read from the response buffer until then,
+     * so that is when it can be reused too.
+     */
+    private ResourceReleaser responseReleaser( final DechunkingChannelBuffer responseBuffer )
+    {
+        return new ResourceReleaser()
+        {
+            public void release()
+            {
+                responseBuffer.release();
+                channelPool.release();
+            }
+        };
+    }
+
     protected int getReadTimeout( RequestType<M> type, int readTimeout )
     {
         return readTimeout;
@@ -326,6 +339,7 @@ public abstract class Client<M> implements ChannelPipelineFactory
 
     public void shutdown()
     {
+        shuttingDown = true;
         channelPool.close( true );
         executor.shutdownNow();
         msgLog.logMessage( toString() + " shutdown", true );
@@ -35,13 +35,14 @@ import java.util.concurrent.TimeUnit;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferFactory;
 import org.jboss.netty.buffer.ChannelBufferIndexFinder;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.queue.BlockingReadHandler;
 
 public class DechunkingChannelBuffer implements ChannelBuffer
 {
     private final BlockingReadHandler<ChannelBuffer> reader;
     private ChannelBuffer buffer;
+    // Whether buffer came from the BufferPool, as the chunks are gathered in it
+    private boolean pooled;
     private boolean more;
     private boolean hasMarkedReaderIndex;
     private final int timeoutSeconds;
@@ -97,11 +98,11 @@ public class DechunkingChannelBuffer implements ChannelBuffer
          * [    ,    ][    ,  x ] 0: success, 1: failure
          * [    ,    ][xxxx,xx  ] internal protocol version
          * [xxxx,xxxx][    ,    ] application protocol version */
-        byte[] header = new byte[2];
-        readBuffer.readBytes( header );
-        more = (header[0] & 0x1) != 0;
-        failure = (header[0] & 0x2) != 0;
-        assertSameProtocolVersion( header, internalProtocolVersion, applicationProtocolVersion );
+        byte header0 = readBuffer.readByte();
+        byte header1 = readBuffer.readByte();
+        more = (header0 & 0x1) != 0;
+        failure = (header0 & 0x2) != 0;
+        assertSameProtocolVersion( header0, header1, internalProtocolVersion, applicationProtocolVersion );
         
         if ( !more && buffer == null )
         {
@@ -111,7 +112,11 @@ public class DechunkingChannelBuffer implements ChannelBuffer
         }
         else
         {
-            buffer = buffer == null ? ChannelBuffers.dynamicBuffer() : buffer;
+            if ( buffer == null )
+            {
+                buffer = BufferPool.CHANNEL_BUFFERS.acquire( readBuffer.readableBytes() * 2 );
+                pooled = true;
+            }
             discardReadBytes();
             buffer.writeBytes( readBuffer );
         }
@@ -123,6 +128,26 @@ public class DechunkingChannelBuffer implements ChannelBuffer
         }
     }
 
+    /**
+     * Hands the buffer the chunks were gathered in back to the
+     * {@link BufferPool}, once the message has been read.
+     */
+    void release()
+    {
+        if ( pooled ) BufferPool.CHANNEL_BUFFERS.release( buffer );
+        pooled = false;
+    }
+
+    static void assertSameProtocolVersion( byte header0, byte header1, byte internalProtocolVersion,
+            byte applicationProtocolVersion )
+    {
+        if ( (byte) ((header0 & 0x7C) >>> 2) != internalProtocolVersion || header1 != applicationProtocolVersion )
+        {
+            assertSameProtocolVersion( new byte[] { header0, header1 }, internalProtocolVersion,
+                    applicationProtocolVersion );
+        }
+    }
+
     static void assertSameProtocolVersion( byte[] header, byte internalProtocolVersion, byte applicationProtocolVersion )
     {
         /* [aaaa,aaaa][pppp,ppoc]
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link FileChannel} that does everything through another one, for
+ * overriding some of what it does, like forcing.
+ */
+public class DelegatingFileChannel extends FileChannel
+{
+    protected final FileChannel channel;
+
+    protected DelegatingFileChannel( FileChannel channel )
+    {
+        this.channel = channel;
+    }
+
+    @Override
+    public int read( ByteBuffer dst ) throws IOException
+    {
+        return channel.read( dst );
+    }
+
+    @Override
+    public long read( ByteBuffer[] dsts, int offset, int length ) throws IOException
+    {
+        return channel.read( dsts, offset, length );
+    }
+
+    @Override
+    public int write( ByteBuffer src ) throws IOException
+    {
+        return channel.write( src );
+    }
+
+    @Override
+    public long write( ByteBuffer[] srcs, int offset, int length ) throws IOException
+    {
+        return channel.write( srcs, offset, length );
+    }
+
+    @Override
+    public long position() throws IOException
+    {
+        return channel.position();
+    }
+
+    @Override
+    public FileChannel position( long newPosition ) throws IOException
+    {
+        channel.position( newPosition );
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException
+    {
+        return channel.size();
+    }
+
+    @Override
+    public FileChannel truncate( long size ) throws IOException
+    {
+        channel.truncate( size );
+        return this;
+    }
+
+    @Override
+    public void force( boolean metaData ) throws IOException
+    {
+        channel.force( metaData );
+    }
+
+    @Override
+    public long transferTo( long position, long count, WritableByteChannel target ) throws IOException
+    {
+        return channel.transferTo( position, count, target );
+    }
+
+    @Override
+    public long transferFrom( ReadableByteChannel src, long position, long count ) throws IOException
+    {
+        return channel.transferFrom( src, position, count );
+    }
+
+    @Override
+    public int read( ByteBuffer dst, long position ) throws IOException
+    {
+        return channel.read( dst, position );
+    }
+
+    @Override
+    public int write( ByteBuffer src, long position ) throws IOException
+    {
+        return channel.write( src, position );
+    }
+
+    @Override
+    public MappedByteBuffer map( MapMode mode, long position, long size ) throws IOException
+    {
+        return channel.map( mode, position, size );
+    }
+
+    @Override
+    public FileLock lock( long position, long size, boolean shared ) throws IOException
+    {
+        return channel.lock( position, size, shared );
+    }
+
+    @Override
+    public FileLock tryLock( long position, long size, boolean shared ) throws IOException
+    {
+        return channel.tryLock( position, size, shared );
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException
+    {
+        channel.close();
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.neo4j.com.BlockChecksums.BLOCK_SIZE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * The counterpart of the delta written by {@link ToNetworkStoreWriter}, reads
+ * a file as the blocks that were sent, in {@link BlockLogReader} format, and
+ * takes the blocks in between from the receiver's own copy of the file, the
+ * basis. Must be read through, or closed, before reading anything else from
+ * the source.
+ */
+class DeltaBlockReader implements ReadableByteChannel
+{
+    private final ChannelBuffer source;
+    private final File basis;
+    private FileChannel basisChannel;
+    private int nextSentBlock;
+    private long fileLength = -1;
+    private long position;
+    private BlockLogReader sent;
+    private long basisRemaining;
+
+    DeltaBlockReader( ChannelBuffer source, File basis )
+    {
+        this.source = source;
+        this.basis = basis;
+        readNextSentBlock();
+    }
+
+    private void readNextSentBlock()
+    {
+        nextSentBlock = source.readInt();
+        if ( nextSentBlock == -1 ) fileLength = source.readLong();
+    }
+
+    public int read( ByteBuffer dst ) throws IOException
+    {
+        while ( dst.hasRemaining() )
+        {
+            if ( sent != null )
+            {
+                int read = sent.read( dst );
+                if ( read > 0 )
+                {
+                    position += read;
+                    return read;
+                }
+                sent = null;
+                readNextSentBlock();
+            }
+            else if ( basisRemaining > 0 )
+            {
+                int read = readBasis( dst );
+                position += read;
+                basisRemaining -= read;
+                return read;
+            }
+            else if ( position / BLOCK_SIZE == nextSentBlock )
+            {
+                sent = new BlockLogReader( source );
+            }
+            else if ( nextSentBlock == -1 && position >= fileLength )
+            {
+                return -1;
+            }
+            else
+            {
+                basisRemaining = nextSentBlock == -1 ? Math.min( BLOCK_SIZE, fileLength - position ) : BLOCK_SIZE;
+            }
+        }
+        return 0;
+    }
+
+    private int readBasis( ByteBuffer dst ) throws IOException
+    {
+        if ( basisChannel == null ) basisChannel = new RandomAccessFile( basis, "r" ).getChannel();
+        int limit = dst.limit();
+        if ( dst.remaining() > basisRemaining ) dst.limit( dst.position() + (int) basisRemaining );
+        try
+        {
+            int read = basisChannel.read( dst, position );
+            if ( read <= 0 ) throw new IOException( basis + " is missing data at " + position );
+            return read;
+        }
+        finally
+        {
+            dst.limit( limit );
+        }
+    }
+
+    public boolean isOpen()
+    {
+        return true;
+    }
+
+    /**
+     * Skips what's left of the file in the source, so that the next file can
+     * be read, and closes the basis.
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            if ( sent != null )
+            {
+                sent.close();
+                readNextSentBlock();
+            }
+            while ( nextSentBlock != -1 )
+            {
+                new BlockLogReader( source ).close();
+                readNextSentBlock();
+            }
+        }
+        finally
+        {
+            if ( basisChannel != null ) basisChannel.close();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A {@link StoreWriter} that can write a file as only the blocks that differ
+ * from the receiver's copy of it, see
+ * {@link BlockChecksums#deltaWriter(StoreWriter)}.
+ */
+public interface DeltaStoreWriter extends StoreWriter
+{
+    /**
+     * Writes the blocks of {@code data} whose checksums differ from
+     * {@code receiverChecksums}, the checksums of the blocks of the receiver's
+     * copy of the file at {@code path}.
+     */
+    void writeDelta( String path, ReadableByteChannel data, long[] receiverChecksums ) throws IOException;
+}
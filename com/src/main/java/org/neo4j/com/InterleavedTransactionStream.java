@@ -0,0 +1,254 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.helpers.Exceptions;
+import org.neo4j.helpers.Triplet;
+import org.neo4j.kernel.impl.transaction.xaframework.InMemoryLogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
+
+/**
+ * A {@link TransactionStream} over the transactions of several data sources,
+ * where each data source has its transactions extracted from its logs by a
+ * thread of its own, ahead of the stream by at most
+ * {@link MasterUtil#PIPELINE_MAX_BYTES} of transactions. The stream takes one
+ * transaction from each data source in turn, so the transactions of each data
+ * source come in order, but the ones of different data sources are mixed.
+ *
+ * The threads come from a pool of the master, see
+ * {@link MasterUtil#newTransactionExtractors(int)}. When it has no thread to
+ * spare, or has been shut down, a data source is extracted by the thread
+ * that reads the stream instead, as it would be without the pool.
+ */
+class InterleavedTransactionStream extends TransactionStream
+{
+    private static final Object END_OF_SOURCE = new Object();
+
+    private final List<Source> sources = new ArrayList<Source>();
+    private final List<LogCursors.Cursor> logExtractors;
+    private volatile boolean closed;
+    private int next;
+    // For the data sources extracted by the thread reading the stream
+    private ByteBuffer inlineScratch;
+
+    InterleavedTransactionStream( Collection<String> dataSources,
+            Collection<List<Triplet<String, Long, TxExtractor>>> streams, List<LogCursors.Cursor> logExtractors,
+            ExecutorService extractors )
+    {
+        super( dataSources.toArray( new String[dataSources.size()] ) );
+        this.logExtractors = logExtractors;
+        for ( List<Triplet<String, Long, TxExtractor>> stream : streams )
+        {
+            sources.add( new Source( stream, extractors ) );
+        }
+    }
+
+    @Override
+    protected Triplet<String, Long, TxExtractor> fetchNextOrNull()
+    {
+        while ( !sources.isEmpty() )
+        {
+            if ( next >= sources.size() ) next = 0;
+            Source source = sources.get( next );
+            Triplet<String, Long, TxExtractor> tx = source.take();
+            if ( tx == null )
+            {
+                sources.remove( next );
+                continue;
+            }
+            next++;
+            return tx;
+        }
+        return null;
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        for ( Source source : sources )
+        {
+            source.awaitQuietly();
+        }
+        for ( LogCursors.Cursor extractor : logExtractors ) extractor.release();
+    }
+
+    /**
+     * Extracts the transactions of one data source, in order, onto a queue.
+     * Never interrupted, since an interrupted read would close the log
+     * channel, it checks whether the stream is closed instead. Without a
+     * thread of its own the transactions are taken right off the stream.
+     */
+    private class Source implements Callable<Void>
+    {
+        private final ByteBoundedQueue<Object> extracted =
+                new ByteBoundedQueue<Object>( MasterUtil.PIPELINE_MAX_BYTES );
+        private final List<Triplet<String, Long, TxExtractor>> stream;
+        private final Future<Void> future;
+        private final Iterator<Triplet<String, Long, TxExtractor>> inline;
+
+        Source( List<Triplet<String, Long, TxExtractor>> stream, ExecutorService extractors )
+        {
+            this.stream = stream;
+            Future<Void> submitted = null;
+            try
+            {
+                submitted = extractors.submit( this );
+            }
+            catch ( RejectedExecutionException e )
+            {   // All extractor threads are busy, or the master is shutting down
+            }
+            this.future = submitted;
+            this.inline = submitted == null ? stream.iterator() : null;
+        }
+
+        @Override
+        public Void call() throws InterruptedException
+        {
+            Object last = END_OF_SOURCE;
+            ByteBuffer scratch = BufferPool.HEAP_BUFFERS.acquire( 64 * 1024 );
+            try
+            {
+                for ( Triplet<String, Long, TxExtractor> tx : stream )
+                {
+                    byte[] data = extract( tx, scratch );
+                    if ( !put( Triplet.of( tx.first(), tx.second(), extractor( data ) ), data.length ) ) return null;
+                }
+            }
+            catch ( Throwable e )
+            {
+                last = e;
+            }
+            finally
+            {
+                BufferPool.HEAP_BUFFERS.release( scratch );
+            }
+            put( last, 0 );
+            return null;
+        }
+
+        /**
+         * @return {@code false} if the stream was closed before {@code item}
+         *         could be put on the queue.
+         */
+        private boolean put( Object item, long size ) throws InterruptedException
+        {
+            while ( !extracted.offer( item, size, 100, TimeUnit.MILLISECONDS ) )
+            {
+                if ( closed ) return false;
+            }
+            return true;
+        }
+
+        @SuppressWarnings( "unchecked" )
+        Triplet<String, Long, TxExtractor> take()
+        {
+            if ( inline != null )
+            {
+                if ( !inline.hasNext() ) return null;
+                if ( inlineScratch == null ) inlineScratch = ByteBuffer.allocate( 64 * 1024 );
+                try
+                {
+                    Triplet<String, Long, TxExtractor> tx = inline.next();
+                    return Triplet.of( tx.first(), tx.second(), extractor( extract( tx, inlineScratch ) ) );
+                }
+                catch ( IOException e )
+                {
+                    throw new RuntimeException( e );
+                }
+            }
+            Object item;
+            try
+            {
+                item = extracted.take();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException( "Interrupted while extracting transactions", e );
+            }
+            if ( item == END_OF_SOURCE ) return null;
+            if ( item instanceof Throwable ) throw Exceptions.launderedException( (Throwable) item );
+            return (Triplet<String, Long, TxExtractor>) item;
+        }
+
+        void awaitQuietly()
+        {
+            if ( future == null ) return;
+            try
+            {
+                future.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            catch ( ExecutionException e )
+            {   // Only the transactions that were taken matter
+            }
+        }
+    }
+
+    private static byte[] extract( Triplet<String, Long, TxExtractor> tx, ByteBuffer scratch ) throws IOException
+    {
+        InMemoryLogBuffer buffer = new InMemoryLogBuffer();
+        tx.third().extract( buffer );
+        return MasterUtil.read( buffer, scratch );
+    }
+
+    private static TxExtractor extractor( final byte[] data )
+    {
+        return new TxExtractor()
+        {
+            @Override
+            public ReadableByteChannel extract()
+            {
+                return MasterUtil.channel( data );
+            }
+
+            @Override
+            public void extract( LogBuffer buffer )
+            {
+                try
+                {
+                    buffer.put( data );
+                }
+                catch ( IOException e )
+                {
+                    throw new RuntimeException( e );
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,529 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.impl.transaction.xaframework.InMemoryLogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.LogExtractor;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+
+/**
+ * Keeps the {@link LogExtractor}s that transactions were last extracted to a
+ * slave with open, one per slave and data source, so that the next request of
+ * the slave, which as a rule starts where the previous one ended, can continue
+ * reading from where the extractor is instead of opening and seeking through
+ * the logs again.
+ *
+ * A cursor is only used by one request at a time, it's checked out for the
+ * request and checked in again when its transactions have been extracted.
+ * Cursors are dropped when the logical log of their data source has been
+ * rotated since they were opened, and when they have been idle for longer than
+ * the given time, see {@link #evictIdle()}. A cursor a few transactions short
+ * of where the next request starts, like after a commit of the slave where
+ * its own transaction was left out of the response, reads past them. A cursor
+ * that doesn't continue with the transaction it's expected to, or fails to, is
+ * replaced by a new extractor before anything has been extracted from it.
+ *
+ * Concurrent requests of a slave, like the ones of its user threads while its
+ * update puller pulls, tend to ask for the same transactions. A request that
+ * starts within the range of one that is being extracted for the same slave,
+ * and not before where that one has come, follows it: it gets the transactions
+ * the leading request extracts, as they're extracted, instead of extracting
+ * them from the logs again. A follower continues on an extractor of its own
+ * for the transactions after the range of the leader, or if the leader ends or
+ * has kept it waiting for {@link #MAX_FOLLOW_WAIT_MILLIS} in all.
+ */
+public class LogCursors
+{
+    /**
+     * Caches nothing, every request gets extractors of its own.
+     */
+    public static final LogCursors NONE = new LogCursors( 0 )
+    {
+        @Override
+        Cursor checkOut( int machineId, XaDataSource dataSource, long startTxId, long endTxId ) throws IOException
+        {
+            return new Cursor( this, null, dataSource, startTxId, endTxId, null );
+        }
+    };
+
+    /**
+     * The longest range of transactions that a request follows another one
+     * for, the followed transactions are kept in memory until all followers
+     * have taken them.
+     */
+    static final int MAX_SHARED_TRANSACTIONS = 1000;
+
+    /**
+     * How long a follower waits for the leader to extract transactions, in
+     * all, before extracting them itself.
+     */
+    static final long MAX_FOLLOW_WAIT_MILLIS = 1000;
+
+    /**
+     * The most transactions an idle cursor reads past to get to where the next
+     * request starts, rather than opening a new extractor.
+     */
+    static final int MAX_SKIPPED_TRANSACTIONS = 100;
+
+    private final Map<Pair<Integer, String>, Cursor> idle = new HashMap<Pair<Integer, String>, Cursor>();
+    private final Map<Pair<Integer, String>, Cursor> leading = new HashMap<Pair<Integer, String>, Cursor>();
+    private final long maxIdleMillis;
+    private final AtomicLong opened = new AtomicLong();
+    private boolean closed;
+
+    public LogCursors( long maxIdleMillis )
+    {
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    /**
+     * @return a cursor that extracts transactions from {@code startTxId} in
+     *         {@code dataSource}: a follower of a request of the same slave
+     *         that is extracting them already, the one left by the previous
+     *         request of the slave if it's still where it should be, or a new
+     *         one.
+     */
+    Cursor checkOut( int machineId, XaDataSource dataSource, long startTxId, long endTxId ) throws IOException
+    {
+        Pair<Integer, String> key = Pair.of( machineId, dataSource.getName() );
+        Cursor cursor;
+        synchronized ( this )
+        {
+            Cursor leader = leading.get( key );
+            if ( leader != null )
+            {
+                Cursor follower = new Cursor( this, key, dataSource, startTxId, endTxId, leader.shared );
+                if ( leader.shared.follow( follower ) ) return follower;
+            }
+            cursor = idle.remove( key );
+        }
+        if ( cursor != null )
+        {
+            long behind = startTxId - cursor.nextTxId;
+            if ( behind >= 0 && behind <= MAX_SKIPPED_TRANSACTIONS
+                 && cursor.logVersion == dataSource.getCurrentLogVersion() )
+            {
+                cursor.reuse( startTxId, endTxId );
+            }
+            else
+            {
+                cursor.close();
+                cursor = null;
+            }
+        }
+        if ( cursor == null ) cursor = new Cursor( this, key, dataSource, startTxId, endTxId, null );
+        synchronized ( this )
+        {
+            if ( !leading.containsKey( key ) )
+            {
+                cursor.shared = new Shared( startTxId, endTxId );
+                leading.put( key, cursor );
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Keeps {@code cursor} for the next request of its slave, unless it
+     * failed, or there's a cursor for it already.
+     */
+    private void checkIn( Cursor cursor )
+    {
+        if ( cursor.shared != null )
+        {
+            synchronized ( this )
+            {
+                leading.remove( cursor.key );
+            }
+            cursor.shared.end();
+            cursor.shared = null;
+        }
+        if ( cursor.following != null )
+        {
+            cursor.following.unfollow( cursor );
+            cursor.following = null;
+        }
+        if ( cursor.key != null && !cursor.failed && cursor.extractor != null )
+        {
+            cursor.lastUsed = System.currentTimeMillis();
+            synchronized ( this )
+            {
+                if ( !closed && !idle.containsKey( cursor.key ) )
+                {
+                    idle.put( cursor.key, cursor );
+                    return;
+                }
+            }
+        }
+        cursor.close();
+    }
+
+    /**
+     * Closes the cursors that have been idle for longer than the max idle time.
+     */
+    public void evictIdle()
+    {
+        long oldest = System.currentTimeMillis() - maxIdleMillis;
+        List<Cursor> evicted = new ArrayList<Cursor>();
+        synchronized ( this )
+        {
+            for ( Iterator<Cursor> cursors = idle.values().iterator(); cursors.hasNext(); )
+            {
+                Cursor cursor = cursors.next();
+                if ( cursor.lastUsed < oldest )
+                {
+                    cursors.remove();
+                    evicted.add( cursor );
+                }
+            }
+        }
+        for ( Cursor cursor : evicted ) cursor.close();
+    }
+
+    public synchronized int size()
+    {
+        return idle.size();
+    }
+
+    /**
+     * @return the number of log extractors opened so far.
+     */
+    long opened()
+    {
+        return opened.get();
+    }
+
+    public void close()
+    {
+        List<Cursor> cursors;
+        synchronized ( this )
+        {
+            closed = true;
+            cursors = new ArrayList<Cursor>( idle.values() );
+            idle.clear();
+        }
+        for ( Cursor cursor : cursors ) cursor.close();
+    }
+
+    static class Cursor
+    {
+        private final LogCursors owner;
+        private final Pair<Integer, String> key;
+        private final XaDataSource dataSource;
+        private long logVersion;
+        private LogExtractor extractor;
+        private long endTxId;
+        private boolean reused;
+        // Where the extractor of a reused cursor is
+        private long extractorTxId;
+        // The transactions it extracts for followers, while it leads
+        private Shared shared;
+        // The transactions of the leader it follows, until it extracts on its own
+        private Shared following;
+        private long followWaitedMillis;
+        // Reused for each transaction, a cursor is used by one request at a time. Aside is
+        // for the ones kept for followers, skipped for the ones read past by a reused cursor
+        private final InMemoryLogBuffer aside = new InMemoryLogBuffer();
+        private final InMemoryLogBuffer skipped = new InMemoryLogBuffer();
+        private ByteBuffer scratch;
+        volatile long nextTxId;
+        volatile boolean failed;
+        long lastUsed;
+
+        private Cursor( LogCursors owner, Pair<Integer, String> key, XaDataSource dataSource, long startTxId,
+                long endTxId, Shared following ) throws IOException
+        {
+            this.owner = owner;
+            this.key = key;
+            this.dataSource = dataSource;
+            this.nextTxId = startTxId;
+            this.endTxId = endTxId;
+            this.following = following;
+            if ( following == null ) open();
+        }
+
+        private void open() throws IOException
+        {
+            owner.opened.incrementAndGet();
+            this.logVersion = dataSource.getCurrentLogVersion();
+            this.extractor = dataSource.getLogExtractor( nextTxId, endTxId );
+        }
+
+        private void reuse( long startTxId, long endTxId )
+        {
+            this.extractorTxId = nextTxId;
+            this.nextTxId = startTxId;
+            this.endTxId = endTxId;
+            this.reused = true;
+        }
+
+        /**
+         * Extracts the next transaction into {@code buffer}.
+         *
+         * @return the id of the transaction, or -1 if there are no more.
+         */
+        long extractNext( LogBuffer buffer ) throws IOException
+        {
+            try
+            {
+                long txId;
+                if ( following != null && extractFollowed( buffer ) )
+                {
+                    txId = nextTxId;
+                }
+                else if ( shared != null && shared.isFollowed() )
+                {
+                    aside.reset();
+                    txId = extractOwn( aside );
+                    byte[] data = MasterUtil.read( aside, scratch() );
+                    if ( txId != -1 ) shared.extracted( txId, data );
+                    buffer.put( data );
+                }
+                else
+                {
+                    txId = extractOwn( buffer );
+                    if ( shared != null && txId != -1 ) shared.extracted( txId, null );
+                }
+                if ( txId != -1 ) nextTxId = txId + 1;
+                return txId;
+            }
+            catch ( IOException e )
+            {
+                failed();
+                throw e;
+            }
+            catch ( RuntimeException e )
+            {
+                failed();
+                throw e;
+            }
+        }
+
+        private void failed()
+        {
+            failed = true;
+            if ( shared != null ) shared.end();
+        }
+
+        /**
+         * @return whether the next transaction was put in {@code buffer} from
+         *         the leader, otherwise the cursor has stopped following it
+         *         and opened an extractor of its own.
+         */
+        private boolean extractFollowed( LogBuffer buffer ) throws IOException
+        {
+            long start = System.currentTimeMillis();
+            byte[] data = following.await( nextTxId, Math.max( 0, MAX_FOLLOW_WAIT_MILLIS - followWaitedMillis ) );
+            followWaitedMillis += System.currentTimeMillis() - start;
+            if ( data != null )
+            {
+                buffer.put( data );
+                following.taken();
+                return true;
+            }
+            following.unfollow( this );
+            following = null;
+            open();
+            return false;
+        }
+
+        private long extractOwn( LogBuffer buffer ) throws IOException
+        {
+            return reused ? extractFirstReused( buffer ) : extractor.extractNext( buffer );
+        }
+
+        /**
+         * The extractor of a reused cursor may have stopped where its previous
+         * request ended, or failed since, so the transactions up to the first
+         * one are extracted aside and the extractor replaced by a new one if
+         * it doesn't get to the expected one.
+         */
+        private long extractFirstReused( LogBuffer buffer ) throws IOException
+        {
+            reused = false;
+            long txId = -1;
+            try
+            {
+                for ( long tx = extractorTxId; tx <= nextTxId; tx++ )
+                {
+                    skipped.reset();
+                    txId = extractor.extractNext( skipped );
+                    if ( txId == -1 || txId >= nextTxId ) break;
+                }
+            }
+            catch ( IOException e )
+            {   // Stale, replaced below
+                txId = -1;
+            }
+            catch ( RuntimeException e )
+            {   // Stale, replaced below
+                txId = -1;
+            }
+            if ( txId != nextTxId )
+            {
+                extractor.close();
+                open();
+                return extractor.extractNext( buffer );
+            }
+            buffer.put( MasterUtil.read( skipped, scratch() ) );
+            return txId;
+        }
+
+        private ByteBuffer scratch()
+        {
+            if ( scratch == null ) scratch = ByteBuffer.allocate( 4 * 1024 );
+            return scratch;
+        }
+
+        /**
+         * Hands the cursor back when the request is done with it.
+         */
+        void release()
+        {
+            owner.checkIn( this );
+        }
+
+        void close()
+        {
+            if ( extractor != null ) extractor.close();
+        }
+    }
+
+    /**
+     * The transactions a leading cursor extracts, kept for its followers
+     * until they all have taken them.
+     */
+    private static class Shared
+    {
+        private final TreeMap<Long, byte[]> extracted = new TreeMap<Long, byte[]>();
+        private final List<Cursor> followers = new ArrayList<Cursor>();
+        private final long endTxId;
+        private long nextTxId;
+        private boolean ended;
+
+        Shared( long startTxId, long endTxId )
+        {
+            this.nextTxId = startTxId;
+            this.endTxId = endTxId;
+        }
+
+        /**
+         * @return whether {@code follower} can follow, which it then does.
+         */
+        synchronized boolean follow( Cursor follower )
+        {
+            long startTxId = follower.nextTxId;
+            if ( ended || startTxId < nextTxId || startTxId > endTxId
+                 || Math.min( follower.endTxId, endTxId ) - startTxId >= MAX_SHARED_TRANSACTIONS ) return false;
+            followers.add( follower );
+            return true;
+        }
+
+        synchronized boolean isFollowed()
+        {
+            return !followers.isEmpty();
+        }
+
+        /**
+         * Notes that the leader has extracted {@code txId}, which is kept if
+         * {@code data} is given and a follower will take it.
+         */
+        synchronized void extracted( long txId, byte[] data )
+        {
+            nextTxId = txId + 1;
+            if ( data != null && wanted( txId ) ) extracted.put( txId, data );
+            notifyAll();
+        }
+
+        /**
+         * @return the transaction {@code txId} once the leader has extracted
+         *         it, or {@code null} if it won't, or doesn't within
+         *         {@code maxWaitMillis}.
+         */
+        synchronized byte[] await( long txId, long maxWaitMillis )
+        {
+            long deadline = System.currentTimeMillis() + maxWaitMillis;
+            for ( long wait; ( wait = deadline - System.currentTimeMillis() ) > 0; )
+            {
+                byte[] data = extracted.get( txId );
+                if ( data != null ) return data;
+                if ( ended || txId < nextTxId || txId > endTxId ) return null;
+                try
+                {
+                    wait( wait );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return extracted.get( txId );
+        }
+
+        synchronized void taken()
+        {
+            prune();
+        }
+
+        synchronized void unfollow( Cursor follower )
+        {
+            followers.remove( follower );
+            prune();
+        }
+
+        synchronized void end()
+        {
+            ended = true;
+            notifyAll();
+        }
+
+        /**
+         * Drops the transactions that no follower will take.
+         */
+        private void prune()
+        {
+            long lowest = Long.MAX_VALUE;
+            for ( Cursor follower : followers ) lowest = Math.min( lowest, follower.nextTxId );
+            extracted.headMap( lowest ).clear();
+        }
+
+        private boolean wanted( long txId )
+        {
+            for ( Cursor follower : followers )
+            {
+                if ( follower.nextTxId <= txId && txId <= follower.endTxId ) return true;
+            }
+            return false;
+        }
+    }
+}
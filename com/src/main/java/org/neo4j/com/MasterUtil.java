@@ -19,19 +19,34 @@
  */
 package org.neo4j.com;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.transaction.xa.Xid;
 import org.neo4j.com.SlaveContext.Tx;
 import org.neo4j.graphdb.event.ErrorState;
 import org.neo4j.helpers.Exceptions;
@@ -46,7 +61,10 @@ import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
 import org.neo4j.kernel.impl.transaction.XaDataSourceManager;
 import org.neo4j.kernel.impl.transaction.xaframework.InMemoryLogBuffer;
 import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
-import org.neo4j.kernel.impl.transaction.xaframework.LogExtractor;
+import org.neo4j.kernel.impl.transaction.xaframework.LogEntry;
+import org.neo4j.kernel.impl.transaction.xaframework.LogIoUtils;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommandFactory;
 import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 
 public class MasterUtil
@@ -124,45 +142,91 @@ public class MasterUtil
         XaDataSourceManager dsManager =
                 graphDb.getXaDataSourceManager();
         SlaveContext context = SlaveContext.anonymous( rotateLogs( graphDb ) );
-        ByteBuffer temporaryBuffer = ByteBuffer.allocateDirect( 1024*1024 );
-        for ( XaDataSource ds : dsManager.getAllRegisteredDataSources() )
+        ByteBuffer temporaryBuffer = BufferPool.DIRECT_BUFFERS.acquire( Protocol.MEGA );
+        StoreCopyThrottle throttle = StoreCopyThrottle.of( graphDb );
+        try
         {
-            try
+            for ( XaDataSource ds : dsManager.getAllRegisteredDataSources() )
             {
-                ClosableIterable<File> files = ds.listStoreFiles( includeLogicalLogs );
                 try
                 {
-                    for ( File storefile : files )
+                    ClosableIterable<File> files = ds.listStoreFiles( includeLogicalLogs );
+                    try
                     {
-                        FileInputStream stream = new FileInputStream( storefile );
-                        try
-                        {
-                            writer.write( relativePath( baseDir, storefile ), stream.getChannel(), temporaryBuffer,
-                                    storefile.length() > 0 );
-                        }
-                        finally
+                        for ( File storefile : files )
                         {
-                            stream.close();
+                            FileInputStream stream = new FileInputStream( storefile );
+                            ReadableByteChannel data = throttle.throttle( stream.getChannel() );
+                            try
+                            {
+                                writer.write( relativePath( baseDir, storefile ), data, temporaryBuffer,
+                                        storefile.length() > 0 );
+                            }
+                            finally
+                            {
+                                data.close();
+                                stream.close();
+                            }
                         }
                     }
+                    finally
+                    {
+                        files.close();
+                    }
                 }
-                finally
+                catch ( IOException e )
                 {
-                    files.close();
+                    throw new MasterFailureException( e );
                 }
             }
-            catch ( IOException e )
-            {
-                throw new MasterFailureException( e );
-            }
+        }
+        finally
+        {
+            BufferPool.DIRECT_BUFFERS.release( temporaryBuffer );
         }
         return context;
     }
     
+    /**
+     * Rotates the logs and lists the store files of all data sources, like
+     * {@link #rotateLogsAndStreamStoreFiles(GraphDatabaseAPI, boolean, StoreWriter)},
+     * but leaves it to the caller to copy them, in any order and in as many
+     * requests as it likes, before {@link StoreFileSnapshot#close() closing}
+     * the returned snapshot.
+     */
+    public static StoreFileSnapshot rotateLogsAndSnapshotStoreFiles( GraphDatabaseAPI graphDb,
+            boolean includeLogicalLogs )
+    {
+        File baseDir = getBaseDir( graphDb );
+        XaDataSourceManager dsManager =
+                graphDb.getXaDataSourceManager();
+        SlaveContext context = SlaveContext.anonymous( rotateLogs( graphDb ) );
+        Map<String, File> files = new LinkedHashMap<String, File>();
+        List<ClosableIterable<File>> listings = new ArrayList<ClosableIterable<File>>();
+        try
+        {
+            for ( XaDataSource ds : dsManager.getAllRegisteredDataSources() )
+            {
+                ClosableIterable<File> listing = ds.listStoreFiles( includeLogicalLogs );
+                listings.add( listing );
+                for ( File storefile : listing )
+                {
+                    files.put( relativePath( baseDir, storefile ), storefile );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            for ( ClosableIterable<File> listing : listings ) listing.close();
+            throw new MasterFailureException( e );
+        }
+        return new StoreFileSnapshot( context, files, listings );
+    }
+
     /**
      * For a given {@link XaDataSource} it extracts the transaction stream from
      * startTxId up to endTxId (inclusive) in the provided {@link List} and
-     * returns the {@link LogExtractor} used to create the stream.
+     * returns the {@link LogCursors.Cursor} used to create the stream.
      *
      * @param dataSource The {@link XaDataSource} from which to extract the
      *            transactions
@@ -170,15 +234,16 @@ public class MasterUtil
      * @param endTxId The last tx id in the stream
      * @param stream A list to contain the transaction stream - can already
      *            contain transactions from other data sources.
-     * @return The {@link LogExtractor} used to create the transaction stream.
+     * @param cursors The cursors to check the cursor of {@code machineId} out of
+     * @return The {@link LogCursors.Cursor} used to create the transaction stream.
      */
-    private static LogExtractor getTransactionStreamForDatasource(
+    private static LogCursors.Cursor getTransactionStreamForDatasource(
             final XaDataSource dataSource, final long startTxId,
             final long endTxId,
             final List<Triplet<String, Long, TxExtractor>> stream,
-            Predicate<Long> filter )
+            Predicate<Long> filter, LogCursors cursors, int machineId )
     {
-        LogExtractor logExtractor = null;
+        LogCursors.Cursor logExtractor = null;
         try
         {
             final long masterLastTx = dataSource.getLastCommittedTxId();
@@ -194,13 +259,13 @@ public class MasterUtil
             try
             {
                 // TODO check here for startTxId >= endTxId and exit early
-                logExtractor = dataSource.getLogExtractor( startTxId, endTxId );
+                logExtractor = cursors.checkOut( machineId, dataSource, startTxId, endTxId );
             }
             catch ( IOException ioe )
             {
                 throw new RuntimeException( ioe );
             }
-            final LogExtractor finalLogExtractor = logExtractor;
+            final LogCursors.Cursor finalLogExtractor = logExtractor;
             for ( long txId = startTxId; txId <= endTxId; txId++ )
             {
                 if ( filter.accept( txId ) )
@@ -235,6 +300,7 @@ public class MasterUtil
                                 }
                                 if ( extractedTxId != finalTxId )
                                 {
+                                    finalLogExtractor.failed = true;
                                     throw new RuntimeException(
                                             "Expected txId " + finalTxId
                                                     + ", but was "
@@ -281,10 +347,35 @@ public class MasterUtil
     public static <T> Response<T> packResponse( GraphDatabaseAPI graphDb,
             SlaveContext context, T response, Predicate<Long> filter )
     {
-        List<Triplet<String, Long, TxExtractor>> stream = new ArrayList<Triplet<String, Long, TxExtractor>>();
+        return packResponse( graphDb, context, response, filter, LogCursors.NONE );
+    }
+
+    /**
+     * Like {@link #packResponse(GraphDatabaseAPI, SlaveContext, Object, Predicate)},
+     * but continues extracting from where the previous response for the slave
+     * ended, if it's still in {@code cursors}.
+     */
+    public static <T> Response<T> packResponse( GraphDatabaseAPI graphDb,
+            SlaveContext context, T response, Predicate<Long> filter, LogCursors cursors )
+    {
+        return packResponse( graphDb, context, response, filter, cursors, null );
+    }
+
+    /**
+     * Like {@link #packResponse(GraphDatabaseAPI, SlaveContext, Object, Predicate, LogCursors)},
+     * but the transactions of more than one data source are extracted in
+     * parallel by threads of {@code extractors}, see
+     * {@link #newTransactionExtractors(int)}.
+     */
+    public static <T> Response<T> packResponse( GraphDatabaseAPI graphDb,
+            SlaveContext context, T response, Predicate<Long> filter, LogCursors cursors,
+            ExecutorService extractors )
+    {
+        Map<String, List<Triplet<String, Long, TxExtractor>>> streams =
+                new LinkedHashMap<String, List<Triplet<String, Long, TxExtractor>>>();
         Set<String> resourceNames = new HashSet<String>();
         XaDataSourceManager dsManager = graphDb.getXaDataSourceManager();
-        final List<LogExtractor> logExtractors = new ArrayList<LogExtractor>();
+        final List<LogCursors.Cursor> logExtractors = new ArrayList<LogCursors.Cursor>();
         try
         {
             for ( Tx txEntry : context.lastAppliedTransactions() )
@@ -298,19 +389,21 @@ public class MasterUtil
                 resourceNames.add( resourceName );
                 final long masterLastTx = dataSource.getLastCommittedTxId();
                 if ( txEntry.getTxId() >= masterLastTx ) continue;
-                LogExtractor logExtractor = getTransactionStreamForDatasource(
+                List<Triplet<String, Long, TxExtractor>> stream = new ArrayList<Triplet<String, Long, TxExtractor>>();
+                LogCursors.Cursor logExtractor = getTransactionStreamForDatasource(
                         dataSource, txEntry.getTxId() + 1, masterLastTx, stream,
-                        filter );
+                        filter, cursors, context.machineId() );
                 logExtractors.add( logExtractor );
+                if ( !stream.isEmpty() ) streams.put( resourceName, stream );
             }
             StoreId storeId = dsManager.getNeoStoreDataSource().getStoreId();
-            return new Response<T>( response, storeId, createTransactionStream( resourceNames, stream, logExtractors ),
-                    ResourceReleaser.NO_OP );
+            return new Response<T>( response, storeId, createTransactionStream( resourceNames, streams.values(),
+                    logExtractors, extractors ), ResourceReleaser.NO_OP );
         }
         catch ( Throwable t )
         {   // If there's an error in here then close the log extractors, otherwise if we're
             // successful the TransactionStream will close it.
-            for ( LogExtractor extractor : logExtractors ) extractor.close();
+            for ( LogCursors.Cursor extractor : logExtractors ) extractor.close();
             throw Exceptions.launderedException( t );
         }
     }
@@ -340,9 +433,9 @@ public class MasterUtil
                                         + "' found" );
         }
 
-        List<LogExtractor> extractors = startTx < endTx ? Collections.singletonList(
-                getTransactionStreamForDatasource( dataSource, startTx, endTx, stream, MasterUtil.ALL ) ) :
-                Collections.<LogExtractor>emptyList();
+        List<LogCursors.Cursor> extractors = startTx < endTx ? Collections.singletonList(
+                getTransactionStreamForDatasource( dataSource, startTx, endTx, stream, MasterUtil.ALL,
+                        LogCursors.NONE, -1 ) ) : Collections.<LogCursors.Cursor>emptyList();
         StoreId storeId = ( (NeoStoreXaDataSource) dsManager.getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME ) ).getStoreId();
         return new Response<Void>( null, storeId, createTransactionStream(
                         Collections.singletonList( dataSourceName ), stream,
@@ -350,8 +443,55 @@ public class MasterUtil
 
     }
 
+    /**
+     * A pool of at most {@code maxThreads} threads for
+     * {@link #packResponse(GraphDatabaseAPI, SlaveContext, Object, Predicate, LogCursors, ExecutorService)}
+     * to extract transactions with. It keeps no queue, a data source that
+     * finds no thread to spare is extracted by the thread that sends the
+     * response. Whoever creates the pool shuts it down.
+     */
+    public static ExecutorService newTransactionExtractors( int maxThreads )
+    {
+        return new ThreadPoolExecutor( 0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable, "Transaction extractor" );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                } );
+    }
+
+    /**
+     * With {@code extractors} the transactions of more than one data source
+     * are extracted from their logs in parallel, by an
+     * {@link InterleavedTransactionStream}, the transactions of each data
+     * source still in order.
+     */
+    private static TransactionStream createTransactionStream( Collection<String> resourceNames,
+            Collection<List<Triplet<String, Long, TxExtractor>>> streams, List<LogCursors.Cursor> logExtractors,
+            ExecutorService extractors )
+    {
+        if ( streams.size() > 1 && extractors != null )
+        {
+            return new InterleavedTransactionStream( resourceNames, streams, logExtractors, extractors );
+        }
+        if ( streams.size() > 1 )
+        {
+            List<Triplet<String, Long, TxExtractor>> stream = new ArrayList<Triplet<String, Long, TxExtractor>>();
+            for ( List<Triplet<String, Long, TxExtractor>> dataSourceStream : streams ) stream.addAll( dataSourceStream );
+            return createTransactionStream( resourceNames, stream, logExtractors );
+        }
+        List<Triplet<String, Long, TxExtractor>> stream = streams.isEmpty() ?
+                Collections.<Triplet<String, Long, TxExtractor>>emptyList() : streams.iterator().next();
+        return createTransactionStream( resourceNames, stream, logExtractors );
+    }
+
     private static TransactionStream createTransactionStream( Collection<String> resourceNames,
-            final List<Triplet<String, Long, TxExtractor>> stream, final List<LogExtractor> logExtractors )
+            final List<Triplet<String, Long, TxExtractor>> stream, final List<LogCursors.Cursor> logExtractors )
     {
         return new TransactionStream( resourceNames.toArray( new String[resourceNames.size()] ) )
         {
@@ -366,7 +506,7 @@ public class MasterUtil
             @Override
             public void close()
             {
-                for ( LogExtractor extractor : logExtractors ) extractor.close();
+                for ( LogCursors.Cursor extractor : logExtractors ) extractor.release();
             }
         };
     }
@@ -380,6 +520,16 @@ public class MasterUtil
                 ResourceReleaser.NO_OP );
     }
 
+    /**
+     * The default number of bytes of transactions that may wait in a
+     * pipeline, for each data source: extracted ahead of an
+     * {@link InterleavedTransactionStream}, or received ahead of being applied
+     * by {@link TransactionAppliers#pipelined() pipelined} appliers.
+     */
+    public static final int PIPELINE_MAX_BYTES = 8 * Protocol.MEGA;
+
+    private static final Triplet<String, Long, TxExtractor> END_OF_STREAM = Triplet.of( null, -1L, null );
+
     public static final Predicate<Long> ALL = new Predicate<Long>()
     {
         @Override
@@ -391,32 +541,363 @@ public class MasterUtil
 
     public static <T> void applyReceivedTransactions( Response<T> response, GraphDatabaseAPI graphDb, TxHandler txHandler ) throws IOException
     {
-        XaDataSourceManager dataSourceManager = graphDb.getXaDataSourceManager();
+        applyReceivedTransactions( response, graphDb, txHandler, TransactionAppliers.sequential(), ApplyBatcher.NONE );
+    }
+
+    private static void applyTransaction( Triplet<String, Long, TxExtractor> tx,
+            XaDataSourceManager dataSourceManager, TxHandler txHandler, TransactionAppliers appliers,
+            ApplyBatcher.Batches batches ) throws IOException
+    {
+        String resourceName = tx.first();
+        XaDataSource dataSource = dataSourceManager.getXaDataSource( resourceName );
+        txHandler.accept( tx, dataSource );
+        CountingChannel txStream;
+        synchronized ( appliers.applyLock( dataSource ) )
+        {
+            if ( tx.second() <= dataSource.getLastCommittedTxId() )
+            {   // Applied from the response of a concurrent request already, closing skips past it undecoded
+                tx.third().extract().close();
+                return;
+            }
+            txStream = new CountingChannel( tx.third().extract() );
+            batches.applying();
+            try
+            {
+                dataSource.applyCommittedTransaction( tx.second(), txStream );
+            }
+            finally
+            {
+                txStream.close();
+            }
+        }
+        batches.applied( txStream.count );
+    }
+
+    private static class CountingChannel implements ReadableByteChannel
+    {
+        private final ReadableByteChannel channel;
+        long count;
+
+        CountingChannel( ReadableByteChannel channel )
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read( ByteBuffer dst ) throws IOException
+        {
+            int read = channel.read( dst );
+            if ( read > 0 ) count += read;
+            return read;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Like {@link #applyReceivedTransactions(Response, GraphDatabaseAPI, TxHandler)},
+     * with the transactions applied in batches by {@code batcher}, and under
+     * the locks of {@code appliers}. If the appliers are
+     * {@link TransactionAppliers#pipelined() pipelined} the transactions are
+     * received and applied concurrently: the calling thread reads each
+     * transaction off the response into memory and hands it over, through a
+     * queue of at most {@link TransactionAppliers#maxQueuedBytes()}, to a
+     * thread of the appliers that applies the transactions of its data source
+     * in order. The data sources are applied
+     * independently of each other, each by a thread of its own, except for a
+     * transaction that spans data sources: once a part of it is received for
+     * a second data source, everything received before for the data source of
+     * the first part is applied first, and the second part is applied before
+     * anything received after it. The response
+     * is closed, which gives its channel back, as soon as all transactions
+     * have been received, while the last of them may still be applied.
+     */
+    public static <T> void applyReceivedTransactions( Response<T> response, GraphDatabaseAPI graphDb,
+            TxHandler txHandler, TransactionAppliers transactionAppliers, ApplyBatcher batcher ) throws IOException
+    {
+        if ( !transactionAppliers.pipelined() )
+        {
+            applyReceivedTransactions( response, graphDb.getXaDataSourceManager(), txHandler, transactionAppliers,
+                    batcher );
+            return;
+        }
+        Map<String, Applier> appliers = new HashMap<String, Applier>();
+        // The data source the first part of each transaction was received for,
+        // until its second part is handed over
+        Map<ByteBuffer, String> spanned = new HashMap<ByteBuffer, String>();
+        boolean closed = false;
+        ByteBuffer scratch = BufferPool.HEAP_BUFFERS.acquire( 64 * 1024 );
+        ByteBuffer entryScratch = ByteBuffer.allocate( 9 + Xid.MAXGTRIDSIZE + Xid.MAXBQUALSIZE * 10 );
         try
         {
             for ( Triplet<String, Long, TxExtractor> tx : IteratorUtil.asIterable( response.transactions() ) )
             {
-                String resourceName = tx.first();
-                XaDataSource dataSource = dataSourceManager.getXaDataSource( resourceName );
-                txHandler.accept( tx, dataSource );
+                Applier applier = appliers.get( tx.first() );
+                if ( applier == null )
+                {
+                    applier = new Applier( graphDb.getXaDataSourceManager(), txHandler, transactionAppliers, batcher );
+                    appliers.put( tx.first(), applier );
+                }
                 ReadableByteChannel txStream = tx.third().extract();
+                byte[] data;
                 try
                 {
-                    dataSource.applyCommittedTransaction( tx.second(), txStream );
+                    data = read( txStream, scratch );
                 }
                 finally
                 {
                     txStream.close();
                 }
+                ByteBuffer globalId = globalId( data, entryScratch );
+                String firstPart = globalId == null ? null : spanned.get( globalId );
+                if ( firstPart == null || firstPart.equals( tx.first() ) )
+                {
+                    if ( globalId != null ) spanned.put( globalId, tx.first() );
+                    applier.hand( Triplet.of( tx.first(), tx.second(), TxExtractor.create( channel( data ) ) ),
+                            data.length );
+                }
+                else
+                {
+                    appliers.get( firstPart ).awaitApplied();
+                    applier.hand( Triplet.of( tx.first(), tx.second(), TxExtractor.create( channel( data ) ) ),
+                            data.length );
+                    applier.awaitApplied();
+                    spanned.remove( globalId );
+                }
+            }
+            // Everything is received, the channel isn't needed for the rest
+            closed = true;
+            response.close();
+            for ( Applier applier : appliers.values() )
+            {
+                applier.end();
+            }
+            for ( Applier applier : appliers.values() )
+            {
+                applier.future.get();
+            }
+            txHandler.done();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while applying transactions", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException ) throw (IOException) e.getCause();
+            throw Exceptions.launderedException( e.getCause() );
+        }
+        finally
+        {
+            BufferPool.HEAP_BUFFERS.release( scratch );
+            for ( Applier applier : appliers.values() )
+            {
+                applier.stop();
+            }
+            if ( !closed ) response.close();
+        }
+    }
+
+    /**
+     * @return the global id of the transaction in {@code data}, the one the
+     *         parts of a transaction that spans data sources have in common,
+     *         or {@code null} if it doesn't start with one.
+     */
+    private static ByteBuffer globalId( byte[] data, ByteBuffer entryScratch ) throws IOException
+    {
+        entryScratch.clear();
+        LogEntry entry = LogIoUtils.readEntry( entryScratch, channel( data ), NO_COMMANDS );
+        if ( !( entry instanceof LogEntry.Start ) ) return null;
+        return ByteBuffer.wrap( ( (LogEntry.Start) entry ).getXid().getGlobalTransactionId() );
+    }
+
+    /**
+     * Only the start entry of a transaction is read, which comes before any
+     * command.
+     */
+    private static final XaCommandFactory NO_COMMANDS = new XaCommandFactory()
+    {
+        @Override
+        public XaCommand readCommand( ReadableByteChannel byteChannel, ByteBuffer buffer )
+        {
+            throw new UnsupportedOperationException( "Commands aren't read here" );
+        }
+    };
+
+    private static <T> void applyReceivedTransactions( Response<T> response, XaDataSourceManager dataSourceManager,
+            TxHandler txHandler, TransactionAppliers appliers, ApplyBatcher batcher ) throws IOException
+    {
+        ApplyBatcher.Batches batches = batcher.batches();
+        try
+        {
+            for ( Triplet<String, Long, TxExtractor> tx : IteratorUtil.asIterable( response.transactions() ) )
+            {
+                applyTransaction( tx, dataSourceManager, txHandler, appliers, batches );
             }
+            batches.end();
             txHandler.done();
         }
         finally
         {
+            batches.endQuietly();
             response.close();
         }
     }
 
+    /**
+     * Applies the transactions of one data source, in the order they're handed
+     * over, on a thread of its own.
+     */
+    private static class Applier implements Callable<Void>
+    {
+        private final ByteBoundedQueue<Triplet<String, Long, TxExtractor>> received;
+        private final XaDataSourceManager dataSourceManager;
+        private final TxHandler txHandler;
+        private final TransactionAppliers appliers;
+        private final ApplyBatcher batcher;
+        final Future<Void> future;
+        // Handed is only touched by the receiving thread, applied guarded by this
+        private long handed, applied;
+
+        Applier( XaDataSourceManager dataSourceManager, TxHandler txHandler, TransactionAppliers appliers,
+                ApplyBatcher batcher )
+        {
+            this.received = new ByteBoundedQueue<Triplet<String, Long, TxExtractor>>( appliers.maxQueuedBytes() );
+            this.dataSourceManager = dataSourceManager;
+            this.txHandler = txHandler;
+            this.appliers = appliers;
+            this.batcher = batcher;
+            this.future = appliers.submit( this );
+        }
+
+        @Override
+        public Void call() throws IOException, InterruptedException
+        {
+            ApplyBatcher.Batches batches = batcher.batches();
+            try
+            {
+                for ( Triplet<String, Long, TxExtractor> tx; ( tx = next( batches ) ) != END_OF_STREAM; )
+                {
+                    applyTransaction( tx, dataSourceManager, txHandler, appliers, batches );
+                    synchronized ( this )
+                    {
+                        applied++;
+                        notifyAll();
+                    }
+                }
+                batches.end();
+            }
+            finally
+            {
+                batches.endQuietly();
+            }
+            return null;
+        }
+
+        /**
+         * @return the next transaction to apply, the open batch is ended first
+         *         if there is none yet.
+         */
+        private Triplet<String, Long, TxExtractor> next( ApplyBatcher.Batches batches ) throws InterruptedException,
+                IOException
+        {
+            Triplet<String, Long, TxExtractor> tx = received.poll();
+            if ( tx != null ) return tx;
+            batches.end();
+            return received.take();
+        }
+
+        /**
+         * Puts {@code tx}, of {@code size} bytes, on the queue, unless the
+         * applier has failed, which is then thrown.
+         */
+        void hand( Triplet<String, Long, TxExtractor> tx, long size ) throws InterruptedException,
+                ExecutionException
+        {
+            while ( !received.offer( tx, size, 100, TimeUnit.MILLISECONDS ) )
+            {
+                if ( future.isDone() ) failed();
+            }
+            handed++;
+        }
+
+        /**
+         * Lets the applier end once it has applied what it was handed.
+         */
+        void end()
+        {
+            received.force( END_OF_STREAM );
+        }
+
+        /**
+         * Waits for the transactions handed over so far to be applied, unless
+         * the applier fails, which is then thrown.
+         */
+        synchronized void awaitApplied() throws InterruptedException, ExecutionException
+        {
+            while ( applied < handed )
+            {
+                if ( future.isDone() ) failed();
+                wait( 100 );
+            }
+        }
+
+        private void failed() throws InterruptedException, ExecutionException
+        {
+            future.get();
+            throw new IllegalStateException( "Transaction applier ended before the stream did" );
+        }
+
+        /**
+         * Stops the applier after the transaction it's at, if it hasn't
+         * finished. The ones not applied are pulled again later.
+         */
+        void stop()
+        {
+            if ( future.isDone() ) return;
+            received.clear();
+            received.force( END_OF_STREAM );
+            try
+            {
+                future.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            catch ( ExecutionException e )
+            {   // The failure to receive is the one reported
+            }
+        }
+    }
+
+    static byte[] read( ReadableByteChannel channel, ByteBuffer scratch ) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // Some channels, like BlockLogReader, only read into buffers from position 0
+        for ( scratch.clear(); channel.read( scratch ) > 0; scratch.clear() )
+        {
+            bytes.write( scratch.array(), 0, scratch.position() );
+        }
+        return bytes.toByteArray();
+    }
+
+    static ReadableByteChannel channel( byte[] data )
+    {
+        return Channels.newChannel( new ByteArrayInputStream( data ) );
+    }
+
     public interface TxHandler
     {
         void accept( Triplet<String, Long, TxExtractor> tx, XaDataSource dataSource );
@@ -440,7 +921,8 @@ public class MasterUtil
     {
         return new TxHandler()
         {
-            private final Set<String> visitedDataSources = new HashSet<String>();
+            // Data sources may be applied by threads of their own
+            private final Set<String> visitedDataSources = Collections.synchronizedSet( new HashSet<String>() );
 
             @Override
             public void accept( Triplet<String, Long, TxExtractor> tx, XaDataSource dataSource )
@@ -19,6 +19,7 @@
  */
 package org.neo4j.com;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
@@ -78,12 +79,25 @@ public abstract class Protocol
     public static class FileStreamsDeserializer implements Deserializer<Void>
     {
         private final StoreWriter writer;
+        private final File basis;
 
         public FileStreamsDeserializer( StoreWriter writer )
+        {
+            this( writer, null );
+        }
+
+        /**
+         * For reading files sent as deltas against the
+         * {@link BlockChecksums block checksums} of the files in {@code basis},
+         * the rest of the blocks are taken from there.
+         */
+        public FileStreamsDeserializer( StoreWriter writer, File basis )
         {
             this.writer = writer;
+            this.basis = basis;
         }
-        
+
+
         // NOTICE: this assumes a "smart" ChannelBuffer that continues to next chunk
         public Void read( ChannelBuffer buffer, ByteBuffer temporaryBuffer ) throws IOException
         {
@@ -91,7 +105,22 @@ public abstract class Protocol
             while ( 0 != ( pathLength = buffer.readUnsignedShort() ) )
             {
                 String path = readString( buffer, pathLength );
-                boolean hasData = buffer.readByte() == 1;
+                byte data = buffer.readByte();
+                if ( data == ToNetworkStoreWriter.DELTA )
+                {
+                    if ( basis == null ) throw new ComException( "Unexpected delta of " + path );
+                    DeltaBlockReader delta = new DeltaBlockReader( buffer, new File( basis, path ) );
+                    try
+                    {
+                        writer.write( path, delta, temporaryBuffer, true );
+                    }
+                    finally
+                    {
+                        delta.close();
+                    }
+                    continue;
+                }
+                boolean hasData = data == ToNetworkStoreWriter.DATA;
                 writer.write( path, hasData ? new BlockLogReader( buffer ) : null, temporaryBuffer, hasData );
             }
             writer.done();
@@ -34,7 +34,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelException;
 import org.jboss.netty.channel.ChannelFactory;
@@ -217,6 +216,9 @@ public abstract class Server<M, R> extends Protocol implements ChannelPipelineFa
         {
             if ( !ctx.getChannel().isOpen() )
             {
+                // A request that was cut short won't be served, its buffer can be reused
+                PartialRequest partialRequest = partialRequests.remove( ctx.getChannel() );
+                if ( partialRequest != null ) BufferPool.CHANNEL_BUFFERS.release( partialRequest.buffer );
                 tryToFinishOffChannel( ctx.getChannel() );
             }
         }
@@ -362,28 +364,30 @@ public abstract class Server<M, R> extends Protocol implements ChannelPipelineFa
                 targetBuffer = partialRequest.buffer;
                 partialRequest.add( buffer );
                 bufferToReadFrom = targetBuffer;
-                bufferToWriteTo = ChannelBuffers.dynamicBuffer();
+                bufferToWriteTo = BufferPool.CHANNEL_BUFFERS.acquire( 0 );
             }
 
             bufferToWriteTo.clear();
-            final ChunkingChannelBuffer chunkingBuffer = new ChunkingChannelBuffer( bufferToWriteTo, channel, frameLength,
-                    getInternalProtocolVersion(), applicationProtocolVersion );
-            submitSilent( masterCallExecutor, masterCaller( type, channel, context, chunkingBuffer, bufferToReadFrom ) );
+            final ChunkingChannelBuffer chunkingBuffer = new ChunkingChannelBuffer( bufferToWriteTo, true, channel,
+                    frameLength, getInternalProtocolVersion(), applicationProtocolVersion );
+            submitSilent( masterCallExecutor, masterCaller( type, channel, context, chunkingBuffer, bufferToReadFrom,
+                    partialRequest != null ? bufferToReadFrom : null ) );
         }
     }
 
     private Byte readContinuationHeader( ChannelBuffer buffer, final Channel channel )
     {
-        byte[] header = new byte[2];
-        buffer.readBytes( header );
+        byte header0 = buffer.readByte();
+        byte header1 = buffer.readByte();
         try
         {   // Read request header and assert correct internal/application protocol version
-            assertSameProtocolVersion( header, getInternalProtocolVersion(), applicationProtocolVersion );
+            assertSameProtocolVersion( header0, header1, getInternalProtocolVersion(), applicationProtocolVersion );
         }
         catch ( final IllegalProtocolVersionException e )
         {   // Version mismatch, fail with a good exception back to the client
-            final ChunkingChannelBuffer failureResponse = new ChunkingChannelBuffer( ChannelBuffers.dynamicBuffer(), channel,
-                    frameLength, getInternalProtocolVersion(), applicationProtocolVersion );
+            final ChunkingChannelBuffer failureResponse = new ChunkingChannelBuffer(
+                    BufferPool.CHANNEL_BUFFERS.acquire( 0 ), true, channel, frameLength,
+                    getInternalProtocolVersion(), applicationProtocolVersion );
             submitSilent( masterCallExecutor, new Runnable()
             {
                 @Override
@@ -394,11 +398,17 @@ public abstract class Server<M, R> extends Protocol implements ChannelPipelineFa
             } );
             return null;
         }
-        return (byte) (header[0] & 0x1);
+        return (byte) (header0 & 0x1);
     }
 
+    /**
+     * @param pooledRequest the buffer a multi-chunk request was gathered in,
+     *            which goes back to the {@link BufferPool} once the request has
+     *            been served, or {@code null}.
+     */
     private Runnable masterCaller( final RequestType<M> type, final Channel channel, final SlaveContext context,
-            final ChunkingChannelBuffer targetBuffer, final ChannelBuffer bufferToReadFrom )
+            final ChunkingChannelBuffer targetBuffer, final ChannelBuffer bufferToReadFrom,
+            final ChannelBuffer pooledRequest )
     {
         return new Runnable()
         {
@@ -425,6 +435,7 @@ public abstract class Server<M, R> extends Protocol implements ChannelPipelineFa
                 finally
                 {
                     if ( response != null ) response.close();
+                    if ( pooledRequest != null ) BufferPool.CHANNEL_BUFFERS.release( pooledRequest );
                     unmapSlave( channel, context );
                 }
             }
@@ -534,7 +545,7 @@ public abstract class Server<M, R> extends Protocol implements ChannelPipelineFa
                 }
             }
         }
-        return ChannelBuffers.dynamicBuffer();
+        return BufferPool.CHANNEL_BUFFERS.acquire( 0 );
     }
 
     protected void unmapSlave( Channel channel, SlaveContext slave )
@@ -0,0 +1,363 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.neo4j.graphdb.event.ErrorState;
+import org.neo4j.graphdb.event.KernelEventHandler;
+import org.neo4j.kernel.GraphDatabaseAPI;
+
+/**
+ * A bandwidth budget for the store files read by store copies and backups of
+ * a database, shared by all copies running at the same time.
+ *
+ * The budget is a token bucket that a copy takes from in portions of
+ * {@link #CHUNK_SIZE} bytes. A copy that takes more than is available
+ * reserves it and waits outside the lock for it to be refilled, so the copies
+ * behind it wait for their reservations in turn and share the budget evenly.
+ * Within the configured
+ * {@link #setMaxBytesPerSecond(long) maximum} the rate adapts to the latency
+ * of the transactions committed meanwhile, as {@link #commitLatency(long)
+ * reported}: it's halved when the latency rises well above its baseline and
+ * grows back gradually when it doesn't. Without a maximum the copies aren't
+ * throttled at all.
+ */
+public class StoreCopyThrottle
+{
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos( 1 );
+    /**
+     * The rate is never lowered below this fraction of the maximum, so that
+     * copies keep progressing under a steady heavy load.
+     */
+    static final int MIN_RATE_FRACTION = 16;
+    /**
+     * Latencies this many times the baseline count as a rise.
+     */
+    static final double LATENCY_RISE_FACTOR = 2.0;
+
+    private static final Map<String, StoreCopyThrottle> throttles = new HashMap<String, StoreCopyThrottle>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicInteger activeCopies = new AtomicInteger();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    // Guarded by lock
+    private long maxBytesPerSecond;
+    private long bytesPerSecond;
+    private double available;
+    private long lastRefill = System.nanoTime();
+    private long lastAdjustment = lastRefill;
+    private long windowStart = lastRefill;
+    private long windowBytes;
+    private long throughput;
+
+    // Guarded by this
+    private double latency;
+    private double baselineLatency;
+
+    /**
+     * @return the throttle for the store of {@code graphDb}, the same for all
+     *         services that copy it until {@code graphDb} shuts down.
+     */
+    public static StoreCopyThrottle of( GraphDatabaseAPI graphDb )
+    {
+        String key;
+        try
+        {
+            key = new File( graphDb.getStoreDir() ).getCanonicalPath();
+        }
+        catch ( IOException e )
+        {
+            key = new File( graphDb.getStoreDir() ).getAbsolutePath();
+        }
+        synchronized ( throttles )
+        {
+            StoreCopyThrottle throttle = throttles.get( key );
+            if ( throttle == null )
+            {
+                throttle = new StoreCopyThrottle();
+                throttles.put( key, throttle );
+                graphDb.registerKernelEventHandler( forget( key, throttle ) );
+            }
+            return throttle;
+        }
+    }
+
+    private static KernelEventHandler forget( final String key, final StoreCopyThrottle throttle )
+    {
+        return new KernelEventHandler()
+        {
+            @Override
+            public void beforeShutdown()
+            {
+                synchronized ( throttles )
+                {
+                    if ( throttles.get( key ) == throttle ) throttles.remove( key );
+                }
+            }
+
+            @Override
+            public void kernelPanic( ErrorState error )
+            {
+            }
+
+            @Override
+            public Object getResource()
+            {
+                return null;
+            }
+
+            @Override
+            public ExecutionOrder orderComparedTo( KernelEventHandler other )
+            {
+                return ExecutionOrder.DOESNT_MATTER;
+            }
+        };
+    }
+
+    /**
+     * @param maxBytesPerSecond the budget shared by all copies, or {@code 0}
+     *            to not throttle them.
+     */
+    public void setMaxBytesPerSecond( long maxBytesPerSecond )
+    {
+        if ( maxBytesPerSecond < 0 ) throw new IllegalArgumentException( "Negative rate " + maxBytesPerSecond );
+        lock.lock();
+        try
+        {
+            this.maxBytesPerSecond = maxBytesPerSecond;
+            this.bytesPerSecond = maxBytesPerSecond;
+            this.available = Math.min( available, maxBytesPerSecond );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxBytesPerSecond()
+    {
+        lock.lock();
+        try
+        {
+            return maxBytesPerSecond;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the rate copies are currently held to, lower than the maximum
+     *         while backing off, or {@code 0} if they aren't throttled.
+     */
+    public long getCurrentLimit()
+    {
+        lock.lock();
+        try
+        {
+            return bytesPerSecond;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the bytes per second read by all copies together during the
+     *         last second they were running.
+     */
+    public long getThroughput()
+    {
+        lock.lock();
+        try
+        {
+            return activeCopies.get() == 0 ? 0 : throughput;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public int getActiveCopies()
+    {
+        return activeCopies.get();
+    }
+
+    public long getTotalBytes()
+    {
+        return totalBytes.get();
+    }
+
+    /**
+     * Feeds the adaptive rate with the time it took to commit a transaction.
+     * The baseline follows the average quickly downwards and slowly upwards,
+     * so that a lasting change in load eventually becomes the new normal.
+     */
+    public synchronized void commitLatency( long nanos )
+    {
+        if ( latency == 0 )
+        {
+            latency = baselineLatency = nanos;
+            return;
+        }
+        latency += ( nanos - latency ) * 0.1;
+        baselineLatency += ( latency - baselineLatency ) * ( latency < baselineLatency ? 0.1 : 0.001 );
+    }
+
+    private synchronized boolean latencyRisen()
+    {
+        return latency > baselineLatency * LATENCY_RISE_FACTOR;
+    }
+
+    /**
+     * @return {@code data}, read no faster than this budget allows. The copy
+     *         counts as active until the returned channel is closed, which
+     *         doesn't close {@code data}.
+     */
+    public ReadableByteChannel throttle( final ReadableByteChannel data )
+    {
+        activeCopies.incrementAndGet();
+        return new ReadableByteChannel()
+        {
+            private boolean open = true;
+
+            @Override
+            public int read( ByteBuffer dst ) throws IOException
+            {
+                int limit = dst.limit();
+                if ( dst.remaining() > CHUNK_SIZE ) dst.limit( dst.position() + CHUNK_SIZE );
+                int read;
+                try
+                {
+                    read = data.read( dst );
+                }
+                finally
+                {
+                    dst.limit( limit );
+                }
+                if ( read > 0 ) acquire( read );
+                return read;
+            }
+
+            @Override
+            public boolean isOpen()
+            {
+                return open;
+            }
+
+            @Override
+            public void close()
+            {
+                if ( open ) activeCopies.decrementAndGet();
+                open = false;
+            }
+        };
+    }
+
+    /**
+     * Takes {@code bytes} from the budget, waiting for them to become
+     * available if need be. The bytes are reserved under the lock, which
+     * leaves the budget in debt for the copies that come after, and the wait
+     * for them happens after the lock is released.
+     */
+    void acquire( int bytes ) throws IOException
+    {
+        totalBytes.addAndGet( bytes );
+        long waitNanos = 0;
+        lock.lock();
+        try
+        {
+            long now = System.nanoTime();
+            measure( now, bytes );
+            if ( maxBytesPerSecond == 0 ) return;
+            adjust( now );
+            refill( now );
+            available -= bytes;
+            if ( available < 0 )
+            {
+                waitNanos = (long) ( -available * TimeUnit.SECONDS.toNanos( 1 ) / bytesPerSecond );
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        if ( waitNanos == 0 ) return;
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep( waitNanos );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while throttling store copy" );
+        }
+    }
+
+    private void measure( long now, int bytes )
+    {
+        windowBytes += bytes;
+        long elapsed = now - windowStart;
+        if ( elapsed >= ADJUST_INTERVAL_NANOS )
+        {
+            throughput = windowBytes * TimeUnit.SECONDS.toNanos( 1 ) / elapsed;
+            windowStart = now;
+            windowBytes = 0;
+        }
+    }
+
+    private void adjust( long now )
+    {
+        if ( now - lastAdjustment < ADJUST_INTERVAL_NANOS ) return;
+        lastAdjustment = now;
+        long min = Math.max( 1, maxBytesPerSecond / MIN_RATE_FRACTION );
+        if ( latencyRisen() )
+        {
+            bytesPerSecond = Math.max( min, bytesPerSecond / 2 );
+        }
+        else
+        {
+            bytesPerSecond = Math.min( maxBytesPerSecond, bytesPerSecond + Math.max( 1, maxBytesPerSecond / 10 ) );
+        }
+    }
+
+    private void refill( long now )
+    {
+        available = Math.min( bytesPerSecond,
+                available + (double) ( now - lastRefill ) * bytesPerSecond / TimeUnit.SECONDS.toNanos( 1 ) );
+        lastRefill = now;
+    }
+}
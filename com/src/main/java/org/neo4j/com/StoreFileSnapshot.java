@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.helpers.collection.ClosableIterable;
+
+/**
+ * The store files of all data sources as listed right after a log rotation,
+ * for copying them in several requests, possibly in parallel, instead of
+ * streaming them all in one response. The listings are kept open, so that
+ * data sources that hand out snapshots of their files (such as the lucene
+ * indexes) keep them around, until the snapshot is {@link #close() closed}.
+ *
+ * The {@link #context() context} holds the transactions the data sources were
+ * at when the logs were rotated, the copy needs to be caught up from there
+ * once all files have been copied.
+ */
+public class StoreFileSnapshot
+{
+    private final SlaveContext context;
+    private final Map<String, File> files = new LinkedHashMap<String, File>();
+    private final List<ClosableIterable<File>> listings;
+    private final long created = System.currentTimeMillis();
+
+    StoreFileSnapshot( SlaveContext context, Map<String, File> files, List<ClosableIterable<File>> listings )
+    {
+        this.context = context;
+        this.files.putAll( files );
+        this.listings = listings;
+    }
+
+    public SlaveContext context()
+    {
+        return context;
+    }
+
+    public long created()
+    {
+        return created;
+    }
+
+    /**
+     * @return the relative paths of the files in this snapshot, mapped to
+     *         their sizes at the time of the listing.
+     */
+    public Map<String, Long> fileSizes()
+    {
+        Map<String, Long> sizes = new LinkedHashMap<String, Long>();
+        for ( Map.Entry<String, File> file : files.entrySet() )
+        {
+            sizes.put( file.getKey(), file.getValue().length() );
+        }
+        return Collections.unmodifiableMap( sizes );
+    }
+
+    public File file( String path ) throws FileNotFoundException
+    {
+        File file = files.get( path );
+        if ( file == null ) throw new FileNotFoundException( path + " is not part of " + this );
+        return file;
+    }
+
+    public void close()
+    {
+        for ( ClosableIterable<File> listing : listings )
+        {
+            listing.close();
+        }
+        listings.clear();
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + "[" + files.size() + " files, " + context + "]";
+    }
+}
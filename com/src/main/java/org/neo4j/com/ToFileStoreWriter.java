@@ -73,6 +73,42 @@ public class ToFileStoreWriter implements StoreWriter
         }
     }
 
+    /**
+     * Writes {@code data} into the file at {@code path} starting at
+     * {@code position}, leaving the rest of the file as it is. Used for
+     * copying different parts of the same file concurrently.
+     */
+    public void write( String path, long position, ReadableByteChannel data, ByteBuffer temporaryBuffer )
+            throws IOException
+    {
+        temporaryBuffer.clear();
+        File file = new File( basePath, path );
+        file.getParentFile().mkdirs();
+        RandomAccessFile randomAccessFile = new RandomAccessFile( file, "rw" );
+        try
+        {
+            if ( data != null )
+            {
+                FileChannel channel = randomAccessFile.getChannel();
+                while ( data.read( temporaryBuffer ) >= 0 )
+                {
+                    temporaryBuffer.flip();
+                    while ( temporaryBuffer.hasRemaining() )
+                    {
+                        position += channel.write( temporaryBuffer, position );
+                    }
+                    temporaryBuffer.clear();
+                }
+                // Ranges may be recorded as copied, so they need to survive a crash
+                channel.force( false );
+            }
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+
     public void done()
     {
         // Do nothing
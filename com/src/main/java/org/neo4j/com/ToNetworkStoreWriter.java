@@ -20,36 +20,86 @@
 package org.neo4j.com;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 
-public class ToNetworkStoreWriter implements StoreWriter
+public class ToNetworkStoreWriter implements DeltaStoreWriter
 {
+    static final byte NO_DATA = 0;
+    static final byte DATA = 1;
+    static final byte DELTA = 2;
+
     private final ChannelBuffer targetBuffer;
 
     public ToNetworkStoreWriter( ChannelBuffer targetBuffer )
     {
         this.targetBuffer = targetBuffer;
     }
-    
+
     public void write( String path, ReadableByteChannel data, ByteBuffer temporaryBuffer,
             boolean hasData ) throws IOException
     {
-        char[] chars = path.toCharArray();
-        targetBuffer.writeShort( chars.length );
-        Protocol.writeChars( targetBuffer, chars );
-        targetBuffer.writeByte( hasData ? 1 : 0 );
+        writePath( path );
+        targetBuffer.writeByte( hasData ? DATA : NO_DATA );
         // TODO Make use of temporaryBuffer?
-        BlockLogBuffer buffer = new BlockLogBuffer( targetBuffer );
         if ( hasData )
         {
+            BlockLogBuffer buffer = new BlockLogBuffer( targetBuffer );
             buffer.write( data );
             buffer.done();
         }
     }
 
+    /**
+     * The receiver takes the blocks that aren't written from the file it
+     * already has, see
+     * {@link Protocol.FileStreamsDeserializer#FileStreamsDeserializer(StoreWriter, java.io.File)}.
+     */
+    public void writeDelta( String path, ReadableByteChannel data, long[] receiverChecksums ) throws IOException
+    {
+        writePath( path );
+        targetBuffer.writeByte( DELTA );
+        writeDelta( Channels.newInputStream( data ), receiverChecksums );
+    }
+
+    private void writePath( String path )
+    {
+        char[] chars = path.toCharArray();
+        targetBuffer.writeShort( chars.length );
+        Protocol.writeChars( targetBuffer, chars );
+    }
+
+    /**
+     * Writes the index and data of each block that differs from
+     * {@code checksums}, then -1 and the length of the file.
+     */
+    private void writeDelta( InputStream data, long[] checksums ) throws IOException
+    {
+        MessageDigest digest = BlockChecksums.newDigest();
+        byte[] block = new byte[BlockChecksums.BLOCK_SIZE];
+        long fileLength = 0;
+        for ( int index = 0, length; ( length = BlockChecksums.fill( data, block ) ) > 0; index++ )
+        {
+            fileLength += length;
+            if ( index < checksums.length && BlockChecksums.checksum( digest, block, length ) == checksums[index] )
+            {
+                continue;
+            }
+            targetBuffer.writeInt( index );
+            BlockLogBuffer buffer = new BlockLogBuffer( targetBuffer );
+            buffer.put( length == block.length ? block : Arrays.copyOf( block, length ) );
+            buffer.done();
+        }
+        targetBuffer.writeInt( -1 );
+        targetBuffer.writeLong( fileLength );
+    }
+
     public void done()
     {
         targetBuffer.writeShort( 0 );
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+
+/**
+ * How a database applies the transactions it receives, see
+ * {@link MasterUtil#applyReceivedTransactions(Response, org.neo4j.kernel.GraphDatabaseAPI, MasterUtil.TxHandler, TransactionAppliers, ApplyBatcher)}:
+ * one at a time as they're received, or {@link #pipelined() pipelined}, by
+ * threads of its own with at most {@link #maxQueuedBytes()} of transactions
+ * waiting for each. It also holds the locks that keep the responses of
+ * concurrent requests from applying the same transaction twice. Whoever
+ * creates it shuts it down.
+ */
+public class TransactionAppliers
+{
+    private final boolean pipelined;
+    private final long maxQueuedBytes;
+    private final ExecutorService threads = Executors.newCachedThreadPool( new ThreadFactory()
+    {
+        @Override
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, "Transaction applier" );
+            thread.setDaemon( true );
+            return thread;
+        }
+    } );
+    private final Map<XaDataSource, Object> applyLocks = new WeakHashMap<XaDataSource, Object>();
+
+    public TransactionAppliers( boolean pipelined, long maxQueuedBytes )
+    {
+        this.pipelined = pipelined;
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * Applies one transaction at a time as they're received, for a database
+     * that nothing else applies transactions to concurrently. It never
+     * starts a thread, so it needs no shutting down.
+     */
+    public static TransactionAppliers sequential()
+    {
+        return new TransactionAppliers( false, 0 );
+    }
+
+    public boolean pipelined()
+    {
+        return pipelined;
+    }
+
+    /**
+     * @return the number of bytes of received transactions that may wait to
+     *         be applied, for each data source, when pipelined.
+     */
+    public long maxQueuedBytes()
+    {
+        return maxQueuedBytes;
+    }
+
+    <T> Future<T> submit( Callable<T> applier )
+    {
+        return threads.submit( applier );
+    }
+
+    /**
+     * Checking whether a received transaction has been applied already and
+     * applying it is done under this lock, per data source, so that concurrent
+     * responses that carry the same transaction don't both apply it.
+     */
+    Object applyLock( XaDataSource dataSource )
+    {
+        synchronized ( applyLocks )
+        {
+            Object lock = applyLocks.get( dataSource );
+            if ( lock == null )
+            {
+                lock = new Object();
+                applyLocks.put( dataSource, lock );
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Lets the threads end once they've applied what they were handed.
+     */
+    public void shutdown()
+    {
+        threads.shutdown();
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.neo4j.helpers.Args;
+
+/**
+ * Measures how fast a {@link ChunkingChannelBuffer} streams a large response
+ * over loopback, as a server does with transaction streams and store copies,
+ * for each ceiling of its window. Latency is simulated by holding each chunk
+ * back on its way to the socket, which delays the completion of its write
+ * like a link with that delay would, while the chunks after it are still
+ * sent. The default ceilings are the five chunks the window used to be
+ * limited to, and {@link ChunkingChannelBuffer#DEFAULT_MAX_WINDOW}.
+ *
+ * Not a unit test, run it with:
+ * <pre>
+ * ChunkingThroughputBenchmark [-megabytes=&lt;count&gt;] [-chunk=&lt;bytes&gt;] [-latency=&lt;ms&gt;,...]
+ *         [-window=&lt;bytes&gt;,...] [-rounds=&lt;count&gt;]
+ * </pre>
+ */
+public class ChunkingThroughputBenchmark
+{
+    private static final int PORT = 8981;
+
+    public static void main( String... args ) throws Exception
+    {
+        Args params = new Args( args );
+        long bytes = Long.parseLong( params.get( "megabytes", "512" ) ) * Protocol.MEGA;
+        int chunk = Integer.parseInt( params.get( "chunk", Integer.toString( Protocol.MEGA ) ) );
+        String[] latencies = params.get( "latency", "0,1,5,20" ).split( "," );
+        String[] windows = params.get( "window", ( 5L * chunk ) + "," + ChunkingChannelBuffer.DEFAULT_MAX_WINDOW )
+                .split( "," );
+        int rounds = Integer.parseInt( params.get( "rounds", "3" ) );
+
+        for ( String latency : latencies )
+        {
+            for ( String window : windows )
+            {
+                for ( int round = 1; round <= rounds; round++ )
+                {
+                    long millis = stream( bytes, chunk, Integer.parseInt( latency.trim() ),
+                            Long.parseLong( window.trim() ) );
+                    System.out.printf( "latency %s ms, window %d MB, round %d: %d MB in %d ms, %.1f MB/s%n",
+                            latency.trim(), Long.parseLong( window.trim() ) / Protocol.MEGA, round,
+                            bytes / Protocol.MEGA, millis, bytes * 1000.0 / Protocol.MEGA / Math.max( 1, millis ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of milliseconds from connecting until the last chunk
+     *         has been received.
+     */
+    private static long stream( final long bytes, final int chunk, final int latencyMillis, final long maxWindow )
+            throws Exception
+    {
+        final ExecutorService writers = Executors.newCachedThreadPool();
+        final ScheduledExecutorService link = Executors.newSingleThreadScheduledExecutor();
+        ServerBootstrap server = new ServerBootstrap( new NioServerSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool() ) );
+        server.setPipelineFactory( new ChannelPipelineFactory()
+        {
+            @Override
+            public ChannelPipeline getPipeline()
+            {
+                ChannelPipeline pipeline = Channels.pipeline();
+                Protocol.addLengthFieldPipes( pipeline, chunk );
+                if ( latencyMillis > 0 ) pipeline.addFirst( "link", new SimpleChannelDownstreamHandler()
+                {
+                    @Override
+                    public void writeRequested( final ChannelHandlerContext ctx, final MessageEvent e )
+                    {
+                        link.schedule( new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                ctx.sendDownstream( e );
+                            }
+                        }, latencyMillis, TimeUnit.MILLISECONDS );
+                    }
+                } );
+                pipeline.addLast( "sender", new SimpleChannelHandler()
+                {
+                    @Override
+                    public void channelConnected( ChannelHandlerContext ctx, ChannelStateEvent e )
+                    {
+                        final Channel channel = e.getChannel();
+                        writers.submit( new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                send( channel, bytes, chunk, maxWindow );
+                            }
+                        } );
+                    }
+                } );
+                return pipeline;
+            }
+        } );
+        Channel serverChannel = server.bind( new InetSocketAddress( "localhost", PORT ) );
+
+        final CountDownLatch received = new CountDownLatch( 1 );
+        ClientBootstrap client = new ClientBootstrap( new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool() ) );
+        client.setPipelineFactory( new ChannelPipelineFactory()
+        {
+            @Override
+            public ChannelPipeline getPipeline()
+            {
+                ChannelPipeline pipeline = Channels.pipeline();
+                Protocol.addLengthFieldPipes( pipeline, chunk );
+                pipeline.addLast( "receiver", new SimpleChannelHandler()
+                {
+                    @Override
+                    public void messageReceived( ChannelHandlerContext ctx, MessageEvent e )
+                    {
+                        ChannelBuffer message = (ChannelBuffer) e.getMessage();
+                        if ( ( message.getByte( message.readerIndex() ) & 0x1 ) == ChunkingChannelBuffer.CONTINUATION_LAST )
+                        {
+                            received.countDown();
+                        }
+                    }
+                } );
+                return pipeline;
+            }
+        } );
+        try
+        {
+            long start = System.currentTimeMillis();
+            Channel channel = client.connect( new InetSocketAddress( "localhost", PORT ) ).awaitUninterruptibly().getChannel();
+            received.await();
+            long time = System.currentTimeMillis() - start;
+            channel.close().awaitUninterruptibly();
+            return time;
+        }
+        finally
+        {
+            serverChannel.close().awaitUninterruptibly();
+            client.releaseExternalResources();
+            server.releaseExternalResources();
+            writers.shutdown();
+            link.shutdown();
+        }
+    }
+
+    private static void send( Channel channel, long bytes, int chunk, long maxWindow )
+    {
+        ChunkingChannelBuffer buffer = new ChunkingChannelBuffer( ChannelBuffers.dynamicBuffer(), false, channel,
+                chunk, (byte) 0, (byte) 0, maxWindow );
+        byte[] block = new byte[8 * 1024];
+        for ( long written = 0; written < bytes; written += block.length )
+        {
+            buffer.writeBytes( block );
+        }
+        buffer.done();
+    }
+}
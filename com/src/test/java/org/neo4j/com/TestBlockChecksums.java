@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.test.TargetDirectory;
+
+public class TestBlockChecksums
+{
+    @Rule
+    public final TargetDirectory.TestDirectory test = TargetDirectory.testDirForTest( TestBlockChecksums.class );
+
+    @Test
+    public void deltaOnlyContainsChangedBlocks() throws Exception
+    {
+        File basis = new File( test.directory(), "basis" );
+        File target = new File( test.directory(), "target" );
+        byte[] old = randomBytes( 10 * BlockChecksums.BLOCK_SIZE + 123 );
+        FileUtils.writeByteArrayToFile( new File( basis, "store" ), old );
+
+        byte[] current = new byte[old.length + BlockChecksums.BLOCK_SIZE];
+        System.arraycopy( old, 0, current, 0, old.length );
+        current[3 * BlockChecksums.BLOCK_SIZE + 17]++;
+        System.arraycopy( randomBytes( BlockChecksums.BLOCK_SIZE ), 0, current, old.length,
+                BlockChecksums.BLOCK_SIZE );
+        File currentFile = new File( test.directory(), "store" );
+        FileUtils.writeByteArrayToFile( currentFile, current );
+
+        ChannelBuffer network = ChannelBuffers.dynamicBuffer();
+        BlockChecksums checksums = BlockChecksums.of( basis );
+        checksums.write( network );
+        StoreWriter sender = BlockChecksums.read( network ).deltaWriter( new ToNetworkStoreWriter( network ) );
+        FileInputStream data = new FileInputStream( currentFile );
+        try
+        {
+            sender.write( "store", data.getChannel(), ByteBuffer.allocate( 1024 ), true );
+        }
+        finally
+        {
+            data.close();
+        }
+        sender.done();
+        // The changed block and the two at the end, not the other eight
+        assertTrue( network.readableBytes() < 4 * BlockChecksums.BLOCK_SIZE );
+
+        new Protocol.FileStreamsDeserializer( new ToFileStoreWriter( target.getPath() ), basis ).read( network,
+                ByteBuffer.allocate( 1024 ) );
+        assertArrayEquals( current, FileUtils.readFileToByteArray( new File( target, "store" ) ) );
+    }
+
+    private static byte[] randomBytes( int length )
+    {
+        byte[] bytes = new byte[length];
+        new Random( length ).nextBytes( bytes );
+        return bytes;
+    }
+}
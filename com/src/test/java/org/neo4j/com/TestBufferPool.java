@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestBufferPool
+{
+    @Test
+    public void releasedBuffersAreReused() throws Exception
+    {
+        BufferPool<ByteBuffer> pool = pool( Protocol.MEGA );
+        ByteBuffer buffer = pool.acquire( 1000 );
+        assertEquals( 1024, buffer.capacity() );
+        buffer.putInt( 42 );
+        assertEquals( 1, pool.getOutstanding() );
+        pool.release( buffer );
+        assertEquals( 0, pool.getOutstanding() );
+        assertEquals( 1024, pool.getRetainedBytes() );
+
+        ByteBuffer reused = pool.acquire( 600 );
+        assertSame( buffer, reused );
+        assertEquals( 0, reused.position() );
+        assertEquals( 1, pool.getAllocated() );
+        assertEquals( 0, pool.getRetainedBytes() );
+    }
+
+    @Test
+    public void smallerBuffersAreNotHandedOutForLargerRequests() throws Exception
+    {
+        BufferPool<ByteBuffer> pool = pool( Protocol.MEGA );
+        ByteBuffer small = pool.acquire( 100 );
+        pool.release( small );
+        ByteBuffer large = pool.acquire( 4000 );
+        assertNotSame( small, large );
+        assertTrue( large.capacity() >= 4000 );
+        pool.release( large );
+        // ...but a larger one does for a smaller request, if there's nothing else
+        assertSame( small, pool.acquire( 100 ) );
+        assertSame( large, pool.acquire( 100 ) );
+    }
+
+    @Test
+    public void retainsNoMoreThanItsLimit() throws Exception
+    {
+        BufferPool<ByteBuffer> pool = pool( 2048 );
+        ByteBuffer first = pool.acquire( 1024 );
+        ByteBuffer second = pool.acquire( 1024 );
+        ByteBuffer third = pool.acquire( 1024 );
+        pool.release( first );
+        pool.release( second );
+        pool.release( third );
+        assertEquals( 2048, pool.getRetainedBytes() );
+        assertEquals( 1, pool.getDropped() );
+        assertEquals( 0, pool.getOutstanding() );
+    }
+
+    @Test
+    public void buffersOutsideTheSizeClassesAreNotRetained() throws Exception
+    {
+        BufferPool<ByteBuffer> pool = pool( Long.MAX_VALUE );
+        int huge = 1 << ( BufferPool.MAX_SIZE_CLASS + 1 );
+        ByteBuffer buffer = pool.acquire( huge );
+        assertEquals( huge, buffer.capacity() );
+        pool.release( buffer );
+        assertEquals( 1, pool.getDropped() );
+        assertEquals( 0, pool.getRetainedBytes() );
+    }
+
+    private static BufferPool<ByteBuffer> pool( long maxRetainedBytes )
+    {
+        return new BufferPool<ByteBuffer>( "test", maxRetainedBytes )
+        {
+            @Override
+            protected ByteBuffer create( int capacity )
+            {
+                return ByteBuffer.allocate( capacity );
+            }
+
+            @Override
+            protected int capacity( ByteBuffer buffer )
+            {
+                return buffer.capacity();
+            }
+
+            @Override
+            protected void clear( ByteBuffer buffer )
+            {
+                buffer.clear();
+            }
+        };
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.helpers.Triplet;
+import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
+
+public class TestInterleavedTransactionStream
+{
+    private ExecutorService extractors = MasterUtil.newTransactionExtractors( 2 );
+
+    @After
+    public void shutdownExtractors()
+    {
+        extractors.shutdown();
+    }
+
+    @Test
+    public void keepsTheOrderOfEachDataSource() throws Exception
+    {
+        assertKeepsTheOrderOfEachDataSource();
+    }
+
+    @Test
+    public void extractsOnTheReadingThreadWithoutThreadsToSpare() throws Exception
+    {
+        extractors.shutdown();
+        extractors = MasterUtil.newTransactionExtractors( 1 );
+        assertKeepsTheOrderOfEachDataSource();
+        extractors.shutdown();
+        assertKeepsTheOrderOfEachDataSource();
+    }
+
+    private void assertKeepsTheOrderOfEachDataSource() throws Exception
+    {
+        List<List<Triplet<String, Long, TxExtractor>>> streams = asList( transactions( "nioneodb", 1000, -1 ),
+                transactions( "lucene", 10, -1 ) );
+        TransactionStream stream = new InterleavedTransactionStream( asList( "nioneodb", "lucene" ), streams,
+                Collections.<LogCursors.Cursor>emptyList(), extractors );
+        Map<String, Long> last = new HashMap<String, Long>();
+        last.put( "nioneodb", 0L );
+        last.put( "lucene", 0L );
+        ByteBuffer scratch = ByteBuffer.allocate( 64 );
+        try
+        {
+            while ( stream.hasNext() )
+            {
+                Triplet<String, Long, TxExtractor> tx = stream.next();
+                assertEquals( last.get( tx.first() ) + 1, tx.second().longValue() );
+                last.put( tx.first(), tx.second() );
+                ReadableByteChannel data = tx.third().extract();
+                scratch.clear();
+                data.read( scratch );
+                scratch.flip();
+                assertEquals( tx.second().longValue(), scratch.getLong() );
+            }
+        }
+        finally
+        {
+            stream.close();
+        }
+        assertEquals( 1000L, last.get( "nioneodb" ).longValue() );
+        assertEquals( 10L, last.get( "lucene" ).longValue() );
+    }
+
+    @Test
+    public void failureToExtractIsThrownInTurn() throws Exception
+    {
+        List<List<Triplet<String, Long, TxExtractor>>> streams = asList( transactions( "nioneodb", 1000, -1 ),
+                transactions( "lucene", 10, 5 ) );
+        TransactionStream stream = new InterleavedTransactionStream( asList( "nioneodb", "lucene" ), streams,
+                Collections.<LogCursors.Cursor>emptyList(), extractors );
+        int lucene = 0;
+        try
+        {
+            while ( stream.hasNext() )
+            {
+                if ( stream.next().first().equals( "lucene" ) ) lucene++;
+            }
+            fail( "Should have failed to extract transaction 5 of lucene" );
+        }
+        catch ( RuntimeException e )
+        {
+            assertEquals( 4, lucene );
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    private static List<Triplet<String, Long, TxExtractor>> transactions( String dataSource, int count,
+            final long failing )
+    {
+        List<Triplet<String, Long, TxExtractor>> transactions = new ArrayList<Triplet<String, Long, TxExtractor>>();
+        for ( long txId = 1; txId <= count; txId++ )
+        {
+            final long id = txId;
+            transactions.add( Triplet.<String, Long, TxExtractor>of( dataSource, txId, new TxExtractor()
+            {
+                @Override
+                public void extract( LogBuffer buffer )
+                {
+                    if ( id == failing ) throw new RuntimeException( "Missing " + id );
+                    try
+                    {
+                        buffer.putLong( id );
+                    }
+                    catch ( IOException e )
+                    {
+                        throw new RuntimeException( e );
+                    }
+                }
+
+                @Override
+                public ReadableByteChannel extract()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            } ) );
+        }
+        return transactions;
+    }
+}
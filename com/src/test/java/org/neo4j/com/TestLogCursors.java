@@ -0,0 +1,297 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.helpers.Predicate;
+import org.neo4j.helpers.Triplet;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+import org.neo4j.test.TargetDirectory;
+
+public class TestLogCursors
+{
+    @Rule
+    public final TargetDirectory.TestDirectory test = TargetDirectory.testDirForTest( TestLogCursors.class );
+
+    private GraphDatabaseAPI db;
+    private LogCursors cursors;
+
+    @Before
+    public void startDb()
+    {
+        db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( test.directory().getPath() ).
+                setConfig( GraphDatabaseSettings.keep_logical_logs, GraphDatabaseSetting.TRUE ).newGraphDatabase();
+        cursors = new LogCursors( 60 * 1000 );
+    }
+
+    @After
+    public void stopDb()
+    {
+        cursors.close();
+        db.shutdown();
+    }
+
+    @Test
+    public void continuesWhereThePreviousResponseEnded() throws Exception
+    {
+        long start = lastCommittedTx();
+        createNodes( 10 );
+        assertEquals( range( start + 1, start + 10 ), pullUpdates( start ) );
+        assertEquals( 1, cursors.size() );
+
+        createNodes( 5 );
+        assertEquals( range( start + 11, start + 15 ), pullUpdates( start + 10 ) );
+        assertEquals( 1, cursors.size() );
+        assertEquals( 1, cursors.opened() );
+    }
+
+    @Test
+    public void continuesPastTheTransactionTheSlaveCommittedItself() throws Exception
+    {
+        long start = lastCommittedTx();
+        createNodes( 10 );
+        final long committed = start + 10;
+        // As the response to a commit of the slave, which leaves its own transaction out
+        Predicate<Long> upUntilCommitted = new Predicate<Long>()
+        {
+            @Override
+            public boolean accept( Long item )
+            {
+                return item < committed;
+            }
+        };
+        assertEquals( range( start + 1, committed - 1 ), pullUpdates( start, upUntilCommitted ) );
+
+        createNodes( 5 );
+        assertEquals( range( committed + 1, committed + 5 ), pullUpdates( committed ) );
+        assertEquals( 1, cursors.opened() );
+    }
+
+    @Test
+    public void opensNewExtractorForOtherStartThanTheCursorIsAt() throws Exception
+    {
+        long start = lastCommittedTx();
+        createNodes( 10 );
+        assertEquals( range( start + 1, start + 10 ), pullUpdates( start ) );
+        assertEquals( range( start + 6, start + 10 ), pullUpdates( start + 5 ) );
+        assertEquals( 1, cursors.size() );
+        assertEquals( 2, cursors.opened() );
+    }
+
+    @Test
+    public void dropsCursorsWhenTheLogIsRotated() throws Exception
+    {
+        long start = lastCommittedTx();
+        createNodes( 10 );
+        pullUpdates( start );
+        dataSource().rotateLogicalLog();
+        createNodes( 5 );
+        assertEquals( range( start + 11, start + 15 ), pullUpdates( start + 10 ) );
+    }
+
+    @Test
+    public void evictsIdleCursors() throws Exception
+    {
+        cursors = new LogCursors( 0 );
+        long start = lastCommittedTx();
+        createNodes( 3 );
+        pullUpdates( start );
+        Thread.sleep( 10 );
+        cursors.evictIdle();
+        assertEquals( 0, cursors.size() );
+    }
+
+    @Test
+    public void concurrentRequestFollowsTheOneExtractingTheSameTransactions() throws Exception
+    {
+        long start = lastCommittedTx();
+        createNodes( 10 );
+        Response<Void> leader = packResponse( start );
+        Response<Void> follower = packResponse( start );
+        List<Long> leaderTxs = new ArrayList<Long>();
+        List<Long> followerTxs = new ArrayList<Long>();
+        try
+        {
+            for ( boolean more = true; more; )
+            {
+                more = next( leader, leaderTxs ) | next( follower, followerTxs );
+            }
+        }
+        finally
+        {
+            follower.close();
+            leader.close();
+        }
+        assertEquals( range( start + 1, start + 10 ), leaderTxs );
+        assertEquals( range( start + 1, start + 10 ), followerTxs );
+        assertEquals( 1, cursors.size() );
+    }
+
+    @Test
+    public void followerExtractsOnItsOwnIfTheLeaderStalls() throws Exception
+    {
+        long start = lastCommittedTx();
+        createNodes( 5 );
+        Response<Void> leader = packResponse( start );
+        try
+        {
+            assertEquals( range( start + 1, start + 5 ), pullUpdates( start ) );
+        }
+        finally
+        {
+            leader.close();
+        }
+    }
+
+    @Test
+    public void slowLeaderKeepsTheFollowerWaitingForLittleTimeInAll() throws Exception
+    {
+        long start = lastCommittedTx();
+        createNodes( 10 );
+        final Response<Void> leader = packResponse( start );
+        final List<Long> leaderTxs = new ArrayList<Long>();
+        Thread slowLeader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    do
+                    {
+                        Thread.sleep( LogCursors.MAX_FOLLOW_WAIT_MILLIS * 8 / 10 );
+                    }
+                    while ( next( leader, leaderTxs ) );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        slowLeader.start();
+        try
+        {
+            long startTime = System.currentTimeMillis();
+            assertEquals( range( start + 1, start + 10 ), pullUpdates( start ) );
+            // Waiting for each transaction in turn would have taken eight times as long
+            assertTrue( System.currentTimeMillis() - startTime < LogCursors.MAX_FOLLOW_WAIT_MILLIS * 4 );
+        }
+        finally
+        {
+            slowLeader.join();
+            leader.close();
+        }
+        assertEquals( range( start + 1, start + 10 ), leaderTxs );
+    }
+
+    private List<Long> pullUpdates( long lastApplied )
+    {
+        return pullUpdates( lastApplied, MasterUtil.ALL );
+    }
+
+    private List<Long> pullUpdates( long lastApplied, Predicate<Long> filter )
+    {
+        Response<Void> response = packResponse( lastApplied, filter );
+        List<Long> txIds = new ArrayList<Long>();
+        try
+        {
+            while ( next( response, txIds ) )
+            {
+                // Keep going
+            }
+        }
+        finally
+        {
+            response.close();
+        }
+        return txIds;
+    }
+
+    private Response<Void> packResponse( long lastApplied )
+    {
+        return packResponse( lastApplied, MasterUtil.ALL );
+    }
+
+    private Response<Void> packResponse( long lastApplied, Predicate<Long> filter )
+    {
+        SlaveContext context = new SlaveContext( 0, 1, 0, new SlaveContext.Tx[] {
+                SlaveContext.lastAppliedTx( Config.DEFAULT_DATA_SOURCE_NAME, lastApplied ) }, 0, 0 );
+        return MasterUtil.packResponse( db, context, null, filter, cursors );
+    }
+
+    private static boolean next( Response<Void> response, List<Long> txIds )
+    {
+        if ( !response.transactions().hasNext() ) return false;
+        Triplet<String, Long, TxExtractor> tx = response.transactions().next();
+        tx.third().extract();
+        txIds.add( tx.second() );
+        return true;
+    }
+
+    private void createNodes( int count )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            Transaction tx = db.beginTx();
+            try
+            {
+                db.createNode();
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+        }
+    }
+
+    private XaDataSource dataSource()
+    {
+        return db.getXaDataSourceManager().getNeoStoreDataSource();
+    }
+
+    private long lastCommittedTx()
+    {
+        return dataSource().getLastCommittedTxId();
+    }
+
+    private static List<Long> range( long from, long to )
+    {
+        List<Long> range = new ArrayList<Long>();
+        for ( long txId = from; txId <= to; txId++ ) range.add( txId );
+        return range;
+    }
+}
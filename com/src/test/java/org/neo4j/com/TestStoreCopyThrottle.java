@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.com;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import org.junit.Test;
+
+public class TestStoreCopyThrottle
+{
+    @Test
+    public void unlimitedThrottleReadsEverything() throws Exception
+    {
+        StoreCopyThrottle throttle = new StoreCopyThrottle();
+        ReadableByteChannel data = throttle.throttle( channel( 10 * StoreCopyThrottle.CHUNK_SIZE + 7 ) );
+        assertEquals( 1, throttle.getActiveCopies() );
+        assertEquals( 10 * StoreCopyThrottle.CHUNK_SIZE + 7, drain( data ) );
+        data.close();
+        data.close();
+        assertEquals( 0, throttle.getActiveCopies() );
+        assertEquals( 10 * StoreCopyThrottle.CHUNK_SIZE + 7, throttle.getTotalBytes() );
+        assertEquals( 0, throttle.getCurrentLimit() );
+    }
+
+    @Test
+    public void copiesAreHeldToTheBudget() throws Exception
+    {
+        StoreCopyThrottle throttle = new StoreCopyThrottle();
+        throttle.setMaxBytesPerSecond( 8 * StoreCopyThrottle.CHUNK_SIZE );
+        long start = System.nanoTime();
+        ReadableByteChannel data = throttle.throttle( channel( 4 * StoreCopyThrottle.CHUNK_SIZE ) );
+        drain( data );
+        data.close();
+        // Half a second's worth of budget, from an empty bucket
+        assertTrue( System.nanoTime() - start >= 400 * 1000 * 1000L );
+    }
+
+    @Test
+    public void backsOffWhenCommitLatencyRises() throws Exception
+    {
+        StoreCopyThrottle throttle = new StoreCopyThrottle();
+        long max = 1000 * StoreCopyThrottle.CHUNK_SIZE;
+        throttle.setMaxBytesPerSecond( max );
+        for ( int i = 0; i < 100; i++ ) throttle.commitLatency( 1000 );
+        for ( int i = 0; i < 100; i++ ) throttle.commitLatency( 100000 );
+        Thread.sleep( StoreCopyThrottle.ADJUST_INTERVAL_NANOS / 1000000 );
+        throttle.acquire( 1 );
+        assertEquals( max / 2, throttle.getCurrentLimit() );
+    }
+
+    @Test
+    public void waitingCopyDoesntHoldUpTheOthers() throws Exception
+    {
+        final StoreCopyThrottle throttle = new StoreCopyThrottle();
+        throttle.setMaxBytesPerSecond( StoreCopyThrottle.CHUNK_SIZE );
+        Thread waiting = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    // Several seconds worth of budget
+                    throttle.acquire( 10 * StoreCopyThrottle.CHUNK_SIZE );
+                }
+                catch ( InterruptedIOException e )
+                {
+                    // Expected, the test is done with it
+                }
+                catch ( Exception e )
+                {
+                    throw new RuntimeException( e );
+                }
+            }
+        };
+        waiting.start();
+        while ( throttle.getTotalBytes() == 0 ) Thread.sleep( 10 );
+        Thread.sleep( 100 );
+
+        long start = System.nanoTime();
+        throttle.getCurrentLimit();
+        assertTrue( System.nanoTime() - start < 500 * 1000 * 1000L );
+        waiting.interrupt();
+        waiting.join();
+    }
+
+    private static ReadableByteChannel channel( int length )
+    {
+        return Channels.newChannel( new ByteArrayInputStream( new byte[length] ) );
+    }
+
+    private static long drain( ReadableByteChannel data ) throws Exception
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( 1024 * 1024 );
+        long total = 0;
+        for ( int read; ( read = data.read( buffer ) ) >= 0; buffer.clear() )
+        {
+            total += read;
+        }
+        return total;
+    }
+}
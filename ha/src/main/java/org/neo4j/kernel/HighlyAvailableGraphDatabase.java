@@ -42,6 +42,8 @@ import java.util.concurrent.TimeUnit;
 import javax.transaction.TransactionManager;
 
 import org.neo4j.backup.OnlineBackupSettings;
+import org.neo4j.com.ApplyBatcher;
+import org.neo4j.com.BlockChecksums;
 import org.neo4j.com.ComException;
 import org.neo4j.com.MasterUtil;
 import org.neo4j.com.Response;
@@ -49,6 +51,7 @@ import org.neo4j.com.SlaveContext;
 import org.neo4j.com.SlaveContext.Tx;
 import org.neo4j.com.StoreIdGetter;
 import org.neo4j.com.ToFileStoreWriter;
+import org.neo4j.com.TransactionAppliers;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
@@ -72,7 +75,10 @@ import org.neo4j.kernel.ha.BranchedDataException;
 import org.neo4j.kernel.ha.Broker;
 import org.neo4j.kernel.ha.ClusterClient;
 import org.neo4j.kernel.ha.ClusterEventReceiver;
+import org.neo4j.kernel.ha.CommitToken;
+import org.neo4j.kernel.ha.CommitTokenWaiter;
 import org.neo4j.kernel.ha.EnterpriseConfigurationMigrator;
+import org.neo4j.kernel.ha.GroupCommitter;
 import org.neo4j.kernel.ha.HaCaches;
 import org.neo4j.kernel.ha.HaSettings;
 import org.neo4j.kernel.ha.Master;
@@ -87,10 +93,12 @@ import org.neo4j.kernel.ha.zookeeper.ZooClient;
 import org.neo4j.kernel.ha.zookeeper.ZooKeeperBroker;
 import org.neo4j.kernel.ha.zookeeper.ZooKeeperClusterClient;
 import org.neo4j.kernel.ha.zookeeper.ZooKeeperException;
+import org.neo4j.kernel.impl.cache.AdaptiveCacheSizer;
 import org.neo4j.kernel.impl.cache.CacheProvider;
 import org.neo4j.kernel.impl.cache.GCResistantCacheProvider;
 import org.neo4j.kernel.impl.core.Caches;
 import org.neo4j.kernel.impl.core.KernelPanicEventGenerator;
+import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
 import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.NodeImpl;
 import org.neo4j.kernel.impl.core.NodeManager;
@@ -148,6 +156,15 @@ public class HighlyAvailableGraphDatabase
     private ClusterClient clusterClient;
     private int machineId;
     private volatile MasterServer masterServer;
+    private volatile MasterServer relayServer;
+    private final CommitTokenWaiter commitTokenWaiter = new CommitTokenWaiter( this, new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            pullUpdates();
+        }
+    } );
     private ScheduledExecutorService updatePuller;
     private volatile long updateTime = 0;
     private volatile Throwable causeOfShutdown;
@@ -173,6 +190,9 @@ public class HighlyAvailableGraphDatabase
     private final Collection<TransactionEventHandler<?>> transactionEventHandlers =
             new CopyOnWriteArraySet<TransactionEventHandler<?>>();
     protected final FileSystemAbstraction fileSystemAbstraction;
+    private final FileSystemAbstraction storeFileSystemAbstraction;
+    private final ApplyBatcher applyBatcher;
+    private final TransactionAppliers transactionAppliers;
 
     /**
      * Default IndexProviders and KernelExtensions by calling Service.load
@@ -212,7 +232,24 @@ public class HighlyAvailableGraphDatabase
         
         configuration.setLogger(messageLog);
         
-        fileSystemAbstraction = new DefaultFileSystemAbstraction();
+        if ( configuration.getBoolean( HaSettings.batched_tx_apply ) )
+        {
+            GroupCommitter groupCommitter = new GroupCommitter(
+                    configuration.getInteger( HaSettings.tx_apply_batch_max_bytes ),
+                    configuration.getInteger( HaSettings.tx_apply_batch_max_latency ) );
+            applyBatcher = groupCommitter;
+            fileSystemAbstraction = groupCommitter.logFileSystem();
+            // Only the forces of the logs are put off, the store files are forced as usual
+            storeFileSystemAbstraction = new DefaultFileSystemAbstraction();
+        }
+        else
+        {
+            applyBatcher = ApplyBatcher.NONE;
+            fileSystemAbstraction = new DefaultFileSystemAbstraction();
+            storeFileSystemAbstraction = fileSystemAbstraction;
+        }
+        transactionAppliers = new TransactionAppliers( configuration.getBoolean( HaSettings.pipelined_tx_apply ),
+                configuration.getInteger( HaSettings.tx_apply_pipeline_max_bytes ) );
 
         caches = new HaCaches( messageLog );
 
@@ -449,8 +486,11 @@ public class HighlyAvailableGraphDatabase
              * object, even if the zk cluster goes down the operation will succeed, dependent
              * only on the source machine being alive. If, in the meantime, the master changes
              * then the verification after the new master election will call us again.
+             * A relaying slave, if asked for, keeps the copy off the master's disks and network,
+             * the transactions it doesn't have yet are pulled from the master afterwards.
              */
-            Pair<Master, Machine> master = clusterClient.getMasterClient();
+            Pair<Master, Machine> source = configuration.getBoolean( HaSettings.copy_store_from_relays ) ?
+                    clusterClient.getStoreCopySource() : clusterClient.getMasterClient();
             // Assume it's shut down at this point
             internalShutdown( false );
 
@@ -458,6 +498,8 @@ public class HighlyAvailableGraphDatabase
             {
                 makeWayForNewDb();
             }
+            // The branched store, if kept, is mostly the same as the master's
+            File basis = branched ? newestBranchedDataDirectory() : null;
             Exception exception = null;
             for ( int i = 0; i < STORE_COPY_RETRIES; i++ )
             {
@@ -469,7 +511,8 @@ public class HighlyAvailableGraphDatabase
                      * incomplete. Either way, it is safe to delete everything.
                      */
                     BranchedDataPolicy.keep_none.handle( this );
-                    copyStoreFromMaster( master );
+                    // Fall back to a plain copy if the delta didn't work out
+                    copyStore( source, i == 0 ? basis : null );
                     moveCopiedStoreIntoWorkingDir();
                     return;
                 }
@@ -477,11 +520,11 @@ public class HighlyAvailableGraphDatabase
                 catch ( Exception e )
                 {
                     getMessageLog().logMessage(
-                            "Problems copying store from master", e );
+                            "Problems copying store from " + source.other(), e );
                     sleepWithoutInterruption( 1000, "" );
                     exception = e;
-                    // Stuff in the cluster might have changed - reread.
-                    master = clusterClient.getMasterClient();
+                    // Stuff in the cluster might have changed - reread. Don't trust a relay twice.
+                    source = clusterClient.getMasterClient();
                 }
             }
             throw new RuntimeException(
@@ -762,13 +805,43 @@ public class HighlyAvailableGraphDatabase
         }
     }
 
-    private void copyStoreFromMaster( Pair<Master, Machine> master )
+    private File newestBranchedDataDirectory()
+    {
+        File newest = null;
+        File[] directories = BranchedDataPolicy.listBranchedDataDirectories( getStoreDir() );
+        for ( File directory : directories == null ? new File[0] : directories )
+        {
+            if ( new File( directory, NeoStore.DEFAULT_NAME ).exists() &&
+                    ( newest == null || Long.parseLong( directory.getName() ) > Long.parseLong( newest.getName() ) ) )
+            {
+                newest = directory;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * @param source the master, or a slave that relays updates.
+     * @param basis a store to copy the blocks that haven't changed from,
+     *            instead of getting them from the source, or {@code null}.
+     */
+    private void copyStore( Pair<Master, Machine> source, File basis )
             throws Exception
     {
-        getMessageLog().logMessage( "Copying store from master" );
         String temp = getClearedTempDir().getAbsolutePath();
-        Response<Void> response = master.first().copyStore( emptyContext(),
-                new ToFileStoreWriter( temp ) );
+        Response<Void> response;
+        if ( basis != null )
+        {
+            getMessageLog().logMessage( "Copying store from " + source.other() +
+                    ", the blocks that haven't changed from " + basis );
+            response = source.first().copyStoreDelta( emptyContext(), BlockChecksums.of( basis ),
+                    new ToFileStoreWriter( temp ) );
+        }
+        else
+        {
+            getMessageLog().logMessage( "Copying store from " + source.other() );
+            response = source.first().copyStore( emptyContext(), new ToFileStoreWriter( temp ) );
+        }
         long highestLogVersion = highestLogVersion( temp );
         if( highestLogVersion > -1 )
         {
@@ -781,14 +854,15 @@ public class HighlyAvailableGraphDatabase
 
         try
         {
-            MasterUtil.applyReceivedTransactions( response, copiedDb, MasterUtil.txHandlerForFullCopy() );
+            MasterUtil.applyReceivedTransactions( response, copiedDb, MasterUtil.txHandlerForFullCopy(),
+                    transactionAppliers, ApplyBatcher.NONE );
         }
         finally
         {
             copiedDb.shutdown();
             response.close();
         }
-        getMessageLog().logMessage( "Done copying store from master" );
+        getMessageLog().logMessage( "Done copying store from " + source.other() );
     }
 
     private SlaveContext emptyContext()
@@ -889,6 +963,33 @@ public class HighlyAvailableGraphDatabase
         return this.broker;
     }
 
+    /**
+     * @return a token for everything committed through this instance so far,
+     *         taken right after a commit it covers that commit. Hand it to
+     *         {@link #awaitCommitToken(CommitToken, long, TimeUnit)} on the
+     *         instance to read the writes from.
+     */
+    public CommitToken getCommitToken()
+    {
+        return CommitToken.of( this );
+    }
+
+    /**
+     * Waits at most {@code timeout} for this instance to have applied the
+     * transactions of {@code token}, pulling updates if it hasn't already.
+     *
+     * @return whether the transactions of {@code token} have been applied.
+     */
+    public boolean awaitCommitToken( CommitToken token, long timeout, TimeUnit unit )
+    {
+        return commitTokenWaiter.await( token, timeout, unit );
+    }
+
+    public CommitTokenWaiter getCommitTokenWaiter()
+    {
+        return commitTokenWaiter;
+    }
+
     public void pullUpdates()
     {
         try
@@ -933,7 +1034,19 @@ public class HighlyAvailableGraphDatabase
                 // but an internal(shutdown) can still happen in the middle of receive.
                 // This is a general problem which should be taken care of in a general
                 // way, not here.
-                slaveOperations.receive( broker.getMaster().first().pullUpdates( slaveContext ) );
+                Pair<Master, Machine> source = broker.getUpdateSource();
+                try
+                {
+                    slaveOperations.receive( source.first().pullUpdates( slaveContext ) );
+                }
+                catch ( RuntimeException e )
+                {
+                    if ( source.other().getMachineId() == broker.getMaster().other().getMachineId() ) throw e;
+                    // The relay went away, or can't serve this machine, the master has everything it had
+                    getMessageLog().logMessage( "Couldn't pull updates from relay " + source.other(), e );
+                    broker.updateSourceFailed( source.other() );
+                    slaveOperations.receive( broker.getMaster().first().pullUpdates( slaveContext ) );
+                }
             }
         }
         catch ( ZooKeeperException e )
@@ -1101,6 +1214,8 @@ public class HighlyAvailableGraphDatabase
                 ensureDataConsistencyWithMaster( newDb != null ? newDb
                         : internalGraphDatabase, master );
                 getMessageLog().logMessage( "Data consistent with master" );
+                // Only once consistent with the master, so that no branched data is relayed
+                instantiateRelayServerIfConfigSaysSo( newDb != null ? newDb : internalGraphDatabase );
             }
             if ( newDb != null )
             {
@@ -1160,8 +1275,9 @@ public class HighlyAvailableGraphDatabase
         messageLog.logMessage( "Starting[" + machineId + "] as slave", true );
         this.storeId = storeId;
         SlaveGraphDatabase slaveGraphDatabase = new SlaveGraphDatabase( storeDir, configuration.getParams(), storeId, this, broker, logging,
-                slaveOperations, slaveUpdateMode.createUpdater( broker ), nodeLookup,
-                relationshipLookups, fileSystemAbstraction, indexProviders, kernelExtensions, cacheProviders, caches );
+                slaveOperations, lastCommittedTxIdSetter( slaveUpdateMode.createUpdater( broker ) ), nodeLookup,
+                relationshipLookups, fileSystemAbstraction, storeFileSystemAbstraction, indexProviders,
+                kernelExtensions, cacheProviders, caches );
 /*
 
         EmbeddedGraphDbImpl result = new EmbeddedGraphDbImpl( getStoreDir(), this,
@@ -1186,6 +1302,12 @@ public class HighlyAvailableGraphDatabase
         return slaveGraphDatabase;
     }
 
+    private LastCommittedTxIdSetter lastCommittedTxIdSetter( LastCommittedTxIdSetter setter )
+    {
+        if ( applyBatcher instanceof GroupCommitter ) return ( (GroupCommitter) applyBatcher ).publishAtBatchEnd( setter );
+        return setter;
+    }
+
     private AbstractGraphDatabase startAsMaster( StoreId storeId )
     {
         messageLog.logMessage( "Starting[" + machineId + "] as master", true );
@@ -1336,6 +1458,14 @@ public class HighlyAvailableGraphDatabase
         }
     }
 
+    private void instantiateRelayServerIfConfigSaysSo( GraphDatabaseAPI db )
+    {
+        if ( configuration.getBoolean( HaSettings.relay_updates ) && relayServer == null )
+        {
+            relayServer = (MasterServer) broker.instantiateRelayServer( db );
+        }
+    }
+
     public TransactionBuilder tx()
     {
         return localGraph().tx();
@@ -1367,6 +1497,13 @@ public class HighlyAvailableGraphDatabase
                     true );
             this.updatePuller = null;
         }
+        if ( this.relayServer != null )
+        {
+            messageLog.logMessage( "Internal shutdown relayServer", true );
+            this.relayServer.shutdown();
+            messageLog.logMessage( "Internal shutdown relayServer DONE", true );
+            this.relayServer = null;
+        }
         if ( this.masterServer != null )
         {
             messageLog.logMessage( "Internal shutdown masterServer", true );
@@ -1397,6 +1534,8 @@ public class HighlyAvailableGraphDatabase
             this.broker.shutdown();
         }
         internalShutdown( false );
+        transactionAppliers.shutdown();
+        ((HaCaches) caches).shutdown();
 
         life.shutdown();
 
@@ -1521,6 +1660,15 @@ public class HighlyAvailableGraphDatabase
         return masterServer;
     }
 
+    /**
+     * @return the sizer of the GC resistant caches if ha.gcr_cache_adaptive
+     *         is set, otherwise {@code null}.
+     */
+    public AdaptiveCacheSizer getAdaptiveCacheSizer()
+    {
+        return ((HaCaches) caches).getSizer();
+    }
+
     protected int getMachineId()
     {
         return machineId;
@@ -1748,7 +1896,8 @@ public class HighlyAvailableGraphDatabase
         {
             try
             {
-                MasterUtil.applyReceivedTransactions( response, HighlyAvailableGraphDatabase.this, MasterUtil.NO_ACTION );
+                MasterUtil.applyReceivedTransactions( response, HighlyAvailableGraphDatabase.this, MasterUtil.NO_ACTION,
+                        transactionAppliers, applyBatcher );
                 updateTime();
                 return response.response();
             }
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.com.BufferPool;
+import org.neo4j.helpers.Service;
+import org.neo4j.jmx.impl.ManagementBeanProvider;
+import org.neo4j.jmx.impl.ManagementData;
+import org.neo4j.jmx.impl.Neo4jMBean;
+import org.neo4j.kernel.ha.AbstractHAGraphDatabase;
+import org.neo4j.management.NetworkBuffers;
+
+@Service.Implementation( ManagementBeanProvider.class )
+public final class NetworkBuffersBean extends ManagementBeanProvider
+{
+    public NetworkBuffersBean()
+    {
+        super( NetworkBuffers.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMXBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        if ( !isHA( management ) ) return null;
+        return new NetworkBuffersImpl( management, true );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        if ( !isHA( management ) ) return null;
+        return new NetworkBuffersImpl( management );
+    }
+
+    private static boolean isHA( ManagementData management )
+    {
+        return management.getKernelData().graphDatabase() instanceof AbstractHAGraphDatabase;
+    }
+
+    private static class NetworkBuffersImpl extends Neo4jMBean implements NetworkBuffers
+    {
+        NetworkBuffersImpl( ManagementData management ) throws NotCompliantMBeanException
+        {
+            super( management );
+        }
+
+        NetworkBuffersImpl( ManagementData management, boolean isMXBean )
+        {
+            super( management, isMXBean );
+        }
+
+        @Override
+        public String[] getBufferPools()
+        {
+            List<String> result = new ArrayList<String>();
+            for ( BufferPool<?> pool : BufferPool.all() )
+            {
+                result.add( pool.toString() );
+            }
+            return result.toArray( new String[result.size()] );
+        }
+
+        @Override
+        public long getOutstandingBuffers()
+        {
+            long result = 0;
+            for ( BufferPool<?> pool : BufferPool.all() )
+            {
+                result += pool.getOutstanding();
+            }
+            return result;
+        }
+
+        @Override
+        public long getRetainedBytes()
+        {
+            long result = 0;
+            for ( BufferPool<?> pool : BufferPool.all() )
+            {
+                result += pool.getRetainedBytes();
+            }
+            return result;
+        }
+
+        @Override
+        public String[] getOutstandingAcquisitions()
+        {
+            List<String> result = new ArrayList<String>();
+            for ( BufferPool<?> pool : BufferPool.all() )
+            {
+                result.addAll( pool.getOutstandingAcquisitions() );
+            }
+            return result.toArray( new String[result.size()] );
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.com.StoreCopyThrottle;
+import org.neo4j.helpers.Service;
+import org.neo4j.jmx.impl.ManagementBeanProvider;
+import org.neo4j.jmx.impl.ManagementData;
+import org.neo4j.jmx.impl.Neo4jMBean;
+import org.neo4j.kernel.ha.AbstractHAGraphDatabase;
+import org.neo4j.management.StoreCopy;
+
+@Service.Implementation( ManagementBeanProvider.class )
+public final class StoreCopyBean extends ManagementBeanProvider
+{
+    public StoreCopyBean()
+    {
+        super( StoreCopy.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMXBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        if ( !isHA( management ) ) return null;
+        return new StoreCopyImpl( management, true );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        if ( !isHA( management ) ) return null;
+        return new StoreCopyImpl( management );
+    }
+
+    private static boolean isHA( ManagementData management )
+    {
+        return management.getKernelData().graphDatabase() instanceof AbstractHAGraphDatabase;
+    }
+
+    private static class StoreCopyImpl extends Neo4jMBean implements StoreCopy
+    {
+        private final StoreCopyThrottle throttle;
+
+        StoreCopyImpl( ManagementData management ) throws NotCompliantMBeanException
+        {
+            super( management );
+            this.throttle = StoreCopyThrottle.of( management.getKernelData().graphDatabase() );
+        }
+
+        StoreCopyImpl( ManagementData management, boolean isMXBean )
+        {
+            super( management, isMXBean );
+            this.throttle = StoreCopyThrottle.of( management.getKernelData().graphDatabase() );
+        }
+
+        @Override
+        public int getActiveCopies()
+        {
+            return throttle.getActiveCopies();
+        }
+
+        @Override
+        public long getThroughput()
+        {
+            return throttle.getThroughput();
+        }
+
+        @Override
+        public long getCurrentLimit()
+        {
+            return throttle.getCurrentLimit();
+        }
+
+        @Override
+        public long getMaxBytesPerSecond()
+        {
+            return throttle.getMaxBytesPerSecond();
+        }
+
+        @Override
+        public long getTotalBytes()
+        {
+            return throttle.getTotalBytes();
+        }
+    }
+}
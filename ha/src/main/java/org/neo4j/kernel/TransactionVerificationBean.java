@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.backup.log.AsyncVerification;
+import org.neo4j.backup.log.InconsistencyLoggingTransactionInterceptorProvider;
+import org.neo4j.helpers.Service;
+import org.neo4j.jmx.impl.ManagementBeanProvider;
+import org.neo4j.jmx.impl.ManagementData;
+import org.neo4j.jmx.impl.Neo4jMBean;
+import org.neo4j.management.TransactionVerification;
+
+@Service.Implementation( ManagementBeanProvider.class )
+public final class TransactionVerificationBean extends ManagementBeanProvider
+{
+    public TransactionVerificationBean()
+    {
+        super( TransactionVerification.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMXBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        return new TransactionVerificationImpl( management, true );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        return new TransactionVerificationImpl( management );
+    }
+
+    private static class TransactionVerificationImpl extends Neo4jMBean implements TransactionVerification
+    {
+        private final GraphDatabaseAPI graphDb;
+
+        TransactionVerificationImpl( ManagementData management ) throws NotCompliantMBeanException
+        {
+            super( management );
+            this.graphDb = management.getKernelData().graphDatabase();
+        }
+
+        TransactionVerificationImpl( ManagementData management, boolean isMXBean )
+        {
+            super( management, isMXBean );
+            this.graphDb = management.getKernelData().graphDatabase();
+        }
+
+        /*
+         * The verifier comes and goes with the data source, so look it up
+         * every time rather than holding on to it.
+         */
+        private AsyncVerification verification()
+        {
+            return InconsistencyLoggingTransactionInterceptorProvider.asyncVerification(
+                    graphDb.getXaDataSourceManager().getNeoStoreDataSource() );
+        }
+
+        @Override
+        public boolean isEnabled()
+        {
+            return verification() != null;
+        }
+
+        @Override
+        public long getVerified()
+        {
+            AsyncVerification verification = verification();
+            return verification == null ? 0 : verification.verified();
+        }
+
+        @Override
+        public long getDropped()
+        {
+            AsyncVerification verification = verification();
+            return verification == null ? 0 : verification.dropped();
+        }
+
+        @Override
+        public long getNotSampled()
+        {
+            AsyncVerification verification = verification();
+            return verification == null ? 0 : verification.skipped();
+        }
+
+        @Override
+        public int getQueued()
+        {
+            AsyncVerification verification = verification();
+            return verification == null ? 0 : verification.queued();
+        }
+
+        @Override
+        public long getLag()
+        {
+            AsyncVerification verification = verification();
+            return verification == null ? 0 : verification.lag();
+        }
+    }
+}
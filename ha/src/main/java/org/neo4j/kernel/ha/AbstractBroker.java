@@ -20,6 +20,7 @@
 package org.neo4j.kernel.ha;
 
 import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.GraphDatabaseAPI;
 import org.neo4j.kernel.KernelData;
 import org.neo4j.kernel.configuration.Config;
 import org.neo4j.kernel.ha.zookeeper.Machine;
@@ -77,6 +78,21 @@ public abstract class AbstractBroker implements Broker
         throw new UnsupportedOperationException();
     }
 
+    public Object instantiateRelayServer( GraphDatabaseAPI graphDb )
+    {
+        throw new UnsupportedOperationException( getClass().getName() + " does not support relays" );
+    }
+
+    public Pair<Master, Machine> getUpdateSource()
+    {
+        return getMaster();
+    }
+
+    public void updateSourceFailed( Machine source )
+    {
+        // Do nothing
+    }
+
     public void rebindMaster()
     {
         // Do nothing
@@ -43,6 +43,25 @@ public interface Broker
     // I know... this isn't supposed to be here
     Object instantiateMasterServer( GraphDatabaseAPI graphDb );
 
+    /**
+     * Like {@link #instantiateMasterServer(GraphDatabaseAPI)}, but for a slave
+     * that serves the updates of other slaves, see
+     * {@link HaSettings#relay_updates}.
+     */
+    Object instantiateRelayServer( GraphDatabaseAPI graphDb );
+
+    /**
+     * @return the machine to pull updates from, the master or a slave that
+     *         relays them, see {@link HaSettings#pull_from_relays}.
+     */
+    Pair<Master, Machine> getUpdateSource();
+
+    /**
+     * Tells the broker that pulling updates from {@code source}, as returned
+     * by {@link #getUpdateSource()}, failed.
+     */
+    void updateSourceFailed( Machine source );
+
     void rebindMaster();
 
     void notifyMasterChange( Machine newMaster );
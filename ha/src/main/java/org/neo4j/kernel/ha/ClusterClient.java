@@ -30,6 +30,14 @@ public interface ClusterClient
 
     public Pair<Master, Machine> getMasterClient();
 
+    /**
+     * Returns the machine to copy the store from when joining the cluster,
+     * the slave that relays updates and is furthest ahead, see
+     * {@link HaSettings#relay_updates}, or the master if there is none.
+     * @return the machine to copy the store from.
+     */
+    public Pair<Master, Machine> getStoreCopySource();
+
     /**
      * Returns the connected slaves in this cluster.
      * @return the connected slaves in this cluster.
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSourceManager;
+
+/**
+ * The last committed transaction of each data source of an instance, taken
+ * after a commit, for reading that commit's writes through another instance,
+ * see {@link CommitTokenWaiter}. It has a string form, from
+ * {@link #toString()} and {@link #parse(String)}, for handing it to clients
+ * and back.
+ */
+public final class CommitToken
+{
+    private final Map<String, Long> txIds;
+
+    private CommitToken( Map<String, Long> txIds )
+    {
+        this.txIds = Collections.unmodifiableMap( txIds );
+    }
+
+    /**
+     * @return the token for everything committed in {@code db} so far,
+     *         including what the calling thread just committed.
+     */
+    public static CommitToken of( GraphDatabaseAPI db )
+    {
+        Map<String, Long> txIds = new TreeMap<String, Long>();
+        for ( XaDataSource dataSource : db.getXaDataSourceManager().getAllRegisteredDataSources() )
+        {
+            txIds.put( dataSource.getName(), dataSource.getLastCommittedTxId() );
+        }
+        return new CommitToken( txIds );
+    }
+
+    public static CommitToken parse( String token )
+    {
+        Map<String, Long> txIds = new TreeMap<String, Long>();
+        if ( token.length() > 0 )
+        {
+            for ( String entry : token.split( "," ) )
+            {
+                int separator = entry.lastIndexOf( '=' );
+                if ( separator == -1 ) throw new IllegalArgumentException( "Not a commit token: " + token );
+                try
+                {
+                    txIds.put( entry.substring( 0, separator ), Long.parseLong( entry.substring( separator + 1 ) ) );
+                }
+                catch ( NumberFormatException e )
+                {
+                    throw new IllegalArgumentException( "Not a commit token: " + token, e );
+                }
+            }
+        }
+        return new CommitToken( txIds );
+    }
+
+    public Map<String, Long> getTxIds()
+    {
+        return txIds;
+    }
+
+    /**
+     * @return whether {@code dataSources} have applied all transactions of
+     *         this token. Data sources that the instance doesn't have, like an
+     *         index that hasn't been created there yet, haven't.
+     */
+    boolean isAppliedIn( XaDataSourceManager dataSources )
+    {
+        for ( Map.Entry<String, Long> entry : txIds.entrySet() )
+        {
+            XaDataSource dataSource = dataSources.getXaDataSource( entry.getKey() );
+            if ( dataSource == null || dataSource.getLastCommittedTxId() < entry.getValue() ) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether this token has transactions of a data source that
+     *         {@code dataSources} doesn't have.
+     */
+    boolean namesDataSourceMissingIn( XaDataSourceManager dataSources )
+    {
+        for ( String name : txIds.keySet() )
+        {
+            if ( dataSources.getXaDataSource( name ) == null ) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals( Object obj )
+    {
+        return obj instanceof CommitToken && txIds.equals( ( (CommitToken) obj ).txIds );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return txIds.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        for ( Map.Entry<String, Long> entry : txIds.entrySet() )
+        {
+            if ( result.length() > 0 ) result.append( ',' );
+            result.append( entry.getKey() ).append( '=' ).append( entry.getValue() );
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.kernel.GraphDatabaseAPI;
+
+/**
+ * Lets reads wait until this instance has applied the transactions of a
+ * {@link CommitToken}, so that a client that wrote through one instance
+ * reads its writes through another. An instance that is already as far ahead
+ * as the token doesn't ask anyone for anything. One that lags pulls updates,
+ * and the reads that wait at the same time share that pull instead of each
+ * doing their own. The pull runs on a thread of its own so that no read,
+ * not even the one that asked for it, waits for it longer than its timeout.
+ * The time spent waiting is kept for the
+ * {@link org.neo4j.management.CommitTokens} bean.
+ */
+public class CommitTokenWaiter
+{
+    /**
+     * The time to wait between pulls when a pull didn't bring the instance
+     * far enough, because it pulled from a relay that lags too.
+     */
+    static final long PULL_RETRY_MILLIS = 10;
+
+    /**
+     * The longest time to wait between pulls when the token names a data
+     * source that this instance doesn't have, the time doubles from
+     * {@link #PULL_RETRY_MILLIS} up to this while it's missing.
+     */
+    static final long MAX_PULL_RETRY_MILLIS = 1000;
+
+    private final GraphDatabaseAPI db;
+    private final Runnable pullUpdates;
+    private final ExecutorService puller;
+
+    private final Object pullLock = new Object();
+    // Guarded by pullLock
+    private boolean pulling;
+    private long pullsDone;
+    private RuntimeException pullFailure;
+
+    private final AtomicLong awaits = new AtomicLong();
+    private final AtomicLong laggingAwaits = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public CommitTokenWaiter( GraphDatabaseAPI db, Runnable pullUpdates )
+    {
+        this.db = db;
+        this.pullUpdates = pullUpdates;
+        ThreadPoolExecutor puller = new ThreadPoolExecutor( 1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable, "Commit token pull" );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                } );
+        puller.allowCoreThreadTimeOut( true );
+        this.puller = puller;
+    }
+
+    /**
+     * Waits at most {@code timeout} for this instance to apply the
+     * transactions of {@code token}.
+     *
+     * @return whether the transactions of {@code token} have been applied.
+     */
+    public boolean await( CommitToken token, long timeout, TimeUnit unit )
+    {
+        awaits.incrementAndGet();
+        if ( token.isAppliedIn( db.getXaDataSourceManager() ) ) return true;
+
+        laggingAwaits.incrementAndGet();
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos( timeout );
+        long retryMillis = PULL_RETRY_MILLIS;
+        try
+        {
+            while ( true )
+            {
+                pull( deadline );
+                if ( token.isAppliedIn( db.getXaDataSourceManager() ) ) return true;
+                long remaining = deadline - System.nanoTime();
+                if ( remaining <= 0 )
+                {
+                    timeouts.incrementAndGet();
+                    return false;
+                }
+                Thread.sleep( Math.min( retryMillis, TimeUnit.NANOSECONDS.toMillis( remaining ) + 1 ) );
+                // A missing data source, like an index that isn't there yet, takes a while to show up
+                retryMillis = token.namesDataSourceMissingIn( db.getXaDataSourceManager() ) ?
+                        Math.min( retryMillis * 2, MAX_PULL_RETRY_MILLIS ) : PULL_RETRY_MILLIS;
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            return token.isAppliedIn( db.getXaDataSourceManager() );
+        }
+        finally
+        {
+            waited( System.nanoTime() - start );
+        }
+    }
+
+    /**
+     * Pulls updates, or waits for the pull that another thread is doing to
+     * finish, but not past {@code deadline}. A failure of the pull is thrown
+     * to the thread that asked for it, if it's still waiting.
+     */
+    private void pull( long deadline ) throws InterruptedException
+    {
+        long pull;
+        boolean asked = false;
+        synchronized ( pullLock )
+        {
+            pull = pullsDone;
+            if ( !pulling )
+            {
+                pulling = true;
+                asked = true;
+            }
+        }
+        if ( asked ) puller.execute( pullTask );
+        synchronized ( pullLock )
+        {
+            for ( long remaining; pullsDone == pull && ( remaining = deadline - System.nanoTime() ) > 0; )
+            {
+                pullLock.wait( TimeUnit.NANOSECONDS.toMillis( remaining ) + 1 );
+            }
+            if ( asked && pullsDone == pull + 1 && pullFailure != null ) throw pullFailure;
+        }
+    }
+
+    private final Runnable pullTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            RuntimeException failure = null;
+            try
+            {
+                pullUpdates.run();
+            }
+            catch ( RuntimeException e )
+            {
+                failure = e;
+            }
+            finally
+            {
+                synchronized ( pullLock )
+                {
+                    pulling = false;
+                    pullsDone++;
+                    pullFailure = failure;
+                    pullLock.notifyAll();
+                }
+            }
+        }
+    };
+
+    private void waited( long nanos )
+    {
+        totalWaitNanos.addAndGet( nanos );
+        for ( long max; nanos > ( max = maxWaitNanos.get() ); )
+        {
+            if ( maxWaitNanos.compareAndSet( max, nanos ) ) break;
+        }
+    }
+
+    /**
+     * @return the number of reads that have asked for a token.
+     */
+    public long getAwaits()
+    {
+        return awaits.get();
+    }
+
+    /**
+     * @return the number of reads that had to wait for their token.
+     */
+    public long getLaggingAwaits()
+    {
+        return laggingAwaits.get();
+    }
+
+    public long getTimeouts()
+    {
+        return timeouts.get();
+    }
+
+    public long getTotalWaitMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( totalWaitNanos.get() );
+    }
+
+    public long getMaxWaitMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( maxWaitNanos.get() );
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.neo4j.com.ApplyBatcher;
+import org.neo4j.com.DelegatingFileChannel;
+import org.neo4j.kernel.DefaultFileSystemAbstraction;
+import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
+import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
+
+/**
+ * Group commit of the transactions a slave applies. While a batch is open on
+ * a thread, the logical logs aren't forced for each transaction that thread
+ * applies, and the last committed tx isn't published for each either. When
+ * the batch ends the logs are forced once, and only then is the last
+ * committed tx of the batch published, so the master and the other machines
+ * never hear of a transaction that isn't durable on this one.
+ *
+ * For this to work the logical logs have to be opened through
+ * {@link #logFileSystem()} and the last committed tx has to be published
+ * through {@link #publishAtBatchEnd(LastCommittedTxIdSetter)}. The store
+ * files are read and written as usual, so the store changes of a transaction
+ * may reach the disk before the forced log does. If the machine goes down in
+ * the middle of a batch the store can hold changes of transactions that its
+ * log lost, which is why batched apply is off by default.
+ */
+public class GroupCommitter extends ApplyBatcher
+{
+    private static class Batch
+    {
+        long lastCommittedTx = -1;
+    }
+
+    private final ThreadLocal<Batch> batch = new ThreadLocal<Batch>();
+
+    // Guarded by this: the log channels forces were put off for, and whether
+    // with meta data
+    private final Map<ForceDeferringChannel, Boolean> unforced = new IdentityHashMap<ForceDeferringChannel, Boolean>();
+
+    private final FileSystemAbstraction logFileSystem = new DefaultFileSystemAbstraction()
+    {
+        @Override
+        public FileChannel open( String fileName, String mode ) throws IOException
+        {
+            return new ForceDeferringChannel( super.open( fileName, mode ) );
+        }
+
+        @Override
+        public FileChannel create( String fileName ) throws IOException
+        {
+            return new ForceDeferringChannel( super.create( fileName ) );
+        }
+    };
+    private volatile LastCommittedTxIdSetter publisher;
+
+    public GroupCommitter( long maxBytes, long maxLatencyMillis )
+    {
+        super( maxBytes, maxLatencyMillis );
+    }
+
+    /**
+     * @return the file system to open the logical logs through, the one the
+     *         database creates its logs with. The store files should be
+     *         opened through a plain one, their forces aren't put off.
+     */
+    public FileSystemAbstraction logFileSystem()
+    {
+        return logFileSystem;
+    }
+
+    /**
+     * @return a setter that publishes through {@code setter}, only at the end
+     *         of the batch for transactions applied in one.
+     */
+    public LastCommittedTxIdSetter publishAtBatchEnd( final LastCommittedTxIdSetter setter )
+    {
+        publisher = setter;
+        return new LastCommittedTxIdSetter()
+        {
+            @Override
+            public void setLastCommittedTxId( long txId )
+            {
+                Batch current = batch.get();
+                if ( current != null ) current.lastCommittedTx = txId;
+                else setter.setLastCommittedTxId( txId );
+            }
+
+            @Override
+            public void close()
+            {
+                setter.close();
+            }
+        };
+    }
+
+    @Override
+    protected void begin()
+    {
+        batch.set( new Batch() );
+    }
+
+    @Override
+    protected void end() throws IOException
+    {
+        Batch ended = batch.get();
+        batch.remove();
+        if ( ended == null ) return;
+        forceLogs();
+        LastCommittedTxIdSetter setter = publisher;
+        if ( ended.lastCommittedTx != -1 && setter != null ) setter.setLastCommittedTxId( ended.lastCommittedTx );
+    }
+
+    /**
+     * Forces the logs that have been written without being forced, which
+     * makes all the transactions appended to them durable.
+     */
+    private synchronized void forceLogs() throws IOException
+    {
+        for ( Map.Entry<ForceDeferringChannel, Boolean> channel : unforced.entrySet() )
+        {
+            channel.getKey().forceNow( channel.getValue() );
+        }
+        unforced.clear();
+    }
+
+    private synchronized void deferForce( ForceDeferringChannel channel, boolean metaData )
+    {
+        Boolean withMetaData = unforced.get( channel );
+        unforced.put( channel, metaData || Boolean.TRUE.equals( withMetaData ) );
+    }
+
+    private class ForceDeferringChannel extends DelegatingFileChannel
+    {
+        ForceDeferringChannel( FileChannel channel )
+        {
+            super( channel );
+        }
+
+        @Override
+        public void force( boolean metaData ) throws IOException
+        {
+            if ( batch.get() == null ) channel.force( metaData );
+            else deferForce( this, metaData );
+        }
+
+        void forceNow( boolean metaData ) throws IOException
+        {
+            if ( channel.isOpen() ) channel.force( metaData );
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException
+        {
+            // Logs are rotated in the middle of batches
+            synchronized ( GroupCommitter.this )
+            {
+                Boolean metaData = unforced.remove( this );
+                if ( metaData != null ) channel.force( metaData );
+            }
+            channel.close();
+        }
+    }
+}
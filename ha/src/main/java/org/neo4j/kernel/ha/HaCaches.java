@@ -26,8 +26,10 @@ import static org.neo4j.graphdb.factory.GraphDatabaseSettings.relationship_cache
 
 import org.neo4j.graphdb.factory.GraphDatabaseSetting;
 import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.cache.AdaptiveCacheSizer;
 import org.neo4j.kernel.impl.cache.Cache;
 import org.neo4j.kernel.impl.cache.CacheProvider;
+import org.neo4j.kernel.impl.cache.GCResistantCache;
 import org.neo4j.kernel.impl.cache.GCResistantCacheProvider;
 import org.neo4j.kernel.impl.core.Caches;
 import org.neo4j.kernel.impl.core.NodeImpl;
@@ -40,6 +42,7 @@ public class HaCaches implements Caches
     private Config config;
     private Cache<NodeImpl> node;
     private Cache<RelationshipImpl> relationship;
+    private AdaptiveCacheSizer sizer;
     private final StringLogger logger;
     
     public HaCaches( StringLogger logger )
@@ -62,6 +65,23 @@ public class HaCaches implements Caches
         }
         this.type = newType;
         this.config = config;
+        configureSizer( config );
+    }
+
+    private void configureSizer( Config config )
+    {
+        if ( sizer != null )
+        {
+            sizer.stop();
+            sizer = null;
+        }
+        if ( config.getBoolean( HaSettings.gcr_cache_adaptive ) &&
+                node instanceof GCResistantCache && relationship instanceof GCResistantCache )
+        {
+            sizer = new AdaptiveCacheSizer( (GCResistantCache<?>) node, (GCResistantCache<?>) relationship,
+                    config.getInteger( HaSettings.gcr_cache_adaptive_interval ) * 1000l, logger );
+            sizer.start();
+        }
     }
 
     private boolean cacheConfigSame( CacheProvider type, Config config )
@@ -72,6 +92,10 @@ public class HaCaches implements Caches
                 // Only reuse array caches, since the other ones are cheap to recreate
                 GCResistantCacheProvider.NAME.equals( this.type.getName() ) &&
                 
+                // Adaptively sized caches may have been reshaped, so don't reuse those
+                !config.getBoolean( HaSettings.gcr_cache_adaptive ) &&
+                !this.config.getBoolean( HaSettings.gcr_cache_adaptive ) &&
+
                 mySettingIsSameAs(config, node_cache_array_fraction ) &&
                 mySettingIsSameAs(config, relationship_cache_array_fraction ) &&
                 mySettingIsSameAs(config, node_cache_size) &&
@@ -85,6 +109,26 @@ public class HaCaches implements Caches
 		return myValue.equals(otherValue);
 	}
 
+    /**
+     * Stops the adaptive sizing of the caches, if any, for good.
+     */
+    public void shutdown()
+    {
+        if ( sizer != null )
+        {
+            sizer.stop();
+            sizer = null;
+        }
+    }
+
+    /**
+     * @return the sizer of the caches, if ha.gcr_cache_adaptive is set, otherwise {@code null}.
+     */
+    public AdaptiveCacheSizer getSizer()
+    {
+        return sizer;
+    }
+
 	@Override
 	public Cache<NodeImpl> node()
     {
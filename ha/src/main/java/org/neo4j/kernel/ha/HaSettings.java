@@ -20,6 +20,7 @@
 package org.neo4j.kernel.ha;
 
 import static org.neo4j.graphdb.factory.GraphDatabaseSetting.ANY;
+import static org.neo4j.graphdb.factory.GraphDatabaseSetting.FALSE;
 import static org.neo4j.graphdb.factory.GraphDatabaseSetting.TRUE;
 
 import org.neo4j.graphdb.factory.Default;
@@ -74,6 +75,60 @@ public class HaSettings
     @Default( "0" )
     public static final StringSetting pull_interval = new StringSetting( "ha.pull_interval", ANY, "Must be valid interval setting" );
 
+    @Description( "Let the GC resistant caches measure entity sizes and hit ratios at runtime and redistribute " +
+            "the total of node_cache_size and relationship_cache_size between them, resizing their slot arrays as needed" )
+    @Default( FALSE )
+    public static final BooleanSetting gcr_cache_adaptive = new BooleanSetting( "ha.gcr_cache_adaptive" );
+
+    @Description( "Interval in seconds between rebalancing of the GC resistant caches when ha.gcr_cache_adaptive is enabled" )
+    @Default( "60" )
+    public static final IntegerSetting gcr_cache_adaptive_interval = new IntegerSetting( "ha.gcr_cache_adaptive_interval", "Must be a valid interval in seconds", 1, null );
+
+    @Description( "Let slaves receive the transactions pulled from the master and apply them concurrently, " +
+            "through a queue, instead of receiving and applying one transaction at a time. The transactions of " +
+            "different data sources are applied in parallel" )
+    @Default( FALSE )
+    public static final BooleanSetting pipelined_tx_apply = new BooleanSetting( "ha.pipelined_tx_apply" );
+
+    @Description( "The number of bytes of transactions pulled from the master that may wait to be applied, for each " +
+            "data source, when ha.pipelined_tx_apply is enabled" )
+    @Default( "8388608" )
+    public static final IntegerSetting tx_apply_pipeline_max_bytes = new IntegerSetting( "ha.tx_apply_pipeline_max_bytes", "Must be a valid number of bytes", 1, null );
+
+    @Description( "Let slaves apply the transactions pulled from the master in batches, forcing the logical log " +
+            "and publishing the last committed transaction once per batch instead of once per transaction" )
+    @Default( FALSE )
+    public static final BooleanSetting batched_tx_apply = new BooleanSetting( "ha.batched_tx_apply" );
+
+    @Description( "The number of bytes of transactions after which a batch applied by a slave is ended" )
+    @Default( "4194304" )
+    public static final IntegerSetting tx_apply_batch_max_bytes = new IntegerSetting( "ha.tx_apply_batch_max_bytes", "Must be a valid number of bytes", 1, null );
+
+    @Description( "The time in milliseconds after which a batch applied by a slave is ended" )
+    @Default( "50" )
+    public static final IntegerSetting tx_apply_batch_max_latency = new IntegerSetting( "ha.tx_apply_batch_max_latency", "Must be a valid number of milliseconds", 0, null );
+
+    @Description( "Let a slave serve the updates, transactions and store copies other slaves ask for from its own " +
+            "store and logical logs, on its ha.server port, so that they can pull from it instead of from the master" )
+    @Default( FALSE )
+    public static final BooleanSetting relay_updates = new BooleanSetting( "ha.relay_updates" );
+
+    @Description( "Let a slave pull its updates from a slave that relays them, preferring one on the same host and " +
+            "then the one that is furthest ahead, instead of from the master. Writes still go to the master" )
+    @Default( FALSE )
+    public static final BooleanSetting pull_from_relays = new BooleanSetting( "ha.pull_from_relays" );
+
+    @Description( "Let a new slave copy the store from the slave that relays updates and is furthest ahead, " +
+            "instead of from the master, and catch up with the master from there" )
+    @Default( FALSE )
+    public static final BooleanSetting copy_store_from_relays = new BooleanSetting( "ha.copy_store_from_relays" );
+
+    @Description( "Maximum number of megabytes per second that the master reads store files at for store copies " +
+            "and backups, shared by all copies running at the same time and lowered while commit latency is high, " +
+            "0 for no limit" )
+    @Default( "0" )
+    public static final IntegerSetting store_copy_max_bandwidth = new IntegerSetting( "ha.store_copy_max_bandwidth", "Must be a valid number of megabytes per second", 0, null );
+
     public static final class SlaveUpdateModeSetting
         extends GraphDatabaseSetting.OptionsSetting
     {
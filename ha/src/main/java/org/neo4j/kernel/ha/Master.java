@@ -19,6 +19,7 @@
  */
 package org.neo4j.kernel.ha;
 
+import org.neo4j.com.BlockChecksums;
 import org.neo4j.com.Response;
 import org.neo4j.com.SlaveContext;
 import org.neo4j.com.StoreWriter;
@@ -71,6 +72,13 @@ public interface Master
 
     Response<Void> copyStore( SlaveContext context, StoreWriter writer );
 
+    /**
+     * Like {@link #copyStore(SlaveContext, StoreWriter)}, but only sends the
+     * blocks of the store files that differ from {@code checksums}, the
+     * checksums of the store files the slave already has.
+     */
+    Response<Void> copyStoreDelta( SlaveContext context, BlockChecksums checksums, StoreWriter writer );
+
     Response<Void> copyTransactions( SlaveContext context, String dsName,
             long startTxId, long endTxId );
 
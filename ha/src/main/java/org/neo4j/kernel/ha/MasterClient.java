@@ -33,6 +33,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.neo4j.com.BlockChecksums;
 import org.neo4j.com.BlockLogBuffer;
 import org.neo4j.com.BlockLogReader;
 import org.neo4j.com.Client;
@@ -104,7 +105,7 @@ public class MasterClient extends Client<Master> implements Master
     @Override
     protected boolean shouldCheckStoreId( RequestType<Master> type )
     {
-        return type != HaRequestType.COPY_STORE;
+        return type != HaRequestType.COPY_STORE && type != HaRequestType.COPY_STORE_DELTA;
     }
 
     public Response<IdAllocation> allocateIds( final IdType idType )
@@ -288,6 +289,18 @@ public class MasterClient extends Client<Master> implements Master
         return sendRequest( HaRequestType.COPY_STORE, context, EMPTY_SERIALIZER, new Protocol.FileStreamsDeserializer( writer ) );
     }
 
+    public Response<Void> copyStoreDelta( SlaveContext context, final BlockChecksums checksums, StoreWriter writer )
+    {
+        context = stripFromTransactions( context );
+        return sendRequest( HaRequestType.COPY_STORE_DELTA, context, new Serializer()
+        {
+            public void write( ChannelBuffer buffer, ByteBuffer readBuffer ) throws IOException
+            {
+                checksums.write( buffer );
+            }
+        }, new Protocol.FileStreamsDeserializer( writer, checksums.directory() ) );
+    }
+
     private SlaveContext stripFromTransactions( SlaveContext context )
     {
         return new SlaveContext( context.getSessionId(), context.machineId(),
@@ -576,7 +589,19 @@ public class MasterClient extends Client<Master> implements Master
             {
                 return true;
             }
-        };
+        },
+
+        //====
+        COPY_STORE_DELTA( new MasterCaller<Master, Void>()
+        {
+            public Response<Void> callMaster( Master master, SlaveContext context,
+                    ChannelBuffer input, final ChannelBuffer target )
+            {
+                BlockChecksums checksums = BlockChecksums.read( input );
+                return master.copyStoreDelta( context, checksums, new ToNetworkStoreWriter( target ) );
+            }
+
+        }, VOID_SERIALIZER, true );
 
         @SuppressWarnings( "rawtypes" )
         final MasterCaller caller;
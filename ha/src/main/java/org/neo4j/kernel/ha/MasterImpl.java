@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -32,9 +33,13 @@ import javax.transaction.NotSupportedException;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
+import org.neo4j.com.BlockChecksums;
+import org.neo4j.com.LogCursors;
 import org.neo4j.com.MasterUtil;
+import org.neo4j.com.Protocol;
 import org.neo4j.com.Response;
 import org.neo4j.com.SlaveContext;
+import org.neo4j.com.StoreCopyThrottle;
 import org.neo4j.com.StoreWriter;
 import org.neo4j.com.TxExtractor;
 import org.neo4j.graphdb.Node;
@@ -67,18 +72,34 @@ public class MasterImpl implements Master
 {
     private static final int ID_GRAB_SIZE = 1000;
     public static final int UNFINISHED_TRANSACTION_CLEANUP_DELAY = 5;
+    public static final int LOG_CURSOR_MAX_IDLE = 60;
+    public static final int MAX_TRANSACTION_EXTRACTORS = 8;
 
     private final GraphDatabaseAPI graphDb;
     private final StringLogger msgLog;
+    private final StoreCopyThrottle copyThrottle;
+    private final LogCursors logCursors = new LogCursors( LOG_CURSOR_MAX_IDLE * 1000 );
+    private final ExecutorService transactionExtractors = MasterUtil.newTransactionExtractors( MAX_TRANSACTION_EXTRACTORS );
 
     private final Map<SlaveContext, MasterTransaction> transactions = synchronizedMap( new HashMap<SlaveContext, MasterTransaction>() );
     private final ScheduledExecutorService unfinishedTransactionsExecutor;
     private int unfinishedTransactionThreshold;
 
     public MasterImpl( GraphDatabaseAPI db, int timeOut )
+    {
+        this( db, timeOut, 0 );
+    }
+
+    /**
+     * @param storeCopyMaxBandwidth the megabytes per second that store copies
+     *            and backups of this master may read, {@code 0} for no limit.
+     */
+    public MasterImpl( GraphDatabaseAPI db, int timeOut, int storeCopyMaxBandwidth )
     {
         this.graphDb = db;
         this.msgLog = graphDb.getMessageLog();
+        this.copyThrottle = StoreCopyThrottle.of( graphDb );
+        this.copyThrottle.setMaxBytesPerSecond( storeCopyMaxBandwidth * (long) Protocol.MEGA );
         this.unfinishedTransactionThreshold = timeOut;
         this.unfinishedTransactionsExecutor = Executors.newSingleThreadScheduledExecutor();
         this.unfinishedTransactionsExecutor.scheduleWithFixedDelay( new Runnable()
@@ -125,6 +146,14 @@ public class MasterImpl implements Master
                 }
             }
         }, UNFINISHED_TRANSACTION_CLEANUP_DELAY, UNFINISHED_TRANSACTION_CLEANUP_DELAY, TimeUnit.SECONDS );
+        this.unfinishedTransactionsExecutor.scheduleWithFixedDelay( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                logCursors.evictIdle();
+            }
+        }, LOG_CURSOR_MAX_IDLE, LOG_CURSOR_MAX_IDLE, TimeUnit.SECONDS );
     }
 
     public GraphDatabaseAPI getGraphDb()
@@ -181,7 +210,7 @@ public class MasterImpl implements Master
 
     private <T> Response<T> packResponse( SlaveContext context, T response, Predicate<Long> filter )
     {
-        return MasterUtil.packResponse( graphDb, context, response, filter );
+        return MasterUtil.packResponse( graphDb, context, response, filter, logCursors, transactionExtractors );
     }
 
     private Transaction getTx( SlaveContext txId )
@@ -391,7 +420,9 @@ public class MasterImpl implements Master
         {
             XaDataSource dataSource = graphDb.getXaDataSourceManager()
                     .getXaDataSource( resource );
+            long start = System.nanoTime();
             final long txId = dataSource.applyPreparedTransaction( txGetter.extract() );
+            copyThrottle.commitLatency( System.nanoTime() - start );
             Predicate<Long> upUntilThisTx = new Predicate<Long>()
             {
                 public boolean accept( Long item )
@@ -461,6 +492,12 @@ public class MasterImpl implements Master
         return packResponse( context, null );
     }
 
+    @Override
+    public Response<Void> copyStoreDelta( SlaveContext context, BlockChecksums checksums, StoreWriter writer )
+    {
+        return copyStore( context, checksums.deltaWriter( writer ) );
+    }
+
     @Override
     public Response<Void> copyTransactions( SlaveContext context,
             String dsName, long startTxId, long endTxId )
@@ -472,6 +509,8 @@ public class MasterImpl implements Master
     public void shutdown()
     {
         unfinishedTransactionsExecutor.shutdown();
+        transactionExtractors.shutdown();
+        logCursors.close();
     }
 
     private static interface LockGrabber
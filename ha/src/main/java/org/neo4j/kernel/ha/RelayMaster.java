@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+import org.neo4j.com.BlockChecksums;
+import org.neo4j.com.LogCursors;
+import org.neo4j.com.MasterUtil;
+import org.neo4j.com.Response;
+import org.neo4j.com.SlaveContext;
+import org.neo4j.com.StoreWriter;
+import org.neo4j.com.TxExtractor;
+import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.nioneo.store.StoreId;
+import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
+
+/**
+ * The part of {@link Master} that a slave can serve to other slaves from its
+ * own store and logical logs, see {@link HaSettings#relay_updates}. Pulling
+ * updates, copying transactions and copying the store is served as the master
+ * would, but everything that needs the master, like locks, ids and commits,
+ * is refused.
+ */
+public class RelayMaster implements Master
+{
+    private final GraphDatabaseAPI graphDb;
+    private final LogCursors logCursors = new LogCursors( MasterImpl.LOG_CURSOR_MAX_IDLE * 1000 );
+    private final ExecutorService transactionExtractors =
+            MasterUtil.newTransactionExtractors( MasterImpl.MAX_TRANSACTION_EXTRACTORS );
+
+    public RelayMaster( GraphDatabaseAPI graphDb )
+    {
+        this.graphDb = graphDb;
+    }
+
+    @Override
+    public Response<Void> pullUpdates( SlaveContext context )
+    {
+        // Cheap when there's nothing to evict, saves a thread of its own
+        logCursors.evictIdle();
+        return MasterUtil.packResponse( graphDb, context, null, MasterUtil.ALL, logCursors, transactionExtractors );
+    }
+
+    @Override
+    public Response<Pair<Integer, Long>> getMasterIdForCommittedTx( long txId, StoreId myStoreId )
+    {
+        XaDataSource nioneoDataSource = graphDb.getXaDataSourceManager().getNeoStoreDataSource();
+        try
+        {
+            Pair<Integer, Long> masterId = nioneoDataSource.getMasterForCommittedTx( txId );
+            return MasterUtil.packResponseWithoutTransactionStream( graphDb, SlaveContext.EMPTY, masterId );
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Couldn't get master ID for " + txId, e );
+        }
+    }
+
+    @Override
+    public Response<Void> copyStore( SlaveContext context, StoreWriter writer )
+    {
+        context = MasterUtil.rotateLogsAndStreamStoreFiles( graphDb, true, writer );
+        writer.done();
+        return MasterUtil.packResponse( graphDb, context, null, MasterUtil.ALL );
+    }
+
+    @Override
+    public Response<Void> copyStoreDelta( SlaveContext context, BlockChecksums checksums, StoreWriter writer )
+    {
+        return copyStore( context, checksums.deltaWriter( writer ) );
+    }
+
+    @Override
+    public Response<Void> copyTransactions( SlaveContext context, String dsName, long startTxId, long endTxId )
+    {
+        return MasterUtil.getTransactions( graphDb, dsName, startTxId, endTxId );
+    }
+
+    @Override
+    public Response<Void> finishTransaction( SlaveContext context, boolean success )
+    {
+        if ( success ) throw notTheMaster();
+        // Called for the channels of slaves that went away, there's no transaction to roll back
+        return MasterUtil.packResponseWithoutTransactionStream( graphDb, context, null );
+    }
+
+    @Override
+    public Response<IdAllocation> allocateIds( IdType idType )
+    {
+        throw notTheMaster();
+    }
+
+    @Override
+    public Response<Integer> createRelationshipType( SlaveContext context, String name )
+    {
+        throw notTheMaster();
+    }
+
+    @Override
+    public Response<Void> initializeTx( SlaveContext context )
+    {
+        throw notTheMaster();
+    }
+
+    @Override
+    public Response<LockResult> acquireNodeWriteLock( SlaveContext context, long... nodes )
+    {
+        throw notTheMaster();
+    }
+
+    @Override
+    public Response<LockResult> acquireNodeReadLock( SlaveContext context, long... nodes )
+    {
+        throw notTheMaster();
+    }
+
+    @Override
+    public Response<LockResult> acquireGraphWriteLock( SlaveContext context )
+    {
+        throw notTheMaster();
+    }
+
+    @Override
+    public Response<LockResult> acquireGraphReadLock( SlaveContext context )
+    {
+        throw notTheMaster();
+    }
+
+    @Override
+    public Response<LockResult> acquireRelationshipWriteLock( SlaveContext context, long... relationships )
+    {
+        throw notTheMaster();
+    }
+
+    @Override
+    public Response<LockResult> acquireRelationshipReadLock( SlaveContext context, long... relationships )
+    {
+        throw notTheMaster();
+    }
+
+    @Override
+    public Response<Long> commitSingleResourceTransaction( SlaveContext context, String resource,
+            TxExtractor txGetter )
+    {
+        throw notTheMaster();
+    }
+
+    @Override
+    public Response<LockResult> acquireIndexWriteLock( SlaveContext context, String index, String key )
+    {
+        throw notTheMaster();
+    }
+
+    @Override
+    public Response<LockResult> acquireIndexReadLock( SlaveContext context, String index, String key )
+    {
+        throw notTheMaster();
+    }
+
+    @Override
+    public void shutdown()
+    {
+        transactionExtractors.shutdown();
+        logCursors.close();
+    }
+
+    private static UnsupportedOperationException notTheMaster()
+    {
+        return new UnsupportedOperationException( "Only updates can be pulled from a relaying slave, "
+                                                  + "ask the master for anything else" );
+    }
+}
@@ -33,6 +33,7 @@ import org.neo4j.kernel.impl.core.NodeProxy;
 import org.neo4j.kernel.impl.core.RelationshipProxy;
 import org.neo4j.kernel.impl.core.RelationshipTypeCreator;
 import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
+import org.neo4j.kernel.impl.nioneo.store.StoreFactory;
 import org.neo4j.kernel.impl.nioneo.store.StoreId;
 import org.neo4j.kernel.impl.transaction.LockManager;
 import org.neo4j.kernel.impl.transaction.TxHook;
@@ -50,19 +51,21 @@ public class SlaveGraphDatabase
     private LastCommittedTxIdSetter lastCommittedTxIdSetter;
     private SlaveIdGenerator.SlaveIdGeneratorFactory slaveIdGeneratorFactory;
     private FileSystemAbstraction fileSystemAbstraction;
+    private FileSystemAbstraction storeFileSystemAbstraction;
 
     public SlaveGraphDatabase( String storeDir, Map<String, String> params,
             StoreId storeId, HighlyAvailableGraphDatabase highlyAvailableGraphDatabase, Broker broker,
             Logging logging, SlaveDatabaseOperations databaseOperations,
             LastCommittedTxIdSetter lastCommittedTxIdSetter, NodeProxy.NodeLookup nodeLookup,
             RelationshipProxy.RelationshipLookups relationshipLookups,
-            FileSystemAbstraction fileSystemAbstraction,
+            FileSystemAbstraction fileSystemAbstraction, FileSystemAbstraction storeFileSystemAbstraction,
             Iterable<IndexProvider> indexProviders, Iterable<KernelExtension> kernelExtensions,
             Iterable<CacheProvider> cacheProviders, Caches caches )
     {
         super( storeDir, params, storeId, highlyAvailableGraphDatabase, broker, logging, nodeLookup, relationshipLookups,
                 indexProviders, kernelExtensions, cacheProviders, caches );
         this.fileSystemAbstraction = fileSystemAbstraction;
+        this.storeFileSystemAbstraction = storeFileSystemAbstraction;
 
         assert broker != null && logging != null && databaseOperations != null  && lastCommittedTxIdSetter != null &&
                nodeLookup != null && relationshipLookups != null;
@@ -85,6 +88,13 @@ public class SlaveGraphDatabase
         return fileSystemAbstraction;
     }
 
+    @Override
+    protected StoreFactory createStoreFactory()
+    {
+        return new StoreFactory( config, idGeneratorFactory, storeFileSystemAbstraction, lastCommittedTxIdSetter,
+                msgLog, txHook );
+    }
+
     @Override
     protected LastCommittedTxIdSetter createLastCommittedTxIdSetter()
     {
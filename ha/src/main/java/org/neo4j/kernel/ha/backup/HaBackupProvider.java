@@ -22,11 +22,15 @@ package org.neo4j.kernel.ha.backup;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.zookeeper.KeeperException;
 import org.neo4j.backup.BackupExtensionService;
 import org.neo4j.com.ComException;
 import org.neo4j.helpers.Args;
 import org.neo4j.helpers.Pair;
+import org.neo4j.helpers.Predicate;
 import org.neo4j.helpers.Service;
 import org.neo4j.kernel.configuration.ConfigurationDefaults;
 import org.neo4j.kernel.ha.HaSettings;
@@ -39,6 +43,13 @@ public final class HaBackupProvider extends BackupExtensionService
     // The server address is <host>:<port>
     private static final String ServerAddressFormat = "ha://%s:%d";
 
+    /**
+     * Where to take backups from, "master", the default, to only use the
+     * master, or "slave" to prefer the slaves that are caught up with the
+     * master.
+     */
+    public static final String SOURCE = "source";
+
     public HaBackupProvider()
     {
         super( "ha" );
@@ -53,15 +64,7 @@ public final class HaBackupProvider extends BackupExtensionService
             System.out.println( "Asking coordinator service at '" + address
                                 + "' for master" );
             
-            // At first HaConfig.CONFIG_KEY_CLUSTER_NAME was used
-            String clusterName = args.get( HaSettings.cluster_name.name(), null );
-            // but then later on -cluster was also added because it looks much nicer.
-            if( clusterName == null )
-            {
-                clusterName = args.get( "cluster", ConfigurationDefaults.getDefault( HaSettings.cluster_name, HaSettings.class ));
-            }
-            master = getMasterServerInCluster( address.getSchemeSpecificPart().substring(
-                    2 ), clusterName ); // skip the "//" part
+            master = getMasterServerInCluster( coordinators( address ), clusterName( args ) );
             System.out.println( "Found master '" + master + "' in cluster" );
         }
         catch ( ComException e )
@@ -70,18 +73,82 @@ public final class HaBackupProvider extends BackupExtensionService
         }
         catch ( RuntimeException e )
         {
-            if ( e.getCause() instanceof KeeperException )
+            throw reportKeeperException( address, e );
+        }
+        return toURI( master );
+    }
+
+    /**
+     * When asked to back up from the slaves, with {@code -source=slave}, the
+     * candidates are the slaves in the cluster that run online backup and
+     * have committed everything the master has, so that the load of the
+     * backup is kept off the master without the backup being any older than
+     * one taken from the master. The master comes last, for when no slave
+     * is available.
+     */
+    @Override
+    public List<URI> resolveCandidates( URI address, Args args )
+    {
+        if ( !"slave".equalsIgnoreCase( args.get( SOURCE, "master" ) ) )
+        {
+            return super.resolveCandidates( address, args );
+        }
+        try
+        {
+            System.out.println( "Asking coordinator service at '" + address
+                                + "' for backup sources" );
+            List<String> servers = getBackupServersInCluster( coordinators( address ), clusterName( args ) );
+            List<URI> candidates = new ArrayList<URI>();
+            for ( String server : servers )
             {
-                KeeperException zkException = (KeeperException) e.getCause();
-                System.out.println( "Couldn't connect to '" + address + "', "
-                                    + zkException.getMessage() );
+                candidates.add( toURI( server ) );
             }
+            return candidates;
+        }
+        catch ( ComException e )
+        {
             throw e;
         }
+        catch ( RuntimeException e )
+        {
+            throw reportKeeperException( address, e );
+        }
+    }
+
+    private static String coordinators( URI address )
+    {
+        return address.getSchemeSpecificPart().substring( 2 ); // skip the "//" part
+    }
+
+    private static String clusterName( Args args )
+    {
+        // At first HaConfig.CONFIG_KEY_CLUSTER_NAME was used
+        String clusterName = args.get( HaSettings.cluster_name.name(), null );
+        // but then later on -cluster was also added because it looks much nicer.
+        if( clusterName == null )
+        {
+            clusterName = args.get( "cluster", ConfigurationDefaults.getDefault( HaSettings.cluster_name, HaSettings.class ));
+        }
+        return clusterName;
+    }
+
+    private static RuntimeException reportKeeperException( URI address, RuntimeException e )
+    {
+        if ( e.getCause() instanceof KeeperException )
+        {
+            KeeperException zkException = (KeeperException) e.getCause();
+            System.out.println( "Couldn't connect to '" + address + "', "
+                                + zkException.getMessage() );
+        }
+        return e;
+    }
+
+    private static URI toURI( String server )
+    {
         URI toReturn = null;
         try
         {
-            toReturn = new URI( master );
+            toReturn = new URI( server );
         }
         catch ( URISyntaxException e )
         {
@@ -114,4 +181,60 @@ public final class HaBackupProvider extends BackupExtensionService
             clusterClient.shutdown();
         }
     }
+
+    private static List<String> getBackupServersInCluster( String from, String clusterName )
+    {
+        final ZooKeeperClusterClient clusterClient = new ZooKeeperClusterClient(
+                from, clusterName );
+        try
+        {
+            clusterClient.waitForSyncConnected();
+            Machine master = clusterClient.getMaster();
+            List<String> servers = new ArrayList<String>();
+            for ( Machine source : backupSources( master, clusterClient.getConnectedSlaves(), new Predicate<Machine>()
+            {
+                @Override
+                public boolean accept( Machine slave )
+                {
+                    return clusterClient.hasOnlineBackup( slave.getMachineId() );
+                }
+            } ) )
+            {
+                String server = String.format( ServerAddressFormat, source.getServer().first(),
+                        clusterClient.getBackupPort( source.getMachineId() ) );
+                System.out.println( "Found " + ( source == master ? "master" : "slave" ) + " '" + server
+                                    + "' in cluster" );
+                servers.add( server );
+            }
+            if ( servers.isEmpty() )
+            {
+                throw new ComException(
+                        "No backup source could be found in cluster managed by " + from );
+            }
+            return servers;
+        }
+        finally
+        {
+            clusterClient.shutdown();
+        }
+    }
+
+    /**
+     * @return the slaves that a backup can be taken from, that is the ones
+     *         that run online backup and have committed as much as the
+     *         master, followed by the master.
+     */
+    static List<Machine> backupSources( Machine master, Machine[] slaves, Predicate<Machine> hasOnlineBackup )
+    {
+        List<Machine> sources = new ArrayList<Machine>();
+        for ( Machine slave : slaves )
+        {
+            if ( slave.getServer() == null || slave.getMachineId() == master.getMachineId() ) continue;
+            if ( slave.getLastCommittedTxId() < master.getLastCommittedTxId() ) continue;
+            if ( !hasOnlineBackup.accept( slave ) ) continue;
+            sources.add( slave );
+        }
+        if ( master.getServer() != null ) sources.add( master );
+        return sources;
+    }
 }
@@ -325,16 +325,9 @@ public abstract class AbstractZooKeeperManager
 
     protected Pair<String /*Host and port*/, Integer /*backup port*/> readHaServer( int machineId, boolean wait )
     {
-        if ( wait )
-        {
-            waitForSyncConnected();
-        }
-        String rootPath = getRoot();
-        String haServerPath = rootPath + "/" + HA_SERVERS_CHILD + "/" + machineId;
         try
         {
-            byte[] serverData = getZooKeeper( true ).getData( haServerPath, false, null );
-            ByteBuffer buffer = ByteBuffer.wrap( serverData );
+            ByteBuffer buffer = ByteBuffer.wrap( readHaServerData( machineId, wait ) );
             int backupPort = buffer.getInt();
             byte length = buffer.get();
             char[] chars = new char[length];
@@ -346,7 +339,35 @@ public abstract class AbstractZooKeeperManager
         }
         catch ( KeeperException e )
         {
-            throw new ZooKeeperException( "Couldn't find the HA server: " + rootPath, e );
+            throw new ZooKeeperException( "Couldn't find the HA server: " + getRoot(), e );
+        }
+        catch ( InterruptedException e )
+        {
+            throw new ZooKeeperException( "Interrupted", e );
+        }
+    }
+
+    /**
+     * @return whether the machine serves the updates of other slaves, see
+     *         {@link org.neo4j.kernel.ha.HaSettings#relay_updates}. It's the
+     *         byte after the host and port of the HA server, which machines
+     *         from before there were relays leave as zero. It's set once the
+     *         relay server is up and cleared when it goes down, so it isn't
+     *         cached like the HA server is.
+     */
+    protected boolean isRelay( int machineId, boolean wait )
+    {
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.wrap( readHaServerData( machineId, wait ) );
+            buffer.getInt();
+            int flagPosition = buffer.position() + 1 + buffer.get() * 2;
+            return flagPosition < buffer.limit() && buffer.get( flagPosition ) != 0;
+        }
+        catch ( KeeperException e )
+        {
+            if ( e.code() == KeeperException.Code.NONODE ) return false;
+            throw new ZooKeeperException( "Couldn't find the HA server: " + getRoot(), e );
         }
         catch ( InterruptedException e )
         {
@@ -354,6 +375,40 @@ public abstract class AbstractZooKeeperManager
         }
     }
 
+    /**
+     * @return whether the last transaction {@code machine} committed was
+     *         committed by the master that {@code master} says it was, which
+     *         it isn't for a machine that holds transactions of a branch that
+     *         an earlier master committed.
+     */
+    protected boolean isOnBranchOf( Master master, Machine machine )
+    {
+        Response<Pair<Integer, Long>> response = null;
+        try
+        {
+            response = master.getMasterIdForCommittedTx( machine.getLastCommittedTxId(), null );
+            return response.response().first() == machine.getMasterForCommittedTxId();
+        }
+        catch ( RuntimeException e )
+        {   // Like when the master doesn't have the transaction at all
+            return false;
+        }
+        finally
+        {
+            if ( response != null ) response.close();
+        }
+    }
+
+    private byte[] readHaServerData( int machineId, boolean wait ) throws KeeperException, InterruptedException
+    {
+        if ( wait )
+        {
+            waitForSyncConnected();
+        }
+        String haServerPath = getRoot() + "/" + HA_SERVERS_CHILD + "/" + machineId;
+        return getZooKeeper( true ).getData( haServerPath, false, null );
+    }
+
     private void log( String string )
     {
         if ( msgLog != null )
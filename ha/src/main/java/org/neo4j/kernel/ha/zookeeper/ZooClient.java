@@ -24,10 +24,13 @@ import static org.neo4j.kernel.ha.HaSettings.allow_init_cluster;
 import static org.neo4j.kernel.ha.HaSettings.cluster_name;
 import static org.neo4j.kernel.ha.HaSettings.lock_read_timeout;
 import static org.neo4j.kernel.ha.HaSettings.max_concurrent_channels_per_slave;
+import static org.neo4j.kernel.ha.HaSettings.pull_from_relays;
 import static org.neo4j.kernel.ha.HaSettings.read_timeout;
+import static org.neo4j.kernel.ha.HaSettings.relay_updates;
 import static org.neo4j.kernel.ha.HaSettings.server;
 import static org.neo4j.kernel.ha.HaSettings.server_id;
 import static org.neo4j.kernel.ha.HaSettings.slave_coordinator_update_mode;
+import static org.neo4j.kernel.ha.HaSettings.store_copy_max_bandwidth;
 import static org.neo4j.kernel.ha.HaSettings.zk_session_timeout;
 
 import java.io.IOException;
@@ -35,9 +38,12 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 
 import javax.management.remote.JMXServiceURL;
@@ -51,8 +57,10 @@ import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
 import org.neo4j.backup.OnlineBackupSettings;
 import org.neo4j.com.StoreIdGetter;
+import org.neo4j.com.TxChecksumVerifier;
 import org.neo4j.helpers.Exceptions;
 import org.neo4j.helpers.Pair;
+import org.neo4j.helpers.Predicate;
 import org.neo4j.kernel.GraphDatabaseAPI;
 import org.neo4j.kernel.HaConfig;
 import org.neo4j.kernel.InformativeStackTrace;
@@ -64,6 +72,7 @@ import org.neo4j.kernel.ha.HaSettings;
 import org.neo4j.kernel.ha.Master;
 import org.neo4j.kernel.ha.MasterImpl;
 import org.neo4j.kernel.ha.MasterServer;
+import org.neo4j.kernel.ha.RelayMaster;
 import org.neo4j.kernel.ha.SlaveDatabaseOperations;
 import org.neo4j.kernel.impl.nioneo.store.StoreId;
 import org.neo4j.kernel.impl.transaction.xaframework.LogExtractor;
@@ -75,6 +84,7 @@ public class ZooClient extends AbstractZooKeeperManager
 {
     static final String MASTER_NOTIFY_CHILD = "master-notify";
     static final String MASTER_REBOUND_CHILD = "master-rebound";
+    static final long RELAY_REEVALUATION_INTERVAL = 10000;
 
     private final ZooKeeper zooKeeper;
     private final int machineId;
@@ -101,6 +111,14 @@ public class ZooClient extends AbstractZooKeeperManager
     private final boolean writeLastCommittedTx;
     private final String clusterName;
     private final boolean allowCreateCluster;
+    private final boolean relayUpdates;
+    private final boolean pullFromRelays;
+    private volatile boolean relaying;
+
+    private final Object relayLock = new Object();
+    private Pair<Master, Machine> relay;
+    private int relayChosenForMaster = -1;
+    private long relayChosenAt;
 
     public ZooClient( String storeDir, StringLogger stringLogger, StoreIdGetter storeIdGetter, Config conf,
             SlaveDatabaseOperations localDatabase, ClusterEventReceiver clusterReceiver )
@@ -116,12 +134,16 @@ public class ZooClient extends AbstractZooKeeperManager
         this.localDatabase = localDatabase;
         this.clusterReceiver = clusterReceiver;
         machineId = conf.getInteger( server_id );
-        backupPort = conf.getInteger( OnlineBackupSettings.online_backup_port);
+        // -1 tells backup clients that this instance doesn't run online backup
+        backupPort = conf.getBoolean( OnlineBackupSettings.online_backup_enabled )
+                ? conf.getInteger( OnlineBackupSettings.online_backup_port ) : -1;
         haServer = conf.isSet(server) ? conf.get( server ) : defaultServer();
         writeLastCommittedTx = conf.getEnum(SlaveUpdateMode.class, slave_coordinator_update_mode).syncWithZooKeeper;
         clusterName = conf.get( cluster_name );
         sequenceNr = "not initialized yet";
         allowCreateCluster = conf.getBoolean( allow_init_cluster );
+        relayUpdates = conf.getBoolean( relay_updates );
+        pullFromRelays = conf.getBoolean( pull_from_relays );
 
         try
         {
@@ -165,12 +187,198 @@ public class ZooClient extends AbstractZooKeeperManager
     public Object instantiateMasterServer( GraphDatabaseAPI graphDb )
     {
         int timeOut = conf.isSet( lock_read_timeout ) ? conf.getInteger( lock_read_timeout ) : conf.getInteger( read_timeout );
-        return new MasterServer( new MasterImpl( graphDb, timeOut ),
+        return new MasterServer( new MasterImpl( graphDb, timeOut, conf.getInteger( store_copy_max_bandwidth ) ),
                 Machine.splitIpAndPort( haServer ).other(), graphDb.getMessageLog(),
                 conf.getInteger( max_concurrent_channels_per_slave ),
                 clientLockReadTimeout, new BranchDetectingTxVerifier( graphDb ) );
     }
 
+    /**
+     * The relay server is advertised in ZooKeeper once it's up, and no longer
+     * once it's shut down, so that slaves only choose relays they can pull
+     * from.
+     */
+    public Object instantiateRelayServer( final GraphDatabaseAPI graphDb )
+    {
+        final TxChecksumVerifier verifier = new BranchDetectingTxVerifier( graphDb );
+        MasterServer server = new MasterServer( new RelayMaster( graphDb ),
+                Machine.splitIpAndPort( haServer ).other(), graphDb.getMessageLog(),
+                conf.getInteger( max_concurrent_channels_per_slave ),
+                clientLockReadTimeout, new TxChecksumVerifier()
+                {
+                    @Override
+                    public void assertMatch( long txId, int masterId, long checksum )
+                    {
+                        // A slave that is ahead of this relay gets nothing from it, the master verifies it
+                        if ( txId <= graphDb.getXaDataSourceManager().getNeoStoreDataSource().getLastCommittedTxId() )
+                        {
+                            verifier.assertMatch( txId, masterId, checksum );
+                        }
+                    }
+                } )
+        {
+            @Override
+            public void shutdown()
+            {
+                advertiseRelay( false );
+                super.shutdown();
+            }
+        };
+        advertiseRelay( true );
+        return server;
+    }
+
+    private synchronized void advertiseRelay( boolean relay )
+    {
+        relaying = relay;
+        String machinePath = rootPath + "/" + HA_SERVERS_CHILD + "/" + machineId;
+        try
+        {
+            zooKeeper.setData( machinePath, haServerAsData(), -1 );
+            msgLog.logMessage( ( relay ? "Advertised" : "Stopped advertising" ) + " relay server " + haServer );
+        }
+        catch ( KeeperException e )
+        {
+            if ( relay ) throw new ZooKeeperException( "Couldn't advertise relay server", e );
+            // Going down, the HA server node goes away with the session anyway
+            msgLog.logMessage( "Couldn't stop advertising relay server", e );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.interrupted();
+            throw new ZooKeeperException( "Interrupted.", e );
+        }
+    }
+
+    /**
+     * Returns the machine to pull updates from, a relaying slave if
+     * {@link HaSettings#pull_from_relays} is set and there is one that is at
+     * least as far ahead as this machine, otherwise the master. Only relays
+     * whose last committed transaction was committed by the same master as
+     * according to the current master are used, so that no relay serves
+     * transactions of a branch from an earlier master. Relays on the
+     * same host as this machine are preferred, then the one with the highest
+     * committed transaction. The choice is kept for
+     * {@link #RELAY_REEVALUATION_INTERVAL} milliseconds, or until the master
+     * changes. Relays themselves always pull from the master, so that there
+     * are never more than two hops from it.
+     */
+    public Pair<Master, Machine> getUpdateSource()
+    {
+        Pair<Master, Machine> master = getCachedMaster();
+        if ( !pullFromRelays || relayUpdates || master.other() == Machine.NO_MACHINE )
+        {
+            return master;
+        }
+        synchronized ( relayLock )
+        {
+            if ( relayChosenForMaster != master.other().getMachineId()
+                 || System.currentTimeMillis() - relayChosenAt >= RELAY_REEVALUATION_INTERVAL )
+            {
+                chooseRelay( master );
+            }
+            return relay != null ? relay : master;
+        }
+    }
+
+    private void chooseRelay( final Pair<Master, Machine> master )
+    {
+        relayChosenForMaster = master.other().getMachineId();
+        relayChosenAt = System.currentTimeMillis();
+        Machine best = null;
+        try
+        {
+            Map<Integer, ZooKeeperMachine> machines = getAllMachines( false );
+            ZooKeeperMachine me = machines.get( machineId );
+            long myLastCommittedTx = me != null ? me.getLastCommittedTxId() : committedTx;
+            best = chooseRelay( machines.values(), machineId, master.other().getMachineId(), myLastCommittedTx,
+                    Machine.splitIpAndPort( haServer ).first(), new Predicate<Machine>()
+                    {
+                        @Override
+                        public boolean accept( Machine machine )
+                        {
+                            return isRelay( machine.getMachineId(), false )
+                                   && isOnBranchOf( master.first(), machine );
+                        }
+                    } );
+        }
+        catch ( ZooKeeperException e )
+        {
+            msgLog.logMessage( "Couldn't look for a relay to pull updates from, using the master", e );
+        }
+        if ( relay != null && ( best == null || best.getMachineId() != relay.other().getMachineId() ) )
+        {
+            dropRelay();
+        }
+        if ( best != null && relay == null )
+        {
+            relay = Pair.of( getMasterClientToMachine( best ), best );
+            msgLog.logMessage( "Pulling updates from relay " + best );
+        }
+    }
+
+    /**
+     * @return the relay to pull updates from among {@code machines}, or
+     *         {@code null} for the master: one other than this machine and
+     *         the master, that is at least as far ahead as this machine and
+     *         {@code usable}, on the same host as this machine if there is
+     *         one, and the furthest ahead among those. {@code usable} is only
+     *         asked about the machines that pass the rest.
+     */
+    static Machine chooseRelay( Collection<? extends Machine> machines, int myMachineId, int masterMachineId,
+            long myLastCommittedTx, String myHost, Predicate<Machine> usable )
+    {
+        List<Machine> candidates = new ArrayList<Machine>();
+        for ( Machine machine : machines )
+        {
+            if ( machine.getMachineId() == myMachineId || machine.getMachineId() == masterMachineId
+                 || machine.getServer() == null || machine.getLastCommittedTxId() < myLastCommittedTx )
+            {
+                continue;
+            }
+            candidates.add( machine );
+        }
+        Machine best = null;
+        for ( Machine machine : candidates )
+        {
+            if ( ( best == null || isCloserOrFurtherAhead( machine, best, myHost ) ) && usable.accept( machine ) )
+            {
+                best = machine;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isCloserOrFurtherAhead( Machine machine, Machine than, String myHost )
+    {
+        boolean local = machine.getServer().first().equals( myHost );
+        if ( local != than.getServer().first().equals( myHost ) ) return local;
+        return machine.getLastCommittedTxId() > than.getLastCommittedTxId();
+    }
+
+    /**
+     * Stops pulling from {@code source} if it's the relay currently in use,
+     * updates are pulled from the master until the relays are looked at
+     * again.
+     */
+    public void updateSourceFailed( Machine source )
+    {
+        synchronized ( relayLock )
+        {
+            if ( relay != null && relay.other().getMachineId() == source.getMachineId() )
+            {
+                msgLog.logMessage( "Relay " + source + " failed, pulling updates from the master" );
+                dropRelay();
+            }
+        }
+    }
+
+    private void dropRelay()
+    {
+        relay.first().shutdown();
+        relay = null;
+    }
+
     @Override
     protected int getMyMachineId()
     {
@@ -535,6 +743,7 @@ public class ZooClient extends AbstractZooKeeperManager
         buffer.putInt( backupPort );
         buffer.put( (byte) haServer.length() );
         buffer.asCharBuffer().put( haServer.toCharArray() ).flip();
+        buffer.put( buffer.position() + haServer.length() * 2, (byte) ( relaying ? 1 : 0 ) );
         byte[] actualArray = new byte[buffer.limit()];
         System.arraycopy( array, 0, actualArray, 0, actualArray.length );
         return actualArray;
@@ -683,6 +892,10 @@ public class ZooClient extends AbstractZooKeeperManager
     {
         msgLog.close();
         this.shutdown = true;
+        synchronized ( relayLock )
+        {
+            if ( relay != null ) dropRelay();
+        }
         super.shutdown();
     }
 
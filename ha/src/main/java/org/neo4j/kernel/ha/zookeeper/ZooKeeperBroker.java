@@ -194,6 +194,24 @@ public class ZooKeeperBroker extends AbstractBroker
         return zooClient.instantiateMasterServer( graphDb );
     }
 
+    @Override
+    public Object instantiateRelayServer( GraphDatabaseAPI graphDb )
+    {
+        return zooClient.instantiateRelayServer( graphDb );
+    }
+
+    @Override
+    public Pair<Master, Machine> getUpdateSource()
+    {
+        return getZooClient().getUpdateSource();
+    }
+
+    @Override
+    public void updateSourceFailed( Machine source )
+    {
+        getZooClient().updateSourceFailed( source );
+    }
+
     @Override
     public void setLastCommittedTxId( long txId )
     {
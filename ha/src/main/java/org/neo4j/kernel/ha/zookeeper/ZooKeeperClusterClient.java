@@ -30,6 +30,7 @@ import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.apache.zookeeper.ZooKeeper;
 import org.neo4j.com.Client;
 import org.neo4j.helpers.Pair;
+import org.neo4j.helpers.Predicate;
 import org.neo4j.kernel.configuration.ConfigurationDefaults;
 import org.neo4j.kernel.ha.ClusterClient;
 import org.neo4j.kernel.ha.HaSettings;
@@ -116,7 +117,17 @@ public class ZooKeeperClusterClient extends AbstractZooKeeperManager implements
     public int getBackupPort( int machineId )
     {
         int port = readHaServer( machineId, true ).other();
-        return port != 0 ? port : DEFAULT_BACKUP_PORT;
+        return port > 0 ? port : DEFAULT_BACKUP_PORT;
+    }
+
+    /**
+     * @return {@code false} if the instance has told the cluster that it
+     *         doesn't run online backup. Instances that don't say are assumed
+     *         to run it on the default port.
+     */
+    public boolean hasOnlineBackup( int machineId )
+    {
+        return readHaServer( machineId, true ).other() >= 0;
     }
 
     public Machine getMaster()
@@ -139,6 +150,36 @@ public class ZooKeeperClusterClient extends AbstractZooKeeperManager implements
         return Pair.of( masterClient, masterMachine );
     }
 
+    /**
+     * The relay is chosen like the one a slave pulls its updates from, see
+     * {@link ZooClient#chooseRelay(java.util.Collection, int, int, long, String, Predicate)},
+     * except that there is no host to prefer: among the machines that have
+     * their relay server up and aren't on a branch of an earlier master, the
+     * one furthest ahead.
+     */
+    public Pair<Master, Machine> getStoreCopySource()
+    {
+        if ( readRootPath() == null )
+        {
+            return null;
+        }
+        Map<Integer, ZooKeeperMachine> machines = getAllMachines( true );
+        Machine master = getMasterBasedOn( machines.values() );
+        final Master masterClient = getMasterClientToMachine( master );
+        Machine relay = ZooClient.chooseRelay( machines.values(), -1, master.getMachineId(), -1, null,
+                new Predicate<Machine>()
+                {
+                    @Override
+                    public boolean accept( Machine machine )
+                    {
+                        return isRelay( machine.getMachineId(), true ) && isOnBranchOf( masterClient, machine );
+                    }
+                } );
+        if ( relay == null ) return Pair.of( masterClient, master );
+        masterClient.shutdown();
+        return Pair.of( getMasterClientToMachine( relay ), relay );
+    }
+
     @Override
     public String getRoot()
     {
@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Redistributes a total memory budget between the node and relationship
+ * {@link GCResistantCache}s based on what they see at runtime, instead of relying on the
+ * statically configured sizes.
+ *
+ * Every interval the misses of each cache since the last rebalance are looked at. A miss on an
+ * empty slot means the entity was purged (or never loaded), i.e. more bytes would have helped,
+ * whereas a miss on a slot occupied by another entity means a longer slot array would have helped.
+ * Bytes are moved towards the cache with the most empty slot misses per budgeted byte and slot
+ * arrays are resized to fit the number of entities the budget can hold, given the measured
+ * average entity size. The resulting values are logged as recommended configuration, and can be
+ * read through the Adaptive Cache Sizing bean.
+ *
+ * The rebalancing runs in a thread of its own, since resizing a slot array copies all of it.
+ */
+public class AdaptiveCacheSizer
+{
+    static final int SAMPLES = 1000;
+    static final float MIN_SHARE = 0.1f;
+    static final float STEP = 0.05f;
+    static final float PRESSURE_RATIO_THRESHOLD = 1.25f;
+    static final float SLOTS_PER_ENTITY = 1.5f;
+    static final float MIN_ARRAY_FRACTION = 1;
+    static final float MAX_ARRAY_FRACTION = 10;
+
+    private final GCResistantCache<?> node;
+    private final GCResistantCache<?> relationship;
+    private final long totalBudget;
+    private final long interval;
+    private final StringLogger logger;
+    private final Sample nodeSample = new Sample();
+    private final Sample relationshipSample = new Sample();
+    private volatile String recommendation = "N/A";
+    private ScheduledExecutorService rebalancer;
+
+    public AdaptiveCacheSizer( GCResistantCache<?> node, GCResistantCache<?> relationship, long intervalMillis,
+            StringLogger logger )
+    {
+        this.node = node;
+        this.relationship = relationship;
+        this.totalBudget = node.maxSize() + relationship.maxSize();
+        this.interval = intervalMillis;
+        this.logger = logger;
+        nodeSample.next( node );
+        relationshipSample.next( relationship );
+    }
+
+    /**
+     * Starts rebalancing the caches every interval.
+     */
+    public synchronized void start()
+    {
+        if ( rebalancer != null ) return;
+        rebalancer = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable task )
+            {
+                Thread thread = new Thread( task, "Adaptive cache sizer" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+        rebalancer.scheduleWithFixedDelay( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    rebalance();
+                }
+                catch ( Throwable t )
+                {
+                    // Keep rebalancing, the next time may go better
+                    logger.logMessage( "Adaptive cache sizing failed", t, true );
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS );
+    }
+
+    public synchronized void stop()
+    {
+        if ( rebalancer == null ) return;
+        rebalancer.shutdown();
+        rebalancer = null;
+    }
+
+    public synchronized void rebalance()
+    {
+        Sample.Delta nodeDelta = nodeSample.next( node );
+        Sample.Delta relDelta = relationshipSample.next( relationship );
+        int nodeAvgSize = node.sampleAverageEntitySize( SAMPLES );
+        int relAvgSize = relationship.sampleAverageEntitySize( SAMPLES );
+
+        redistributeBudget( nodeDelta, nodeAvgSize, relDelta, relAvgSize );
+        resizeArray( node, nodeDelta, nodeAvgSize );
+        resizeArray( relationship, relDelta, relAvgSize );
+
+        recommendation = String.format(
+                "node_cache_size=%s relationship_cache_size=%s node_cache_array_fraction=%.1f relationship_cache_array_fraction=%.1f " +
+                "(avg. node size:%s, avg. relationship size:%s, node hit ratio:%.1f%%, relationship hit ratio:%.1f%%)",
+                megabytes( node.maxSize() ), megabytes( relationship.maxSize() ),
+                arrayFraction( recommendedArrayLength( node, nodeAvgSize ) ),
+                arrayFraction( recommendedArrayLength( relationship, relAvgSize ) ),
+                nodeAvgSize < 0 ? "N/A" : nodeAvgSize + "b", relAvgSize < 0 ? "N/A" : relAvgSize + "b",
+                nodeDelta.hitRatio() * 100, relDelta.hitRatio() * 100 );
+        logger.logMessage( "Adaptive cache sizing recommends " + recommendation, true );
+    }
+
+    private void redistributeBudget( Sample.Delta nodeDelta, int nodeAvgSize, Sample.Delta relDelta, int relAvgSize )
+    {
+        if ( nodeAvgSize < 0 || relAvgSize < 0 )
+        {
+            return;
+        }
+        double nodePressure = (double) nodeDelta.emptySlotMisses * nodeAvgSize / node.maxSize();
+        double relPressure = (double) relDelta.emptySlotMisses * relAvgSize / relationship.maxSize();
+        if ( nodePressure > relPressure * PRESSURE_RATIO_THRESHOLD )
+        {
+            shift( relationship, node );
+        }
+        else if ( relPressure > nodePressure * PRESSURE_RATIO_THRESHOLD )
+        {
+            shift( node, relationship );
+        }
+    }
+
+    private void shift( GCResistantCache<?> from, GCResistantCache<?> to )
+    {
+        long minSize = (long) ( totalBudget * MIN_SHARE );
+        long amount = Math.min( (long) ( totalBudget * STEP ), from.maxSize() - minSize );
+        if ( amount <= 0 )
+        {
+            return;
+        }
+        // Shrink before growing so that the total never exceeds the budget
+        from.setMaxSize( from.maxSize() - amount );
+        to.setMaxSize( totalBudget - from.maxSize() );
+    }
+
+    private void resizeArray( GCResistantCache<?> cache, Sample.Delta delta, int avgSize )
+    {
+        if ( avgSize < 0 )
+        {
+            return;
+        }
+        int current = cache.arrayLength();
+        int recommended = recommendedArrayLength( cache, avgSize );
+        boolean tooShort = delta.collisionMisses > delta.emptySlotMisses && recommended > current * 1.25;
+        boolean tooLong = recommended < current / 2;
+        if ( tooShort || tooLong )
+        {
+            cache.resize( recommended );
+        }
+    }
+
+    static int recommendedArrayLength( GCResistantCache<?> cache, int avgSize )
+    {
+        int min = GCResistantCache.arrayLengthForHeapFraction( MIN_ARRAY_FRACTION );
+        int max = GCResistantCache.arrayLengthForHeapFraction( MAX_ARRAY_FRACTION );
+        if ( avgSize <= 0 )
+        {
+            return Math.max( min, Math.min( max, cache.arrayLength() ) );
+        }
+        long wanted = (long) ( cache.maxSize() / avgSize * SLOTS_PER_ENTITY );
+        return (int) Math.max( min, Math.min( max, wanted ) );
+    }
+
+    private static float arrayFraction( int arrayLength )
+    {
+        return Math.max( MIN_ARRAY_FRACTION, Math.min( MAX_ARRAY_FRACTION,
+                GCResistantCache.heapFractionForArrayLength( arrayLength ) ) );
+    }
+
+    private static String megabytes( long bytes )
+    {
+        return Math.max( 1, bytes / ( 1024 * 1024 ) ) + "M";
+    }
+
+    public String getRecommendation()
+    {
+        return recommendation;
+    }
+
+    public long getNodeCacheSize()
+    {
+        return node.maxSize();
+    }
+
+    public long getRelationshipCacheSize()
+    {
+        return relationship.maxSize();
+    }
+
+    @Override
+    public String toString()
+    {
+        return getClass().getSimpleName() + "[budget:" + megabytes( totalBudget ) + ", " + recommendation + "]";
+    }
+
+    private static class Sample
+    {
+        private long hits;
+        private long misses;
+        private long emptySlotMisses;
+        private long collisionMisses;
+
+        Delta next( GCResistantCache<?> cache )
+        {
+            long hits = cache.hitCount();
+            long misses = cache.missCount();
+            long emptySlotMisses = cache.emptySlotMissCount();
+            long collisionMisses = cache.collisionMissCount();
+            Delta delta = new Delta( hits - this.hits, misses - this.misses, emptySlotMisses - this.emptySlotMisses,
+                    collisionMisses - this.collisionMisses );
+            this.hits = hits;
+            this.misses = misses;
+            this.emptySlotMisses = emptySlotMisses;
+            this.collisionMisses = collisionMisses;
+            return delta;
+        }
+
+        static class Delta
+        {
+            final long hits;
+            final long misses;
+            final long emptySlotMisses;
+            final long collisionMisses;
+
+            Delta( long hits, long misses, long emptySlotMisses, long collisionMisses )
+            {
+                this.hits = hits;
+                this.misses = misses;
+                this.emptySlotMisses = emptySlotMisses;
+                this.collisionMisses = collisionMisses;
+            }
+
+            float hitRatio()
+            {
+                long total = hits + misses;
+                return total == 0 ? 0 : (float) hits / total;
+            }
+        }
+    }
+}
@@ -32,8 +32,8 @@ import org.neo4j.kernel.info.DiagnosticsProvider;
 public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, DiagnosticsProvider
 {
     public static final long MIN_SIZE = 1;
-    private final AtomicReferenceArray<E> cache;
-    private final long maxSize;
+    private volatile AtomicReferenceArray<E> cache;
+    private volatile long maxSize;
     private long closeToMaxSize;
     private long purgeStopSize;
     private long purgeHandoffSize;
@@ -48,6 +48,8 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
     private long totalPuts = 0;
     private long collisions = 0;
     private long purgeCount = 0;
+    private long emptySlotMisses = 0;
+    private long collisionMisses = 0;
 
     private final StringLogger logger;
     
@@ -57,10 +59,15 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
     private long purgeTime;
 
     GCResistantCache( AtomicReferenceArray<E> cache )
+    {
+        this( cache, 1024l*1024*1024 );
+    }
+
+    GCResistantCache( AtomicReferenceArray<E> cache, long maxSize )
     {
         this.cache = cache;
         this.minLogInterval = Long.MAX_VALUE;
-        this.maxSize = 1024l*1024*1024;
+        this.maxSize = maxSize;
         this.name = "test cache";
         this.logger = null;
         calculateSizes();
@@ -75,37 +82,54 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
                     "The heap fraction used by a GC resistant cache must be between 1% and 10%, not "
                             + arrayHeapFraction + "%" );
         }
-        long memToUse = (long)(((double)arrayHeapFraction) * Runtime.getRuntime().maxMemory() / 100);
-        long maxElementCount = (int) ( memToUse / 8 );
-        if ( memToUse > Integer.MAX_VALUE )
-        {
-            maxElementCount = Integer.MAX_VALUE;
-        }
         if ( maxSizeInBytes < MIN_SIZE )
         {
             throw new IllegalArgumentException( "Max size can not be " + maxSizeInBytes );
         }
 
-        this.cache = new AtomicReferenceArray<E>( (int) maxElementCount );
+        this.cache = new AtomicReferenceArray<E>( arrayLengthForHeapFraction( arrayHeapFraction ) );
         this.maxSize = maxSizeInBytes;
         this.name = name == null ? super.toString() : name;
         this.logger = logger == null ? StringLogger.SYSTEM : logger;
         calculateSizes();
     }
 
+    /**
+     * @return the number of slots an array taking up {@code arrayHeapFraction} percent of the heap has.
+     */
+    static int arrayLengthForHeapFraction( float arrayHeapFraction )
+    {
+        long memToUse = (long)(((double)arrayHeapFraction) * Runtime.getRuntime().maxMemory() / 100);
+        long maxElementCount = memToUse / 8;
+        if ( maxElementCount > Integer.MAX_VALUE )
+        {
+            maxElementCount = Integer.MAX_VALUE;
+        }
+        return (int) maxElementCount;
+    }
+
+    /**
+     * @return the percentage of the heap an array of {@code arrayLength} slots takes up.
+     */
+    static float heapFractionForArrayLength( int arrayLength )
+    {
+        return (float) ( arrayLength * 8d * 100 / Runtime.getRuntime().maxMemory() );
+    }
+
     private void calculateSizes()
     {
+        long maxSize = this.maxSize;
         this.closeToMaxSize = (long)((double)maxSize * 0.95d);
         this.purgeStopSize = (long)((double)maxSize * 0.90d);
         this.purgeHandoffSize = (long)((double)maxSize * 1.05d);
     }
     
-    private int getPosition( EntityWithSize obj )
+    private static int getPosition( AtomicReferenceArray<?> cache, EntityWithSize obj )
     {
         return (int) ( obj.getId() % cache.length() );
     }
 
-    private int getPosition( long id )
+    private static int getPosition( AtomicReferenceArray<?> cache, long id )
     {
         return (int) ( id % cache.length() );
     }
@@ -120,7 +144,8 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
             putTimeStamp = time;
             printStatistics();
         }
-        int pos = getPosition( obj );
+        AtomicReferenceArray<E> cache = this.cache;
+        int pos = getPosition( cache, obj );
         E oldObj = cache.get( pos );
         if ( oldObj != obj )
         {
@@ -170,7 +195,8 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
 
     public E remove( long id )
     {
-        int pos = getPosition( id );
+        AtomicReferenceArray<E> cache = this.cache;
+        int pos = getPosition( cache, id );
         E obj = cache.get(pos);
         if ( obj != null )
         {
@@ -184,7 +210,8 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
 
     public E get( long id )
     {
-        int pos = getPosition( id );
+        AtomicReferenceArray<E> cache = this.cache;
+        int pos = getPosition( cache, id );
         E obj = cache.get( pos );
         if ( obj != null && obj.getId() == id )
         {
@@ -192,6 +219,14 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
             return obj;
         }
         missCount++;
+        if ( obj == null )
+        {
+            emptySlotMisses++;
+        }
+        else
+        {
+            collisionMisses++;
+        }
         return null;
     }
 
@@ -247,6 +282,8 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
         long startTime = System.currentTimeMillis();
         purgeCount++;
         long sizeBefore = currentSize.get();
+        AtomicReferenceArray<E> cache = this.cache;
+        pos = Math.min( pos, cache.length() - 1 );
         try
         {
             int index = 1;
@@ -297,6 +334,7 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
 
     private void printAccurateStatistics()
     {
+        AtomicReferenceArray<E> cache = this.cache;
         int elementCount = 0;
         long actualSize = 0;
         long registeredSize = 0;
@@ -378,7 +416,8 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
 
     public void clear()
     {
-        for ( int i = 0; i <= highestIdSet.get() /*cache.length()*/; i++ )
+        AtomicReferenceArray<E> cache = this.cache;
+        for ( int i = 0; i <= highestIdSet.get() && i < cache.length(); i++ )
         {
             cache.set( i, null );
         }
@@ -421,7 +460,8 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
     @Override
     public void updateSize( E obj, int newSize )
     {
-        int pos = getPosition( obj );
+        AtomicReferenceArray<E> cache = this.cache;
+        int pos = getPosition( cache, obj );
         E existingObj = cache.get( pos );
         if ( existingObj != obj )
         {
@@ -434,4 +474,118 @@ public class GCResistantCache<E extends EntityWithSize> implements Cache<E>, Dia
             purgeFrom( pos );
         }
     }
-}
\ No newline at end of file
+
+    public long maxSize()
+    {
+        return maxSize;
+    }
+
+    public int arrayLength()
+    {
+        return cache.length();
+    }
+
+    long emptySlotMissCount()
+    {
+        return emptySlotMisses;
+    }
+
+    long collisionMissCount()
+    {
+        return collisionMisses;
+    }
+
+    /**
+     * Changes the number of bytes this cache is allowed to hold. If the new max size
+     * is lower than what the cache currently holds a purge is done right away.
+     */
+    public void setMaxSize( long maxSizeInBytes )
+    {
+        if ( maxSizeInBytes < MIN_SIZE )
+        {
+            throw new IllegalArgumentException( "Max size can not be " + maxSizeInBytes );
+        }
+        this.maxSize = maxSizeInBytes;
+        calculateSizes();
+        if ( currentSize.get() > closeToMaxSize )
+        {
+            purgeFrom( (int) Math.min( highestIdSet.get(), cache.length() - 1 ) / 2 );
+        }
+    }
+
+    /**
+     * Samples up to {@code maxSamples} slots spread out over the used part of the array and
+     * returns the average registered size of the entities found, or -1 if none were found.
+     */
+    public int sampleAverageEntitySize( int maxSamples )
+    {
+        AtomicReferenceArray<E> cache = this.cache;
+        long used = Math.min( highestIdSet.get() + 1, cache.length() );
+        int step = (int) Math.max( 1, used / maxSamples );
+        long sizes = 0;
+        int found = 0;
+        for ( int i = 0; i < used; i += step )
+        {
+            E obj = cache.get( i );
+            if ( obj != null )
+            {
+                sizes += obj.getRegisteredSize();
+                found++;
+            }
+        }
+        return found == 0 ? -1 : (int) ( sizes / found );
+    }
+
+    /**
+     * Replaces the slot array with one of {@code newLength} slots and moves all entities
+     * that fit over to it. Entities colliding in the new array are dropped. Puts happening
+     * concurrently with a resize may end up in the old array and be lost, which is fine
+     * for a cache.
+     */
+    public synchronized void resize( int newLength )
+    {
+        if ( newLength < 1 )
+        {
+            throw new IllegalArgumentException( "Array length can not be " + newLength );
+        }
+        AtomicReferenceArray<E> oldCache = this.cache;
+        if ( newLength == oldCache.length() )
+        {
+            return;
+        }
+        AtomicReferenceArray<E> newCache = new AtomicReferenceArray<E>( newLength );
+        this.cache = newCache;
+        long highestOld = Math.min( highestIdSet.get(), oldCache.length() - 1 );
+        long highest = 0;
+        for ( int i = 0; i <= highestOld; i++ )
+        {
+            E obj = oldCache.get( i );
+            if ( obj == null )
+            {
+                continue;
+            }
+            int pos = getPosition( newCache, obj );
+            if ( newCache.compareAndSet( pos, null, obj ) )
+            {
+                highest = Math.max( highest, pos );
+            }
+        }
+        setHighest( highest );
+        highestIdSet.set( Math.min( highestIdSet.get(), newLength - 1 ) );
+
+        long size = 0;
+        for ( int i = 0; i <= highestIdSet.get(); i++ )
+        {
+            E obj = newCache.get( i );
+            if ( obj != null )
+            {
+                size += obj.getRegisteredSize();
+            }
+        }
+        currentSize.set( size );
+        if ( logger != null )
+        {
+            logger.logMessage( name + " resized array " + oldCache.length() + " -> " + newLength + ", size now " + getSize( size ), true );
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.management;
+
+import org.neo4j.jmx.Description;
+import org.neo4j.jmx.ManagementInterface;
+
+@ManagementInterface( name = AdaptiveCacheSizing.NAME )
+@Description( "Information about the adaptive sizing of the GC resistant caches, if ha.gcr_cache_adaptive is set" )
+public interface AdaptiveCacheSizing
+{
+    final String NAME = "Adaptive Cache Sizing";
+
+    @Description( "Whether the GC resistant caches are adaptively sized" )
+    boolean isEnabled();
+
+    @Description( "The cache configuration recommended by the last rebalancing, "
+                  + "for starting instances with fixed cache sizes" )
+    String getRecommendation();
+
+    @Description( "The number of bytes the node cache is currently allowed to hold" )
+    long getNodeCacheSize();
+
+    @Description( "The number of bytes the relationship cache is currently allowed to hold" )
+    long getRelationshipCacheSize();
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.management;
+
+import org.neo4j.jmx.Description;
+import org.neo4j.jmx.ManagementInterface;
+
+@ManagementInterface( name = CommitTokens.NAME )
+@Description( "Information about the reads that waited for this instance to apply the writes of a commit token" )
+public interface CommitTokens
+{
+    final String NAME = "Commit Tokens";
+
+    @Description( "The number of reads that have asked for a commit token since startup" )
+    long getAwaits();
+
+    @Description( "The number of reads that had to wait for updates before their commit token was applied" )
+    long getLaggingAwaits();
+
+    @Description( "The number of reads that gave up waiting for their commit token" )
+    long getTimeouts();
+
+    @Description( "The total number of milliseconds that reads have waited for their commit tokens" )
+    long getTotalWaitTime();
+
+    @Description( "The longest number of milliseconds that a read has waited for its commit token" )
+    long getMaxWaitTime();
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.management;
+
+import org.neo4j.jmx.Description;
+import org.neo4j.jmx.ManagementInterface;
+
+@ManagementInterface( name = NetworkBuffers.NAME )
+@Description( "Information about the pooled buffers used for communicating with other instances" )
+public interface NetworkBuffers
+{
+    final String NAME = "Network Buffers";
+
+    @Description( "Summaries of the buffer pools: buffers acquired, allocated because none could be reused, "
+                  + "outstanding, dropped and the number of bytes retained for reuse" )
+    String[] getBufferPools();
+
+    @Description( "The number of buffers acquired and not yet released, in all pools" )
+    long getOutstandingBuffers();
+
+    @Description( "The number of bytes retained for reuse, in all pools" )
+    long getRetainedBytes();
+
+    @Description( "Where the outstanding buffers were acquired, if started with "
+                  + "-Dorg.neo4j.com.BufferPool.trackLeaks=true" )
+    String[] getOutstandingAcquisitions();
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.management;
+
+import org.neo4j.jmx.Description;
+import org.neo4j.jmx.ManagementInterface;
+
+@ManagementInterface( name = StoreCopy.NAME )
+@Description( "Information about the store copies and backups served by this instance" )
+public interface StoreCopy
+{
+    final String NAME = "Store Copy";
+
+    @Description( "The number of store copies and backups currently reading store files" )
+    int getActiveCopies();
+
+    @Description( "The number of bytes per second read by all store copies together during the last second" )
+    long getThroughput();
+
+    @Description( "The number of bytes per second that store copies are currently held to, "
+                  + "lower than the maximum while commit latency is high, 0 if not throttled" )
+    long getCurrentLimit();
+
+    @Description( "The configured maximum number of bytes per second for all store copies together, 0 for no limit" )
+    long getMaxBytesPerSecond();
+
+    @Description( "The total number of bytes read by store copies since startup" )
+    long getTotalBytes();
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.management;
+
+import org.neo4j.jmx.Description;
+import org.neo4j.jmx.ManagementInterface;
+
+@ManagementInterface( name = TransactionVerification.NAME )
+@Description( "Information about the background verification of transactions, enabled with the "
+              + "'async' option of the inconsistencylog transaction interceptor" )
+public interface TransactionVerification
+{
+    final String NAME = "Transaction Verification";
+
+    @Description( "Whether transactions are currently being verified in the background" )
+    boolean isEnabled();
+
+    @Description( "The number of transactions that have been verified since startup" )
+    long getVerified();
+
+    @Description( "The number of transactions that weren't verified because the verification couldn't keep up" )
+    long getDropped();
+
+    @Description( "The number of transactions that weren't verified because they weren't sampled" )
+    long getNotSampled();
+
+    @Description( "The number of transactions waiting to be verified" )
+    int getQueued();
+
+    @Description( "The number of milliseconds between the last verified transaction being committed and it being verified" )
+    long getLag();
+}
@@ -29,6 +29,7 @@ import static org.neo4j.helpers.collection.MapUtil.stringMap;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -43,6 +44,7 @@ import org.neo4j.helpers.Service;
 import org.neo4j.kernel.HighlyAvailableGraphDatabase;
 import org.neo4j.kernel.KernelExtension;
 import org.neo4j.kernel.ha.HaSettings;
+import org.neo4j.kernel.ha.backup.HaBackupProvider;
 import org.neo4j.kernel.impl.cache.CacheProvider;
 import org.neo4j.test.DbRepresentation;
 import org.neo4j.test.ha.LocalhostZooKeeperCluster;
@@ -114,6 +116,30 @@ public class TestBackupToolHa
                 backupArguments( true, "ha://localhost:2181", BACKUP_PATH, null ) ) );
     }
     
+    @Test
+    public void makeSureBackupCanBePerformedFromMasterOnly() throws Exception
+    {
+        startCluster( null );
+        List<String> args = new ArrayList<String>( Arrays.asList(
+                backupArguments( true, "ha://localhost:2181", BACKUP_PATH, null ) ) );
+        args.add( "-" + HaBackupProvider.SOURCE );
+        args.add( "master" );
+        assertEquals( 0, runBackupToolFromOtherJvmToGetExitCode( args.toArray( new String[args.size()] ) ) );
+        assertEquals( representation, DbRepresentation.of( BACKUP_PATH ) );
+    }
+
+    @Test
+    public void makeSureBackupFromSlavesEndsUpLikeTheMaster() throws Exception
+    {
+        startCluster( null );
+        List<String> args = new ArrayList<String>( Arrays.asList(
+                backupArguments( true, "ha://localhost:2181", BACKUP_PATH, null ) ) );
+        args.add( "-" + HaBackupProvider.SOURCE );
+        args.add( "slave" );
+        assertEquals( 0, runBackupToolFromOtherJvmToGetExitCode( args.toArray( new String[args.size()] ) ) );
+        assertEquals( representation, DbRepresentation.of( BACKUP_PATH ) );
+    }
+
     private void testBackupFromCluster( String clusterName, String askForCluster ) throws Exception
     {
         startCluster( clusterName );
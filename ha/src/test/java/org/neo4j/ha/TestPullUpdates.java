@@ -20,6 +20,8 @@
 package org.neo4j.ha;
 
 import static java.lang.System.currentTimeMillis;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.neo4j.test.TargetDirectory.forTest;
@@ -28,6 +30,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.neo4j.com.ComException;
+import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.kernel.EnterpriseGraphDatabaseFactory;
 import org.neo4j.kernel.HighlyAvailableGraphDatabase;
@@ -42,6 +45,9 @@ public class TestPullUpdates
     private final HighlyAvailableGraphDatabase[] dbs = new HighlyAvailableGraphDatabase[3];
     private final TargetDirectory dir = forTest( getClass() );
     private static final int PULL_INTERVAL = 100;
+    // Small enough for the transactions of a test to fill up the pipeline many times over
+    private static final int PIPELINE_MAX_BYTES = 4096;
+    private static final int MANY_TRANSACTIONS = 768;
     
     @Before
     public void doBefore() throws Exception
@@ -52,6 +58,16 @@ public class TestPullUpdates
     }
 
     private HighlyAvailableGraphDatabase newDb( int i )
+    {
+        return newDb( i, false );
+    }
+
+    private HighlyAvailableGraphDatabase newDb( int i, boolean pipelinedApply )
+    {
+        return newDb( i, pipelinedApply, false );
+    }
+
+    private HighlyAvailableGraphDatabase newDb( int i, boolean pipelinedApply, boolean batchedApply )
     {
         return (HighlyAvailableGraphDatabase) new EnterpriseGraphDatabaseFactory().
             newHighlyAvailableDatabaseBuilder( dir.directory( "" + i, true ).getAbsolutePath() ).
@@ -59,6 +75,9 @@ public class TestPullUpdates
             setConfig( HaSettings.server, "localhost:" + (6666+i) ).
             setConfig( HaSettings.coordinators, zoo.getConnectionString() ).
             setConfig( HaSettings.pull_interval, PULL_INTERVAL+"ms" ).
+            setConfig( HaSettings.pipelined_tx_apply, ""+pipelinedApply ).
+            setConfig( HaSettings.tx_apply_pipeline_max_bytes, ""+PIPELINE_MAX_BYTES ).
+            setConfig( HaSettings.batched_tx_apply, ""+batchedApply ).
             newGraphDatabase();
     }
 
@@ -82,6 +101,55 @@ public class TestPullUpdates
         awaitPropagation( 2 );
     }
 
+    @Test
+    public void pipelinedApplyCatchesUpOnManyTransactions() throws Exception
+    {
+        int master = getCurrentMaster();
+        int slave = (master + 1) % dbs.length;
+        kill( slave );
+        int transactions = MANY_TRANSACTIONS;
+        for ( int i = 1; i <= transactions; i++ ) setProperty( master, i );
+        dbs[slave] = newDb( slave, true );
+        awaitPropagation( transactions );
+    }
+
+    @Test
+    public void pipelinedApplyCatchesUpOnTransactionsSpanningDataSources() throws Exception
+    {
+        int master = getCurrentMaster();
+        int slave = (master + 1) % dbs.length;
+        kill( slave );
+        int transactions = MANY_TRANSACTIONS * 2 / 3;
+        for ( int i = 1; i <= transactions; i++ ) setIndexedProperty( master, i );
+        dbs[slave] = newDb( slave, true );
+        awaitPropagation( transactions );
+        for ( int i = 1; i <= transactions; i++ )
+        {
+            Node node = dbs[slave].index().forNodes( "nodes" ).get( "i", i ).getSingle();
+            assertNotNull( "Node " + i + " wasn't indexed", node );
+            assertEquals( i, node.getProperty( "i" ) );
+        }
+    }
+
+    @Test
+    public void batchedApplyCatchesUpOnManyTransactions() throws Exception
+    {
+        int master = getCurrentMaster();
+        int slave = (master + 1) % dbs.length;
+        kill( slave );
+        int transactions = MANY_TRANSACTIONS;
+        for ( int i = 1; i <= transactions; i++ ) setProperty( master, i );
+        dbs[slave] = newDb( slave, true, true );
+        awaitPropagation( transactions );
+
+        // The batches were forced to the log when they ended and survive a restart
+        kill( slave );
+        dbs[slave] = newDb( slave, false, true );
+        awaitPropagation( transactions );
+        setProperty( master, transactions + 1 );
+        awaitPropagation( transactions + 1 );
+    }
+
     private int awaitNewMaster( int master ) throws Exception
     {
         int newMaster = getCurrentMaster();
@@ -138,6 +206,25 @@ public class TestPullUpdates
         }
     }
 
+    private void setIndexedProperty( int dbId, int i ) throws Exception
+    {
+        awaitHasMaster( dbId );
+        HighlyAvailableGraphDatabase db = dbs[dbId];
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node node = db.createNode();
+            node.setProperty( "i", i );
+            db.index().forNodes( "nodes" ).add( node, "i", i );
+            db.getReferenceNode().setProperty( "i", i );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
     private void awaitHasMaster( int dbId ) throws Exception
     {
         HighlyAvailableGraphDatabase db = dbs[dbId];
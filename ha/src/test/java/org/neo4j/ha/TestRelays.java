@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.ha;
+
+import static java.lang.System.currentTimeMillis;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.test.TargetDirectory.forTest;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.EnterpriseGraphDatabaseFactory;
+import org.neo4j.kernel.HighlyAvailableGraphDatabase;
+import org.neo4j.kernel.ha.HaSettings;
+import org.neo4j.kernel.ha.Master;
+import org.neo4j.kernel.ha.zookeeper.Machine;
+import org.neo4j.kernel.ha.zookeeper.ZooKeeperClusterClient;
+import org.neo4j.kernel.impl.util.StringLogger;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.test.ha.LocalhostZooKeeperCluster;
+
+public class TestRelays
+{
+    private static final int MASTER = 0, RELAY = 1, SLAVE = 2, NEW_SLAVE = 3;
+    private static final int PULL_INTERVAL = 100;
+
+    private LocalhostZooKeeperCluster zoo;
+    private final HighlyAvailableGraphDatabase[] dbs = new HighlyAvailableGraphDatabase[4];
+    private final TargetDirectory dir = forTest( getClass() );
+
+    @Before
+    public void startCluster() throws Exception
+    {
+        zoo = LocalhostZooKeeperCluster.singleton().clearDataAndVerifyConnection();
+        dbs[MASTER] = newDb( MASTER, false, false );
+        awaitBecomeMaster( MASTER );
+        dbs[RELAY] = newDb( RELAY, true, false );
+        dbs[SLAVE] = newDb( SLAVE, false, true );
+    }
+
+    @After
+    public void stopCluster() throws Exception
+    {
+        for ( HighlyAvailableGraphDatabase db : dbs )
+            if ( db != null )
+                db.shutdown();
+    }
+
+    @Test
+    public void slavePullsFromTheRelayAndFallsBackToTheMasterWhenItDies() throws Exception
+    {
+        setProperty( 1 );
+        awaitPropagation( 1 );
+        awaitUpdateSource( SLAVE, RELAY );
+        setProperty( 2 );
+        awaitPropagation( 2 );
+
+        dbs[RELAY].shutdown();
+        dbs[RELAY] = null;
+        setProperty( 3 );
+        awaitPropagation( 3 );
+        assertEquals( MASTER, dbs[SLAVE].getBroker().getUpdateSource().other().getMachineId() );
+    }
+
+    @Test
+    public void newSlaveIsSeededFromTheRelayAndCatchesUpFromTheMaster() throws Exception
+    {
+        setProperty( 1 );
+        awaitPropagation( 1 );
+        awaitStoreCopySource( RELAY );
+
+        dbs[NEW_SLAVE] = newDb( NEW_SLAVE, false, false, true );
+        String messages = FileUtils.readFileToString( new File( dir.directory( "" + NEW_SLAVE, false ),
+                StringLogger.DEFAULT_NAME ) );
+        assertTrue( messages, messages.contains( "Copying store from MachineInfo[ID:" + RELAY + "," ) );
+        setProperty( 2 );
+        awaitPropagation( 2 );
+    }
+
+    private HighlyAvailableGraphDatabase newDb( int i, boolean relayUpdates, boolean pullFromRelays )
+    {
+        return newDb( i, relayUpdates, pullFromRelays, false );
+    }
+
+    private HighlyAvailableGraphDatabase newDb( int i, boolean relayUpdates, boolean pullFromRelays,
+            boolean copyFromRelays )
+    {
+        return (HighlyAvailableGraphDatabase) new EnterpriseGraphDatabaseFactory().
+            newHighlyAvailableDatabaseBuilder( dir.directory( "" + i, true ).getAbsolutePath() ).
+            setConfig( HaSettings.server_id, ""+i ).
+            setConfig( HaSettings.server, "localhost:" + (6666+i) ).
+            setConfig( HaSettings.coordinators, zoo.getConnectionString() ).
+            setConfig( HaSettings.pull_interval, PULL_INTERVAL+"ms" ).
+            setConfig( HaSettings.relay_updates, ""+relayUpdates ).
+            setConfig( HaSettings.pull_from_relays, ""+pullFromRelays ).
+            setConfig( HaSettings.copy_store_from_relays, ""+copyFromRelays ).
+            newGraphDatabase();
+    }
+
+    private void setProperty( int i )
+    {
+        HighlyAvailableGraphDatabase db = dbs[MASTER];
+        Transaction tx = db.beginTx();
+        try
+        {
+            db.getReferenceNode().setProperty( "i", i );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private void awaitPropagation( int i ) throws Exception
+    {
+        long endTime = currentTimeMillis() + 10000;
+        boolean ok = false;
+        while ( !ok && currentTimeMillis() < endTime )
+        {
+            ok = true;
+            for ( HighlyAvailableGraphDatabase db : dbs )
+            {
+                if ( db == null ) continue;
+                Object value = db.getReferenceNode().getProperty( "i", null );
+                if ( value == null || ((Integer)value).intValue() != i ) ok = false;
+            }
+            if ( !ok ) powerNap();
+        }
+        assertTrue( "Change wasn't propagated by pulling updates", ok );
+    }
+
+    private void awaitUpdateSource( int dbId, int sourceId ) throws Exception
+    {
+        long endTime = currentTimeMillis() + 30000;
+        while ( dbs[dbId].getBroker().getUpdateSource().other().getMachineId() != sourceId
+                && currentTimeMillis() < endTime ) powerNap();
+        assertEquals( sourceId, dbs[dbId].getBroker().getUpdateSource().other().getMachineId() );
+    }
+
+    private void awaitStoreCopySource( int sourceId ) throws Exception
+    {
+        ZooKeeperClusterClient client = new ZooKeeperClusterClient( zoo.getConnectionString() );
+        try
+        {
+            long endTime = currentTimeMillis() + 10000;
+            int source = -1;
+            while ( source != sourceId && currentTimeMillis() < endTime )
+            {
+                Pair<Master, Machine> copySource = client.getStoreCopySource();
+                copySource.first().shutdown();
+                source = copySource.other().getMachineId();
+                if ( source != sourceId ) powerNap();
+            }
+            assertEquals( sourceId, source );
+        }
+        finally
+        {
+            client.shutdown();
+        }
+    }
+
+    private void awaitBecomeMaster( int dbId ) throws Exception
+    {
+        HighlyAvailableGraphDatabase db = dbs[dbId];
+        long endTime = currentTimeMillis() + 10000;
+        while ( !db.isMaster() && currentTimeMillis() < endTime ) powerNap();
+        assertTrue( db.isMaster() );
+    }
+
+    private void powerNap() throws InterruptedException
+    {
+        Thread.sleep( 50 );
+    }
+}
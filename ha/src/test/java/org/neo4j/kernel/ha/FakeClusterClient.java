@@ -56,4 +56,10 @@ public class FakeClusterClient implements ClusterClient
     {
         return delegate.getMaster();
     }
+
+    @Override
+    public Pair<Master, Machine> getStoreCopySource()
+    {
+        return delegate.getUpdateSource();
+    }
 }
@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.test.TargetDirectory;
+
+public class TestCommitTokenWaiter
+{
+    @Rule
+    public final TargetDirectory.TestDirectory test = TargetDirectory.testDirForTest( TestCommitTokenWaiter.class );
+
+    private GraphDatabaseAPI db;
+    private final AtomicInteger pulls = new AtomicInteger();
+    private volatile int nodesPerPull;
+    private volatile CountDownLatch pullBlocker = new CountDownLatch( 0 );
+    private CommitTokenWaiter waiter;
+
+    @Before
+    public void startDb()
+    {
+        db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabase( test.directory().getPath() );
+        waiter = new CommitTokenWaiter( db, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                pulls.incrementAndGet();
+                try
+                {
+                    pullBlocker.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                createNodes( nodesPerPull );
+            }
+        } );
+    }
+
+    @After
+    public void stopDb()
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void doesntPullWhenAlreadyCurrent() throws Exception
+    {
+        createNodes( 3 );
+        assertTrue( waiter.await( CommitToken.of( db ), 1, TimeUnit.SECONDS ) );
+        assertEquals( 0, pulls.get() );
+        assertEquals( 1, waiter.getAwaits() );
+        assertEquals( 0, waiter.getLaggingAwaits() );
+    }
+
+    @Test
+    public void pullsUntilTheTokenIsApplied() throws Exception
+    {
+        nodesPerPull = 1;
+        assertTrue( waiter.await( tokenAhead( 3 ), 10, TimeUnit.SECONDS ) );
+        assertEquals( 3, pulls.get() );
+        assertEquals( 1, waiter.getLaggingAwaits() );
+        assertEquals( 0, waiter.getTimeouts() );
+    }
+
+    @Test
+    public void givesUpAfterTheTimeout() throws Exception
+    {
+        assertFalse( waiter.await( tokenAhead( 1 ), 50, TimeUnit.MILLISECONDS ) );
+        assertEquals( 1, waiter.getTimeouts() );
+        assertTrue( waiter.getMaxWaitMillis() >= 50 );
+    }
+
+    @Test
+    public void givesUpAfterTheTimeoutWhileItsOwnPullHangs() throws Exception
+    {
+        pullBlocker = new CountDownLatch( 1 );
+        try
+        {
+            long start = System.currentTimeMillis();
+            assertFalse( waiter.await( tokenAhead( 1 ), 100, TimeUnit.MILLISECONDS ) );
+            assertTrue( System.currentTimeMillis() - start < 5000 );
+            assertEquals( 1, pulls.get() );
+            assertEquals( 1, waiter.getTimeouts() );
+        }
+        finally
+        {
+            pullBlocker.countDown();
+        }
+    }
+
+    @Test
+    public void backsOffWhileTheTokenNamesAMissingDataSource() throws Exception
+    {
+        assertFalse( waiter.await( CommitToken.parse( "missing=1" ), 1, TimeUnit.SECONDS ) );
+        assertTrue( "Pulled " + pulls.get() + " times", pulls.get() <= 8 );
+        assertEquals( 1, waiter.getTimeouts() );
+    }
+
+    @Test
+    public void tokenSurvivesItsStringForm() throws Exception
+    {
+        CommitToken token = CommitToken.of( db );
+        assertEquals( token, CommitToken.parse( token.toString() ) );
+    }
+
+    private CommitToken tokenAhead( int transactions )
+    {
+        long lastCommitted = db.getXaDataSourceManager().getNeoStoreDataSource().getLastCommittedTxId();
+        return CommitToken.parse( Config.DEFAULT_DATA_SOURCE_NAME + "=" + ( lastCommitted + transactions ) );
+    }
+
+    private void createNodes( int count )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            Transaction tx = db.beginTx();
+            try
+            {
+                db.createNode();
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
+import org.neo4j.test.TargetDirectory;
+
+public class TestGroupCommitter
+{
+    private final TargetDirectory dir = TargetDirectory.forTest( getClass() );
+
+    @Test
+    public void publishesLastCommittedTxOncePerBatch() throws Exception
+    {
+        GroupCommitter committer = new GroupCommitter( 1024, 1000 );
+        RecordingSetter published = new RecordingSetter();
+        LastCommittedTxIdSetter setter = committer.publishAtBatchEnd( published );
+
+        setter.setLastCommittedTxId( 1 );
+        committer.begin();
+        setter.setLastCommittedTxId( 2 );
+        setter.setLastCommittedTxId( 3 );
+        assertEquals( 1, published.txIds.size() );
+        committer.end();
+        setter.setLastCommittedTxId( 4 );
+
+        assertEquals( asList( 1, 3, 4 ), published.txIds );
+    }
+
+    @Test
+    public void logsWrittenDuringBatchAreReadableAndClosable() throws Exception
+    {
+        File log = new File( dir.directory( "logs", true ), "nioneo_logical.log.1" );
+        GroupCommitter committer = new GroupCommitter( 1024, 1000 );
+        FileChannel channel = committer.logFileSystem().open( log.getPath(), "rw" );
+        committer.begin();
+        channel.write( ByteBuffer.wrap( new byte[] { 1, 2, 3 } ) );
+        channel.force( false );
+        // Rotated in the middle of the batch
+        channel.close();
+        committer.end();
+        assertEquals( 3, log.length() );
+        assertFalse( channel.isOpen() );
+    }
+
+    private static List<Long> asList( long... txIds )
+    {
+        List<Long> result = new ArrayList<Long>();
+        for ( long txId : txIds ) result.add( txId );
+        return result;
+    }
+
+    private static class RecordingSetter implements LastCommittedTxIdSetter
+    {
+        final List<Long> txIds = new ArrayList<Long>();
+
+        @Override
+        public void setLastCommittedTxId( long txId )
+        {
+            txIds.add( txId );
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
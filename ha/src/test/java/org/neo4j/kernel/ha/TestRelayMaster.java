@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.neo4j.com.Response;
+import org.neo4j.com.SlaveContext;
+import org.neo4j.com.TxExtractor;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSetting;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.helpers.Triplet;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.test.TargetDirectory;
+
+public class TestRelayMaster
+{
+    @Rule
+    public final TargetDirectory.TestDirectory test = TargetDirectory.testDirForTest( TestRelayMaster.class );
+
+    private GraphDatabaseAPI db;
+    private RelayMaster relay;
+
+    @Before
+    public void startDb()
+    {
+        db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder( test.directory().getPath() ).
+                setConfig( GraphDatabaseSettings.keep_logical_logs, GraphDatabaseSetting.TRUE ).newGraphDatabase();
+        relay = new RelayMaster( db );
+    }
+
+    @After
+    public void stopDb()
+    {
+        relay.shutdown();
+        db.shutdown();
+    }
+
+    @Test
+    public void servesTheTransactionsAfterThoseTheSlaveHas() throws Exception
+    {
+        long start = lastCommittedTx();
+        createNodes( 5 );
+        Response<Void> response = relay.pullUpdates( contextAt( start + 2 ) );
+        List<Long> txIds = new ArrayList<Long>();
+        try
+        {
+            while ( response.transactions().hasNext() )
+            {
+                Triplet<String, Long, TxExtractor> tx = response.transactions().next();
+                tx.third().extract();
+                txIds.add( tx.second() );
+            }
+        }
+        finally
+        {
+            response.close();
+        }
+        List<Long> expected = new ArrayList<Long>();
+        for ( long txId = start + 3; txId <= start + 5; txId++ ) expected.add( txId );
+        assertEquals( expected, txIds );
+    }
+
+    @Test( expected = UnsupportedOperationException.class )
+    public void refusesWhatOnlyTheMasterCanDo() throws Exception
+    {
+        relay.initializeTx( contextAt( lastCommittedTx() ) );
+    }
+
+    @Test
+    public void finishingOffTheChannelOfAGoneSlaveIsHarmless() throws Exception
+    {
+        relay.finishTransaction( contextAt( lastCommittedTx() ), false ).close();
+    }
+
+    private SlaveContext contextAt( long lastApplied )
+    {
+        return new SlaveContext( 0, 1, 0, new SlaveContext.Tx[] {
+                SlaveContext.lastAppliedTx( Config.DEFAULT_DATA_SOURCE_NAME, lastApplied ) }, 0, 0 );
+    }
+
+    private void createNodes( int count )
+    {
+        for ( int i = 0; i < count; i++ )
+        {
+            Transaction tx = db.beginTx();
+            try
+            {
+                db.createNode();
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+        }
+    }
+
+    private long lastCommittedTx()
+    {
+        return db.getXaDataSourceManager().getNeoStoreDataSource().getLastCommittedTxId();
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha.backup;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.neo4j.helpers.Predicate;
+import org.neo4j.kernel.ha.zookeeper.Machine;
+
+public class TestHaBackupProvider
+{
+    private final Machine master = machine( 1, 100, "localhost:6361" );
+
+    @Test
+    public void masterIsTheOnlySourceWithoutSlaves() throws Exception
+    {
+        assertEquals( asList( master ), HaBackupProvider.backupSources( master, new Machine[0], all() ) );
+    }
+
+    @Test
+    public void caughtUpSlavesComeBeforeTheMaster() throws Exception
+    {
+        Machine first = machine( 2, 100, "localhost:6362" ), second = machine( 3, 101, "localhost:6363" );
+        assertEquals( asList( first, second, master ),
+                HaBackupProvider.backupSources( master, new Machine[] { first, second }, all() ) );
+    }
+
+    @Test
+    public void slavesBehindTheMasterAreNotUsed() throws Exception
+    {
+        Machine behind = machine( 2, 99, "localhost:6362" ), caughtUp = machine( 3, 100, "localhost:6363" );
+        assertEquals( asList( caughtUp, master ),
+                HaBackupProvider.backupSources( master, new Machine[] { behind, caughtUp }, all() ) );
+    }
+
+    @Test
+    public void slavesWithoutOnlineBackupAreNotUsed() throws Exception
+    {
+        Machine without = machine( 2, 100, "localhost:6362" ), with = machine( 3, 100, "localhost:6363" );
+        assertEquals( asList( with, master ), HaBackupProvider.backupSources( master,
+                new Machine[] { without, with }, onlineBackupOn( with ) ) );
+    }
+
+    @Test
+    public void slavesWithoutServerAreNotUsed() throws Exception
+    {
+        Machine unknown = machine( 2, 100, null );
+        assertEquals( asList( master ),
+                HaBackupProvider.backupSources( master, new Machine[] { unknown }, all() ) );
+    }
+
+    private static Machine machine( int id, long lastCommittedTx, String server )
+    {
+        return new Machine( id, id, lastCommittedTx, 1, server );
+    }
+
+    private static Predicate<Machine> all()
+    {
+        return new Predicate<Machine>()
+        {
+            @Override
+            public boolean accept( Machine item )
+            {
+                return true;
+            }
+        };
+    }
+
+    private static Predicate<Machine> onlineBackupOn( Machine... machines )
+    {
+        final Set<Machine> with = new HashSet<Machine>();
+        Collections.addAll( with, machines );
+        return new Predicate<Machine>()
+        {
+            @Override
+            public boolean accept( Machine item )
+            {
+                return with.contains( item );
+            }
+        };
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.ha.zookeeper;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collection;
+
+import org.junit.Test;
+import org.neo4j.helpers.Predicate;
+
+public class TestRelayChoice
+{
+    private static final int ME = 1, MASTER = 2;
+    private final Machine me = machine( ME, 100, "10.0.0.1:6361" );
+    private final Machine master = machine( MASTER, 120, "10.0.0.2:6361" );
+
+    @Test
+    public void masterWithoutRelays() throws Exception
+    {
+        assertNull( choose( asList( me, master ), all() ) );
+    }
+
+    @Test
+    public void relaysBehindThisMachineAreNotUsed() throws Exception
+    {
+        Machine behind = machine( 3, 99, "10.0.0.3:6361" );
+        assertNull( choose( asList( me, master, behind ), all() ) );
+    }
+
+    @Test
+    public void relaysWithoutServerAreNotUsed() throws Exception
+    {
+        Machine unknown = machine( 3, 110, null );
+        assertNull( choose( asList( me, master, unknown ), all() ) );
+    }
+
+    @Test
+    public void furthestAheadRelayIsChosen() throws Exception
+    {
+        Machine caughtUp = machine( 3, 100, "10.0.0.3:6361" ), ahead = machine( 4, 110, "10.0.0.4:6361" );
+        assertEquals( ahead, choose( asList( me, master, caughtUp, ahead ), all() ) );
+    }
+
+    @Test
+    public void relayOnThisHostIsPreferred() throws Exception
+    {
+        Machine local = machine( 3, 100, "10.0.0.1:6362" ), ahead = machine( 4, 110, "10.0.0.4:6361" );
+        assertEquals( local, choose( asList( me, master, ahead, local ), all() ) );
+    }
+
+    @Test
+    public void unusableRelaysAreSkipped() throws Exception
+    {
+        Machine caughtUp = machine( 3, 100, "10.0.0.3:6361" );
+        // Like one that isn't relaying, or holds transactions of a branch from an earlier master
+        final Machine branched = machine( 4, 130, "10.0.0.4:6361" );
+        assertEquals( caughtUp, choose( asList( me, master, branched, caughtUp ), new Predicate<Machine>()
+        {
+            @Override
+            public boolean accept( Machine machine )
+            {
+                return machine != branched;
+            }
+        } ) );
+    }
+
+    private static Machine choose( Collection<Machine> machines, Predicate<Machine> usable )
+    {
+        return ZooClient.chooseRelay( machines, ME, MASTER, 100, "10.0.0.1", usable );
+    }
+
+    private static Machine machine( int id, long lastCommittedTx, String server )
+    {
+        return new Machine( id, id, lastCommittedTx, MASTER, server );
+    }
+
+    private static Predicate<Machine> all()
+    {
+        return new Predicate<Machine>()
+        {
+            @Override
+            public boolean accept( Machine item )
+            {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2002-2012 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+public class TestAdaptiveCacheSizer
+{
+    private GCResistantCache<Entity> nodes;
+    private GCResistantCache<Entity> relationships;
+    private AdaptiveCacheSizer sizer;
+
+    @Before
+    public void setup()
+    {
+        nodes = new GCResistantCache<Entity>( new AtomicReferenceArray<Entity>( 100 ), 2000 );
+        relationships = new GCResistantCache<Entity>( new AtomicReferenceArray<Entity>( 100 ), 2000 );
+        sizer = new AdaptiveCacheSizer( nodes, relationships, Long.MAX_VALUE, StringLogger.DEV_NULL );
+    }
+
+    @Test
+    public void shouldMoveBudgetTowardsCacheMissingMostBytes()
+    {
+        for ( int i = 0; i < 50; i++ )
+        {
+            nodes.put( new Entity( i, 10 ) );
+            relationships.put( new Entity( i, 10 ) );
+        }
+        for ( int i = 0; i < 50; i++ )
+        {
+            relationships.get( i );
+            nodes.get( 50 + i );
+        }
+
+        sizer.rebalance();
+
+        assertTrue( nodes.maxSize() > 2000 );
+        assertTrue( relationships.maxSize() < 2000 );
+        assertEquals( 4000, nodes.maxSize() + relationships.maxSize() );
+    }
+
+    @Test
+    public void shouldNotShiftBelowMinimumShare()
+    {
+        for ( int i = 0; i < 50; i++ )
+        {
+            nodes.put( new Entity( i, 10 ) );
+            relationships.put( new Entity( i, 10 ) );
+        }
+        for ( int round = 0; round < 100; round++ )
+        {
+            for ( int i = 0; i < 50; i++ )
+            {
+                nodes.get( 50 + i );
+            }
+            sizer.rebalance();
+        }
+
+        assertEquals( (long) ( 4000 * AdaptiveCacheSizer.MIN_SHARE ), relationships.maxSize() );
+        assertEquals( 4000, nodes.maxSize() + relationships.maxSize() );
+    }
+
+    @Test
+    public void shouldRebalanceInTheBackground() throws Exception
+    {
+        AdaptiveCacheSizer background = new AdaptiveCacheSizer( nodes, relationships, 10, StringLogger.DEV_NULL );
+        nodes.put( new Entity( 0, 10 ) );
+        background.start();
+        try
+        {
+            long end = System.currentTimeMillis() + 10000;
+            while ( background.getRecommendation().equals( "N/A" ) && System.currentTimeMillis() < end )
+            {
+                Thread.sleep( 10 );
+            }
+        }
+        finally
+        {
+            background.stop();
+        }
+        assertTrue( background.getRecommendation().startsWith( "node_cache_size=" ) );
+    }
+
+    @Test
+    public void shouldKeepEntitiesAndSizeWhenResizing()
+    {
+        for ( int i = 0; i < 10; i++ )
+        {
+            nodes.put( new Entity( i, 10 ) );
+        }
+
+        nodes.resize( 5 );
+
+        assertEquals( 5, nodes.arrayLength() );
+        assertEquals( 50, nodes.size() );
+        assertEquals( 0, nodes.get( 0 ).getId() );
+        assertNull( nodes.get( 9 ) );
+        assertEquals( 10, nodes.sampleAverageEntitySize( 100 ) );
+    }
+
+    @Test
+    public void shouldPurgeWhenMaxSizeIsLowered()
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            nodes.put( new Entity( i, 10 ) );
+        }
+
+        nodes.setMaxSize( 500 );
+
+        assertTrue( nodes.size() <= 500 );
+    }
+
+    private static class Entity implements EntityWithSize
+    {
+        private final long id;
+        private final int size;
+        private int registeredSize;
+
+        Entity( long id, int size )
+        {
+            this.id = id;
+            this.size = size;
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public long getId()
+        {
+            return id;
+        }
+
+        @Override
+        public void setRegisteredSize( int size )
+        {
+            this.registeredSize = size;
+        }
+
+        @Override
+        public int getRegisteredSize()
+        {
+            return registeredSize;
+        }
+    }
+}
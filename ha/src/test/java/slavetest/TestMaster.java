@@ -20,6 +20,7 @@
 package slavetest;
 
 import org.junit.Ignore;
+import org.neo4j.com.BlockChecksums;
 import org.neo4j.com.Response;
 import org.neo4j.com.SlaveContext;
 import org.neo4j.com.StoreWriter;
@@ -135,6 +136,11 @@ class TestMaster implements Master
         return actual.copyStore( context, writer );
     }
 
+    public Response<Void> copyStoreDelta( SlaveContext context, BlockChecksums checksums, StoreWriter writer )
+    {
+        return actual.copyStoreDelta( context, checksums, writer );
+    }
+
     public void shutdown()
     {
         actual.shutdown();